@@ -0,0 +1,104 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Base de données H2 en mémoire des rapports de benchmark. La table SALES contient des ventes générées de façon déterministe, pour que
+ * les mesures soient comparables d'une exécution à l'autre.
+ *
+ * @author INSER SA
+ *
+ */
+public class BenchmarkDatabase {
+
+    /** Driver JDBC */
+    public static final String DRIVER = "org.h2.Driver";
+
+    /** Utilisateur */
+    public static final String USER = "sa";
+
+    /** Mot de passe */
+    public static final String PASSWORD = "";
+
+    /** Nombre de lignes de la table SALES, environ 500 pages de PDF pour le rapport complet */
+    public static final int DEFAULT_ROWS = 25000;
+
+    /** URL de la base */
+    private final String iUrl;
+
+    /** Connexion gardée ouverte, la base en mémoire existe tant qu'elle n'est pas fermée */
+    private Connection iConnection;
+
+    /**
+     * Constructor.
+     *
+     * @param aName
+     *            nom de la base en mémoire
+     */
+    public BenchmarkDatabase(String aName) {
+        iUrl = "jdbc:h2:mem:" + aName + ";DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * Crée et remplit la table SALES.
+     *
+     * @param aRows
+     *            nombre de ventes
+     * @throws SQLException
+     *             erreur de création de la base
+     */
+    public void start(int aRows) throws SQLException {
+        iConnection = DriverManager.getConnection(iUrl, USER, PASSWORD);
+        try (Statement statement = iConnection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS SALES");
+            statement.execute("CREATE TABLE SALES (ID INT PRIMARY KEY, REGION VARCHAR(20), CATEGORY VARCHAR(20), PRODUCT VARCHAR(40),"
+                    + " SALE_DATE DATE, QUANTITY INT, AMOUNT DECIMAL(12,2))");
+            // 8 régions, 12 catégories, 200 produits, sur 3 ans
+            statement.execute("INSERT INTO SALES SELECT X, 'Region ' || MOD(X, 8), 'Category ' || MOD(X * 7, 12),"
+                    + " 'Product ' || MOD(X * 13, 200), DATEADD('DAY', MOD(X * 31, 1095), DATE '2022-01-01'), 1 + MOD(X * 17, 50),"
+                    + " CAST(MOD(X * 7919, 100000) / 100.0 AS DECIMAL(12,2)) FROM SYSTEM_RANGE(1, " + aRows + ")");
+            statement.execute("CREATE INDEX SALES_REGION ON SALES (REGION, CATEGORY)");
+        }
+    }
+
+    /**
+     * Supprime la base.
+     *
+     * @throws SQLException
+     *             erreur de fermeture
+     */
+    public void stop() throws SQLException {
+        if (iConnection != null) {
+            try (Statement statement = iConnection.createStatement()) {
+                statement.execute("SHUTDOWN");
+            }
+            iConnection = null;
+        }
+    }
+
+    /**
+     *
+     * @return URL JDBC de la base
+     */
+    public String getUrl() {
+        return iUrl;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Exécute les benchmarks avec le profiler GC (taux d'allocation et collections par opération) et écrit les résultats en JSON, pour les
+ * comparer d'une version à l'autre. Les options de la ligne de commande JMH sont acceptées, ex:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ReportBenchmark -p format=pdf -rff result.json
+ * </pre>
+ *
+ * @author INSER SA
+ *
+ */
+public class BenchmarkRunner {
+
+    /** Fichier des résultats par défaut */
+    private static final String DEFAULT_RESULT = "jmh-result.json";
+
+    /**
+     * Constructor.
+     */
+    private BenchmarkRunner() {
+        // Classe de démarrage
+    }
+
+    /**
+     * Exécute les benchmarks.
+     *
+     * @param aArgs
+     *            options JMH, ex: expression des benchmarks à exécuter
+     * @throws CommandLineOptionException
+     *             option invalide
+     * @throws RunnerException
+     *             erreur d'exécution
+     */
+    public static void main(String[] aArgs) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(aArgs);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackage().getName() + ".");
+        }
+        builder.addProfiler(GCProfiler.class);
+        if (!commandLine.getResult().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON).result(DEFAULT_RESULT);
+        }
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
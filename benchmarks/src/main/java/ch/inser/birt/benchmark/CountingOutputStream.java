@@ -0,0 +1,48 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream qui ignore les octets écrits et les compte: le rapport est mesuré sans le coût de sa copie.
+ *
+ * @author INSER SA
+ *
+ */
+public class CountingOutputStream extends OutputStream {
+
+    /** Nombre d'octets écrits */
+    private long iCount;
+
+    @Override
+    public void write(int aByte) {
+        iCount++;
+    }
+
+    @Override
+    public void write(byte[] aBytes, int aOffset, int aLength) {
+        iCount += aLength;
+    }
+
+    /**
+     *
+     * @return nombre d'octets écrits
+     */
+    public long getCount() {
+        return iCount;
+    }
+}
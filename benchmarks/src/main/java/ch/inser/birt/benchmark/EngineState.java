@@ -0,0 +1,146 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import org.eclipse.birt.report.engine.api.EngineConfig;
+import org.eclipse.birt.report.engine.api.EngineConstants;
+import org.eclipse.birt.report.model.api.activity.SemanticException;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import ch.inser.birt.core.ReportEngine;
+import ch.inser.birt.core.ReportTempJanitor;
+
+/**
+ * Etat partagé des benchmarks: base H2 en mémoire, designs générés et ReportEngine configuré comme par le BirtServlet, avec les
+ * paramètres de connexion JDBC et un répertoire temporaire nettoyé.
+ *
+ * @author INSER SA
+ *
+ */
+@State(Scope.Benchmark)
+public class EngineState {
+
+    /** Paramètres des rapports, aucun en plus des paramètres de connexion */
+    public static final Map<String, Object> NO_PARAMETERS = Collections.emptyMap();
+
+    /** Répertoire des designs et des fichiers temporaires */
+    private File iDirectory;
+
+    /** Base de données */
+    private BenchmarkDatabase iDatabase;
+
+    /** Designs */
+    private SampleDesigns iDesigns;
+
+    /** Nettoyage du répertoire temporaire */
+    private ReportTempJanitor iJanitor;
+
+    /** Le report engine */
+    private ReportEngine iEngine;
+
+    /**
+     * Démarre la base, le report engine et génère les designs.
+     *
+     * @throws IOException
+     *             erreur de création des fichiers
+     * @throws SQLException
+     *             erreur de création de la base
+     * @throws SemanticException
+     *             erreur de génération d'un design
+     */
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException, SQLException, SemanticException {
+        iDirectory = Files.createTempDirectory("is-birt-benchmark").toFile();
+        File tempo = new File(iDirectory, "tempo");
+        Files.createDirectories(tempo.toPath());
+
+        iDatabase = new BenchmarkDatabase("benchmark");
+        iDatabase.start(BenchmarkDatabase.DEFAULT_ROWS);
+
+        EngineConfig config = ReportEngine.getEngineConfig(null, null, tempo.getPath(), Level.WARNING);
+        // Driver H2 chargé par le classloader de l'application
+        config.getAppContext().put(EngineConstants.APPCONTEXT_CLASSLOADER_KEY, EngineState.class.getClassLoader());
+        iEngine = new ReportEngine(config);
+        iEngine.initParameters(BenchmarkDatabase.DRIVER, iDatabase.getUrl(), BenchmarkDatabase.USER, BenchmarkDatabase.PASSWORD);
+        iJanitor = new ReportTempJanitor(tempo, ReportTempJanitor.DEFAULT_MAX_AGE, ReportTempJanitor.DEFAULT_MAX_BYTES);
+        iJanitor.start(ReportTempJanitor.DEFAULT_INTERVAL);
+        iEngine.setTempJanitor(iJanitor);
+
+        // Après le démarrage de la plateforme Birt, qui enregistre l'extension des graphiques
+        iDesigns = new SampleDesigns(iDirectory);
+        iDesigns.generate();
+    }
+
+    /**
+     * Arrête le report engine et la base et efface les fichiers.
+     *
+     * @throws IOException
+     *             erreur d'effacement des fichiers
+     * @throws SQLException
+     *             erreur d'arrêt de la base
+     */
+    @TearDown
+    public void tearDown() throws IOException, SQLException {
+        iJanitor.stop();
+        iEngine.destroy();
+        iDatabase.stop();
+        try (Stream<Path> files = Files.walk(iDirectory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     *
+     * @return le report engine
+     */
+    public ReportEngine getEngine() {
+        return iEngine;
+    }
+
+    /**
+     *
+     * @return la base de données
+     */
+    public BenchmarkDatabase getDatabase() {
+        return iDatabase;
+    }
+
+    /**
+     * Fichier d'un design.
+     *
+     * @param aName
+     *            nom du design, ex: {@link SampleDesigns#LIST}
+     * @return le fichier .rptdesign
+     */
+    public File getDesign(String aName) {
+        return iDesigns.getDesign(aName);
+    }
+}
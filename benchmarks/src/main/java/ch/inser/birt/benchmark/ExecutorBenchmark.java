@@ -0,0 +1,118 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.inser.birt.core.ReportExecutor;
+import ch.inser.birt.util.Constants.ReportType;
+
+/**
+ * Rapports asynchrones (getReportAsync) par le ReportExecutor, avec le pool de threads classique ou des threads virtuels (Java 21+). Une
+ * opération soumet un lot de rapports et attend leur fin.
+ *
+ * @author INSER SA
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class ExecutorBenchmark {
+
+    /** Nombre de rapports d'un lot */
+    private static final int BATCH = 16;
+
+    /** <code>true</code> pour les threads virtuels */
+    @Param({ "false", "true" })
+    public boolean virtual;
+
+    /** Nombre de rapports exécutés en parallèle */
+    @Param({ "4" })
+    public int maxActive;
+
+    /** Fichier du design */
+    private File iDesign;
+
+    /** Le pool des rapports */
+    private ReportExecutor iExecutor;
+
+    /**
+     * Configure le pool du report engine.
+     *
+     * @param aState
+     *            état partagé
+     */
+    @Setup
+    public void setUp(EngineState aState) {
+        iDesign = aState.getDesign(SampleDesigns.LIST);
+        iExecutor = new ReportExecutor(maxActive, BATCH, ReportExecutor.DEFAULT_QUEUE_TIMEOUT, virtual);
+        aState.getEngine().setExecutor(iExecutor);
+    }
+
+    /**
+     * Arrête le pool.
+     *
+     * @param aState
+     *            état partagé
+     */
+    @TearDown
+    public void tearDown(EngineState aState) {
+        aState.getEngine().setExecutor(null);
+        iExecutor.shutdown();
+    }
+
+    /**
+     * Lot de rapports PDF asynchrones.
+     *
+     * @param aState
+     *            état partagé
+     * @return taille totale des rapports
+     */
+    @Benchmark
+    public long getReportAsync(EngineState aState) {
+        List<CompletableFuture<byte[]>> reports = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            reports.add(aState.getEngine().getReportAsync(iDesign, EngineState.NO_PARAMETERS, ReportType.PDF.toString(), false,
+                    Locale.ENGLISH));
+        }
+        long size = 0;
+        for (CompletableFuture<byte[]> report : reports) {
+            size += report.join().length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.birt.core.exception.BirtException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.inser.birt.core.CsvWriter;
+
+/**
+ * Extraction CSV: exécution du rapport et extraction des result sets (extractData) comparée à l'extraction directe du data set
+ * (extractDataSet), et écriture des lignes par le CsvWriter comparée à la boucle PrintStream.print d'origine.
+ *
+ * @author INSER SA
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class ExtractBenchmark {
+
+    /** Séparateur des champs */
+    private static final char SEPARATOR = ';';
+
+    /** Design, 2000 ou 25000 lignes */
+    @Param({ SampleDesigns.LIST, SampleDesigns.LARGE })
+    public String design;
+
+    /** Fichier du design */
+    private File iDesign;
+
+    /** Lignes écrites par les benchmarks CSV, du même nombre et des mêmes types que le data set */
+    private Object[][] iRows;
+
+    /**
+     * Résout le design et prépare les lignes.
+     *
+     * @param aState
+     *            état partagé
+     */
+    @Setup
+    public void setUp(EngineState aState) {
+        iDesign = aState.getDesign(design);
+        int count = SampleDesigns.LIST.equals(design) ? 2000 : BenchmarkDatabase.DEFAULT_ROWS;
+        iRows = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            iRows[i] = new Object[] { i, "Region " + i % 8, "Category \"" + i % 12 + "\"", "Product; " + i % 200,
+                    new Date(1640995200000L + i % 1095 * 86400000L), 1 + i % 50, BigDecimal.valueOf(i * 7919L % 100000, 2) };
+        }
+    }
+
+    /**
+     * Rapport exécuté dans un .rptdocument puis extraction de ses result sets.
+     *
+     * @param aState
+     *            état partagé
+     * @return taille du CSV
+     * @throws BirtException
+     *             erreur d'extraction
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Benchmark
+    public long extractData(EngineState aState) throws BirtException, IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        aState.getEngine().extractData(out, iDesign, EngineState.NO_PARAMETERS, SEPARATOR, StandardCharsets.UTF_8);
+        return out.getCount();
+    }
+
+    /**
+     * Extraction directe du data set, sans exécuter le rapport.
+     *
+     * @param aState
+     *            état partagé
+     * @return nombre de lignes
+     * @throws BirtException
+     *             erreur d'extraction
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Benchmark
+    public long extractDataSet(EngineState aState) throws BirtException, IOException {
+        return aState.getEngine().extractDataSet(new CountingOutputStream(), iDesign, "sales", EngineState.NO_PARAMETERS, SEPARATOR,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Ecriture des lignes par le CsvWriter.
+     *
+     * @return taille du CSV
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Benchmark
+    public long csvWriter() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        CsvWriter writer = new CsvWriter(out, SEPARATOR, StandardCharsets.UTF_8);
+        for (Object[] row : iRows) {
+            for (Object value : row) {
+                writer.writeField(value);
+            }
+            writer.endRecord();
+        }
+        writer.flush();
+        return out.getCount();
+    }
+
+    /**
+     * Ecriture des lignes par PrintStream.print, sans échappement, comme extractData avant le CsvWriter.
+     *
+     * @return taille du CSV
+     */
+    @Benchmark
+    public long printStream() {
+        CountingOutputStream out = new CountingOutputStream();
+        PrintStream stream = new PrintStream(out);
+        for (Object[] row : iRows) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    stream.print(SEPARATOR);
+                }
+                stream.print(row[i]);
+            }
+            stream.println();
+        }
+        stream.flush();
+        return out.getCount();
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.birt.core.ReportEngine;
+import ch.inser.birt.core.ReportHistogram;
+import ch.inser.birt.core.ReportMetrics;
+
+/**
+ * Test de charge du ReportEngine partagé: N threads génèrent en boucle des rapports tirés d'un mélange pondéré de designs et de formats,
+ * pour des niveaux de concurrence croissants. Pour chaque niveau, le débit, les percentiles de latence (global et par design et format),
+ * le temps de GC et les mesures par phase du ReportEngine sont écrits dans un fichier JSON, pour comparer les exécutions.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar ch.inser.birt.benchmark.LoadTest -threads 1,2,4,8,16 -duration 60 -warmup 10
+ *      -mix list:pdf=4,grouped:html=2,chart:pdf=1,list:excel-xlsx=1 -output load-result.json
+ * </pre>
+ *
+ * Les latences sont en microsecondes.
+ *
+ * @author INSER SA
+ *
+ */
+public class LoadTest {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(LoadTest.class);
+
+    /** Niveaux de concurrence par défaut */
+    private static final String DEFAULT_THREADS = "1,2,4,8,16";
+
+    /** Mélange par défaut, design:format=poids */
+    private static final String DEFAULT_MIX = "list:pdf=4,grouped:html=2,chart:pdf=1,list:excel-xlsx=1,grouped:doc=1";
+
+    /** Durée mesurée de chaque niveau par défaut, en secondes */
+    private static final int DEFAULT_DURATION = 60;
+
+    /** Durée de préchauffage de chaque niveau par défaut, en secondes */
+    private static final int DEFAULT_WARMUP = 10;
+
+    /** Fichier des résultats par défaut */
+    private static final String DEFAULT_OUTPUT = "load-result.json";
+
+    /** Niveaux de concurrence */
+    private final int[] iThreads;
+
+    /** Mélange des rapports */
+    private final List<Workload> iMix = new ArrayList<>();
+
+    /** Durée mesurée de chaque niveau, en secondes */
+    private final int iDuration;
+
+    /** Durée de préchauffage de chaque niveau, en secondes */
+    private final int iWarmup;
+
+    /** Fichier des résultats */
+    private final File iOutput;
+
+    /**
+     * Constructor.
+     *
+     * @param aThreads
+     *            niveaux de concurrence, séparés par des virgules
+     * @param aMix
+     *            mélange des rapports, design:format=poids séparés par des virgules
+     * @param aDuration
+     *            durée mesurée de chaque niveau, en secondes
+     * @param aWarmup
+     *            durée de préchauffage de chaque niveau, en secondes
+     * @param aOutput
+     *            fichier des résultats
+     */
+    public LoadTest(String aThreads, String aMix, int aDuration, int aWarmup, File aOutput) {
+        String[] threads = aThreads.split(",");
+        iThreads = new int[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            iThreads[i] = Integer.parseInt(threads[i].trim());
+        }
+        for (String entry : aMix.split(",")) {
+            String[] weighted = entry.trim().split("=");
+            String[] report = weighted[0].split(":");
+            if (report.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry " + entry + ", expected design:format=weight");
+            }
+            iMix.add(new Workload(report[0], report[1], weighted.length > 1 ? Integer.parseInt(weighted[1]) : 1));
+        }
+        iDuration = aDuration;
+        iWarmup = aWarmup;
+        iOutput = aOutput;
+    }
+
+    /**
+     * Exécute le test de charge.
+     *
+     * @param aArgs
+     *            options -threads, -mix, -duration, -warmup et -output
+     * @throws Exception
+     *             erreur de démarrage ou d'écriture des résultats
+     */
+    public static void main(String[] aArgs) throws Exception {
+        String threads = DEFAULT_THREADS;
+        String mix = DEFAULT_MIX;
+        int duration = DEFAULT_DURATION;
+        int warmup = DEFAULT_WARMUP;
+        String output = DEFAULT_OUTPUT;
+        for (int i = 0; i + 1 < aArgs.length; i += 2) {
+            switch (aArgs[i]) {
+                case "-threads":
+                    threads = aArgs[i + 1];
+                    break;
+                case "-mix":
+                    mix = aArgs[i + 1];
+                    break;
+                case "-duration":
+                    duration = Integer.parseInt(aArgs[i + 1]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(aArgs[i + 1]);
+                    break;
+                case "-output":
+                    output = aArgs[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + aArgs[i]
+                            + ", expected -threads, -mix, -duration, -warmup or -output");
+            }
+        }
+        new LoadTest(threads, mix, duration, warmup, new File(output)).run();
+    }
+
+    /**
+     * Démarre la base et le report engine, exécute les niveaux de concurrence et écrit les résultats.
+     *
+     * @throws Exception
+     *             erreur de démarrage ou d'écriture des résultats
+     */
+    public void run() throws Exception {
+        EngineState state = new EngineState();
+        state.setUp();
+        try {
+            ReportMetrics metrics = new ReportMetrics(0);
+            state.getEngine().setMetrics(metrics);
+            StringBuilder json = new StringBuilder(4096);
+            json.append("{\"date\":\"").append(Instant.now()).append("\",\"unit\":\"us\",\"duration\":").append(iDuration)
+                    .append(",\"warmup\":").append(iWarmup).append(",\"mix\":[");
+            for (int i = 0; i < iMix.size(); i++) {
+                Workload workload = iMix.get(i);
+                json.append(i == 0 ? "" : ",").append("{\"report\":\"").append(workload.getName()).append("\",\"weight\":")
+                        .append(workload.iWeight).append('}');
+            }
+            json.append("],\"steps\":[");
+            for (int i = 0; i < iThreads.length; i++) {
+                Step step = runStep(state, metrics, iThreads[i]);
+                System.out.println(step);
+                step.appendJson(json.append(i == 0 ? "" : ","), metrics);
+            }
+            json.append("]}");
+            Files.write(iOutput.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.println("Results written to " + iOutput.getAbsolutePath());
+        } finally {
+            state.tearDown();
+        }
+    }
+
+    /**
+     * Exécute un niveau de concurrence: préchauffage, puis mesure.
+     *
+     * @param aState
+     *            base, designs et report engine
+     * @param aMetrics
+     *            mesures par phase du report engine, remises à zéro au début de la mesure
+     * @param aThreads
+     *            nombre de threads
+     * @return les résultats du niveau
+     * @throws InterruptedException
+     *             test interrompu
+     */
+    private Step runStep(EngineState aState, ReportMetrics aMetrics, int aThreads) throws InterruptedException {
+        Step step = new Step(aThreads, iMix.size());
+        int totalWeight = 0;
+        for (Workload workload : iMix) {
+            totalWeight += workload.iWeight;
+        }
+        int weights = totalWeight;
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(iWarmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(iDuration);
+
+        ExecutorService pool = Executors.newFixedThreadPool(aThreads);
+        for (int t = 0; t < aThreads; t++) {
+            pool.execute(() -> {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    int index = pick(ThreadLocalRandom.current().nextInt(weights));
+                    boolean measured = now >= measureStart;
+                    step.record(index, measured, execute(aState, index, step, measured));
+                }
+            });
+        }
+
+        Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(measureStart - System.nanoTime())));
+        aMetrics.reset();
+        step.begin();
+        pool.shutdown();
+        if (!pool.awaitTermination(iDuration + 3600L, TimeUnit.SECONDS)) {
+            pool.shutdownNow();
+        }
+        step.end();
+        return step;
+    }
+
+    /**
+     * Tire un rapport du mélange.
+     *
+     * @param aRandom
+     *            nombre aléatoire entre 0 et la somme des poids
+     * @return index du rapport
+     */
+    private int pick(int aRandom) {
+        int weight = aRandom;
+        for (int i = 0; i < iMix.size(); i++) {
+            weight -= iMix.get(i).iWeight;
+            if (weight < 0) {
+                return i;
+            }
+        }
+        return iMix.size() - 1;
+    }
+
+    /**
+     * Génère un rapport, écrit dans un stream comme par le BirtServlet.
+     *
+     * @param aState
+     *            base, designs et report engine
+     * @param aIndex
+     *            index du rapport dans le mélange
+     * @param aStep
+     *            résultats du niveau, complétés par la taille du rapport ou l'erreur
+     * @param aMeasured
+     *            <code>false</code> pendant le préchauffage
+     * @return durée de la génération, en microsecondes, -1 en cas d'erreur
+     */
+    private long execute(EngineState aState, int aIndex, Step aStep, boolean aMeasured) {
+        Workload workload = iMix.get(aIndex);
+        ReportEngine engine = aState.getEngine();
+        CountingOutputStream out = new CountingOutputStream();
+        long start = System.nanoTime();
+        try {
+            engine.getReport(out, aState.getDesign(workload.iDesign), EngineState.NO_PARAMETERS, workload.iFormat, false,
+                    Locale.ENGLISH);
+        } catch (Exception e) {
+            aStep.error(workload, e);
+            return -1;
+        }
+        if (aMeasured) {
+            aStep.iBytes.addAndGet(out.getCount());
+        }
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+
+    /**
+     * Rapport du mélange.
+     */
+    private static class Workload {
+
+        /** Nom du design */
+        private final String iDesign;
+
+        /** Format de sortie */
+        private final String iFormat;
+
+        /** Poids dans le mélange */
+        private final int iWeight;
+
+        /**
+         * Constructor.
+         *
+         * @param aDesign
+         *            nom du design
+         * @param aFormat
+         *            format de sortie
+         * @param aWeight
+         *            poids dans le mélange
+         */
+        Workload(String aDesign, String aFormat, int aWeight) {
+            iDesign = aDesign;
+            iFormat = aFormat;
+            iWeight = aWeight;
+        }
+
+        /**
+         *
+         * @return design:format
+         */
+        String getName() {
+            return iDesign + ":" + iFormat;
+        }
+    }
+
+    /**
+     * Résultats d'un niveau de concurrence.
+     */
+    private class Step {
+
+        /** Nombre de threads */
+        private final int iConcurrency;
+
+        /** Latences de tous les rapports */
+        private final ReportHistogram iTotal = new ReportHistogram();
+
+        /** Latences par rapport du mélange */
+        private final ReportHistogram[] iLatencies;
+
+        /** Erreurs par rapport du mélange */
+        private final AtomicLongArray iErrors;
+
+        /** Première erreur */
+        private final AtomicReference<String> iFirstError = new AtomicReference<>();
+
+        /** Octets générés pendant la mesure */
+        private final AtomicLong iBytes = new AtomicLong();
+
+        /** Début de la mesure */
+        private long iStart;
+
+        /** Durée réelle de la mesure, jusqu'à la fin du dernier rapport, en millisecondes */
+        private long iElapsed;
+
+        /** Nombre et durée des GC au début de la mesure */
+        private long[] iGc;
+
+        /**
+         * Constructor.
+         *
+         * @param aConcurrency
+         *            nombre de threads
+         * @param aReports
+         *            nombre de rapports du mélange
+         */
+        Step(int aConcurrency, int aReports) {
+            iConcurrency = aConcurrency;
+            iLatencies = new ReportHistogram[aReports];
+            for (int i = 0; i < aReports; i++) {
+                iLatencies[i] = new ReportHistogram();
+            }
+            iErrors = new AtomicLongArray(aReports);
+        }
+
+        /**
+         * Début de la mesure.
+         */
+        void begin() {
+            iGc = gc();
+            iStart = System.nanoTime();
+        }
+
+        /**
+         * Fin de la mesure, après le dernier rapport.
+         */
+        void end() {
+            iElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - iStart);
+            long[] gc = gc();
+            iGc[0] = gc[0] - iGc[0];
+            iGc[1] = gc[1] - iGc[1];
+        }
+
+        /**
+         * Enregistre un rapport.
+         *
+         * @param aIndex
+         *            index du rapport dans le mélange
+         * @param aMeasured
+         *            <code>false</code> pendant le préchauffage
+         * @param aLatency
+         *            durée, en microsecondes, -1 en cas d'erreur
+         */
+        void record(int aIndex, boolean aMeasured, long aLatency) {
+            if (!aMeasured) {
+                return;
+            }
+            if (aLatency < 0) {
+                iErrors.incrementAndGet(aIndex);
+                return;
+            }
+            iLatencies[aIndex].record(aLatency);
+            iTotal.record(aLatency);
+        }
+
+        /**
+         * Garde la première erreur, pour le résumé.
+         *
+         * @param aWorkload
+         *            le rapport
+         * @param aError
+         *            l'erreur
+         */
+        void error(Workload aWorkload, Exception aError) {
+            if (iFirstError.compareAndSet(null, aWorkload.getName() + ": " + aError)) {
+                logger.error("Report " + aWorkload.getName() + " failed", aError);
+            }
+        }
+
+        /**
+         *
+         * @return nombre total d'erreurs
+         */
+        long getErrors() {
+            long errors = 0;
+            for (int i = 0; i < iErrors.length(); i++) {
+                errors += iErrors.get(i);
+            }
+            return errors;
+        }
+
+        /**
+         *
+         * @return rapports par seconde
+         */
+        double getThroughput() {
+            return iElapsed == 0 ? 0 : iTotal.getCount() * 1000.0 / iElapsed;
+        }
+
+        /**
+         * Ajoute les résultats en JSON.
+         *
+         * @param aJson
+         *            le JSON, complété par un objet
+         * @param aMetrics
+         *            mesures par phase du report engine
+         */
+        void appendJson(StringBuilder aJson, ReportMetrics aMetrics) {
+            aJson.append("{\"threads\":").append(iConcurrency).append(",\"elapsed\":").append(iElapsed).append(",\"reports\":")
+                    .append(iTotal.getCount()).append(",\"errors\":").append(getErrors()).append(",\"throughput\":")
+                    .append(String.format(Locale.ROOT, "%.3f", getThroughput())).append(",\"bytes\":").append(iBytes.get())
+                    .append(",\"gcCount\":").append(iGc[0]).append(",\"gcTime\":").append(iGc[1]).append(",\"latency\":");
+            iTotal.appendJson(aJson).append(",\"reportsByType\":{");
+            for (int i = 0; i < iMix.size(); i++) {
+                aJson.append(i == 0 ? "" : ",").append('"').append(iMix.get(i).getName()).append("\":{\"errors\":")
+                        .append(iErrors.get(i)).append(",\"latency\":");
+                iLatencies[i].appendJson(aJson).append('}');
+            }
+            aJson.append("},\"engine\":").append(aMetrics.getJson()).append('}');
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "threads=%d reports=%d errors=%d throughput=%.2f/s p50=%dus p99=%dus max=%dus gc=%dms",
+                    iConcurrency, iTotal.getCount(), getErrors(), getThroughput(), iTotal.getPercentile(50), iTotal.getPercentile(99),
+                    iTotal.getMax(), iGc[1]);
+        }
+    }
+
+    /**
+     *
+     * @return nombre et durée totale des GC depuis le démarrage de la JVM
+     */
+    private static long[] gc() {
+        long[] gc = new long[2];
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc[0] += Math.max(0, bean.getCollectionCount());
+            gc[1] += Math.max(0, bean.getCollectionTime());
+        }
+        return gc;
+    }
+}
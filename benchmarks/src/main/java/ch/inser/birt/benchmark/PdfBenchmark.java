@@ -0,0 +1,165 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.birt.report.engine.api.EngineException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.inser.birt.core.ReportEngine;
+import ch.inser.birt.util.Constants.ReportType;
+import ch.inser.jsl.exceptions.ISException;
+
+/**
+ * PDF sécurisé d'environ 500 pages: effacement du Creator pendant le rendu (writeSecurePDF, getSecureReport) comparé à la relecture du
+ * PDF par removeCreatorAttribute, seule ou après la génération.
+ *
+ * @author INSER SA
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 30)
+@Measurement(iterations = 3, time = 60)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class PdfBenchmark {
+
+    /** Fichier du design */
+    private File iDesign;
+
+    /** PDF généré, avec Creator */
+    private byte[] iPdf;
+
+    /** ReportEngine.removeCreatorAttribute(byte[]), privé */
+    private Method iRemoveCreator;
+
+    /**
+     * Génère le PDF de référence.
+     *
+     * @param aState
+     *            état partagé
+     * @throws EngineException
+     *             erreur de génération
+     * @throws SQLException
+     *             erreur de lecture du design
+     * @throws NoSuchMethodException
+     *             removeCreatorAttribute n'existe plus
+     */
+    @Setup
+    public void setUp(EngineState aState) throws EngineException, SQLException, NoSuchMethodException {
+        iDesign = aState.getDesign(SampleDesigns.LARGE);
+        iPdf = aState.getEngine().getReport(iDesign, EngineState.NO_PARAMETERS, ReportType.PDF.toString(), false, Locale.ENGLISH)
+                .toByteArray();
+        iRemoveCreator = ReportEngine.class.getDeclaredMethod("removeCreatorAttribute", byte[].class);
+        iRemoveCreator.setAccessible(true);
+    }
+
+    /**
+     * PDF écrit dans le stream de sortie, Creator effacé pendant le rendu.
+     *
+     * @param aState
+     *            état partagé
+     * @return taille du PDF
+     * @throws ISException
+     *             erreur de génération
+     */
+    @Benchmark
+    public long writeSecurePDF(EngineState aState) throws ISException {
+        CountingOutputStream out = new CountingOutputStream();
+        aState.getEngine().writeSecurePDF(out, iDesign, EngineState.NO_PARAMETERS, Locale.ENGLISH);
+        return out.getCount();
+    }
+
+    /**
+     * PDF en mémoire, Creator effacé pendant le rendu.
+     *
+     * @param aState
+     *            état partagé
+     * @return le PDF
+     * @throws ISException
+     *             erreur de génération
+     */
+    @Benchmark
+    public byte[] getSecureReport(EngineState aState) throws ISException {
+        return aState.getEngine().getSecureReport(iDesign, EngineState.NO_PARAMETERS, ReportType.PDF.toString(), false, Locale.ENGLISH);
+    }
+
+    /**
+     * PDF en mémoire puis relu par removeCreatorAttribute, comme avant l'effacement pendant le rendu.
+     *
+     * @param aState
+     *            état partagé
+     * @return le PDF
+     * @throws ReflectiveOperationException
+     *             erreur de removeCreatorAttribute
+     * @throws EngineException
+     *             erreur de génération
+     * @throws SQLException
+     *             erreur de lecture du design
+     */
+    @Benchmark
+    public byte[] getReportAndRemoveCreator(EngineState aState) throws ReflectiveOperationException, EngineException, SQLException {
+        byte[] pdf = aState.getEngine()
+                .getReport(iDesign, EngineState.NO_PARAMETERS, ReportType.PDF.toString(), false, Locale.ENGLISH).toByteArray();
+        return removeCreator(aState, pdf);
+    }
+
+    /**
+     * Relecture seule du PDF par removeCreatorAttribute.
+     *
+     * @param aState
+     *            état partagé
+     * @return le PDF
+     * @throws ReflectiveOperationException
+     *             erreur de removeCreatorAttribute
+     */
+    @Benchmark
+    @Warmup(iterations = 3, time = 10)
+    @Measurement(iterations = 5, time = 10)
+    public byte[] removeCreatorAttribute(EngineState aState) throws ReflectiveOperationException {
+        return removeCreator(aState, iPdf);
+    }
+
+    /**
+     * Appelle removeCreatorAttribute.
+     *
+     * @param aState
+     *            état partagé
+     * @param aPdf
+     *            le PDF
+     * @return le PDF sans Creator
+     * @throws ReflectiveOperationException
+     *             erreur de removeCreatorAttribute
+     */
+    private byte[] removeCreator(EngineState aState, byte[] aPdf) throws ReflectiveOperationException {
+        return (byte[]) iRemoveCreator.invoke(aState.getEngine(), (Object) aPdf);
+    }
+}
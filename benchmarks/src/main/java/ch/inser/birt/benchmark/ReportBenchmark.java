@@ -0,0 +1,126 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.birt.report.engine.api.EngineException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.inser.jsl.exceptions.ISException;
+
+/**
+ * Génération des rapports list, grouped et chart dans tous les formats de sortie, par les trois API du ReportEngine: rapport en mémoire,
+ * rapport écrit dans un stream et rapport sécurisé.
+ *
+ * @author INSER SA
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class ReportBenchmark {
+
+    /** Design */
+    @Param({ SampleDesigns.LIST, SampleDesigns.GROUPED, SampleDesigns.CHART })
+    public String design;
+
+    /** Format de sortie */
+    @Param({ "pdf", "html", "excel", "excel-xlsx", "doc" })
+    public String format;
+
+    /** Fichier du design */
+    private File iDesign;
+
+    /**
+     * Résout le design.
+     *
+     * @param aState
+     *            état partagé
+     */
+    @Setup
+    public void setUp(EngineState aState) {
+        iDesign = aState.getDesign(design);
+    }
+
+    /**
+     * Rapport en mémoire.
+     *
+     * @param aState
+     *            état partagé
+     * @return le rapport
+     * @throws EngineException
+     *             erreur de génération
+     * @throws SQLException
+     *             erreur de lecture du design
+     */
+    @Benchmark
+    public ByteArrayOutputStream getReport(EngineState aState) throws EngineException, SQLException {
+        return aState.getEngine().getReport(iDesign, EngineState.NO_PARAMETERS, format, false, Locale.ENGLISH);
+    }
+
+    /**
+     * Rapport écrit directement dans le stream de sortie.
+     *
+     * @param aState
+     *            état partagé
+     * @return taille du rapport
+     * @throws EngineException
+     *             erreur de génération
+     * @throws IOException
+     *             erreur d'écriture
+     * @throws SQLException
+     *             erreur de lecture du design
+     */
+    @Benchmark
+    public long streamReport(EngineState aState) throws EngineException, IOException, SQLException {
+        CountingOutputStream out = new CountingOutputStream();
+        aState.getEngine().getReport(out, iDesign, EngineState.NO_PARAMETERS, format, false, Locale.ENGLISH);
+        return out.getCount();
+    }
+
+    /**
+     * Rapport sécurisé, sans l'attribut Creator pour le PDF.
+     *
+     * @param aState
+     *            état partagé
+     * @return le rapport
+     * @throws ISException
+     *             erreur de génération
+     */
+    @Benchmark
+    public byte[] getSecureReport(EngineState aState) throws ISException {
+        return aState.getEngine().getSecureReport(iDesign, EngineState.NO_PARAMETERS, format, false, Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.birt.chart.model.ChartWithAxes;
+import org.eclipse.birt.chart.model.attribute.AxisType;
+import org.eclipse.birt.chart.model.attribute.ChartDimension;
+import org.eclipse.birt.chart.model.component.Axis;
+import org.eclipse.birt.chart.model.component.Series;
+import org.eclipse.birt.chart.model.component.impl.SeriesImpl;
+import org.eclipse.birt.chart.model.data.SeriesDefinition;
+import org.eclipse.birt.chart.model.data.impl.QueryImpl;
+import org.eclipse.birt.chart.model.data.impl.SeriesDefinitionImpl;
+import org.eclipse.birt.chart.model.impl.ChartWithAxesImpl;
+import org.eclipse.birt.chart.model.type.impl.BarSeriesImpl;
+import org.eclipse.birt.chart.model.type.impl.LineSeriesImpl;
+import org.eclipse.birt.report.model.api.CellHandle;
+import org.eclipse.birt.report.model.api.DataItemHandle;
+import org.eclipse.birt.report.model.api.DesignConfig;
+import org.eclipse.birt.report.model.api.DesignEngine;
+import org.eclipse.birt.report.model.api.ElementFactory;
+import org.eclipse.birt.report.model.api.ExtendedItemHandle;
+import org.eclipse.birt.report.model.api.LabelHandle;
+import org.eclipse.birt.report.model.api.OdaDataSetHandle;
+import org.eclipse.birt.report.model.api.OdaDataSourceHandle;
+import org.eclipse.birt.report.model.api.ReportDesignHandle;
+import org.eclipse.birt.report.model.api.ReportItemHandle;
+import org.eclipse.birt.report.model.api.RowHandle;
+import org.eclipse.birt.report.model.api.ScalarParameterHandle;
+import org.eclipse.birt.report.model.api.SessionHandle;
+import org.eclipse.birt.report.model.api.SlotHandle;
+import org.eclipse.birt.report.model.api.StructureFactory;
+import org.eclipse.birt.report.model.api.TableGroupHandle;
+import org.eclipse.birt.report.model.api.TableHandle;
+import org.eclipse.birt.report.model.api.activity.SemanticException;
+import org.eclipse.birt.report.model.api.elements.DesignChoiceConstants;
+import org.eclipse.birt.report.model.api.elements.structures.ComputedColumn;
+
+import com.ibm.icu.util.ULocale;
+
+/**
+ * Designs des benchmarks, générés par l'API de design de Birt dans un répertoire: rapport tabulaire (list), rapport groupé avec
+ * sous-totaux (grouped), rapport de graphiques (chart) et rapport de toute la table SALES, environ 500 pages de PDF (large).
+ *
+ * Comme les designs de l'application, les data sources sont liées aux paramètres jdbcDriver, jdbcUrl, jdbcUser et jdbcPassword du
+ * ReportEngine.
+ *
+ * @author INSER SA
+ *
+ */
+public class SampleDesigns {
+
+    /** Rapport tabulaire */
+    public static final String LIST = "list";
+
+    /** Rapport groupé par région et catégorie, avec sous-totaux */
+    public static final String GROUPED = "grouped";
+
+    /** Rapport de graphiques */
+    public static final String CHART = "chart";
+
+    /** Rapport de toute la table SALES */
+    public static final String LARGE = "large";
+
+    /** Nombre de ventes des rapports list et grouped */
+    private static final int SMALL_ROWS = 2000;
+
+    /** Colonnes des rapports tabulaires */
+    private static final String[] COLUMNS = { "ID", "REGION", "CATEGORY", "PRODUCT", "SALE_DATE", "QUANTITY", "AMOUNT" };
+
+    /** Extension ODA JDBC */
+    private static final String JDBC_EXTENSION = "org.eclipse.birt.report.data.oda.jdbc";
+
+    /** Répertoire des designs */
+    private final File iDirectory;
+
+    /**
+     * Constructor.
+     *
+     * @param aDirectory
+     *            répertoire des designs
+     */
+    public SampleDesigns(File aDirectory) {
+        iDirectory = aDirectory;
+    }
+
+    /**
+     * Génère tous les designs.
+     *
+     * @throws IOException
+     *             erreur d'écriture d'un design
+     * @throws SemanticException
+     *             erreur de construction d'un design
+     */
+    public void generate() throws IOException, SemanticException {
+        SessionHandle session = new DesignEngine(new DesignConfig()).newSessionHandle(ULocale.ENGLISH);
+        save(list(session, LIST, "select * from SALES where ID <= " + SMALL_ROWS + " order by ID"), LIST);
+        save(grouped(session), GROUPED);
+        save(charts(session), CHART);
+        save(list(session, LARGE, "select * from SALES order by ID"), LARGE);
+    }
+
+    /**
+     * Fichier d'un design.
+     *
+     * @param aName
+     *            nom du design, ex: {@link #LIST}
+     * @return le fichier .rptdesign
+     */
+    public File getDesign(String aName) {
+        return new File(iDirectory, aName + ".rptdesign");
+    }
+
+    /**
+     * Enregistre un design.
+     *
+     * @param aDesign
+     *            le design
+     * @param aName
+     *            nom du design
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private void save(ReportDesignHandle aDesign, String aName) throws IOException {
+        try {
+            aDesign.saveAs(getDesign(aName).getPath());
+        } finally {
+            aDesign.close();
+        }
+    }
+
+    /**
+     * Crée un design avec les paramètres de connexion et sa data source.
+     *
+     * @param aSession
+     *            session de design
+     * @return le design
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static ReportDesignHandle create(SessionHandle aSession) throws SemanticException {
+        ReportDesignHandle design = aSession.createDesign();
+        ElementFactory factory = design.getElementFactory();
+        String[][] bindings = { { "jdbcDriver", "odaDriverClass" }, { "jdbcUrl", "odaURL" }, { "jdbcUser", "odaUser" },
+                { "jdbcPassword", "odaPassword" } };
+        OdaDataSourceHandle source = factory.newOdaDataSource("sales", JDBC_EXTENSION);
+        for (String[] binding : bindings) {
+            ScalarParameterHandle parameter = factory.newScalarParameter(binding[0]);
+            parameter.setDataType(DesignChoiceConstants.PARAM_TYPE_STRING);
+            parameter.setHidden(true);
+            parameter.setAllowBlank(true);
+            design.getParameters().add(parameter);
+            source.setPropertyBinding(binding[1], "params[\"" + binding[0] + "\"].value");
+        }
+        design.getDataSources().add(source);
+        return design;
+    }
+
+    /**
+     * Ajoute un data set.
+     *
+     * @param aDesign
+     *            le design
+     * @param aName
+     *            nom du data set
+     * @param aQuery
+     *            requête SQL
+     * @return le data set
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static OdaDataSetHandle dataSet(ReportDesignHandle aDesign, String aName, String aQuery) throws SemanticException {
+        OdaDataSetHandle dataSet = aDesign.getElementFactory().newOdaDataSet(aName, JDBC_EXTENSION + ".JdbcSelectDataSet");
+        dataSet.setDataSource("sales");
+        dataSet.setQueryText(aQuery);
+        aDesign.getDataSets().add(dataSet);
+        return dataSet;
+    }
+
+    /**
+     * Ajoute la liaison d'une colonne du data set à un élément.
+     *
+     * @param aItem
+     *            tableau ou graphique
+     * @param aColumn
+     *            colonne du data set
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static void bind(ReportItemHandle aItem, String aColumn) throws SemanticException {
+        ComputedColumn column = StructureFactory.createComputedColumn();
+        column.setName(aColumn);
+        column.setExpression("dataSetRow[\"" + aColumn + "\"]");
+        aItem.addColumnBinding(column, false);
+    }
+
+    /**
+     * Ajoute la somme des montants d'un groupe ou de tout le tableau.
+     *
+     * @param aTable
+     *            le tableau
+     * @param aName
+     *            nom de la liaison
+     * @param aGroup
+     *            nom du groupe, <code>null</code> pour le total
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static void sum(TableHandle aTable, String aName, String aGroup) throws SemanticException {
+        ComputedColumn column = StructureFactory.createComputedColumn();
+        column.setName(aName);
+        column.setDataType(DesignChoiceConstants.COLUMN_DATA_TYPE_DECIMAL);
+        column.setAggregateFunction("SUM");
+        column.setExpression("dataSetRow[\"AMOUNT\"]");
+        if (aGroup != null) {
+            column.setAggregateOn(aGroup);
+        }
+        aTable.addColumnBinding(column, false);
+    }
+
+    /**
+     * Crée un tableau des colonnes de ventes, avec une ligne de titres et une ligne de détail.
+     *
+     * @param aDesign
+     *            le design
+     * @param aDataSet
+     *            le data set
+     * @param aFooters
+     *            nombre de lignes de pied de tableau
+     * @return le tableau
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static TableHandle table(ReportDesignHandle aDesign, OdaDataSetHandle aDataSet, int aFooters) throws SemanticException {
+        ElementFactory factory = aDesign.getElementFactory();
+        TableHandle table = factory.newTableItem("sales", COLUMNS.length, 1, 1, aFooters);
+        table.setWidth("100%");
+        table.setDataSet(aDataSet);
+        RowHandle header = (RowHandle) table.getHeader().get(0);
+        RowHandle detail = (RowHandle) table.getDetail().get(0);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            bind(table, COLUMNS[i]);
+            LabelHandle label = factory.newLabel(null);
+            label.setText(COLUMNS[i]);
+            ((CellHandle) header.getCells().get(i)).getContent().add(label);
+            ((CellHandle) detail.getCells().get(i)).getContent().add(data(aDesign, COLUMNS[i]));
+        }
+        return table;
+    }
+
+    /**
+     * Crée un élément de données.
+     *
+     * @param aDesign
+     *            le design
+     * @param aBinding
+     *            nom de la liaison affichée
+     * @return l'élément
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static DataItemHandle data(ReportDesignHandle aDesign, String aBinding) throws SemanticException {
+        DataItemHandle data = aDesign.getElementFactory().newDataItem(null);
+        data.setResultSetColumn(aBinding);
+        return data;
+    }
+
+    /**
+     * Rapport tabulaire.
+     *
+     * @param aSession
+     *            session de design
+     * @param aName
+     *            nom du rapport
+     * @param aQuery
+     *            requête des ventes
+     * @return le design
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static ReportDesignHandle list(SessionHandle aSession, String aName, String aQuery) throws SemanticException {
+        ReportDesignHandle design = create(aSession);
+        design.setTitle(aName);
+        design.getBody().add(table(design, dataSet(design, "sales", aQuery), 0));
+        return design;
+    }
+
+    /**
+     * Rapport groupé par région et catégorie, avec un sous-total par groupe et un total général.
+     *
+     * @param aSession
+     *            session de design
+     * @return le design
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static ReportDesignHandle grouped(SessionHandle aSession) throws SemanticException {
+        ReportDesignHandle design = create(aSession);
+        ElementFactory factory = design.getElementFactory();
+        OdaDataSetHandle dataSet = dataSet(design, "sales",
+                "select * from SALES where ID <= " + SMALL_ROWS + " order by REGION, CATEGORY, ID");
+        TableHandle table = table(design, dataSet, 1);
+        int amount = COLUMNS.length - 1;
+
+        String[] keys = { "REGION", "CATEGORY" };
+        for (String key : keys) {
+            TableGroupHandle group = factory.newTableGroup();
+            group.setName(key);
+            group.setKeyExpr("row[\"" + key + "\"]");
+            table.getGroups().add(group);
+
+            RowHandle header = factory.newTableRow(COLUMNS.length);
+            ((CellHandle) header.getCells().get(0)).getContent().add(data(design, key));
+            group.getHeader().add(header);
+
+            sum(table, key + "_TOTAL", key);
+            RowHandle footer = factory.newTableRow(COLUMNS.length);
+            ((CellHandle) footer.getCells().get(amount)).getContent().add(data(design, key + "_TOTAL"));
+            group.getFooter().add(footer);
+        }
+
+        sum(table, "TOTAL", null);
+        SlotHandle footers = table.getFooter();
+        ((CellHandle) ((RowHandle) footers.get(0)).getCells().get(amount)).getContent().add(data(design, "TOTAL"));
+        design.getBody().add(table);
+        return design;
+    }
+
+    /**
+     * Rapport de graphiques: totaux des ventes par région, catégorie, produit et mois, en barres et en lignes.
+     *
+     * @param aSession
+     *            session de design
+     * @return le design
+     * @throws SemanticException
+     *             erreur de construction
+     */
+    private static ReportDesignHandle charts(SessionHandle aSession) throws SemanticException {
+        ReportDesignHandle design = create(aSession);
+        String[][] charts = { { "REGION", "REGION" }, { "CATEGORY", "CATEGORY" }, { "PRODUCT", "PRODUCT" },
+                { "MONTH", "FORMATDATETIME(SALE_DATE, 'yyyy-MM')" } };
+        for (int i = 0; i < charts.length; i++) {
+            String key = charts[i][0];
+            OdaDataSetHandle dataSet = dataSet(design, key, "select " + charts[i][1] + " as " + key
+                    + ", sum(AMOUNT) as TOTAL from SALES group by " + charts[i][1] + " order by 1");
+            ExtendedItemHandle item = design.getElementFactory().newExtendedItem("chart" + key, "Chart");
+            item.setWidth("7in");
+            item.setHeight("3in");
+            item.setProperty("outputFormat", "PNG");
+            item.setDataSet(dataSet);
+            bind(item, key);
+            bind(item, "TOTAL");
+            item.getReportItem().setProperty("chart.instance", chart(key, i % 2 == 1));
+            design.getBody().add(item);
+        }
+        return design;
+    }
+
+    /**
+     * Graphique des totaux des ventes.
+     *
+     * @param aKey
+     *            liaison des catégories de l'axe X
+     * @param aLine
+     *            <code>true</code> pour un graphique en lignes, sinon en barres
+     * @return le modèle du graphique
+     */
+    private static ChartWithAxes chart(String aKey, boolean aLine) {
+        ChartWithAxes chart = ChartWithAxesImpl.create();
+        chart.setDimension(ChartDimension.TWO_DIMENSIONAL_LITERAL);
+        chart.getTitle().getLabel().getCaption().setValue("Sales by " + aKey.toLowerCase());
+        chart.getLegend().setVisible(false);
+
+        Axis xAxis = chart.getPrimaryBaseAxes()[0];
+        xAxis.setType(AxisType.TEXT_LITERAL);
+        SeriesDefinition categories = SeriesDefinitionImpl.create();
+        Series categorySeries = SeriesImpl.create();
+        categorySeries.getDataDefinition().add(QueryImpl.create("row[\"" + aKey + "\"]"));
+        categories.getSeries().add(categorySeries);
+        xAxis.getSeriesDefinitions().add(categories);
+
+        Axis yAxis = chart.getPrimaryOrthogonalAxis(xAxis);
+        yAxis.setType(AxisType.LINEAR_LITERAL);
+        SeriesDefinition values = SeriesDefinitionImpl.create();
+        Series valueSeries = aLine ? LineSeriesImpl.create() : BarSeriesImpl.create();
+        valueSeries.getDataDefinition().add(QueryImpl.create("row[\"TOTAL\"]"));
+        values.getSeries().add(valueSeries);
+        yAxis.getSeriesDefinitions().add(values);
+        return chart;
+    }
+}
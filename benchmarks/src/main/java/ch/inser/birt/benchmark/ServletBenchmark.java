@@ -0,0 +1,172 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.inser.birt.rest.init.BirtServlet;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Envoi des images des rapports HTML par le BirtServlet: copie par blocs de 64 Ko dans un buffer réutilisé (sendFile, utilisé par
+ * sendImage et sendResponse) comparée à Files.copy. sendResponse résout l'image dans report.tempo.dir du context manager de
+ * l'application, l'envoi est donc mesuré par sendFile, qui fait la même copie.
+ *
+ * @author INSER SA
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ServletBenchmark {
+
+    /** Taille de l'image, en octets */
+    @Param({ "16384", "1048576" })
+    public int size;
+
+    /** Fichier de l'image */
+    private File iImage;
+
+    /** Réponse HTTP qui compte les octets envoyés */
+    private HttpServletResponse iResponse;
+
+    /** Octets envoyés par la réponse */
+    private CountingOutputStream iOut;
+
+    /**
+     * Crée l'image et la réponse.
+     *
+     * @throws IOException
+     *             erreur d'écriture de l'image
+     */
+    @Setup
+    public void setUp() throws IOException {
+        byte[] image = new byte[size];
+        new Random(size).nextBytes(image);
+        iImage = File.createTempFile("is-birt-benchmark", ".png");
+        Files.write(iImage.toPath(), image);
+
+        iOut = new CountingOutputStream();
+        ServletOutputStream out = new ServletOutputStream() {
+
+            @Override
+            public void write(int aByte) {
+                iOut.write(aByte);
+            }
+
+            @Override
+            public void write(byte[] aBytes, int aOffset, int aLength) {
+                iOut.write(aBytes, aOffset, aLength);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener aListener) {
+                // Réponse synchrone
+            }
+        };
+        iResponse = (HttpServletResponse) Proxy.newProxyInstance(ServletBenchmark.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class },
+                (proxy, method, args) -> "getOutputStream".equals(method.getName()) ? out : null);
+    }
+
+    /**
+     * Efface l'image.
+     *
+     * @throws IOException
+     *             erreur d'effacement
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(iImage.toPath());
+    }
+
+    /**
+     * Image envoyée par sendFile.
+     *
+     * @return nombre total d'octets envoyés
+     * @throws IOException
+     *             erreur de lecture
+     */
+    @Benchmark
+    public long sendFile() throws IOException {
+        ImageServlet.send(iResponse, iImage);
+        return iOut.getCount();
+    }
+
+    /**
+     * Image copiée par Files.copy, comme sendResponse avant sendFile.
+     *
+     * @return nombre total d'octets envoyés
+     * @throws IOException
+     *             erreur de lecture
+     */
+    @Benchmark
+    public long bufferedCopy() throws IOException {
+        Files.copy(iImage.toPath(), iResponse.getOutputStream());
+        return iOut.getCount();
+    }
+
+    /**
+     * Accès à l'envoi des fichiers du BirtServlet.
+     */
+    private static class ImageServlet extends BirtServlet {
+
+        /** Serial version UID */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Envoie une image.
+         *
+         * @param aResponse
+         *            la réponse
+         * @param aImage
+         *            l'image
+         * @throws IOException
+         *             erreur de lecture
+         */
+        static void send(HttpServletResponse aResponse, File aImage) throws IOException {
+            sendFile(aResponse, aImage, "image/png", null);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output stream qui efface, pendant l'écriture du PDF par l'emitter Birt, la valeur du méta-info "Creator" (version et emplacement de Birt
+ * runtime) et du CreatorTool XMP.
+ *
+ * Les caractères de la valeur sont remplacés par des espaces: la taille du PDF ne change pas, la table xref reste donc valide, et le PDF
+ * n'est ni gardé en mémoire ni relu. Le dictionnaire Info doit être écrit non compressé, ce qui est le cas de l'emitter PDF de Birt; si
+ * aucun Creator n'a été trouvé, {@link #isStripped()} retourne <code>false</code>.
+ *
+ * @author INSER SA
+ *
+ */
+class CreatorStrippingOutputStream extends FilterOutputStream {
+
+    /** Clé du Creator dans le dictionnaire Info */
+    private static final byte[] INFO_KEY = "/Creator".getBytes(StandardCharsets.US_ASCII);
+
+    /** Balise du CreatorTool dans les méta-données XMP */
+    private static final byte[] XMP_KEY = "<xmp:CreatorTool>".getBytes(StandardCharsets.US_ASCII);
+
+    /** Recherche d'une clé */
+    private static final int SEARCH = 0;
+
+    /** Clé /Creator trouvée, en attente du début de la valeur */
+    private static final int INFO_VALUE = 1;
+
+    /** Dans une chaîne littérale (...) */
+    private static final int LITERAL = 2;
+
+    /** Dans une chaîne hexadécimale &lt;...&gt; */
+    private static final int HEX = 3;
+
+    /** Dans la valeur XMP, jusqu'à la balise fermante */
+    private static final int XMP = 4;
+
+    /** Etat courant */
+    private int iState = SEARCH;
+
+    /** Nombre d'octets de INFO_KEY déjà reconnus */
+    private int iInfoMatch;
+
+    /** Nombre d'octets de XMP_KEY déjà reconnus */
+    private int iXmpMatch;
+
+    /** Profondeur des parenthèses dans une chaîne littérale */
+    private int iDepth;
+
+    /** Caractère précédent était un échappement '\' dans une chaîne littérale */
+    private boolean iEscape;
+
+    /** <code>true</code> si une valeur Creator a été effacée */
+    private boolean iStripped;
+
+    /** Buffer de sortie, réutilisé */
+    private byte[] iBuffer = new byte[8192];
+
+    /**
+     * Constructor.
+     *
+     * @param aOut
+     *            stream du PDF
+     */
+    CreatorStrippingOutputStream(OutputStream aOut) {
+        super(aOut);
+    }
+
+    @Override
+    public void write(int aByte) throws IOException {
+        out.write(filter((byte) aByte));
+    }
+
+    @Override
+    public void write(byte[] aBytes, int aOffset, int aLength) throws IOException {
+        if (iBuffer.length < aLength) {
+            iBuffer = new byte[aLength];
+        }
+        for (int i = 0; i < aLength; i++) {
+            iBuffer[i] = filter(aBytes[aOffset + i]);
+        }
+        out.write(iBuffer, 0, aLength);
+    }
+
+    /**
+     * Filtre un octet du PDF.
+     *
+     * @param aByte
+     *            octet écrit par l'emitter
+     * @return octet à écrire
+     */
+    private byte filter(byte aByte) {
+        switch (iState) {
+            case INFO_VALUE:
+                if (aByte == '(') {
+                    iState = LITERAL;
+                    iDepth = 0;
+                    iEscape = false;
+                } else if (aByte == '<') {
+                    iState = HEX;
+                } else if (!isWhitespace(aByte)) {
+                    // Pas une chaîne (ex. référence indirecte)
+                    iState = SEARCH;
+                    return search(aByte);
+                }
+                return aByte;
+            case LITERAL:
+                return literal(aByte);
+            case HEX:
+                if (aByte == '>') {
+                    iState = SEARCH;
+                    iStripped = true;
+                    return aByte;
+                }
+                // Les espaces sont ignorés dans une chaîne hexadécimale: valeur vide
+                return ' ';
+            case XMP:
+                if (aByte == '<') {
+                    iState = SEARCH;
+                    iStripped = true;
+                    return search(aByte);
+                }
+                return ' ';
+            default:
+                return search(aByte);
+        }
+    }
+
+    /**
+     * Filtre un octet dans une chaîne littérale: tout est effacé jusqu'à la parenthèse fermante.
+     *
+     * @param aByte
+     *            octet écrit par l'emitter
+     * @return octet à écrire
+     */
+    private byte literal(byte aByte) {
+        if (iEscape) {
+            iEscape = false;
+        } else if (aByte == '\\') {
+            iEscape = true;
+        } else if (aByte == '(') {
+            iDepth++;
+        } else if (aByte == ')') {
+            if (iDepth == 0) {
+                iState = SEARCH;
+                iStripped = true;
+                return aByte;
+            }
+            iDepth--;
+        }
+        return ' ';
+    }
+
+    /**
+     * Recherche des clés, l'octet est écrit tel quel.
+     *
+     * @param aByte
+     *            octet écrit par l'emitter
+     * @return octet à écrire
+     */
+    private byte search(byte aByte) {
+        iInfoMatch = aByte == INFO_KEY[iInfoMatch] ? iInfoMatch + 1 : aByte == INFO_KEY[0] ? 1 : 0;
+        if (iInfoMatch == INFO_KEY.length) {
+            iInfoMatch = 0;
+            iXmpMatch = 0;
+            iState = INFO_VALUE;
+            return aByte;
+        }
+        iXmpMatch = aByte == XMP_KEY[iXmpMatch] ? iXmpMatch + 1 : aByte == XMP_KEY[0] ? 1 : 0;
+        if (iXmpMatch == XMP_KEY.length) {
+            iInfoMatch = 0;
+            iXmpMatch = 0;
+            iState = XMP;
+        }
+        return aByte;
+    }
+
+    /**
+     * @param aByte
+     *            octet
+     * @return <code>true</code> pour un caractère blanc PDF
+     */
+    private static boolean isWhitespace(byte aByte) {
+        return aByte == ' ' || aByte == '\r' || aByte == '\n' || aByte == '\t' || aByte == '\f' || aByte == 0;
+    }
+
+    /**
+     *
+     * @return <code>true</code> si une valeur Creator a été effacée
+     */
+    boolean isStripped() {
+        return iStripped;
+    }
+}
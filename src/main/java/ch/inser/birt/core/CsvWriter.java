@@ -0,0 +1,250 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+/**
+ * Ecriture CSV (RFC 4180) des données extraites des rapports Birt.
+ *
+ * Les champs contenant le séparateur, un guillemet ou un retour à la ligne sont entourés de guillemets, les guillemets sont doublés et
+ * les lignes se terminent par CRLF. Les valeurs sont formatées selon leur type directement dans un buffer réutilisé, puis encodées dans
+ * le charset demandé. Une valeur <code>null</code> donne un champ vide.
+ *
+ * @author INSER SA
+ *
+ */
+public class CsvWriter implements Flushable {
+
+    /** Taille du buffer, en caractères */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Format des dates java.util.Date */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** Destination encodée dans le charset demandé */
+    private final Writer iOut;
+
+    /** Séparateur des champs */
+    private final char iSeparator;
+
+    /** Buffer des caractères */
+    private final char[] iBuffer = new char[BUFFER_SIZE];
+
+    /** Position dans le buffer */
+    private int iPos;
+
+    /** <code>true</code> si le prochain champ est le premier de la ligne */
+    private boolean iFirstField = true;
+
+    /** Nombre de lignes écrites */
+    private long iRecords;
+
+    /**
+     * Constructor.
+     *
+     * @param aOut
+     *            stream de destination, pas fermé par le writer
+     * @param aSeparator
+     *            séparateur des champs, ex: <code>','</code> ou <code>'\t'</code>
+     * @param aCharset
+     *            encodage des caractères
+     */
+    public CsvWriter(OutputStream aOut, char aSeparator, Charset aCharset) {
+        iOut = new OutputStreamWriter(aOut, aCharset);
+        iSeparator = aSeparator;
+    }
+
+    /**
+     * Ecrit un champ de la ligne courante.
+     *
+     * @param aValue
+     *            la valeur
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    public void writeField(Object aValue) throws IOException {
+        if (!iFirstField) {
+            append(iSeparator);
+        }
+        iFirstField = false;
+
+        if (aValue == null) {
+            return;
+        }
+        if (aValue instanceof Integer || aValue instanceof Long || aValue instanceof Short || aValue instanceof Byte) {
+            appendLong(((Number) aValue).longValue());
+        } else if (aValue instanceof BigDecimal) {
+            appendText(((BigDecimal) aValue).toPlainString());
+        } else if (aValue instanceof java.sql.Date || aValue instanceof java.sql.Time || aValue instanceof java.sql.Timestamp) {
+            appendText(aValue.toString());
+        } else if (aValue instanceof Date) {
+            appendText(DATE_FORMAT.format(LocalDateTime.ofInstant(((Date) aValue).toInstant(), ZoneId.systemDefault())));
+        } else if (aValue instanceof Number || aValue instanceof Boolean) {
+            appendText(aValue.toString());
+        } else {
+            appendQuoted(aValue.toString());
+        }
+    }
+
+    /**
+     * Termine la ligne courante.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    public void endRecord() throws IOException {
+        append('\r');
+        append('\n');
+        iFirstField = true;
+        iRecords++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        iOut.write(iBuffer, 0, iPos);
+        iPos = 0;
+        iOut.flush();
+    }
+
+    /**
+     *
+     * @return nombre de lignes écrites, yc la ligne des titres
+     */
+    public long getRecords() {
+        return iRecords;
+    }
+
+    /**
+     * Ecrit un texte, entre guillemets s'il contient le séparateur, un guillemet ou un retour à la ligne.
+     *
+     * @param aText
+     *            le texte
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private void appendQuoted(String aText) throws IOException {
+        int length = aText.length();
+        boolean quote = false;
+        for (int i = 0; i < length && !quote; i++) {
+            char c = aText.charAt(i);
+            quote = c == iSeparator || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            appendText(aText);
+            return;
+        }
+        append('"');
+        for (int i = 0; i < length; i++) {
+            char c = aText.charAt(i);
+            if (c == '"') {
+                append('"');
+            }
+            append(c);
+        }
+        append('"');
+    }
+
+    /**
+     * Ecrit un texte sans guillemets.
+     *
+     * @param aText
+     *            le texte
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private void appendText(String aText) throws IOException {
+        int length = aText.length();
+        int start = 0;
+        while (start < length) {
+            if (iPos == iBuffer.length) {
+                drain();
+            }
+            int count = Math.min(length - start, iBuffer.length - iPos);
+            aText.getChars(start, start + count, iBuffer, iPos);
+            iPos += count;
+            start += count;
+        }
+    }
+
+    /**
+     * Ecrit un entier sans créer de String.
+     *
+     * @param aValue
+     *            l'entier
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private void appendLong(long aValue) throws IOException {
+        if (aValue == Long.MIN_VALUE) {
+            appendText(Long.toString(aValue));
+            return;
+        }
+        if (iBuffer.length - iPos < 20) {
+            drain();
+        }
+        long value = aValue;
+        if (value < 0) {
+            iBuffer[iPos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = iPos + digits - 1; i >= iPos; i--) {
+            iBuffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        iPos += digits;
+    }
+
+    /**
+     * Ecrit un caractère.
+     *
+     * @param aChar
+     *            le caractère
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private void append(char aChar) throws IOException {
+        if (iPos == iBuffer.length) {
+            drain();
+        }
+        iBuffer[iPos++] = aChar;
+    }
+
+    /**
+     * Vide le buffer dans le writer.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private void drain() throws IOException {
+        iOut.write(iBuffer, 0, iPos);
+        iPos = 0;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.core.exception.BirtException;
+import org.eclipse.birt.data.engine.api.IBaseDataSourceDesign;
+import org.eclipse.birt.data.engine.api.IOdaDataSourceDesign;
+import org.eclipse.birt.data.engine.api.IQueryResults;
+import org.eclipse.birt.data.engine.api.IResultIterator;
+import org.eclipse.birt.data.engine.api.IResultMetaData;
+import org.eclipse.birt.data.engine.api.querydefn.InputParameterBinding;
+import org.eclipse.birt.data.engine.api.querydefn.QueryDefinition;
+import org.eclipse.birt.data.engine.api.querydefn.ScriptExpression;
+import org.eclipse.birt.report.data.adapter.api.DataRequestSession;
+import org.eclipse.birt.report.data.adapter.api.DataSessionContext;
+import org.eclipse.birt.report.data.adapter.api.IModelAdapter;
+import org.eclipse.birt.report.model.api.DataSetHandle;
+import org.eclipse.birt.report.model.api.DataSetParameterHandle;
+import org.eclipse.birt.report.model.api.DataSourceHandle;
+import org.eclipse.birt.report.model.api.ModuleHandle;
+import org.eclipse.birt.report.model.api.OdaDataSetParameterHandle;
+
+/**
+ * Extraction directe d'un data set d'un design par le data engine Birt, sans exécuter le rapport ni écrire de .rptdocument: les lignes
+ * sont écrites dans le CsvWriter au fur et à mesure de la lecture.
+ *
+ * Les property bindings du data source ne sont pas évalués dans ce mode; les paramètres de connexion du ReportEngine (jdbcDriver, jdbcUrl,
+ * jdbcUser, jdbcPassword, jdbcJndi) remplacent donc les propriétés ODA correspondantes des data sources JDBC. Les paramètres du data set
+ * reçoivent la valeur du paramètre de rapport auquel ils sont liés.
+ *
+ * @author INSER SA
+ *
+ */
+class DataSetExtractor {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(DataSetExtractor.class);
+
+    /** Extension ODA des data sources JDBC */
+    private static final String JDBC_EXTENSION = "org.eclipse.birt.report.data.oda.jdbc";
+
+    /** Propriétés ODA JDBC par paramètre de connexion du ReportEngine */
+    private static final Map<String, String> ODA_PROPERTIES = new HashMap<>();
+
+    static {
+        ODA_PROPERTIES.put("jdbcDriver", "odaDriverClass");
+        ODA_PROPERTIES.put("jdbcUrl", "odaURL");
+        ODA_PROPERTIES.put("jdbcUser", "odaUser");
+        ODA_PROPERTIES.put("jdbcPassword", "odaPassword");
+        ODA_PROPERTIES.put("jdbcJndi", "odaJndiName");
+    }
+
+    /** Paramètres de connexion du ReportEngine */
+    private final Map<String, Object> iConnection;
+
+    /** Contexte applicatif de la session */
+    private final Map<Object, Object> iAppContext;
+
+    /**
+     * Constructor.
+     *
+     * @param aConnection
+     *            paramètres de connexion du ReportEngine, peut être <code>null</code>
+     * @param aAppContext
+     *            contexte applicatif de la session Birt, avec la connexion du pool éventuelle
+     */
+    DataSetExtractor(Map<String, Object> aConnection, Map<Object, Object> aAppContext) {
+        iConnection = aConnection;
+        iAppContext = aAppContext;
+    }
+
+    /**
+     * Extrait un data set.
+     *
+     * @param aModule
+     *            le design
+     * @param aDataSetName
+     *            nom du data set, <code>null</code> pour le premier data set du design
+     * @param aParameters
+     *            valeurs des paramètres du rapport, valeurs par défaut comprises
+     * @param aWriter
+     *            destination des lignes, titres compris
+     * @return nombre de lignes de données écrites
+     * @throws BirtException
+     *             erreur du data engine
+     * @throws IOException
+     *             erreur d'écriture
+     * @throws IllegalArgumentException
+     *             un paramètre multi-valeurs est lié à un paramètre du data set
+     */
+    long extract(ModuleHandle aModule, String aDataSetName, Map<String, Object> aParameters, CsvWriter aWriter)
+            throws BirtException, IOException {
+        DataSetHandle dataSet = findDataSet(aModule, aDataSetName);
+
+        DataSessionContext context = new DataSessionContext(DataSessionContext.MODE_DIRECT_PRESENTATION, aModule);
+        context.setAppContext(iAppContext);
+        DataRequestSession session = DataRequestSession.newSession(context);
+        try {
+            IModelAdapter adapter = session.getModelAdaptor();
+            DataSourceHandle dataSource = dataSet.getDataSource();
+            if (dataSource != null) {
+                IBaseDataSourceDesign source = adapter.adaptDataSource(dataSource);
+                if (source instanceof IOdaDataSourceDesign) {
+                    setConnection((IOdaDataSourceDesign) source);
+                }
+                session.defineDataSource(source);
+            }
+            session.defineDataSet(adapter.adaptDataSet(dataSet));
+
+            QueryDefinition query = new QueryDefinition();
+            query.setDataSetName(dataSet.getQualifiedName());
+            query.setAutoBinding(true);
+            bindParameters(query, dataSet, aParameters);
+
+            IQueryResults results = session.prepare(query).execute(null);
+            try {
+                return write(results.getResultIterator(), aWriter);
+            } finally {
+                results.close();
+            }
+        } finally {
+            session.shutdown();
+        }
+    }
+
+    /**
+     * Ecrit les lignes du data set.
+     *
+     * @param aIterator
+     *            résultat de la requête
+     * @param aWriter
+     *            destination des lignes
+     * @return nombre de lignes de données écrites
+     * @throws BirtException
+     *             erreur du data engine
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private static long write(IResultIterator aIterator, CsvWriter aWriter) throws BirtException, IOException {
+        try {
+            IResultMetaData metadata = aIterator.getResultMetaData();
+            int columns = metadata.getColumnCount();
+            String[] names = new String[columns];
+
+            // Les colonnes des méta-données commencent à 1
+            for (int i = 0; i < columns; i++) {
+                names[i] = metadata.getColumnName(i + 1);
+                String label = metadata.getColumnLabel(i + 1);
+                aWriter.writeField(label == null ? names[i] : label);
+            }
+            aWriter.endRecord();
+
+            long rows = 0;
+            while (aIterator.next()) {
+                for (int i = 0; i < columns; i++) {
+                    aWriter.writeField(aIterator.getValue(names[i]));
+                }
+                aWriter.endRecord();
+                rows++;
+            }
+            return rows;
+        } finally {
+            aIterator.close();
+        }
+    }
+
+    /**
+     * Recherche le data set à extraire.
+     *
+     * @param aModule
+     *            le design
+     * @param aDataSetName
+     *            nom du data set, <code>null</code> pour le premier data set du design
+     * @return le data set
+     */
+    private static DataSetHandle findDataSet(ModuleHandle aModule, String aDataSetName) {
+        DataSetHandle dataSet = null;
+        if (aDataSetName != null) {
+            dataSet = aModule.findDataSet(aDataSetName);
+        } else {
+            List<?> dataSets = aModule.getAllDataSets();
+            if (!dataSets.isEmpty()) {
+                dataSet = (DataSetHandle) dataSets.get(0);
+            }
+        }
+        if (dataSet == null) {
+            throw new IllegalArgumentException("Data set not found in " + aModule.getFileName() + ": " + aDataSetName);
+        }
+        return dataSet;
+    }
+
+    /**
+     * Remplace les propriétés de connexion d'un data source JDBC par les paramètres de connexion du ReportEngine.
+     *
+     * @param aSource
+     *            le data source adapté pour le data engine
+     */
+    private void setConnection(IOdaDataSourceDesign aSource) {
+        if (iConnection == null || !JDBC_EXTENSION.equals(aSource.getExtensionID())) {
+            return;
+        }
+        for (Map.Entry<String, String> property : ODA_PROPERTIES.entrySet()) {
+            Object value = iConnection.get(property.getKey());
+            if (value != null) {
+                try {
+                    aSource.addPublicProperty(property.getValue(), value.toString());
+                } catch (BirtException e) {
+                    logger.warn("Data source property not set: " + property.getValue(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lie les paramètres d'entrée du data set aux valeurs des paramètres du rapport.
+     *
+     * @param aQuery
+     *            la requête
+     * @param aDataSet
+     *            le data set
+     * @param aParameters
+     *            valeurs des paramètres du rapport
+     * @throws IllegalArgumentException
+     *             un paramètre lié a plusieurs valeurs
+     */
+    private static void bindParameters(QueryDefinition aQuery, DataSetHandle aDataSet, Map<String, Object> aParameters) {
+        Iterator<?> it = aDataSet.parametersIterator();
+        while (it.hasNext()) {
+            DataSetParameterHandle param = (DataSetParameterHandle) it.next();
+            if (!param.isInput()) {
+                continue;
+            }
+            String name = param.getName();
+            if (param instanceof OdaDataSetParameterHandle && ((OdaDataSetParameterHandle) param).getParamName() != null) {
+                name = ((OdaDataSetParameterHandle) param).getParamName();
+            }
+            if (aParameters.containsKey(name)) {
+                aQuery.addInputParamBinding(
+                        new InputParameterBinding(param.getName(), new ScriptExpression(toLiteral(aParameters.get(name)))));
+            }
+        }
+    }
+
+    /**
+     * Convertit une valeur de paramètre en expression Javascript. Un paramètre d'entrée de data set n'a qu'une valeur: un tableau vide
+     * vaut <code>null</code>, un tableau d'une valeur vaut cette valeur.
+     *
+     * @param aValue
+     *            la valeur
+     * @return l'expression littérale
+     * @throws IllegalArgumentException
+     *             tableau de plusieurs valeurs, qui ne peut pas être lié sans les ignorer; le rapport doit alors être extrait par
+     *             ReportEngine.extractData
+     */
+    static String toLiteral(Object aValue) {
+        Object value = aValue;
+        if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            if (values.length > 1) {
+                throw new IllegalArgumentException(
+                        "Multi-value parameter (" + values.length + " values) cannot be bound to a data set input parameter");
+            }
+            value = values.length == 0 ? null : values[0];
+        }
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof Date) {
+            return "new Date(" + ((Date) value).getTime() + ")";
+        }
+        String text = value.toString();
+        StringBuilder literal = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    literal.append('\\').append(c);
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                default:
+                    if (c < ' ' || c == '\u2028' || c == '\u2029') {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream qui protège le stream de l'appelant contre la fermeture par les emitters Birt. Le close() ne fait qu'un flush.
+ *
+ * Une erreur d'écriture dans le stream de l'appelant (client déconnecté) annule le rapport en cours dans le thread, au lieu de laisser
+ * Birt terminer un rapport que personne ne lira.
+ *
+ * @author INSER SA
+ *
+ */
+class NonClosingOutputStream extends FilterOutputStream {
+
+    /** Délais des rapports, <code>null</code> si désactivés */
+    private final ReportDeadlines iDeadlines;
+
+    /**
+     * Constructor.
+     *
+     * @param aOut
+     *            le stream de l'appelant
+     * @param aDeadlines
+     *            délais des rapports, pour annuler le rapport quand le client est déconnecté; <code>null</code> si désactivés
+     */
+    NonClosingOutputStream(OutputStream aOut, ReportDeadlines aDeadlines) {
+        super(aOut);
+        iDeadlines = aDeadlines;
+    }
+
+    @Override
+    public void write(int aByte) throws IOException {
+        try {
+            out.write(aByte);
+        } catch (IOException e) {
+            throw disconnected(e);
+        }
+    }
+
+    @Override
+    public void write(byte[] aBytes, int aOffset, int aLength) throws IOException {
+        // FilterOutputStream écrit octet par octet
+        try {
+            out.write(aBytes, aOffset, aLength);
+        } catch (IOException e) {
+            throw disconnected(e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw disconnected(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Annule le rapport en cours dans le thread après une erreur d'écriture.
+     *
+     * @param aError
+     *            l'erreur d'écriture
+     * @return l'erreur, à relancer
+     */
+    private IOException disconnected(IOException aError) {
+        if (iDeadlines != null) {
+            iDeadlines.cancelCurrent(ReportDeadlines.DISCONNECT);
+        }
+        return aError;
+    }
+}
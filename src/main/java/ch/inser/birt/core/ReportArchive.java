@@ -0,0 +1,130 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.core.archive.IDocArchiveWriter;
+import org.eclipse.birt.core.archive.compound.ArchiveFile;
+import org.eclipse.birt.core.archive.compound.ArchiveReader;
+import org.eclipse.birt.core.archive.compound.ArchiveWriter;
+import org.eclipse.birt.report.engine.api.EngineException;
+import org.eclipse.birt.report.engine.api.IReportDocument;
+import org.eclipse.birt.report.engine.api.IReportEngine;
+
+/**
+ * Document Birt temporaire (.rptdocument) gardé en mémoire tant qu'il ne dépasse pas un seuil, puis écrit dans un fichier.
+ *
+ * L'archive est ouverte en mode transient de Birt: les blocs sont gardés dans le cache de l'archive jusqu'au seuil et le fichier n'est
+ * créé qu'au-delà. L'archive et son éventuel fichier sont libérés par {@link #close()}, à appeler après la fermeture du document.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportArchive implements AutoCloseable {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportArchive.class);
+
+    /** Seuil par défaut au-delà duquel le document est écrit sur disque, en octets */
+    public static final long DEFAULT_MEMORY_THRESHOLD = 4L * 1024 * 1024;
+
+    /** Identifiant du document pour le report engine */
+    private final String iSystemId;
+
+    /** Fichier utilisé au-delà du seuil */
+    private final File iFile;
+
+    /** L'archive Birt */
+    private final ArchiveFile iArchive;
+
+    /**
+     * Constructor.
+     *
+     * @param aDirectory
+     *            répertoire du fichier utilisé au-delà du seuil
+     * @param aMemoryThreshold
+     *            seuil au-delà duquel le document est écrit sur disque, en octets
+     * @throws IOException
+     *             erreur de création de l'archive
+     */
+    public ReportArchive(File aDirectory, long aMemoryThreshold) throws IOException {
+        iSystemId = "birt_" + UUID.randomUUID().toString();
+        iFile = new File(aDirectory, iSystemId + ".rptdocument");
+        iArchive = new ArchiveFile(iSystemId, iFile.getPath(), "rwt");
+        iArchive.setCacheSize(aMemoryThreshold);
+    }
+
+    /**
+     *
+     * @return writer à passer à la tâche d'exécution du rapport
+     * @throws IOException
+     *             erreur de l'archive
+     */
+    public IDocArchiveWriter getWriter() throws IOException {
+        return new ArchiveWriter(iArchive);
+    }
+
+    /**
+     * Ouvre le document exécuté pour le rendu ou l'extraction.
+     *
+     * @param aEngine
+     *            le report engine Birt
+     * @return le document, à fermer avant l'archive
+     * @throws EngineException
+     *             erreur d'ouverture du document
+     * @throws IOException
+     *             erreur de l'archive
+     */
+    public IReportDocument open(IReportEngine aEngine) throws EngineException, IOException {
+        return aEngine.openReportDocument(iSystemId, new ArchiveReader(iArchive), new HashMap<>());
+    }
+
+    /**
+     *
+     * @return <code>true</code> si le document a dépassé le seuil et a été écrit sur disque
+     */
+    public boolean isSpilled() {
+        return iFile.exists();
+    }
+
+    /**
+     * Libère l'archive et efface son fichier.
+     */
+    @Override
+    public void close() {
+        try {
+            iArchive.close();
+        } catch (IOException e) {
+            logger.error("Error closing report archive " + iSystemId, e);
+        }
+        if (iFile.exists()) {
+            ReportDocumentStore.delete(iFile);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReportArchive[" + iSystemId + (isSpilled() ? ", file=" + iFile : ", memory") + "]";
+    }
+}
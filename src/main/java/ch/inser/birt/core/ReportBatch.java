@@ -0,0 +1,270 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.report.engine.api.IReportRunnable;
+
+/**
+ * Exécution d'un batch de rapports: un design ouvert une fois, plusieurs jeux de paramètres exécutés en parallèle, un rapport par tâche.
+ *
+ * @author INSER SA
+ *
+ */
+class ReportBatch {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportBatch.class);
+
+    /** Report engine */
+    private final ReportEngine iEngine;
+
+    /** Design compilé */
+    private final IReportRunnable iDesign;
+
+    /** Format des rapports */
+    private final String iFormat;
+
+    /** Langue des rapports */
+    private final Locale iLocale;
+
+    /** Destination des rapports */
+    private ReportBatchSink iSink;
+
+    /** Résultat du batch */
+    private final ReportBatchResult iResult = new ReportBatchResult();
+
+    /**
+     * Constructor.
+     *
+     * @param aEngine
+     *            report engine
+     * @param aDesign
+     *            design compilé
+     * @param aFormat
+     *            format des rapports
+     * @param aLocale
+     *            langue des rapports
+     */
+    ReportBatch(ReportEngine aEngine, IReportRunnable aDesign, String aFormat, Locale aLocale) {
+        iEngine = aEngine;
+        iDesign = aDesign;
+        iFormat = aFormat;
+        iLocale = aLocale;
+    }
+
+    /**
+     * Exécute le batch et attend la fin de tous les rapports.
+     *
+     * Chaque rapport est une tâche du pool du contrôle d'admission ({@link ReportExecutor}), qui ne garde sa place que le temps de ce
+     * rapport; le batch a au plus la moitié des places du pool, les autres restent aux rapports interactifs. Un rapport rejeté par la
+     * file est soumis à nouveau à la fin d'un rapport du batch. Sans contrôle d'admission, les rapports sont exécutés par un pool
+     * temporaire limité au parallélisme du batch.
+     *
+     * @param aParameterSets
+     *            jeux de paramètres
+     * @param aParallelism
+     *            nombre maximal de rapports exécutés en parallèle
+     * @param aSink
+     *            destination des rapports
+     * @return le résultat du batch
+     * @throws InterruptedException
+     *             le thread appelant a été interrompu
+     * @throws ReportRejectedException
+     *             le premier rapport n'a pas été admis
+     */
+    ReportBatchResult run(Iterator<Map<String, Object>> aParameterSets, int aParallelism, ReportBatchSink aSink)
+            throws InterruptedException {
+        long start = System.currentTimeMillis();
+        iSink = aSink;
+        ReportExecutor executor = iEngine.getExecutor();
+        int parallelism = Math.max(1, aParallelism);
+        if (executor != null) {
+            parallelism = Math.min(parallelism, Math.max(1, executor.getMaxActive() / 2));
+        }
+        ExecutorService pool = executor == null ? Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger iCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable aRunnable) {
+                Thread thread = new Thread(aRunnable, "birt-batch-" + iCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+        // Une place par rapport en cours du batch
+        Semaphore running = new Semaphore(parallelism);
+        try {
+            for (int index = 0; !Thread.currentThread().isInterrupted(); index++) {
+                Map<String, Object> parameters;
+                try {
+                    if (!aParameterSets.hasNext()) {
+                        break;
+                    }
+                    parameters = aParameterSets.next();
+                } catch (RuntimeException e) {
+                    // Itérateur inutilisable: les jeux de paramètres suivants ne peuvent pas être lus
+                    logger.error("Report batch parameters " + index + " not readable, batch stopped", e);
+                    iResult.failed(index, e);
+                    break;
+                }
+                running.acquire();
+                submit(executor, pool, running, parallelism, index, parameters);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Report batch interrupted");
+            }
+            // Attend la fin des rapports en cours
+            running.acquire(parallelism);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        iResult.setDuration(System.currentTimeMillis() - start);
+        logger.info("Report batch " + iDesign.getReportName() + ": " + iResult);
+        return iResult;
+    }
+
+    /**
+     * Soumet un rapport du batch. Si la file du contrôle d'admission est pleine, le rapport est soumis à nouveau à la fin d'un rapport du
+     * batch; s'il n'y a pas de rapport en cours, il est compté en échec, ou le batch est rejeté si c'est son premier rapport.
+     *
+     * @param aExecutor
+     *            contrôle d'admission, <code>null</code> si désactivé
+     * @param aPool
+     *            pool temporaire, sans contrôle d'admission
+     * @param aRunning
+     *            places des rapports en cours du batch, une place réservée pour ce rapport
+     * @param aParallelism
+     *            nombre maximal de rapports en cours
+     * @param aIndex
+     *            position du jeu de paramètres
+     * @param aParameters
+     *            jeu de paramètres
+     * @throws InterruptedException
+     *             le thread appelant a été interrompu
+     * @throws ReportRejectedException
+     *             le premier rapport n'a pas été admis
+     */
+    private void submit(ReportExecutor aExecutor, ExecutorService aPool, Semaphore aRunning, int aParallelism, int aIndex,
+            Map<String, Object> aParameters) throws InterruptedException {
+        while (true) {
+            CompletableFuture<Void> report;
+            try {
+                report = aExecutor == null ? CompletableFuture.runAsync(() -> run(aIndex, aParameters), aPool)
+                        : aExecutor.submit(iFormat, () -> {
+                            run(aIndex, aParameters);
+                            return null;
+                        });
+            } catch (ReportRejectedException e) {
+                if (aRunning.availablePermits() == aParallelism - 1) {
+                    // Aucun rapport du batch en cours: pas de place à attendre
+                    aRunning.release();
+                    if (aIndex == 0) {
+                        throw e;
+                    }
+                    failed(aIndex, aParameters, e);
+                    return;
+                }
+                // Attend la fin d'un rapport du batch
+                aRunning.acquire();
+                aRunning.release();
+                continue;
+            }
+            report.whenComplete((result, error) -> {
+                if (error != null) {
+                    // Erreur hors du rapport, ex. pool arrêté
+                    logger.error("Report batch item " + aIndex + " not run", error);
+                    failed(aIndex, aParameters, error instanceof Exception ? (Exception) error : new RuntimeException(error));
+                }
+                aRunning.release();
+            });
+            return;
+        }
+    }
+
+    /**
+     * Exécute un rapport du batch et le transmet à la destination. Les erreurs du rapport ou de la destination sont comptées.
+     *
+     * @param aIndex
+     *            position du jeu de paramètres
+     * @param aParameters
+     *            jeu de paramètres
+     */
+    private void run(int aIndex, Map<String, Object> aParameters) {
+        try {
+            byte[] report = iEngine.getSecureReport(iDesign, aParameters, iFormat, false, iLocale);
+            synchronized (iSink) {
+                iSink.accept(aIndex, aParameters, report);
+            }
+            iResult.done();
+        } catch (Exception e) {
+            logger.warn("Report batch item " + aIndex + " failed", e);
+            failed(aIndex, aParameters, e);
+            return;
+        }
+        progress();
+    }
+
+    /**
+     * Compte un rapport en échec et le signale à la destination.
+     *
+     * @param aIndex
+     *            position du jeu de paramètres
+     * @param aParameters
+     *            jeu de paramètres
+     * @param aError
+     *            l'erreur
+     */
+    private void failed(int aIndex, Map<String, Object> aParameters, Exception aError) {
+        iResult.failed(aIndex, aError);
+        synchronized (iSink) {
+            try {
+                iSink.failed(aIndex, aParameters, aError);
+            } catch (RuntimeException f) {
+                logger.error("Report batch sink failed for item " + aIndex, f);
+            }
+        }
+        progress();
+    }
+
+    /**
+     * Signale l'avancement du batch à la destination.
+     */
+    private void progress() {
+        synchronized (iSink) {
+            try {
+                iSink.progress(iResult.getDone(), iResult.getFailed());
+            } catch (RuntimeException e) {
+                logger.error("Report batch sink progress failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Résultat d'un batch de rapports: nombre de rapports générés et échecs par position.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportBatchResult {
+
+    /** Nombre de rapports générés */
+    private int iDone;
+
+    /** Messages d'erreur par position du jeu de paramètres */
+    private final Map<Integer, String> iFailures = new TreeMap<>();
+
+    /** Durée du batch, en millisecondes */
+    private long iDuration;
+
+    /**
+     * Un rapport a été généré.
+     */
+    synchronized void done() {
+        iDone++;
+    }
+
+    /**
+     * Un rapport a échoué.
+     *
+     * @param aIndex
+     *            position du jeu de paramètres
+     * @param aError
+     *            l'erreur
+     */
+    synchronized void failed(int aIndex, Exception aError) {
+        iFailures.put(aIndex, aError.getMessage() != null ? aError.getMessage() : aError.getClass().getName());
+    }
+
+    /**
+     *
+     * @param aDuration
+     *            durée du batch, en millisecondes
+     */
+    void setDuration(long aDuration) {
+        iDuration = aDuration;
+    }
+
+    /**
+     *
+     * @return nombre de rapports générés
+     */
+    public synchronized int getDone() {
+        return iDone;
+    }
+
+    /**
+     *
+     * @return nombre de rapports en échec
+     */
+    public synchronized int getFailed() {
+        return iFailures.size();
+    }
+
+    /**
+     *
+     * @return messages d'erreur par position du jeu de paramètres
+     */
+    public synchronized Map<Integer, String> getFailures() {
+        return Collections.unmodifiableMap(new TreeMap<>(iFailures));
+    }
+
+    /**
+     *
+     * @return durée du batch, en millisecondes
+     */
+    public long getDuration() {
+        return iDuration;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportBatchResult[done=" + getDone() + ", failed=" + getFailed() + ", duration=" + iDuration + " ms]";
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Destination des rapports d'un batch (ex. entrée de fichier zip, fichier dans un répertoire). Les méthodes sont appelées par un seul
+ * thread à la fois, dans l'ordre de fin des rapports.
+ *
+ * @author INSER SA
+ *
+ */
+public interface ReportBatchSink {
+
+    /**
+     * Reçoit un rapport généré.
+     *
+     * @param aIndex
+     *            position du jeu de paramètres dans le batch, à partir de 0
+     * @param aParameters
+     *            paramètres du rapport
+     * @param aReport
+     *            le rapport
+     * @throws IOException
+     *             erreur d'écriture du rapport; compte comme un échec du rapport
+     */
+    void accept(int aIndex, Map<String, Object> aParameters, byte[] aReport) throws IOException;
+
+    /**
+     * Un rapport a échoué; le batch continue.
+     *
+     * @param aIndex
+     *            position du jeu de paramètres dans le batch, à partir de 0
+     * @param aParameters
+     *            paramètres du rapport
+     * @param aError
+     *            l'erreur
+     */
+    default void failed(int aIndex, Map<String, Object> aParameters, Exception aError) {
+        // Rien par défaut, l'échec est dans le ReportBatchResult
+    }
+
+    /**
+     * Avancement du batch, après chaque rapport.
+     *
+     * @param aDone
+     *            nombre de rapports générés
+     * @param aFailed
+     *            nombre de rapports en échec
+     */
+    default void progress(int aDone, int aFailed) {
+        // Rien par défaut
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Résultat d'un rapport gardé en mémoire tant qu'il ne dépasse pas un seuil, puis écrit dans un fichier temporaire.
+ *
+ * En mémoire, le résultat est découpé en segments de taille fixe: contrairement à un ByteArrayOutputStream, il n'est jamais recopié pour
+ * grandir et aucun grand tableau n'est alloué (objets humongous de G1). Au-delà du seuil, les segments sont écrits dans le fichier puis
+ * libérés. Le résultat est lu par {@link #getInputStream()}, copié par {@link #writeTo(OutputStream)} ou transféré sans copie par
+ * {@link #transferTo(WritableByteChannel)}. Le buffer et son éventuel fichier sont libérés par {@link #close()}.
+ *
+ * Le buffer n'est pas thread-safe: il est écrit puis lu par le même rapport.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportBuffer extends OutputStream {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportBuffer.class);
+
+    /** Seuil par défaut au-delà duquel le résultat est écrit sur disque, en octets */
+    public static final long DEFAULT_MEMORY_THRESHOLD = 4L * 1024 * 1024;
+
+    /** Sous-répertoire du répertoire temporaire des rapports pour les fichiers des buffers, exclu du nettoyage */
+    public static final String DIRECTORY = "buffers";
+
+    /** Taille d'un segment, bien en dessous de la moitié d'une région G1 */
+    static final int SEGMENT_SIZE = 64 * 1024;
+
+    /** Répertoire du fichier utilisé au-delà du seuil, <code>null</code> pour toujours garder le résultat en mémoire */
+    private final File iDirectory;
+
+    /** Seuil au-delà duquel le résultat est écrit sur disque, en octets */
+    private final long iMemoryThreshold;
+
+    /** Segments du résultat en mémoire */
+    private final List<byte[]> iSegments = new ArrayList<>();
+
+    /** Position dans le dernier segment */
+    private int iPosition = SEGMENT_SIZE;
+
+    /** Taille du résultat */
+    private long iSize;
+
+    /** Fichier utilisé au-delà du seuil */
+    private File iFile;
+
+    /** Stream du fichier */
+    private OutputStream iFileOut;
+
+    /** <code>true</code> si le buffer a été libéré */
+    private boolean iClosed;
+
+    /**
+     * Constructor, résultat toujours gardé en mémoire.
+     */
+    public ReportBuffer() {
+        this(null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aDirectory
+     *            répertoire du fichier utilisé au-delà du seuil, créé au besoin
+     * @param aMemoryThreshold
+     *            seuil au-delà duquel le résultat est écrit sur disque, en octets; 0 pour toujours écrire sur disque
+     */
+    public ReportBuffer(File aDirectory, long aMemoryThreshold) {
+        iDirectory = aDirectory;
+        iMemoryThreshold = aMemoryThreshold;
+    }
+
+    @Override
+    public void write(int aByte) throws IOException {
+        ensureOpen();
+        if (iFileOut == null && iDirectory != null && iSize + 1 > iMemoryThreshold) {
+            spill();
+        }
+        if (iFileOut != null) {
+            iFileOut.write(aByte);
+        } else {
+            if (iPosition == SEGMENT_SIZE) {
+                addSegment();
+            }
+            iSegments.get(iSegments.size() - 1)[iPosition++] = (byte) aByte;
+        }
+        iSize++;
+    }
+
+    @Override
+    public void write(byte[] aBytes, int aOffset, int aLength) throws IOException {
+        Objects.checkFromIndexSize(aOffset, aLength, aBytes.length);
+        ensureOpen();
+        if (iFileOut == null && iDirectory != null && iSize + aLength > iMemoryThreshold) {
+            spill();
+        }
+        if (iFileOut != null) {
+            iFileOut.write(aBytes, aOffset, aLength);
+        } else {
+            int offset = aOffset;
+            int remaining = aLength;
+            while (remaining > 0) {
+                if (iPosition == SEGMENT_SIZE) {
+                    addSegment();
+                }
+                int length = Math.min(remaining, SEGMENT_SIZE - iPosition);
+                System.arraycopy(aBytes, offset, iSegments.get(iSegments.size() - 1), iPosition, length);
+                iPosition += length;
+                offset += length;
+                remaining -= length;
+            }
+        }
+        iSize += aLength;
+    }
+
+    /**
+     * Ajoute un segment vide.
+     */
+    private void addSegment() {
+        iSegments.add(new byte[SEGMENT_SIZE]);
+        iPosition = 0;
+    }
+
+    /**
+     * Longueur utilisée d'un segment.
+     *
+     * @param aIndex
+     *            index du segment
+     * @return nombre d'octets du segment
+     */
+    private int getLength(int aIndex) {
+        return aIndex < iSegments.size() - 1 ? SEGMENT_SIZE : iPosition;
+    }
+
+    /**
+     * Ecrit les segments dans un fichier temporaire et les libère.
+     *
+     * @throws IOException
+     *             erreur d'écriture du fichier, le résultat reste en mémoire
+     */
+    private void spill() throws IOException {
+        if (!iDirectory.isDirectory() && !iDirectory.mkdirs()) {
+            throw new IOException("Report buffer directory not created: " + iDirectory);
+        }
+        iFile = File.createTempFile("report_", ".tmp", iDirectory);
+        try {
+            iFileOut = new BufferedOutputStream(Files.newOutputStream(iFile.toPath()), SEGMENT_SIZE);
+            for (int i = 0; i < iSegments.size(); i++) {
+                iFileOut.write(iSegments.get(i), 0, getLength(i));
+            }
+        } catch (IOException e) {
+            deleteFile();
+            throw e;
+        }
+        iSegments.clear();
+        iPosition = SEGMENT_SIZE;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Report buffer spilled to " + iFile + " at " + iSize + " bytes");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (iFileOut != null) {
+            iFileOut.flush();
+        }
+    }
+
+    /**
+     *
+     * @return taille du résultat, en octets
+     */
+    public long size() {
+        return iSize;
+    }
+
+    /**
+     *
+     * @return <code>true</code> si le résultat a dépassé le seuil et a été écrit sur disque
+     */
+    public boolean isSpilled() {
+        return iFile != null;
+    }
+
+    /**
+     *
+     * @return fichier du résultat, <code>null</code> si le résultat est en mémoire
+     */
+    public File getFile() {
+        return iFile;
+    }
+
+    /**
+     * Lit le résultat. Le stream est à fermer avant le buffer.
+     *
+     * @return le résultat
+     * @throws IOException
+     *             buffer libéré ou erreur de lecture du fichier
+     */
+    public InputStream getInputStream() throws IOException {
+        ensureOpen();
+        if (iFile != null) {
+            flush();
+            return Files.newInputStream(iFile.toPath());
+        }
+        List<InputStream> segments = new ArrayList<>(iSegments.size());
+        for (int i = 0; i < iSegments.size(); i++) {
+            segments.add(new ByteArrayInputStream(iSegments.get(i), 0, getLength(i)));
+        }
+        return new SequenceInputStream(Collections.enumeration(segments));
+    }
+
+    /**
+     * Copie le résultat dans un stream.
+     *
+     * @param aOut
+     *            le stream, ni flushé ni fermé
+     * @throws IOException
+     *             buffer libéré ou erreur de lecture ou d'écriture
+     */
+    public void writeTo(OutputStream aOut) throws IOException {
+        ensureOpen();
+        if (iFile != null) {
+            flush();
+            Files.copy(iFile.toPath(), aOut);
+            return;
+        }
+        for (int i = 0; i < iSegments.size(); i++) {
+            aOut.write(iSegments.get(i), 0, getLength(i));
+        }
+    }
+
+    /**
+     * Transfère le résultat dans un channel, sans copie par la JVM si le résultat est sur disque (FileChannel.transferTo, sendfile).
+     *
+     * @param aChannel
+     *            le channel bloquant, pas fermé
+     * @return nombre d'octets transférés
+     * @throws IOException
+     *             buffer libéré, erreur de lecture ou d'écriture, ou channel qui n'accepte plus de données
+     */
+    public long transferTo(WritableByteChannel aChannel) throws IOException {
+        ensureOpen();
+        if (iFile != null) {
+            flush();
+            try (FileChannel channel = FileChannel.open(iFile.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                long position = 0;
+                while (position < size) {
+                    position += progress(channel.transferTo(position, size - position, aChannel));
+                }
+                return size;
+            }
+        }
+        for (int i = 0; i < iSegments.size(); i++) {
+            ByteBuffer segment = ByteBuffer.wrap(iSegments.get(i), 0, getLength(i));
+            while (segment.hasRemaining()) {
+                progress(aChannel.write(segment));
+            }
+        }
+        return iSize;
+    }
+
+    /**
+     * Vérifie qu'un transfert a progressé, pour ne pas boucler sur un channel non bloquant ou un fichier tronqué.
+     *
+     * @param aTransferred
+     *            nombre d'octets transférés
+     * @return le nombre d'octets transférés
+     * @throws IOException
+     *             aucun octet transféré
+     */
+    private static long progress(long aTransferred) throws IOException {
+        if (aTransferred <= 0) {
+            throw new IOException("Report buffer transfer made no progress");
+        }
+        return aTransferred;
+    }
+
+    /**
+     * Copie le résultat dans un tableau, pour les API qui retournent un byte[].
+     *
+     * @return le résultat
+     * @throws IOException
+     *             buffer libéré, résultat trop grand pour un tableau ou erreur de lecture du fichier
+     */
+    public byte[] toByteArray() throws IOException {
+        ensureOpen();
+        if (iSize > Integer.MAX_VALUE - 8) {
+            throw new IOException("Report too large for an array: " + iSize + " bytes");
+        }
+        if (iFile != null) {
+            flush();
+            return Files.readAllBytes(iFile.toPath());
+        }
+        byte[] content = new byte[(int) iSize];
+        int offset = 0;
+        for (int i = 0; i < iSegments.size(); i++) {
+            int length = getLength(i);
+            System.arraycopy(iSegments.get(i), 0, content, offset, length);
+            offset += length;
+        }
+        return content;
+    }
+
+    /**
+     * Enregistre le résultat dans un fichier, déplacé s'il est déjà sur disque, puis libère le buffer.
+     *
+     * @param aFile
+     *            le fichier, remplacé s'il existe
+     * @throws IOException
+     *             buffer libéré ou erreur d'écriture du fichier
+     */
+    public void saveTo(File aFile) throws IOException {
+        ensureOpen();
+        if (iFile != null) {
+            iFileOut.close();
+            iFileOut = null;
+            Files.move(iFile.toPath(), aFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            iFile = null;
+        } else {
+            try (OutputStream out = Files.newOutputStream(aFile.toPath())) {
+                writeTo(out);
+            }
+        }
+        close();
+    }
+
+    /**
+     * Efface le résultat, le buffer reste utilisable.
+     */
+    public void reset() {
+        deleteFile();
+        iSegments.clear();
+        iPosition = SEGMENT_SIZE;
+        iSize = 0;
+    }
+
+    /**
+     * Libère le résultat et efface son fichier.
+     */
+    @Override
+    public void close() {
+        if (iClosed) {
+            return;
+        }
+        iClosed = true;
+        reset();
+    }
+
+    /**
+     * Vérifie que le buffer n'a pas été libéré.
+     *
+     * @throws IOException
+     *             buffer libéré
+     */
+    private void ensureOpen() throws IOException {
+        if (iClosed) {
+            throw new IOException("Report buffer closed");
+        }
+    }
+
+    /**
+     * Ferme et efface le fichier du résultat.
+     */
+    private void deleteFile() {
+        if (iFileOut != null) {
+            try {
+                iFileOut.close();
+            } catch (IOException e) {
+                logger.debug("Report buffer file not closed", e);
+            }
+            iFileOut = null;
+        }
+        if (iFile != null) {
+            ReportDocumentStore.delete(iFile);
+            iFile = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReportBuffer[size=" + iSize + (isSpilled() ? ", file=" + iFile : ", memory") + "]";
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+/**
+ * Exception levée quand un rapport a été annulé par le {@link ReportDeadlines}: délai dépassé, client déconnecté ou annulation demandée.
+ *
+ * Non contrôlée, pour ne pas modifier les signatures de ReportEngine; le BirtServlet ou l'application peuvent la traduire en réponse
+ * "504 Gateway Timeout" pour un délai dépassé.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportCancelledException extends RuntimeException {
+
+    /**
+     * Serial Version UID
+     */
+    private static final long serialVersionUID = 2165098431572209874L;
+
+    /** Raison de l'annulation, ex: {@link ReportDeadlines#TIMEOUT} */
+    private final String iReason;
+
+    /**
+     * Constructor.
+     *
+     * @param aReason
+     *            raison de l'annulation
+     * @param aMessage
+     *            description de l'annulation
+     */
+    public ReportCancelledException(String aReason, String aMessage) {
+        super(aMessage);
+        iReason = aReason;
+    }
+
+    /**
+     *
+     * @return raison de l'annulation: {@link ReportDeadlines#TIMEOUT}, {@link ReportDeadlines#DISCONNECT} ou
+     *         {@link ReportDeadlines#CANCEL}
+     */
+    public String getReason() {
+        return iReason;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Connexions JDBC des rapports prises dans le pool de l'application. La connexion est passée au driver ODA JDBC de Birt par le contexte
+ * de la tâche (pass-in connection): les data sources JDBC du rapport l'utilisent au lieu d'ouvrir une connexion physique avec les
+ * paramètres jdbcDriver/jdbcUrl/jdbcUser/jdbcPassword. La connexion est rendue au pool après la fermeture de la tâche.
+ *
+ * Le driver ODA JDBC utilise la connexion passée pour toutes les data sources JDBC du rapport, quelle que soit leur URL. Seuls les
+ * designs déclarés ({@link #setDesigns(Set)}), dont les data sources se connectent à la base de l'application par les paramètres jdbc*
+ * du report engine, reçoivent une connexion du pool.
+ *
+ * Si aucune connexion n'est obtenue, le contexte n'est pas modifié et les data sources se connectent comme avant.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportConnectionProvider {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportConnectionProvider.class);
+
+    /** Clé de la connexion passée au driver ODA JDBC, IConnectionFactory.PASS_IN_CONNECTION */
+    public static final String PASS_IN_CONNECTION = "OdaJDBCDriverPassInConnection";
+
+    /** Clé indiquant au driver ODA JDBC s'il doit fermer la connexion, IConnectionFactory.CLOSE_PASS_IN_CONNECTION */
+    public static final String CLOSE_PASS_IN_CONNECTION = "OdaJDBCDriverPassInConnectionClose";
+
+    /** Pool de connexions de l'application */
+    private final DataSource iDataSource;
+
+    /** Designs dont les data sources utilisent la connexion du pool, aucun si vide */
+    private Set<String> iDesigns = Collections.emptySet();
+
+    /** Nombre de connexions obtenues */
+    private final AtomicLong iLeases = new AtomicLong();
+
+    /** Nombre de connexions non obtenues, rapports exécutés avec les paramètres de connexion */
+    private final AtomicLong iFailures = new AtomicLong();
+
+    /** Nombre de connexions utilisées par des rapports */
+    private final AtomicInteger iActive = new AtomicInteger();
+
+    /** Temps d'attente total des connexions, en millisecondes */
+    private final AtomicLong iTotalWait = new AtomicLong();
+
+    /** Temps d'attente maximal d'une connexion, en millisecondes */
+    private final AtomicLong iMaxWait = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aDataSource
+     *            pool de connexions de l'application
+     */
+    public ReportConnectionProvider(DataSource aDataSource) {
+        iDataSource = aDataSource;
+    }
+
+    /**
+     * Indique si les data sources d'un design utilisent la connexion du pool.
+     *
+     * @param aDesignName
+     *            nom du fichier .rptdesign, <code>null</code> pour un design Blob
+     * @return <code>true</code> si le design est déclaré
+     */
+    public boolean isPooled(String aDesignName) {
+        return aDesignName != null && iDesigns.contains(aDesignName);
+    }
+
+    /**
+     * Prend une connexion du pool et la passe au driver ODA JDBC par le contexte de la tâche.
+     *
+     * @param aAppContext
+     *            contexte de la tâche Birt, complété
+     * @return la connexion, à rendre par close() après la fermeture de la tâche, <code>null</code> si aucune connexion n'a été obtenue
+     */
+    public Lease lease(Map<Object, Object> aAppContext) {
+        long start = System.currentTimeMillis();
+        Connection connection;
+        try {
+            connection = iDataSource.getConnection();
+        } catch (SQLException | RuntimeException e) {
+            iFailures.incrementAndGet();
+            logger.warn("Pooled connection not available, report connects with the engine parameters (" + e.getMessage() + ")");
+            return null;
+        }
+        long wait = System.currentTimeMillis() - start;
+        iTotalWait.addAndGet(wait);
+        iMaxWait.accumulateAndGet(wait, Math::max);
+        iLeases.incrementAndGet();
+        iActive.incrementAndGet();
+
+        aAppContext.put(PASS_IN_CONNECTION, connection);
+        aAppContext.put(CLOSE_PASS_IN_CONNECTION, Boolean.FALSE);
+        return new Lease(connection, wait);
+    }
+
+    /**
+     *
+     * @param aDesigns
+     *            noms des fichiers .rptdesign dont les data sources se connectent à la base de l'application par les paramètres jdbc* du
+     *            report engine
+     */
+    public void setDesigns(Set<String> aDesigns) {
+        iDesigns = new HashSet<>(aDesigns);
+    }
+
+    /**
+     *
+     * @return nombre de connexions obtenues
+     */
+    public long getLeases() {
+        return iLeases.get();
+    }
+
+    /**
+     *
+     * @return nombre de connexions non obtenues
+     */
+    public long getFailures() {
+        return iFailures.get();
+    }
+
+    /**
+     *
+     * @return nombre de connexions utilisées par des rapports
+     */
+    public int getActive() {
+        return iActive.get();
+    }
+
+    /**
+     *
+     * @return temps d'attente moyen d'une connexion, en millisecondes
+     */
+    public long getAverageWait() {
+        long leases = iLeases.get();
+        return leases == 0 ? 0 : iTotalWait.get() / leases;
+    }
+
+    /**
+     *
+     * @return temps d'attente maximal d'une connexion, en millisecondes
+     */
+    public long getMaxWait() {
+        return iMaxWait.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportConnectionProvider[designs=" + iDesigns + ", leases=" + iLeases + ", failures=" + iFailures + ", active=" + iActive
+                + ", averageWait=" + getAverageWait() + ", maxWait=" + iMaxWait + "]";
+    }
+
+    /**
+     * Connexion utilisée par un rapport
+     */
+    public class Lease implements AutoCloseable {
+
+        /** La connexion */
+        private final Connection iConnection;
+
+        /** Temps d'attente de la connexion, en millisecondes */
+        private final long iWait;
+
+        /** <code>true</code> si la connexion a été rendue */
+        private boolean iClosed;
+
+        /** <code>true</code> si la connexion a été interrompue */
+        private boolean iAborted;
+
+        /**
+         * Constructor.
+         *
+         * @param aConnection
+         *            la connexion
+         * @param aWait
+         *            temps d'attente de la connexion
+         */
+        Lease(Connection aConnection, long aWait) {
+            iConnection = aConnection;
+            iWait = aWait;
+        }
+
+        /**
+         *
+         * @return temps d'attente de la connexion, en millisecondes
+         */
+        public long getWait() {
+            return iWait;
+        }
+
+        /**
+         * Interrompt la connexion pendant l'exécution du rapport, ex: rapport annulé. Les requêtes en cours sont arrêtées et le pool ne
+         * réutilise pas la connexion. Appelé par un autre thread que celui du rapport.
+         */
+        synchronized void abort() {
+            if (iClosed) {
+                // Déjà rendue au pool, peut-être utilisée par une autre requête
+                return;
+            }
+            iAborted = true;
+            try {
+                iConnection.abort(Runnable::run);
+            } catch (SQLException | RuntimeException e) {
+                logger.debug("Report connection not aborted", e);
+            }
+        }
+
+        /**
+         * Rend la connexion au pool, en annulant une éventuelle transaction ouverte par le rapport.
+         */
+        @Override
+        public synchronized void close() {
+            if (iClosed) {
+                return;
+            }
+            iClosed = true;
+            iActive.decrementAndGet();
+            try {
+                if (!iAborted && !iConnection.getAutoCommit()) {
+                    iConnection.rollback();
+                }
+            } catch (SQLException e) {
+                logger.debug("Report connection not rolled back", e);
+            }
+            try {
+                iConnection.close();
+            } catch (SQLException e) {
+                logger.warn("Report connection not returned to the pool", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,890 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Cache des résultats des data sets, partagé entre les requêtes. Le cache s'insère dans la connexion du pool passée au driver ODA JDBC
+ * ({@link ReportConnectionProvider}): les requêtes SELECT préparées par les data sets sont identifiées par le design, le texte SQL du
+ * data set et les valeurs des paramètres liés, et leur résultat est gardé en mémoire (CachedRowSet).
+ *
+ * Le cache est limité en nombre d'octets (LRU), globalement et par design, et les entrées expirent après une durée de vie, configurable
+ * par design. L'application invalide le cache quand les tables sous-jacentes changent: par design, par table ou entièrement. Une
+ * nouvelle version du design ne réutilise pas les résultats de l'ancienne. Un résultat lu pendant une invalidation n'est pas mis en cache.
+ *
+ * La copie d'un résultat s'arrête dès qu'il dépasse la taille permise pour le design: la requête est alors exécutée à nouveau et son
+ * résultat lu directement, sans cache.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDataSetCache {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportDataSetCache.class);
+
+    /** Taille par défaut du cache, en octets */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /** Durée de vie par défaut d'une entrée, en millisecondes */
+    public static final long DEFAULT_TTL = 10L * 60 * 1000;
+
+    /** Taille estimée d'une ligne, sans les valeurs, en octets */
+    private static final int ROW_OVERHEAD = 32;
+
+    /** Nombre maximal de requêtes trop grandes retenues */
+    private static final int MAX_OVERSIZED = 1000;
+
+    /** Taille maximale du cache, en octets */
+    private final long iMaxBytes;
+
+    /** Durée de vie d'une entrée, en millisecondes */
+    private final long iTtl;
+
+    /** Entrées du cache, ordonnées par accès (LRU) */
+    private final LinkedHashMap<String, Entry> iEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Taille actuelle du cache, en octets */
+    private long iBytes;
+
+    /** Taille actuelle du cache par design, en octets */
+    private final Map<String, Long> iDesignBytes = new HashMap<>();
+
+    /** Durée de vie des entrées par design, en millisecondes */
+    private Map<String, Long> iDesignTtls = Collections.emptyMap();
+
+    /** Taille maximale du cache par design, en octets */
+    private Map<String, Long> iDesignMaxBytes = Collections.emptyMap();
+
+    /** Clés des requêtes dont le résultat dépasse la taille permise, plus mises en cache; les moins utilisées sont oubliées */
+    private final Set<String> iOversized = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16,
+            0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> aEldest) {
+            return size() > MAX_OVERSIZED;
+        }
+    }));
+
+    /** Génération des invalidations: un résultat lu avant une invalidation n'est pas mis en cache */
+    private long iGeneration;
+
+    /** Designs à mettre en cache, tous si vide */
+    private Set<String> iIncludedDesigns = Collections.emptySet();
+
+    /** Designs à ne jamais mettre en cache */
+    private Set<String> iExcludedDesigns = Collections.emptySet();
+
+    /** Nombre de résultats trouvés dans le cache */
+    private final AtomicLong iHits = new AtomicLong();
+
+    /** Nombre de résultats non trouvés dans le cache */
+    private final AtomicLong iMisses = new AtomicLong();
+
+    /** Nombre d'entrées supprimées par manque de place */
+    private final AtomicLong iEvictions = new AtomicLong();
+
+    /** Nombre d'entrées expirées */
+    private final AtomicLong iExpirations = new AtomicLong();
+
+    /** Nombre d'entrées invalidées par l'application */
+    private final AtomicLong iInvalidations = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxBytes
+     *            taille maximale du cache, en octets
+     * @param aTtl
+     *            durée de vie d'une entrée, en millisecondes
+     */
+    public ReportDataSetCache(long aMaxBytes, long aTtl) {
+        iMaxBytes = aMaxBytes;
+        iTtl = aTtl;
+    }
+
+    /**
+     * Indique si les data sets d'un design peuvent être mis en cache.
+     *
+     * @param aDesignName
+     *            nom du fichier .rptdesign, <code>null</code> pour un design Blob
+     * @return <code>true</code> si les data sets peuvent être mis en cache
+     */
+    public boolean isCacheable(String aDesignName) {
+        if (aDesignName == null) {
+            return iIncludedDesigns.isEmpty();
+        }
+        if (iExcludedDesigns.contains(aDesignName)) {
+            return false;
+        }
+        return iIncludedDesigns.isEmpty() || iIncludedDesigns.contains(aDesignName);
+    }
+
+    /**
+     * Remplace la connexion passée au driver ODA JDBC par une connexion qui met en cache les résultats des data sets.
+     *
+     * @param aAppContext
+     *            contexte de la tâche Birt, avec la connexion du pool
+     * @param aDesignIdentity
+     *            identité du design (chemin et version, ou digest)
+     * @param aDesignName
+     *            nom du fichier .rptdesign, <code>null</code> pour un design Blob
+     */
+    public void wrap(Map<Object, Object> aAppContext, String aDesignIdentity, String aDesignName) {
+        Object connection = aAppContext.get(ReportConnectionProvider.PASS_IN_CONNECTION);
+        if (connection instanceof Connection) {
+            aAppContext.put(ReportConnectionProvider.PASS_IN_CONNECTION,
+                    Proxy.newProxyInstance(ReportDataSetCache.class.getClassLoader(), new Class<?>[] { Connection.class },
+                            new ConnectionHandler((Connection) connection, aDesignIdentity, aDesignName)));
+        }
+    }
+
+    /**
+     * Recherche un résultat dans le cache.
+     *
+     * @param aKey
+     *            clé de la requête
+     * @return le résultat, partagé, <code>null</code> s'il n'est pas dans le cache ou s'il a expiré
+     */
+    private synchronized CachedRowSet get(String aKey) {
+        Entry entry = iEntries.get(aKey);
+        if (entry != null && entry.iExpires < System.currentTimeMillis()) {
+            remove(aKey);
+            iExpirations.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            iMisses.incrementAndGet();
+            return null;
+        }
+        iHits.incrementAndGet();
+        return entry.iRows;
+    }
+
+    /**
+     *
+     * @return génération des invalidations, à lire avant d'exécuter une requête
+     */
+    private synchronized long getGeneration() {
+        return iGeneration;
+    }
+
+    /**
+     * Ajoute un résultat dans le cache, en libérant la place du design puis du cache en commençant par les entrées les moins utilisées.
+     *
+     * @param aKey
+     *            clé de la requête
+     * @param aEntry
+     *            le résultat
+     * @param aGeneration
+     *            génération des invalidations lue avant l'exécution de la requête; le résultat est ignoré si le cache a été invalidé
+     *            depuis
+     */
+    private synchronized void put(String aKey, Entry aEntry, long aGeneration) {
+        if (aGeneration != iGeneration) {
+            return;
+        }
+        remove(aKey);
+        long designMax = getDesignMaxBytes(aEntry.iDesignName);
+        Iterator<Entry> it = iEntries.values().iterator();
+        while (getDesignBytes(aEntry.iDesignIdentity) + aEntry.iBytes > designMax && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.iDesignIdentity.equals(aEntry.iDesignIdentity)) {
+                it.remove();
+                removed(entry);
+                iEvictions.incrementAndGet();
+            }
+        }
+        it = iEntries.values().iterator();
+        while (iBytes + aEntry.iBytes > iMaxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            removed(entry);
+            iEvictions.incrementAndGet();
+        }
+        iEntries.put(aKey, aEntry);
+        iBytes += aEntry.iBytes;
+        iDesignBytes.merge(aEntry.iDesignIdentity, aEntry.iBytes, Long::sum);
+    }
+
+    /**
+     * Supprime une entrée et met à jour la taille du cache.
+     *
+     * @param aKey
+     *            clé de la requête
+     */
+    private void remove(String aKey) {
+        Entry old = iEntries.remove(aKey);
+        if (old != null) {
+            removed(old);
+        }
+    }
+
+    /**
+     * Met à jour la taille du cache après la suppression d'une entrée.
+     *
+     * @param aEntry
+     *            l'entrée supprimée
+     */
+    private void removed(Entry aEntry) {
+        iBytes -= aEntry.iBytes;
+        long bytes = getDesignBytes(aEntry.iDesignIdentity) - aEntry.iBytes;
+        if (bytes > 0) {
+            iDesignBytes.put(aEntry.iDesignIdentity, bytes);
+        } else {
+            iDesignBytes.remove(aEntry.iDesignIdentity);
+        }
+    }
+
+    /**
+     * Supprime du cache tous les résultats d'un design, à appeler quand ses données ont changé.
+     *
+     * @param aDesignName
+     *            nom du fichier .rptdesign
+     */
+    public synchronized void invalidate(String aDesignName) {
+        iGeneration++;
+        Iterator<Entry> it = iEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (aDesignName.equals(entry.iDesignName)) {
+                it.remove();
+                removed(entry);
+                iInvalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Supprime du cache tous les résultats des requêtes qui lisent une table, à appeler quand la table a changé.
+     *
+     * @param aTable
+     *            nom de la table ou de la vue, tel qu'il apparaît dans le SQL des data sets
+     */
+    public synchronized void invalidateTable(String aTable) {
+        iGeneration++;
+        Pattern table = Pattern.compile("\\b" + Pattern.quote(aTable.toLowerCase(Locale.ROOT)) + "\\b");
+        Iterator<Entry> it = iEntries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (table.matcher(entry.iSql).find()) {
+                it.remove();
+                removed(entry);
+                iInvalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Vide le cache.
+     */
+    public synchronized void invalidateAll() {
+        iGeneration++;
+        iInvalidations.addAndGet(iEntries.size());
+        iEntries.clear();
+        iDesignBytes.clear();
+        iOversized.clear();
+        iBytes = 0;
+    }
+
+    /**
+     *
+     * @param aDesigns
+     *            noms des fichiers .rptdesign dont les data sets sont mis en cache, tous si vide
+     */
+    public void setIncludedDesigns(Set<String> aDesigns) {
+        iIncludedDesigns = new HashSet<>(aDesigns);
+    }
+
+    /**
+     *
+     * @param aDesigns
+     *            noms des fichiers .rptdesign dont les data sets ne sont jamais mis en cache
+     */
+    public void setExcludedDesigns(Set<String> aDesigns) {
+        iExcludedDesigns = new HashSet<>(aDesigns);
+    }
+
+    /**
+     *
+     * @param aDesignTtls
+     *            durée de vie des entrées par nom de fichier .rptdesign, en millisecondes
+     */
+    public void setDesignTtls(Map<String, Long> aDesignTtls) {
+        iDesignTtls = new HashMap<>(aDesignTtls);
+    }
+
+    /**
+     *
+     * @param aDesignMaxBytes
+     *            taille maximale du cache par nom de fichier .rptdesign, en octets
+     */
+    public void setDesignMaxBytes(Map<String, Long> aDesignMaxBytes) {
+        iDesignMaxBytes = new HashMap<>(aDesignMaxBytes);
+    }
+
+    /**
+     * Durée de vie des entrées d'un design.
+     *
+     * @param aDesignName
+     *            nom du fichier .rptdesign, <code>null</code> pour un design Blob
+     * @return durée de vie, en millisecondes
+     */
+    private long getDesignTtl(String aDesignName) {
+        Long ttl = aDesignName == null ? null : iDesignTtls.get(aDesignName);
+        return ttl == null ? iTtl : ttl;
+    }
+
+    /**
+     * Taille maximale du cache pour un design.
+     *
+     * @param aDesignName
+     *            nom du fichier .rptdesign, <code>null</code> pour un design Blob
+     * @return taille maximale, en octets
+     */
+    private long getDesignMaxBytes(String aDesignName) {
+        Long max = aDesignName == null ? null : iDesignMaxBytes.get(aDesignName);
+        return max == null ? iMaxBytes : Math.min(max, iMaxBytes);
+    }
+
+    /**
+     * Taille actuelle du cache pour un design.
+     *
+     * @param aDesignIdentity
+     *            identité du design
+     * @return taille, en octets
+     */
+    private long getDesignBytes(String aDesignIdentity) {
+        Long bytes = iDesignBytes.get(aDesignIdentity);
+        return bytes == null ? 0 : bytes;
+    }
+
+    /**
+     * Taille estimée d'une ligne en mémoire.
+     *
+     * @param aRow
+     *            le résultat, placé sur la ligne
+     * @param aColumns
+     *            nombre de colonnes
+     * @return taille estimée, en octets
+     * @throws SQLException
+     *             erreur de lecture de la ligne
+     */
+    private static long estimate(ResultSet aRow, int aColumns) throws SQLException {
+        long bytes = ROW_OVERHEAD;
+        for (int i = 1; i <= aColumns; i++) {
+            Object value = aRow.getObject(i);
+            if (value instanceof String) {
+                bytes += 40 + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                bytes += 16 + ((byte[]) value).length;
+            } else {
+                bytes += 24;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Représentation d'un paramètre lié pour la clé de la requête.
+     *
+     * @param aValue
+     *            la valeur du paramètre
+     * @return la valeur avec son type, <code>null</code> si elle ne peut pas faire partie de la clé (stream, LOB, tableau, objet sans
+     *         représentation de son contenu)
+     */
+    private static String describe(Object aValue) {
+        if (aValue == null) {
+            return "null";
+        }
+        if (aValue instanceof String || aValue instanceof Number || aValue instanceof Boolean || aValue instanceof Character
+                || aValue instanceof java.util.Date || aValue instanceof TemporalAccessor || aValue instanceof UUID) {
+            return aValue.getClass().getSimpleName() + ":" + aValue;
+        }
+        if (aValue instanceof byte[]) {
+            // Contenu, pas l'identité du tableau
+            return "byte[]:" + Base64.getEncoder().encodeToString((byte[]) aValue);
+        }
+        if (aValue instanceof Calendar) {
+            return "Calendar:" + ((Calendar) aValue).getTimeZone().getID();
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @return nombre de résultats dans le cache
+     */
+    public synchronized int size() {
+        return iEntries.size();
+    }
+
+    /**
+     *
+     * @return taille actuelle du cache, en octets
+     */
+    public synchronized long getBytes() {
+        return iBytes;
+    }
+
+    /**
+     *
+     * @return taille maximale du cache, en octets
+     */
+    public long getMaxBytes() {
+        return iMaxBytes;
+    }
+
+    /**
+     *
+     * @return durée de vie par défaut d'une entrée, en millisecondes
+     */
+    public long getTtl() {
+        return iTtl;
+    }
+
+    /**
+     *
+     * @return nombre de résultats trouvés dans le cache
+     */
+    public long getHits() {
+        return iHits.get();
+    }
+
+    /**
+     *
+     * @return nombre de résultats non trouvés dans le cache
+     */
+    public long getMisses() {
+        return iMisses.get();
+    }
+
+    /**
+     *
+     * @return nombre d'entrées supprimées par manque de place
+     */
+    public long getEvictions() {
+        return iEvictions.get();
+    }
+
+    /**
+     *
+     * @return nombre d'entrées expirées
+     */
+    public long getExpirations() {
+        return iExpirations.get();
+    }
+
+    /**
+     *
+     * @return nombre d'entrées invalidées par l'application
+     */
+    public long getInvalidations() {
+        return iInvalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportDataSetCache[size=" + size() + ", bytes=" + getBytes() + ", max=" + iMaxBytes + ", ttl=" + iTtl + ", hits=" + iHits
+                + ", misses=" + iMisses + ", evictions=" + iEvictions + ", expirations=" + iExpirations + ", invalidations="
+                + iInvalidations + "]";
+    }
+
+    /**
+     * Appelle une méthode de l'objet JDBC d'origine.
+     *
+     * @param aTarget
+     *            l'objet d'origine
+     * @param aMethod
+     *            la méthode
+     * @param aArgs
+     *            les arguments
+     * @return le résultat de la méthode
+     * @throws Throwable
+     *             l'exception de la méthode
+     */
+    private static Object invoke(Object aTarget, Method aMethod, Object[] aArgs) throws Throwable {
+        try {
+            return aMethod.invoke(aTarget, aArgs);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Entrée du cache
+     */
+    private static class Entry {
+
+        /** Le résultat, lu par des copies partagées */
+        private final CachedRowSet iRows;
+
+        /** Identité du design */
+        private final String iDesignIdentity;
+
+        /** Nom du fichier .rptdesign, <code>null</code> pour un design Blob */
+        private final String iDesignName;
+
+        /** Texte SQL de la requête, en minuscules */
+        private final String iSql;
+
+        /** Taille estimée, en octets */
+        private final long iBytes;
+
+        /** Date d'expiration */
+        private final long iExpires;
+
+        /**
+         * Constructor.
+         *
+         * @param aRows
+         *            le résultat
+         * @param aDesignIdentity
+         *            identité du design
+         * @param aDesignName
+         *            nom du fichier .rptdesign
+         * @param aSql
+         *            texte SQL de la requête, en minuscules
+         * @param aBytes
+         *            taille estimée
+         * @param aExpires
+         *            date d'expiration
+         */
+        Entry(CachedRowSet aRows, String aDesignIdentity, String aDesignName, String aSql, long aBytes, long aExpires) {
+            iRows = aRows;
+            iDesignIdentity = aDesignIdentity;
+            iDesignName = aDesignName;
+            iSql = aSql;
+            iBytes = aBytes;
+            iExpires = aExpires;
+        }
+    }
+
+    /**
+     * Connexion qui met en cache les résultats des requêtes SELECT préparées.
+     */
+    private class ConnectionHandler implements InvocationHandler {
+
+        /** La connexion du pool */
+        private final Connection iConnection;
+
+        /** Identité du design */
+        private final String iDesignIdentity;
+
+        /** Nom du fichier .rptdesign */
+        private final String iDesignName;
+
+        /**
+         * Constructor.
+         *
+         * @param aConnection
+         *            la connexion du pool
+         * @param aDesignIdentity
+         *            identité du design
+         * @param aDesignName
+         *            nom du fichier .rptdesign
+         */
+        ConnectionHandler(Connection aConnection, String aDesignIdentity, String aDesignName) {
+            iConnection = aConnection;
+            iDesignIdentity = aDesignIdentity;
+            iDesignName = aDesignName;
+        }
+
+        @Override
+        public Object invoke(Object aProxy, Method aMethod, Object[] aArgs) throws Throwable {
+            Object result = ReportDataSetCache.invoke(iConnection, aMethod, aArgs);
+            if ("prepareStatement".equals(aMethod.getName()) && aArgs[0] instanceof String && result instanceof PreparedStatement) {
+                String sql = ((String) aArgs[0]).trim().toLowerCase(Locale.ROOT);
+                if (sql.startsWith("select") || sql.startsWith("with")) {
+                    return Proxy.newProxyInstance(ReportDataSetCache.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                            new StatementHandler((PreparedStatement) result, (String) aArgs[0], sql, iDesignIdentity, iDesignName));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Requête préparée dont le résultat est cherché dans le cache, identifié par le SQL et les valeurs des paramètres liés.
+     */
+    private class StatementHandler implements InvocationHandler {
+
+        /** La requête préparée d'origine */
+        private final PreparedStatement iStatement;
+
+        /** Texte SQL de la requête */
+        private final String iSql;
+
+        /** Texte SQL de la requête, en minuscules */
+        private final String iLowerSql;
+
+        /** Identité du design */
+        private final String iDesignIdentity;
+
+        /** Nom du fichier .rptdesign */
+        private final String iDesignName;
+
+        /** Valeurs des paramètres liés, par position */
+        private final Map<Integer, String> iParameters = new TreeMap<>();
+
+        /** Nombre maximal de lignes */
+        private int iMaxRows;
+
+        /** <code>false</code> si un paramètre ne peut pas faire partie de la clé (stream, LOB, tableau) */
+        private boolean iCacheable = true;
+
+        /**
+         * Constructor.
+         *
+         * @param aStatement
+         *            la requête préparée d'origine
+         * @param aSql
+         *            texte SQL de la requête
+         * @param aLowerSql
+         *            texte SQL de la requête, en minuscules
+         * @param aDesignIdentity
+         *            identité du design
+         * @param aDesignName
+         *            nom du fichier .rptdesign
+         */
+        StatementHandler(PreparedStatement aStatement, String aSql, String aLowerSql, String aDesignIdentity, String aDesignName) {
+            iStatement = aStatement;
+            iSql = aSql;
+            iLowerSql = aLowerSql;
+            iDesignIdentity = aDesignIdentity;
+            iDesignName = aDesignName;
+        }
+
+        @Override
+        public Object invoke(Object aProxy, Method aMethod, Object[] aArgs) throws Throwable {
+            String name = aMethod.getName();
+            if ("executeQuery".equals(name) && aArgs == null) {
+                return executeQuery(aProxy);
+            }
+            Object result = ReportDataSetCache.invoke(iStatement, aMethod, aArgs);
+            if ("setMaxRows".equals(name)) {
+                iMaxRows = (Integer) aArgs[0];
+            } else if ("clearParameters".equals(name)) {
+                iParameters.clear();
+                iCacheable = true;
+            } else if (name.startsWith("set") && aArgs != null && aArgs.length >= 2 && aArgs[0] instanceof Integer) {
+                // Valeur, puis type SQL, échelle ou calendrier
+                StringBuilder value = new StringBuilder(name);
+                for (int i = 1; i < aArgs.length; i++) {
+                    String arg = "setNull".equals(name) && i == 1 ? "null" : describe(aArgs[i]);
+                    if (arg == null) {
+                        iCacheable = false;
+                    }
+                    value.append(':').append(arg);
+                }
+                iParameters.put((Integer) aArgs[0], value.toString());
+            }
+            return result;
+        }
+
+        /**
+         * Exécute la requête, ou retourne son résultat en cache.
+         *
+         * @param aProxy
+         *            la requête vue par le driver ODA
+         * @return le résultat
+         * @throws SQLException
+         *             erreur d'exécution de la requête
+         */
+        private ResultSet executeQuery(Object aProxy) throws SQLException {
+            String key = iDesignIdentity + '|' + iMaxRows + '|' + iSql + '|' + iParameters;
+            if (!iCacheable || iOversized.contains(key)) {
+                return iStatement.executeQuery();
+            }
+            CachedRowSet rows = get(key);
+            if (rows == null) {
+                long generation = getGeneration();
+                long budget = getDesignMaxBytes(iDesignName);
+                rows = RowSetProvider.newFactory().createCachedRowSet();
+                Budget counter;
+                try (ResultSet result = iStatement.executeQuery()) {
+                    // Copie arrêtée dès que le résultat dépasse la taille permise
+                    counter = new Budget(result, budget);
+                    rows.populate((ResultSet) Proxy.newProxyInstance(ReportDataSetCache.class.getClassLoader(),
+                            new Class<?>[] { ResultSet.class }, counter));
+                }
+                if (counter.isExceeded()) {
+                    rows.close();
+                    iOversized.add(key);
+                    logger.debug("Data set result too large for the cache: more than " + budget + " bytes, " + iSql);
+                    return iStatement.executeQuery();
+                }
+                rows.beforeFirst();
+                put(key, new Entry(rows, iDesignIdentity, iDesignName, iLowerSql, counter.getBytes(),
+                        System.currentTimeMillis() + getDesignTtl(iDesignName)), generation);
+            }
+
+            // Copie partagée avec son propre curseur, qui ne vide pas le cache à la fermeture
+            ResultSet shared;
+            synchronized (rows) {
+                shared = (ResultSet) rows.createShared();
+            }
+            return (ResultSet) Proxy.newProxyInstance(ReportDataSetCache.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                    new ResultHandler(shared, aProxy));
+        }
+    }
+
+    /**
+     * Résultat de la requête lu par le CachedRowSet: la taille des lignes est comptée et la lecture s'arrête dès qu'elle dépasse le
+     * budget, sans charger le reste du résultat.
+     */
+    private static class Budget implements InvocationHandler {
+
+        /** Résultat de la requête */
+        private final ResultSet iResult;
+
+        /** Taille maximale, en octets */
+        private final long iBudget;
+
+        /** Taille estimée des lignes lues, en octets */
+        private long iBytes;
+
+        /** <code>true</code> si le résultat dépasse le budget */
+        private boolean iExceeded;
+
+        /** Nombre de colonnes, lu à la première ligne */
+        private int iColumns = -1;
+
+        /**
+         * Constructor.
+         *
+         * @param aResult
+         *            résultat de la requête
+         * @param aBudget
+         *            taille maximale, en octets
+         */
+        Budget(ResultSet aResult, long aBudget) {
+            iResult = aResult;
+            iBudget = aBudget;
+        }
+
+        @Override
+        public Object invoke(Object aProxy, Method aMethod, Object[] aArgs) throws Throwable {
+            if (!"next".equals(aMethod.getName())) {
+                return ReportDataSetCache.invoke(iResult, aMethod, aArgs);
+            }
+            if (iExceeded || !iResult.next()) {
+                return Boolean.FALSE;
+            }
+            if (iColumns < 0) {
+                iColumns = iResult.getMetaData().getColumnCount();
+            }
+            iBytes += estimate(iResult, iColumns);
+            if (iBytes > iBudget) {
+                iExceeded = true;
+                return Boolean.FALSE;
+            }
+            return Boolean.TRUE;
+        }
+
+        /**
+         *
+         * @return taille estimée des lignes lues, en octets
+         */
+        long getBytes() {
+            return iBytes;
+        }
+
+        /**
+         *
+         * @return <code>true</code> si le résultat dépasse le budget
+         */
+        boolean isExceeded() {
+            return iExceeded;
+        }
+    }
+
+    /**
+     * Résultat en cache lu par le driver ODA: la fermeture ne libère pas les lignes partagées.
+     */
+    private static class ResultHandler implements InvocationHandler {
+
+        /** Copie partagée du résultat */
+        private final ResultSet iRows;
+
+        /** La requête */
+        private final Object iStatement;
+
+        /** <code>true</code> si le résultat a été fermé */
+        private boolean iClosed;
+
+        /**
+         * Constructor.
+         *
+         * @param aRows
+         *            copie partagée du résultat
+         * @param aStatement
+         *            la requête
+         */
+        ResultHandler(ResultSet aRows, Object aStatement) {
+            iRows = aRows;
+            iStatement = aStatement;
+        }
+
+        @Override
+        public Object invoke(Object aProxy, Method aMethod, Object[] aArgs) throws Throwable {
+            switch (aMethod.getName()) {
+                case "close":
+                    iClosed = true;
+                    return null;
+                case "isClosed":
+                    return iClosed;
+                case "getStatement":
+                    return iStatement;
+                default:
+                    return ReportDataSetCache.invoke(iRows, aMethod, aArgs);
+            }
+        }
+    }
+}
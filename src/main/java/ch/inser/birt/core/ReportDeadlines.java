@@ -0,0 +1,390 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.report.engine.api.IEngineTask;
+
+/**
+ * Délais et annulation des rapports. Chaque rapport a une surveillance ({@link Watch}) liée au thread qui l'exécute: quand le délai du
+ * rapport est dépassé, que le client est déconnecté ou que l'annulation est demandée, la tâche Birt en cours est annulée par
+ * IEngineTask.cancel() et la connexion JDBC du pool est interrompue. Le ReportEngine lève alors une {@link ReportCancelledException} et
+ * libère la tâche, la connexion et les fichiers temporaires.
+ *
+ * Le délai est celui de la requête s'il a été donné par {@link #request(long)}, sinon celui du design, sinon le délai par défaut; 0 pour
+ * aucun délai. Il compte depuis le début du rapport, attente dans la file comprise.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDeadlines {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportDeadlines.class);
+
+    /** Raison de l'annulation: délai dépassé */
+    public static final String TIMEOUT = "timeout";
+
+    /** Raison de l'annulation: client déconnecté */
+    public static final String DISCONNECT = "disconnect";
+
+    /** Raison de l'annulation: annulation demandée, ex: rapport en arrière-plan */
+    public static final String CANCEL = "cancel";
+
+    /** Délai par défaut des rapports, en millisecondes, 0 pour aucun délai */
+    private final long iDefaultTimeout;
+
+    /** Délai par nom de design, en millisecondes */
+    private volatile Map<String, Long> iDesignTimeouts = Collections.emptyMap();
+
+    /** Surveillance du rapport exécuté par le thread */
+    private final ThreadLocal<Watch> iCurrent = new ThreadLocal<>();
+
+    /** Thread qui annule les rapports dont le délai est dépassé */
+    private final ScheduledThreadPoolExecutor iTimer;
+
+    /** Nombre de rapports annulés par délai dépassé */
+    private final AtomicLong iTimeouts = new AtomicLong();
+
+    /** Nombre de rapports annulés par déconnexion du client */
+    private final AtomicLong iDisconnects = new AtomicLong();
+
+    /** Nombre de rapports annulés sur demande */
+    private final AtomicLong iCancels = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aDefaultTimeout
+     *            délai par défaut des rapports, en millisecondes, 0 pour aucun délai
+     */
+    public ReportDeadlines(long aDefaultTimeout) {
+        iDefaultTimeout = aDefaultTimeout;
+        iTimer = new ScheduledThreadPoolExecutor(1, aRunnable -> {
+            Thread thread = new Thread(aRunnable, "birt-report-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        iTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Définit des délais par design.
+     *
+     * @param aDesignTimeouts
+     *            délai par nom de design (ex: pays.rptdesign), en millisecondes, 0 pour aucun délai
+     */
+    public void setDesignTimeouts(Map<String, Long> aDesignTimeouts) {
+        iDesignTimeouts = new HashMap<>(aDesignTimeouts);
+    }
+
+    /**
+     * Délai d'un design.
+     *
+     * @param aDesignName
+     *            nom du design
+     * @return le délai du design ou le délai par défaut, en millisecondes, 0 pour aucun délai
+     */
+    public long getTimeout(String aDesignName) {
+        Long timeout = aDesignName == null ? null : iDesignTimeouts.get(aDesignName);
+        return timeout == null ? iDefaultTimeout : timeout;
+    }
+
+    /**
+     * Commence la surveillance d'une requête avec son propre délai: les rapports exécutés par le thread jusqu'à la fermeture de la
+     * surveillance utilisent ce délai au lieu de celui de leur design.
+     *
+     * @param aTimeout
+     *            délai de la requête, en millisecondes, 0 pour aucun délai
+     * @return la surveillance, à fermer par close()
+     */
+    public Watch request(long aTimeout) {
+        return open(aTimeout);
+    }
+
+    /**
+     * Commence la surveillance d'un rapport, ou continue celle du rapport ou de la requête en cours dans le thread.
+     *
+     * @param aDesignName
+     *            nom du design
+     * @return la surveillance, à fermer par close()
+     */
+    public Watch watch(String aDesignName) {
+        return open(getTimeout(aDesignName));
+    }
+
+    /**
+     * Ouvre la surveillance du thread.
+     *
+     * @param aTimeout
+     *            délai, en millisecondes, 0 pour aucun délai; ignoré si une surveillance est déjà ouverte
+     * @return la surveillance
+     */
+    private Watch open(long aTimeout) {
+        Watch watch = iCurrent.get();
+        if (watch == null) {
+            watch = new Watch(this, aTimeout);
+            iCurrent.set(watch);
+            if (aTimeout > 0) {
+                Watch timed = watch;
+                watch.iTimer = iTimer.schedule(() -> timed.cancel(TIMEOUT), aTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+        watch.iDepth++;
+        return watch;
+    }
+
+    /**
+     * Annule le rapport en cours dans le thread, ex: le stream du client a été fermé.
+     *
+     * @param aReason
+     *            raison de l'annulation, ex: {@link #DISCONNECT}
+     */
+    public void cancelCurrent(String aReason) {
+        Watch watch = iCurrent.get();
+        if (watch != null) {
+            watch.cancel(aReason);
+        }
+    }
+
+    /**
+     * Compte une annulation.
+     *
+     * @param aReason
+     *            raison de l'annulation
+     */
+    private void count(String aReason) {
+        if (TIMEOUT.equals(aReason)) {
+            iTimeouts.incrementAndGet();
+        } else if (DISCONNECT.equals(aReason)) {
+            iDisconnects.incrementAndGet();
+        } else {
+            iCancels.incrementAndGet();
+        }
+    }
+
+    /**
+     * Arrête la surveillance des délais.
+     */
+    public void shutdown() {
+        iTimer.shutdownNow();
+    }
+
+    /**
+     *
+     * @return délai par défaut des rapports, en millisecondes, 0 pour aucun délai
+     */
+    public long getDefaultTimeout() {
+        return iDefaultTimeout;
+    }
+
+    /**
+     *
+     * @return nombre de rapports annulés par délai dépassé
+     */
+    public long getTimeouts() {
+        return iTimeouts.get();
+    }
+
+    /**
+     *
+     * @return nombre de rapports annulés par déconnexion du client
+     */
+    public long getDisconnects() {
+        return iDisconnects.get();
+    }
+
+    /**
+     *
+     * @return nombre de rapports annulés sur demande
+     */
+    public long getCancels() {
+        return iCancels.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportDeadlines[defaultTimeout=" + iDefaultTimeout + ", designTimeouts=" + iDesignTimeouts + ", timeouts=" + iTimeouts
+                + ", disconnects=" + iDisconnects + ", cancels=" + iCancels + "]";
+    }
+
+    /**
+     * Surveillance d'un rapport, liée au thread qui l'exécute.
+     */
+    public static class Watch implements AutoCloseable {
+
+        /** Surveillance qui n'annule rien, quand les délais sont désactivés */
+        public static final Watch NONE = new Watch(null, 0);
+
+        /** Les délais, <code>null</code> pour {@link #NONE} */
+        private final ReportDeadlines iDeadlines;
+
+        /** Délai, en millisecondes, 0 pour aucun délai */
+        private final long iTimeout;
+
+        /** Raison de l'annulation, <code>null</code> tant que le rapport n'est pas annulé */
+        private final AtomicReference<String> iReason = new AtomicReference<>();
+
+        /** Tâche Birt en cours */
+        private volatile IEngineTask iTask;
+
+        /** Connexion du pool utilisée par la tâche */
+        private volatile ReportConnectionProvider.Lease iLease;
+
+        /** Annulation programmée à l'échéance */
+        private ScheduledFuture<?> iTimer;
+
+        /** Nombre d'appels imbriqués en cours */
+        private int iDepth;
+
+        /**
+         * Constructor.
+         *
+         * @param aDeadlines
+         *            les délais
+         * @param aTimeout
+         *            délai, en millisecondes
+         */
+        Watch(ReportDeadlines aDeadlines, long aTimeout) {
+            iDeadlines = aDeadlines;
+            iTimeout = aTimeout;
+        }
+
+        /**
+         * Associe la tâche Birt en cours; elle est annulée immédiatement si le rapport a déjà été annulé.
+         *
+         * @param aTask
+         *            la tâche
+         */
+        public void attach(IEngineTask aTask) {
+            if (iDeadlines == null) {
+                return;
+            }
+            iTask = aTask;
+            if (iReason.get() != null) {
+                cancelTask(aTask);
+            }
+        }
+
+        /**
+         * Associe la connexion du pool utilisée par la tâche.
+         *
+         * @param aLease
+         *            la connexion, <code>null</code> si les paramètres de connexion sont utilisés
+         */
+        public void attach(ReportConnectionProvider.Lease aLease) {
+            if (iDeadlines == null || aLease == null) {
+                return;
+            }
+            iLease = aLease;
+            if (iReason.get() != null) {
+                aLease.abort();
+            }
+        }
+
+        /**
+         * Dissocie la tâche et la connexion, avant leur fermeture.
+         */
+        public void detach() {
+            iTask = null;
+            iLease = null;
+        }
+
+        /**
+         * Annule le rapport; sans effet s'il est déjà annulé.
+         *
+         * @param aReason
+         *            raison de l'annulation, ex: {@link ReportDeadlines#TIMEOUT}
+         */
+        public void cancel(String aReason) {
+            if (iDeadlines == null || !iReason.compareAndSet(null, aReason)) {
+                return;
+            }
+            iDeadlines.count(aReason);
+            logger.warn("Report cancelled (" + aReason + (TIMEOUT.equals(aReason) ? " after " + iTimeout + " ms" : "") + ")");
+            IEngineTask task = iTask;
+            if (task != null) {
+                cancelTask(task);
+            }
+            ReportConnectionProvider.Lease lease = iLease;
+            if (lease != null) {
+                lease.abort();
+            }
+        }
+
+        /**
+         * Annule une tâche Birt.
+         *
+         * @param aTask
+         *            la tâche
+         */
+        private static void cancelTask(IEngineTask aTask) {
+            try {
+                aTask.cancel();
+            } catch (RuntimeException e) {
+                logger.debug("Report task not cancelled", e);
+            }
+        }
+
+        /**
+         *
+         * @return <code>true</code> si le rapport a été annulé
+         */
+        public boolean isCancelled() {
+            return iReason.get() != null;
+        }
+
+        /**
+         *
+         * @return raison de l'annulation, <code>null</code> si le rapport n'est pas annulé
+         */
+        public String getReason() {
+            return iReason.get();
+        }
+
+        /**
+         *
+         * @return délai, en millisecondes, 0 pour aucun délai
+         */
+        public long getTimeout() {
+            return iTimeout;
+        }
+
+        @Override
+        public void close() {
+            if (iDeadlines == null || --iDepth > 0) {
+                return;
+            }
+            iDeadlines.iCurrent.remove();
+            if (iTimer != null) {
+                iTimer.cancel(false);
+            }
+            detach();
+        }
+    }
+}
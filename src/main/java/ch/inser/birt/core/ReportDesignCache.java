@@ -0,0 +1,268 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.report.engine.api.IReportRunnable;
+
+/**
+ * Cache LRU des rapports Birt compilés (IReportRunnable), pour éviter de re-parser le .rptdesign à chaque génération.
+ *
+ * Les designs fichier sont identifiés par leur chemin canonique, et l'entrée n'est valide que tant que la date de modification et la
+ * taille du fichier n'ont pas changé. Les designs Blob sont identifiés par le digest de leur contenu.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDesignCache {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportDesignCache.class);
+
+    /** Nombre d'entrées par défaut */
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+
+    /** Nombre maximal d'entrées */
+    private final int iMaxEntries;
+
+    /** Entrées du cache, ordonnées par accès (LRU) */
+    private final Map<String, Entry> iEntries;
+
+    /** Nombre de designs trouvés dans le cache */
+    private final AtomicLong iHits = new AtomicLong();
+
+    /** Nombre de designs non trouvés dans le cache */
+    private final AtomicLong iMisses = new AtomicLong();
+
+    /** Nombre d'entrées supprimées par manque de place */
+    private final AtomicLong iEvictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxEntries
+     *            nombre maximal de designs gardés en mémoire
+     */
+    public ReportDesignCache(int aMaxEntries) {
+        iMaxEntries = aMaxEntries;
+        iEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> aEldest) {
+                if (size() > iMaxEntries) {
+                    iEvictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Recherche un design dans le cache.
+     *
+     * @param aKey
+     *            identifiant du design (chemin canonique ou digest)
+     * @param aStamp
+     *            version attendue du design
+     * @return le design compilé, <code>null</code> s'il n'est pas dans le cache ou s'il a changé
+     */
+    public synchronized IReportRunnable get(String aKey, String aStamp) {
+        Entry entry = iEntries.get(aKey);
+        if (entry != null && entry.iStamp.equals(aStamp)) {
+            iHits.incrementAndGet();
+            return entry.iDesign;
+        }
+        if (entry != null) {
+            logger.debug("Design modified, reloading: " + aKey);
+            iEntries.remove(aKey);
+        }
+        iMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Ajoute un design dans le cache.
+     *
+     * @param aKey
+     *            identifiant du design (chemin canonique ou digest)
+     * @param aStamp
+     *            version du design
+     * @param aDesign
+     *            le design compilé
+     */
+    public synchronized void put(String aKey, String aStamp, IReportRunnable aDesign) {
+        iEntries.put(aKey, new Entry(aStamp, aDesign));
+    }
+
+    /**
+     * Supprime un design fichier du cache.
+     *
+     * @param aDesign
+     *            le fichier .rptdesign
+     * @throws IOException
+     *             erreur de résolution du chemin canonique
+     */
+    public void invalidate(File aDesign) throws IOException {
+        invalidate(getKey(aDesign));
+    }
+
+    /**
+     * Supprime un design du cache.
+     *
+     * @param aKey
+     *            identifiant du design
+     */
+    public synchronized void invalidate(String aKey) {
+        iEntries.remove(aKey);
+    }
+
+    /**
+     * Vide le cache.
+     */
+    public synchronized void invalidateAll() {
+        iEntries.clear();
+    }
+
+    /**
+     *
+     * @return nombre de designs dans le cache
+     */
+    public synchronized int size() {
+        return iEntries.size();
+    }
+
+    /**
+     *
+     * @return nombre maximal de designs dans le cache
+     */
+    public int getMaxEntries() {
+        return iMaxEntries;
+    }
+
+    /**
+     *
+     * @return nombre de designs trouvés dans le cache
+     */
+    public long getHits() {
+        return iHits.get();
+    }
+
+    /**
+     *
+     * @return nombre de designs non trouvés dans le cache
+     */
+    public long getMisses() {
+        return iMisses.get();
+    }
+
+    /**
+     *
+     * @return nombre d'entrées supprimées par manque de place
+     */
+    public long getEvictions() {
+        return iEvictions.get();
+    }
+
+    /**
+     * Identifiant d'un design fichier
+     *
+     * @param aDesign
+     *            le fichier .rptdesign
+     * @return identifiant du design
+     * @throws IOException
+     *             erreur de résolution du chemin canonique
+     */
+    public static String getKey(File aDesign) throws IOException {
+        return "file:" + aDesign.getCanonicalPath();
+    }
+
+    /**
+     * Version d'un design fichier
+     *
+     * @param aDesign
+     *            le fichier .rptdesign
+     * @return date de modification et taille du fichier
+     */
+    public static String getStamp(File aDesign) {
+        return aDesign.lastModified() + "/" + aDesign.length();
+    }
+
+    /**
+     * Identifiant d'un design Blob
+     *
+     * @param aContent
+     *            contenu du design
+     * @return digest SHA-256 du contenu
+     */
+    public static String getKey(byte[] aContent) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(aContent);
+            StringBuilder key = new StringBuilder(7 + digest.length * 2).append("sha256:");
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 est toujours disponible dans la JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ReportDesignCache[size=" + size() + ", max=" + iMaxEntries + ", hits=" + iHits + ", misses=" + iMisses + ", evictions="
+                + iEvictions + "]";
+    }
+
+    /**
+     * Entrée du cache
+     */
+    private static class Entry {
+
+        /** Version du design */
+        private final String iStamp;
+
+        /** Design compilé */
+        private final IReportRunnable iDesign;
+
+        /**
+         * Constructor.
+         *
+         * @param aStamp
+         *            version du design
+         * @param aDesign
+         *            design compilé
+         */
+        Entry(String aStamp, IReportRunnable aDesign) {
+            iStamp = aStamp;
+            iDesign = aDesign;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stockage des documents Birt (.rptdocument) générés par ReportEngine, pour exécuter un rapport une seule fois et le rendre ensuite dans
+ * plusieurs formats ou par pages.
+ *
+ * Les documents expirent après une durée de vie et la taille totale des documents sur disque est limitée (LRU). Un document en cours de
+ * rendu n'est supprimé qu'après sa libération.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDocumentStore {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportDocumentStore.class);
+
+    /** Taille par défaut des documents sur disque, en octets */
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+    /** Durée de vie par défaut d'un document, en millisecondes */
+    public static final long DEFAULT_TTL = 10L * 60 * 1000;
+
+    /** Répertoire des documents */
+    private final File iDirectory;
+
+    /** Taille maximale des documents sur disque, en octets */
+    private final long iMaxBytes;
+
+    /** Durée de vie d'un document, en millisecondes */
+    private final long iTtl;
+
+    /** Documents disponibles, ordonnés par accès (LRU) */
+    private final LinkedHashMap<String, Document> iDocuments = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Taille actuelle des documents sur disque, en octets */
+    private long iBytes;
+
+    /** Nombre de documents réutilisés */
+    private final AtomicLong iHits = new AtomicLong();
+
+    /** Nombre de documents exécutés */
+    private final AtomicLong iMisses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aDirectory
+     *            répertoire des documents, créé si nécessaire
+     * @param aMaxBytes
+     *            taille maximale des documents sur disque, en octets
+     * @param aTtl
+     *            durée de vie d'un document, en millisecondes
+     */
+    public ReportDocumentStore(File aDirectory, long aMaxBytes, long aTtl) {
+        iDirectory = aDirectory;
+        iMaxBytes = aMaxBytes;
+        iTtl = aTtl;
+        if (!iDirectory.isDirectory() && !iDirectory.mkdirs()) {
+            logger.warn("Report document directory not created: " + iDirectory);
+        }
+    }
+
+    /**
+     * Recherche un document et le réserve pour le rendu. Le document doit être libéré avec {@link #release(Document)}.
+     *
+     * @param aKey
+     *            clé du document
+     * @return le document, <code>null</code> s'il n'existe pas ou s'il a expiré
+     */
+    public synchronized Document acquire(String aKey) {
+        cleanup();
+        Document document = iDocuments.get(aKey);
+        if (document == null) {
+            iMisses.incrementAndGet();
+            return null;
+        }
+        iHits.incrementAndGet();
+        document.iUsers++;
+        return document;
+    }
+
+    /**
+     * Crée un nouveau fichier pour l'exécution d'un rapport.
+     *
+     * @return le fichier du document
+     * @throws IOException
+     *             erreur de création du fichier
+     */
+    public File newFile() throws IOException {
+        return File.createTempFile("birt_", ".rptdocument", iDirectory);
+    }
+
+    /**
+     * Ajoute un document exécuté dans le stockage et le réserve pour le rendu. Le document doit être libéré avec
+     * {@link #release(Document)}.
+     *
+     * @param aKey
+     *            clé du document
+     * @param aFile
+     *            le fichier créé par {@link #newFile()} et rempli par la tâche Birt
+     * @return le document
+     */
+    public synchronized Document publish(String aKey, File aFile) {
+        Document document = new Document(aFile, System.currentTimeMillis() + iTtl);
+        document.iUsers = 1;
+        Document old = iDocuments.put(aKey, document);
+        if (old != null) {
+            discard(old);
+        }
+        iBytes += document.iSize;
+        cleanup();
+        return document;
+    }
+
+    /**
+     * Libère un document réservé. Un document supprimé pendant son rendu est effacé à ce moment.
+     *
+     * @param aDocument
+     *            le document
+     */
+    public synchronized void release(Document aDocument) {
+        aDocument.iUsers--;
+        if (aDocument.iRemoved && aDocument.iUsers == 0) {
+            delete(aDocument.iFile);
+        }
+    }
+
+    /**
+     * Supprime tous les documents d'un design.
+     *
+     * @param aDesignIdentity
+     *            identité du design, ou son préfixe
+     */
+    public synchronized void invalidate(String aDesignIdentity) {
+        Iterator<Map.Entry<String, Document>> it = iDocuments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Document> entry = it.next();
+            if (entry.getKey().startsWith(aDesignIdentity)) {
+                discard(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Supprime tous les documents.
+     */
+    public synchronized void invalidateAll() {
+        for (Document document : iDocuments.values()) {
+            discard(document);
+        }
+        iDocuments.clear();
+    }
+
+    /**
+     * Supprime les documents expirés, puis les documents les moins utilisés tant que la taille maximale est dépassée.
+     */
+    private void cleanup() {
+        long now = System.currentTimeMillis();
+        Iterator<Document> it = iDocuments.values().iterator();
+        while (it.hasNext()) {
+            Document document = it.next();
+            if (document.iExpires < now) {
+                discard(document);
+                it.remove();
+            }
+        }
+        it = iDocuments.values().iterator();
+        while (iBytes > iMaxBytes && it.hasNext()) {
+            discard(it.next());
+            it.remove();
+        }
+    }
+
+    /**
+     * Retire un document du stockage; le fichier est effacé dès que le document n'est plus utilisé.
+     *
+     * @param aDocument
+     *            le document
+     */
+    private void discard(Document aDocument) {
+        iBytes -= aDocument.iSize;
+        aDocument.iRemoved = true;
+        if (aDocument.iUsers == 0) {
+            delete(aDocument.iFile);
+        }
+    }
+
+    /**
+     * Efface le fichier d'un document.
+     *
+     * @param aFile
+     *            le fichier
+     */
+    static void delete(File aFile) {
+        try {
+            Files.deleteIfExists(aFile.toPath());
+        } catch (IOException e) {
+            logger.error("Error deleting report document " + aFile, e);
+        }
+    }
+
+    /**
+     *
+     * @return nombre de documents disponibles
+     */
+    public synchronized int size() {
+        return iDocuments.size();
+    }
+
+    /**
+     *
+     * @return taille actuelle des documents sur disque, en octets
+     */
+    public synchronized long getBytes() {
+        return iBytes;
+    }
+
+    /**
+     *
+     * @return nombre de documents réutilisés
+     */
+    public long getHits() {
+        return iHits.get();
+    }
+
+    /**
+     *
+     * @return nombre de documents exécutés
+     */
+    public long getMisses() {
+        return iMisses.get();
+    }
+
+    /**
+     *
+     * @return répertoire des documents
+     */
+    public File getDirectory() {
+        return iDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportDocumentStore[dir=" + iDirectory + ", size=" + size() + ", bytes=" + getBytes() + ", max=" + iMaxBytes + ", hits="
+                + iHits + ", misses=" + iMisses + "]";
+    }
+
+    /**
+     * Document Birt stocké
+     */
+    public static class Document {
+
+        /** Fichier du document */
+        private final File iFile;
+
+        /** Taille du fichier */
+        private final long iSize;
+
+        /** Date d'expiration */
+        private final long iExpires;
+
+        /** Nombre de rendus en cours */
+        private int iUsers;
+
+        /** <code>true</code> si le document a été retiré du stockage */
+        private boolean iRemoved;
+
+        /**
+         * Constructor.
+         *
+         * @param aFile
+         *            fichier du document
+         * @param aExpires
+         *            date d'expiration
+         */
+        Document(File aFile, long aExpires) {
+            iFile = aFile;
+            iSize = aFile.length();
+            iExpires = aExpires;
+        }
+
+        /**
+         *
+         * @return fichier du document
+         */
+        public File getFile() {
+            return iFile;
+        }
+    }
+}
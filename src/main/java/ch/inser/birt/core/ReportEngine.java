@@ -21,14 +21,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.sql.Blob;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 
 import org.apache.commons.logging.Log;
@@ -44,6 +51,8 @@ import org.eclipse.birt.report.engine.api.IDataIterator;
 import org.eclipse.birt.report.engine.api.IEngineTask;
 import org.eclipse.birt.report.engine.api.IExtractionResults;
 import org.eclipse.birt.report.engine.api.IGetParameterDefinitionTask;
+import org.eclipse.birt.report.engine.api.IParameterDefnBase;
+import org.eclipse.birt.report.engine.api.IRenderTask;
 import org.eclipse.birt.report.engine.api.IReportDocument;
 import org.eclipse.birt.report.engine.api.IReportRunnable;
 import org.eclipse.birt.report.engine.api.IResultMetaData;
@@ -80,6 +89,10 @@ public class ReportEngine implements Serializable {
      */
     private static final Log logger = LogFactory.getLog(ReportEngine.class);
 
+    /** Paramètres de connexion du report engine, qui ne peuvent pas être passés par l'appelant */
+    public static final Set<String> CONNECTION_PARAMETERS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("jdbcDriver", "jdbcUrl", "jdbcUser", "jdbcPassword", "jdbcJndi")));
+
     /**
      * The BIRT report engine.
      */
@@ -93,6 +106,48 @@ public class ReportEngine implements Serializable {
     /** Injecté par le BirtServlet */
     private transient IContextManager iContextManager;
 
+    /** Cache des designs compilés, <code>null</code> si désactivé */
+    private transient ReportDesignCache iDesignCache;
+
+    /** Cache des rapports générés, <code>null</code> si désactivé */
+    private transient ReportOutputCache iOutputCache;
+
+    /** Stockage des documents Birt exécutés, <code>null</code> si désactivé */
+    private transient ReportDocumentStore iDocumentStore;
+
+    /** Contrôle d'admission des rapports, <code>null</code> si désactivé */
+    private transient ReportExecutor iExecutor;
+
+    /** Rapports exécutés en arrière-plan, <code>null</code> si désactivé */
+    private transient ReportJobStore iJobStore;
+
+    /** Images des rapports HTML gardées en mémoire, <code>null</code> pour les écrire sur disque */
+    private transient ReportImageStore iImageStore;
+
+    /** Nettoyage des fichiers temporaires, <code>null</code> si désactivé */
+    private transient ReportTempJanitor iTempJanitor;
+
+    /** Connexions JDBC prises dans le pool de l'application, <code>null</code> pour les paramètres de connexion */
+    private transient ReportConnectionProvider iConnectionProvider;
+
+    /** Cache des résultats des data sets, <code>null</code> si désactivé */
+    private transient ReportDataSetCache iDataSetCache;
+
+    /** Mesures des rapports, <code>null</code> si désactivé */
+    private transient ReportMetrics iMetrics;
+
+    /** Délais et annulation des rapports, <code>null</code> si désactivés */
+    private transient ReportDeadlines iDeadlines;
+
+    /** <code>false</code> pendant le préchauffage */
+    private transient volatile boolean iReady = true;
+
+    /** Seuil des documents temporaires gardés en mémoire, en octets; 0 pour toujours écrire les documents sur disque */
+    private long iArchiveThreshold = ReportArchive.DEFAULT_MEMORY_THRESHOLD;
+
+    /** Seuil des résultats gardés en mémoire par les buffers des rapports, en octets; 0 pour toujours écrire les résultats sur disque */
+    private long iBufferThreshold = ReportBuffer.DEFAULT_MEMORY_THRESHOLD;
+
     /**
      * Constructor.
      *
@@ -156,6 +211,32 @@ public class ReportEngine implements Serializable {
         iParameters.put("jdbcJndi", jdbcJndi);
     }
 
+    /**
+     * Paramètres d'un design qui peuvent être passés par l'appelant: les paramètres déclarés par le design, sans les paramètres de
+     * connexion du report engine ({@link #CONNECTION_PARAMETERS}).
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @return les noms des paramètres
+     * @throws EngineException
+     *             throwed when the report design file does not exist or is invalid
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read
+     */
+    public Set<String> getParameterNames(Object aReportFile) throws EngineException, SQLException {
+        Set<String> names = new HashSet<>();
+        IGetParameterDefinitionTask task = iReportEngine.createGetParameterDefinitionTask(openDesign(toCacheableDesign(aReportFile)));
+        try {
+            for (Object defn : task.getParameterDefns(false)) {
+                names.add(((IParameterDefnBase) defn).getName());
+            }
+        } finally {
+            task.close();
+        }
+        names.removeAll(CONNECTION_PARAMETERS);
+        return names;
+    }
+
     /**
      * Create and run a task renderer.
      *
@@ -188,6 +269,10 @@ public class ReportEngine implements Serializable {
      *             erreur dans le Birt report engine
      */
     public IReportRunnable openReportDesign(String designName) throws EngineException {
+        File file = new File(designName);
+        if (iDesignCache != null && file.isFile()) {
+            return openDesign(file);
+        }
         return iReportEngine.openReportDesign(designName);
     }
 
@@ -225,88 +310,32 @@ public class ReportEngine implements Serializable {
      */
     public ByteArrayOutputStream getReport(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable,
             Locale aLocale) throws EngineException, SQLException {
-        String outFormat = aFormat;
-        if (outFormat == null) {
-            outFormat = "html";
+        Object design = toCacheableDesign(aReportFile);
+        String key = getOutputCacheKey(design, aParameters, aFormat, aEmbeddable, aLocale, false);
+        if (key != null) {
+            byte[] cached = iOutputCache.get(key);
+            if (cached != null) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream(cached.length);
+                output.write(cached, 0, cached.length);
+                return output;
+            }
         }
+
         // Temporary output stream while BIRT close the stream
         ByteArrayOutputStream output = new ByteArrayOutputStream();
-        IRunAndRenderTask task = null;
-        InputStream reportIS = null;
-        try {
-            // Read the design and create the task
-            IReportRunnable design = null;
-            if (aReportFile instanceof File) {
-                design = iReportEngine.openReportDesign(((File) aReportFile).getPath());
-            } else {
-                reportIS = ((Blob) aReportFile).getBinaryStream();
-                design = iReportEngine.openReportDesign(reportIS);
-            }
-            task = iReportEngine.createRunAndRenderTask(design);
-            if (aLocale != null) {
-                task.setLocale(aLocale);
-            }
-
-            // Set the parameters
-            ReportEngine.setParams(task, iParameters);
-            ReportEngine.setParams(task, aParameters);
-
-            // Set Render context and rendering options
-            HashMap<Object, Object> contextMap = new HashMap<>();
-            RenderOption options;
-            if (outFormat.equals("pdf")) {
-                options = new PDFRenderOption();
-                options.setOutputFormat("pdf");
-            } else if (outFormat.equals("excel")) {
-                options = new EXCELRenderOption();
-                options.setOutputFormat("xls");
-            } else if (outFormat.equals("excel-xlsx")) {
-                options = new EXCELRenderOption();
-                options.setOutputFormat("xlsx");
-            } else if (outFormat.equals("doc")) {
-                options = new RenderOption();
-                options.setOutputFormat("doc");
-            } else {
-                // OK html
-                HTMLRenderOption optionsHTML = new HTMLRenderOption();
-                options = optionsHTML;
-                options.setImageHandler(new HTMLServerImageHandler());
-                String tempo = getContextManager().getProperty("report.tempo.dir");
-                optionsHTML.setImageDirectory(tempo);
-                optionsHTML.setBaseImageURL("BirtServlet?image=");
-                if (aEmbeddable) {
-                    optionsHTML.setEmbeddable(true);
-                }
-            }
-            options.setOutputStream(output);
-            task.setAppContext(contextMap);
-            task.setRenderOption(options);
-
-            // Run the report
-            task.run();
-
-            return output;
-        } finally {
-            if (task != null) {
-                try {
-                    task.close();
-                } catch (Exception ex) {
-                    logger.error("Error getting report", ex);
-                }
-            }
-            if (reportIS != null) {
-                try {
-                    reportIS.close();
-                } catch (IOException e) {
-                    logger.error("Error closing report design input stream", e);
-                }
-            }
+        runAndRender(output, design, aParameters, aFormat, aEmbeddable, aLocale);
+        if (key != null) {
+            iOutputCache.put(key, output.toByteArray());
         }
+        return output;
     }
 
     /**
      * Create an HTML or PDF report.
      *
+     * The report is streamed directly into the given stream while it is rendered, without intermediate copy. The stream is flushed but not
+     * closed. If the generation fails, a part of the report may already have been written.
+     *
      * @param aStream
      *            the result stream
      * @param aReportFile
@@ -325,163 +354,181 @@ public class ReportEngine implements Serializable {
      *             if an I/O error occurs
      * @throws SQLException
      *             thrown when the report design file is a blob and cannot be opened in an input stream
+     * @throws ReportCancelledException
+     *             le rapport a été annulé: délai dépassé ou client déconnecté
      */
     public void getReport(OutputStream aStream, Object aReportFile, Map<String, Object> aParameters, String outFormat, boolean aEmbeddable,
             Locale aLocale) throws EngineException, IOException, SQLException {
-        aStream.write(getReport(aReportFile, aParameters, outFormat, aEmbeddable, aLocale).toByteArray());
-
+        Object design = toCacheableDesign(aReportFile);
+        String key = getOutputCacheKey(design, aParameters, outFormat, aEmbeddable, aLocale, false);
+        if (key == null) {
+            // BIRT close the output stream at the end of the rendering
+            runAndRender(new NonClosingOutputStream(aStream, iDeadlines), design, aParameters, outFormat, aEmbeddable, aLocale);
+        } else {
+            byte[] cached = iOutputCache.get(key);
+            if (cached != null) {
+                aStream.write(cached);
+            } else {
+                ReportOutputCache.Capture capture = iOutputCache.capture(key, aStream);
+                runAndRender(new NonClosingOutputStream(capture, iDeadlines), design, aParameters, outFormat, aEmbeddable, aLocale);
+                capture.commit();
+            }
+        }
+        aStream.flush();
     }
 
     /**
-     * Extract the data of a report in a text file.
+     * Create an HTML or PDF report in a buffer kept in memory up to the buffer threshold, then written in the report.tempo.dir directory.
+     * Unlike {@link #getReport(Object, Map, String, boolean, Locale)}, a large report never needs a large array.
      *
-     * @param aStream
-     *            the result stream
      * @param aReportFile
-     *            the report design file
+     *            the report design file, either a File or Blob object
      * @param aParameters
-     *            the parametres for the report
-     * @param aSeparator
-     *            the field separator ex: <code>','</code> or <code>'\t'</code>
-     * @throws BirtException
-     *             erreur dans l'éxtraction du rapport
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @return the report, to close after use
+     * @throws EngineException
+     *             throwed when the report design file does not exist or is invalid or when an exception occurs in the report generation
      * @throws IOException
-     *             erreur au niveau d'écriture dans le fichier
+     *             erreur d'écriture du buffer
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be opened in an input stream
      */
-    public void extractData(OutputStream aStream, Object aReportFile, Map<String, Object> aParameters, char aSeparator)
-            throws BirtException, IOException {
-        // Get a print stream from the output stream
-        PrintStream stream;
-        if (aStream instanceof PrintStream) {
-            stream = (PrintStream) aStream;
-        } else {
-            stream = new PrintStream(aStream);
+    public ReportBuffer getReportBuffer(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable,
+            Locale aLocale) throws EngineException, IOException, SQLException {
+        ReportBuffer buffer = newBuffer();
+        try {
+            getReport(buffer, aReportFile, aParameters, aFormat, aEmbeddable, aLocale);
+        } catch (EngineException | IOException | SQLException | RuntimeException e) {
+            buffer.close();
+            throw e;
         }
+        return buffer;
+    }
 
-        // Create the temporary report document
-        File file = File.createTempFile("birt_", ".rptdocument");
+    /**
+     * Run and render a report into an output stream.
+     *
+     * @param aOutput
+     *            the output stream given to the BIRT emitter
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @throws EngineException
+     *             throwed when the report design file does not exist or is invalid or when an exception occurs in the report generation
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read in an input stream
+     */
+    private void runAndRender(OutputStream aOutput, Object aReportFile, Map<String, Object> aParameters, String aFormat,
+            boolean aEmbeddable, Locale aLocale) throws EngineException, SQLException {
+        IRunAndRenderTask task = null;
+        ReportConnectionProvider.Lease lease = null;
+        RenderOption options = null;
+        boolean done = false;
+        try (ReportMetrics.Trace trace = trace(aReportFile, aFormat); ReportDeadlines.Watch watch = watch(aReportFile);
+                ReportExecutor.Permit permit = admit(aFormat)) {
+            checkCancelled(watch);
 
-        IRunTask runTask = null;
-        IDataExtractionTask extractionTask = null;
-        IReportDocument document = null;
-        try {
-            // Read the design and create de task
-            IReportRunnable design = null;
-            if (aReportFile instanceof File) {
-                design = iReportEngine.openReportDesign(((File) aReportFile).getPath());
-            } else {
-                design = iReportEngine.openReportDesign((InputStream) aReportFile);
+            // Read the design and create the task
+            IReportRunnable design = openDesign(aReportFile);
+            task = iReportEngine.createRunAndRenderTask(design);
+            watch.attach(task);
+            if (aLocale != null) {
+                task.setLocale(aLocale);
             }
-            runTask = iReportEngine.createRunTask(design);
 
             // Set the parameters
-            ReportEngine.setParams(runTask, iParameters);
-            ReportEngine.setParams(runTask, aParameters);
-
-            // Run the report and store the result in the temporary file
-            runTask.run(file.getPath());
-
-            // Read the temporary file and create the extraction task
-            document = iReportEngine.openReportDocument(file.getPath());
-            extractionTask = iReportEngine.createDataExtractionTask(document);
-
-            // Iterate over all the data sets in the report
-            for (Object obj : extractionTask.getResultSetList()) {
-                // Set the result set name
-                IResultSetItem resultSetItem = (IResultSetItem) obj;
-                extractionTask.selectResultSet(resultSetItem.getResultSetName());
-
-                // Extract the data
-                IExtractionResults extractResults = extractionTask.extract();
-
-                // Read the internal result and construct the external text
-                // result
-                IDataIterator it = extractResults.nextResultIterator();
-                IResultMetaData metadata = it.getResultMetaData();
+            ReportEngine.setParams(task, iParameters);
+            ReportEngine.setParams(task, aParameters);
 
-                // Write the field names in the first row
-                for (int i = 0; i < metadata.getColumnCount(); i++) {
-                    if (i > 0) {
-                        stream.print(aSeparator);
-                    }
-                    stream.print(metadata.getColumnLabel(i));
-                }
-                stream.println();
+            // Set Render context and rendering options
+            HashMap<Object, Object> contextMap = new HashMap<>();
+            options = createRenderOption(aFormat, aEmbeddable);
+            options.setOutputStream(count(aOutput));
+            lease = lease(contextMap, aReportFile);
+            watch.attach(lease);
+            task.setAppContext(contextMap);
+            task.setRenderOption(options);
 
-                // Write the data
-                while (it.next()) {
-                    for (int i = 0; i < metadata.getColumnCount(); i++) {
-                        if (i > 0) {
-                            stream.print(aSeparator);
-                        }
-                        stream.print(it.getValue(i));
-                    }
-                    stream.println();
-                }
-                it.close();
-                extractResults.close();
+            // Run the report
+            long start = System.currentTimeMillis();
+            try {
+                task.run();
+            } catch (EngineException e) {
+                checkCancelled(watch);
+                throw e;
             }
-            stream.flush();
+            checkCancelled(watch);
+            phase(ReportMetrics.PHASE_RUN, start);
+            trace.succeeded();
+            done = true;
         } finally {
-            if (runTask != null) {
-                try {
-                    runTask.close();
-                } catch (Exception ex) {
-                    logger.error("Error closing data", ex);
-                }
-            }
-            if (extractionTask != null) {
+            if (task != null) {
                 try {
-                    extractionTask.close();
+                    task.close();
                 } catch (Exception ex) {
-                    logger.error("Error closing data", ex);
+                    logger.error("Error getting report", ex);
                 }
             }
-            if (document != null) {
-                try {
-                    document.close();
-                } catch (Exception ex) {
-                    logger.error("Error closing document", ex);
-                }
+            if (lease != null) {
+                lease.close();
             }
-            if (file != null && file.exists()) {
-                try {
-                    Files.delete(file.toPath());
-                } catch (Exception ex) {
-                    logger.error("Error closing document", ex);
-                }
+            if (!done) {
+                deleteImages(options);
             }
         }
     }
 
     /**
-     * Writes a PDF report to the output stream. The PDF is stripped of the Creator attribute, which contains birt runtime version and
-     * location and therefore compromises security
+     * Create a report from a Birt document (.rptdocument). The design is executed once for a set of parameters and locale, then the
+     * document is rendered for each requested format or page range, without running the data queries again while the document is kept
+     * in the document store. Without document store, the document is only used for this rendering.
      *
-     * @param aStream
-     *            outputstream to write the report in
      * @param aReportFile
-     *            design file
+     *            the report design file, either a File or Blob object
      * @param aParameters
-     *            report parameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
      * @param aLocale
-     *            language
-     * @throws ISException
-     *             error in design file or report generation
+     *            the locale to use in the report generation
+     * @param aPageRange
+     *            the pages to render (ex: "1-5,8"), <code>null</code> for all pages
+     * @return the report
+     * @throws EngineException
+     *             throwed when the report design file does not exist or is invalid or when an exception occurs in the report generation
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read
+     * @throws IOException
+     *             erreur de création du document
      */
-    public void writeSecurePDF(OutputStream aStream, Object aReportFile, Map<String, Object> aParameters, Locale aLocale)
-            throws ISException {
-        try {
-            aStream.write(getSecureReport(aReportFile, aParameters, ReportType.PDF.toString(), false, aLocale));
-        } catch (IOException e) {
-            throw new ISException(e);
-        }
+    public ByteArrayOutputStream getDocumentReport(Object aReportFile, Map<String, Object> aParameters, String aFormat,
+            boolean aEmbeddable, Locale aLocale, String aPageRange) throws EngineException, SQLException, IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        runOnceAndRender(output, aReportFile, aParameters, aFormat, aEmbeddable, aLocale, aPageRange);
+        return output;
     }
 
     /**
-     * Creates an HTML or PDF report. In case of PDF, creates it without the Creator attribute, which can compromise security
-     *
+     * Create a report from a Birt document (.rptdocument), streamed into the given stream. See
+     * {@link #getDocumentReport(Object, Map, String, boolean, Locale, String)}.
      *
+     * @param aStream
+     *            the result stream, flushed but not closed
      * @param aReportFile
      *            the report design file, either a File or Blob object
      * @param aParameters
@@ -492,60 +539,1233 @@ public class ReportEngine implements Serializable {
      *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
      * @param aLocale
      *            the locale to use in the report generation
-     * @return the report
-     * @throws ISException
-     *             error in the design file or in the generation of the repport
+     * @param aPageRange
+     *            the pages to render (ex: "1-5,8"), <code>null</code> for all pages
+     * @throws EngineException
+     *             throwed when the report design file does not exist or is invalid or when an exception occurs in the report generation
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read
+     * @throws IOException
+     *             if an I/O error occurs
      */
-    public byte[] getSecureReport(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable, Locale aLocale)
-            throws ISException {
-        try (ByteArrayOutputStream baos = getReport(aReportFile, aParameters, aFormat, aEmbeddable, aLocale)) {
-            if (ReportType.PDF.toString().equalsIgnoreCase(aFormat)) {
-                return removeCreatorAttribute(baos.toByteArray());
-            }
-            return baos.toByteArray();
-        } catch (EngineException | IOException | SQLException e) {
-            throw new ISException(e);
-        }
+    public void getDocumentReport(OutputStream aStream, Object aReportFile, Map<String, Object> aParameters, String aFormat,
+            boolean aEmbeddable, Locale aLocale, String aPageRange) throws EngineException, SQLException, IOException {
+        runOnceAndRender(new NonClosingOutputStream(aStream, iDeadlines), aReportFile, aParameters, aFormat, aEmbeddable, aLocale,
+                aPageRange);
+        aStream.flush();
     }
 
     /**
-     * Supprime l'information sur l'emplacement et version de Birt runtime dans le méta-info "Creator" du PDF
+     * Render a report from a Birt document, executing the design only if the document is not in the document store.
      *
-     * @param aPdf
-     *            le pdf Birt
-     * @return le pdf Birt sans path vers Birt runtime
-     * @throws ISException
-     *             erreur de lecture ou écriture dans le pdf
-     */
-    private byte[] removeCreatorAttribute(byte[] aPdf) throws ISException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(aPdf);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                ByteArrayOutputStream baos2 = new ByteArrayOutputStream()) {
-            // read existing pdf document
-            PdfReader reader = new PdfReader(bais);
-            PdfStamper stamper = new PdfStamper(reader, baos);
-
-            // get and edit meta-data
-            @SuppressWarnings("unchecked")
+     * @param aOutput
+     *            the output stream given to the BIRT emitter
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @param aPageRange
+     *            the pages to render, <code>null</code> for all pages
+     * @throws EngineException
+     *             erreur d'exécution ou de rendu du rapport
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read
+     * @throws IOException
+     *             erreur de création du document
+     */
+    private void runOnceAndRender(OutputStream aOutput, Object aReportFile, Map<String, Object> aParameters, String aFormat,
+            boolean aEmbeddable, Locale aLocale, String aPageRange) throws EngineException, SQLException, IOException {
+        Object design = toCacheableDesign(aReportFile);
+        String identity = iDocumentStore == null ? null : getDesignIdentity(design);
+        String key = identity == null ? null : ReportOutputCache.getKey(identity, aParameters, "rptdocument", false, aLocale, false);
+
+        ReportDocumentStore.Document stored = key == null ? null : iDocumentStore.acquire(key);
+        File file = stored == null ? null : stored.getFile();
+        ReportArchive archive = null;
+        IRenderTask renderTask = null;
+        IReportDocument document = null;
+        RenderOption options = null;
+        boolean done = false;
+        try (ReportMetrics.Trace trace = trace(design, aFormat); ReportDeadlines.Watch watch = watch(design);
+                ReportExecutor.Permit permit = admit(aFormat)) {
+            checkCancelled(watch);
+            if (file == null && key == null && iArchiveThreshold > 0) {
+                // One-shot document, kept in memory below the threshold
+                archive = newArchive();
+                runDocument(null, archive, design, aParameters, aLocale);
+            } else if (file == null) {
+                file = iDocumentStore == null ? File.createTempFile("birt_", ".rptdocument") : iDocumentStore.newFile();
+                runDocument(file, null, design, aParameters, aLocale);
+                if (key != null) {
+                    stored = iDocumentStore.publish(key, file);
+                }
+            }
+
+            // Render the document
+            document = archive != null ? archive.open(iReportEngine) : iReportEngine.openReportDocument(file.getPath());
+            renderTask = iReportEngine.createRenderTask(document);
+            watch.attach(renderTask);
+            if (aLocale != null) {
+                renderTask.setLocale(aLocale);
+            }
+            if (aPageRange != null) {
+                renderTask.setPageRange(aPageRange);
+            }
+            options = createRenderOption(aFormat, aEmbeddable);
+            options.setOutputStream(count(aOutput));
+            renderTask.setAppContext(new HashMap<>());
+            renderTask.setRenderOption(options);
+            long start = System.currentTimeMillis();
+            try {
+                renderTask.render();
+            } catch (EngineException e) {
+                checkCancelled(watch);
+                throw e;
+            }
+            checkCancelled(watch);
+            phase(ReportMetrics.PHASE_RENDER, start);
+            trace.succeeded();
+            done = true;
+        } finally {
+            if (renderTask != null) {
+                try {
+                    renderTask.close();
+                } catch (Exception ex) {
+                    logger.error("Error closing render task", ex);
+                }
+            }
+            if (document != null) {
+                try {
+                    document.close();
+                } catch (Exception ex) {
+                    logger.error("Error closing document", ex);
+                }
+            }
+            if (archive != null) {
+                archive.close();
+            }
+            if (stored != null) {
+                iDocumentStore.release(stored);
+            } else if (file != null) {
+                ReportDocumentStore.delete(file);
+            }
+            if (!done) {
+                deleteImages(options);
+            }
+        }
+    }
+
+    /**
+     * Execute a report design into a Birt document.
+     *
+     * @param aFile
+     *            the document file, <code>null</code> when an archive is given
+     * @param aArchive
+     *            the in-memory document archive, <code>null</code> when a file is given
+     * @param aReportFile
+     *            the report design, as File, Blob or byte[]
+     * @param aParameters
+     *            the parameters for the report
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @throws EngineException
+     *             erreur d'exécution du rapport
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read
+     */
+    private void runDocument(File aFile, ReportArchive aArchive, Object aReportFile, Map<String, Object> aParameters, Locale aLocale)
+            throws EngineException, SQLException, IOException {
+        IRunTask runTask = null;
+        ReportConnectionProvider.Lease lease = null;
+        boolean done = false;
+        try (ReportDeadlines.Watch watch = watch(aReportFile)) {
+            runTask = iReportEngine.createRunTask(openDesign(aReportFile));
+            watch.attach(runTask);
+            if (aLocale != null) {
+                runTask.setLocale(aLocale);
+            }
+            ReportEngine.setParams(runTask, iParameters);
+            ReportEngine.setParams(runTask, aParameters);
+            HashMap<Object, Object> contextMap = new HashMap<>();
+            lease = lease(contextMap, aReportFile);
+            watch.attach(lease);
+            runTask.setAppContext(contextMap);
+            long start = System.currentTimeMillis();
+            try {
+                if (aArchive != null) {
+                    runTask.run(aArchive.getWriter());
+                } else {
+                    runTask.run(aFile.getPath());
+                }
+            } catch (EngineException e) {
+                checkCancelled(watch);
+                throw e;
+            }
+            checkCancelled(watch);
+            phase(ReportMetrics.PHASE_RUN, start);
+            done = true;
+        } finally {
+            if (runTask != null) {
+                try {
+                    runTask.close();
+                } catch (Exception ex) {
+                    logger.error("Error closing run task", ex);
+                }
+            }
+            if (lease != null) {
+                lease.close();
+            }
+            if (!done && aFile != null) {
+                ReportDocumentStore.delete(aFile);
+            }
+        }
+    }
+
+    /**
+     * Delete the images written by a failed HTML rendering, with their request directory.
+     *
+     * @param aOptions
+     *            the rendering options, <code>null</code> if not created
+     */
+    private void deleteImages(RenderOption aOptions) {
+        if (iTempJanitor != null && aOptions instanceof HTMLRenderOption) {
+            String dir = ((HTMLRenderOption) aOptions).getImageDirectory();
+            if (dir != null) {
+                ReportTempJanitor.deleteRequestDirectory(new File(dir));
+            }
+        }
+    }
+
+    /**
+     * Create the rendering options for an output format.
+     *
+     * @param aFormat
+     *            the output format: pdf, excel, excel-xlsx, doc or html (default)
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @return the rendering options, without output stream
+     */
+    private RenderOption createRenderOption(String aFormat, boolean aEmbeddable) {
+        // Format sans casse, comme le cache des rapports et le contrôle d'admission
+        String outFormat = aFormat == null ? "html" : aFormat.toLowerCase(Locale.ROOT);
+        RenderOption options;
+        if (outFormat.equals("pdf")) {
+            options = new PDFRenderOption();
+            options.setOutputFormat("pdf");
+        } else if (outFormat.equals("excel")) {
+            options = new EXCELRenderOption();
+            options.setOutputFormat("xls");
+        } else if (outFormat.equals("excel-xlsx")) {
+            options = new EXCELRenderOption();
+            options.setOutputFormat("xlsx");
+        } else if (outFormat.equals("doc")) {
+            options = new RenderOption();
+            options.setOutputFormat("doc");
+        } else {
+            // OK html
+            HTMLRenderOption optionsHTML = new HTMLRenderOption();
+            options = optionsHTML;
+            if (iTempJanitor != null) {
+                // Images written in a request directory, created with the first image and cleaned at once
+                File dir = iTempJanitor.newRequestDirectory();
+                options.setImageHandler(new ReportImageHandler(iImageStore, "BirtServlet?image=", dir));
+                optionsHTML.setImageDirectory(dir.getPath());
+                optionsHTML.setBaseImageURL("BirtServlet?image=" + dir.getName() + "/");
+            } else {
+                options.setImageHandler(iImageStore == null ? new HTMLServerImageHandler()
+                        : new ReportImageHandler(iImageStore, "BirtServlet?image=", null));
+                String tempo = getContextManager().getProperty("report.tempo.dir");
+                optionsHTML.setImageDirectory(tempo);
+                optionsHTML.setBaseImageURL("BirtServlet?image=");
+            }
+            if (aEmbeddable) {
+                optionsHTML.setEmbeddable(true);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Extract the data of a report in a text file.
+     *
+     * @param aStream
+     *            the result stream
+     * @param aReportFile
+     *            the report design file
+     * @param aParameters
+     *            the parametres for the report
+     * @param aSeparator
+     *            the field separator ex: <code>','</code> or <code>'\t'</code>
+     * @throws BirtException
+     *             erreur dans l'éxtraction du rapport
+     * @throws IOException
+     *             erreur au niveau d'écriture dans le fichier
+     */
+    public void extractData(OutputStream aStream, Object aReportFile, Map<String, Object> aParameters, char aSeparator)
+            throws BirtException, IOException {
+        extractData(aStream, aReportFile, aParameters, aSeparator, Charset.defaultCharset());
+    }
+
+    /**
+     * Extract the data of a report in a CSV file (RFC 4180), written through a buffered {@link CsvWriter}.
+     *
+     * @param aStream
+     *            the result stream, flushed but not closed
+     * @param aReportFile
+     *            the report design file
+     * @param aParameters
+     *            the parametres for the report
+     * @param aSeparator
+     *            the field separator ex: <code>','</code> or <code>'\t'</code>
+     * @param aCharset
+     *            the charset of the text file
+     * @throws BirtException
+     *             erreur dans l'éxtraction du rapport
+     * @throws IOException
+     *             erreur au niveau d'écriture dans le fichier
+     * @throws ReportCancelledException
+     *             le rapport a été annulé: délai dépassé ou client déconnecté
+     */
+    public void extractData(OutputStream aStream, Object aReportFile, Map<String, Object> aParameters, char aSeparator,
+            Charset aCharset) throws BirtException, IOException {
+        // Create the temporary report document, in memory below the threshold
+        ReportArchive archive = iArchiveThreshold > 0 ? newArchive() : null;
+        File file = archive == null ? File.createTempFile("birt_", ".rptdocument") : null;
+
+        IRunTask runTask = null;
+        ReportConnectionProvider.Lease lease = null;
+        IDataExtractionTask extractionTask = null;
+        IReportDocument document = null;
+        try (ReportMetrics.Trace trace = trace(aReportFile, ReportType.CSV.toString()); ReportDeadlines.Watch watch = watch(aReportFile);
+                ReportExecutor.Permit permit = admit(ReportType.CSV.toString())) {
+            checkCancelled(watch);
+            CsvWriter writer = new CsvWriter(count(new NonClosingOutputStream(aStream, iDeadlines)), aSeparator, aCharset);
+
+            // Read the design and create de task
+            IReportRunnable design;
+            try {
+                design = openDesign(aReportFile);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+            runTask = iReportEngine.createRunTask(design);
+            watch.attach(runTask);
+
+            // Set the parameters
+            ReportEngine.setParams(runTask, iParameters);
+            ReportEngine.setParams(runTask, aParameters);
+            HashMap<Object, Object> contextMap = new HashMap<>();
+            lease = lease(contextMap, aReportFile);
+            watch.attach(lease);
+            runTask.setAppContext(contextMap);
+
+            // Run the report and store the result in the temporary document
+            long start = System.currentTimeMillis();
+            try {
+                if (archive != null) {
+                    runTask.run(archive.getWriter());
+                } else {
+                    runTask.run(file.getPath());
+                }
+            } catch (EngineException e) {
+                checkCancelled(watch);
+                throw e;
+            }
+            checkCancelled(watch);
+            document = archive != null ? archive.open(iReportEngine) : iReportEngine.openReportDocument(file.getPath());
+            phase(ReportMetrics.PHASE_RUN, start);
+            start = System.currentTimeMillis();
+            long rows = 0;
+
+            // Create the extraction task
+            extractionTask = iReportEngine.createDataExtractionTask(document);
+            watch.attach(extractionTask);
+
+            // Iterate over all the data sets in the report
+            for (Object obj : extractionTask.getResultSetList()) {
+                // Set the result set name
+                IResultSetItem resultSetItem = (IResultSetItem) obj;
+                extractionTask.selectResultSet(resultSetItem.getResultSetName());
+
+                // Extract the data
+                IExtractionResults extractResults = extractionTask.extract();
+
+                // Read the internal result and construct the external text
+                // result
+                IDataIterator it = extractResults.nextResultIterator();
+                IResultMetaData metadata = it.getResultMetaData();
+                int columns = metadata.getColumnCount();
+
+                // Write the field names in the first row
+                for (int i = 0; i < columns; i++) {
+                    writer.writeField(metadata.getColumnLabel(i));
+                }
+                writer.endRecord();
+
+                // Write the data
+                while (!watch.isCancelled() && it.next()) {
+                    for (int i = 0; i < columns; i++) {
+                        writer.writeField(it.getValue(i));
+                    }
+                    writer.endRecord();
+                    rows++;
+                }
+                it.close();
+                extractResults.close();
+                checkCancelled(watch);
+            }
+            writer.flush();
+            phase(ReportMetrics.PHASE_EXTRACT, start);
+            rows(rows);
+            trace.succeeded();
+        } finally {
+            if (runTask != null) {
+                try {
+                    runTask.close();
+                } catch (Exception ex) {
+                    logger.error("Error closing data", ex);
+                }
+            }
+            if (lease != null) {
+                lease.close();
+            }
+            if (extractionTask != null) {
+                try {
+                    extractionTask.close();
+                } catch (Exception ex) {
+                    logger.error("Error closing data", ex);
+                }
+            }
+            if (document != null) {
+                try {
+                    document.close();
+                } catch (Exception ex) {
+                    logger.error("Error closing document", ex);
+                }
+            }
+            if (archive != null) {
+                archive.close();
+            }
+            if (file != null && file.exists()) {
+                try {
+                    Files.delete(file.toPath());
+                } catch (Exception ex) {
+                    logger.error("Error closing document", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Extract one data set of a report design in a CSV file (RFC 4180). The data set is executed directly by the BIRT data engine: the
+     * report is neither run nor rendered and no report document is written, the rows are streamed to the output while they are read.
+     *
+     * Property bindings of the data source are not evaluated, the connection parameters of this engine are used for JDBC data sources.
+     * The data set parameters take the value of their linked report parameter, or its default value. A data set parameter has a single
+     * value: a multi-value report parameter bound to a data set parameter is rejected, such reports must be extracted by extractData.
+     *
+     * @param aStream
+     *            the result stream, flushed but not closed
+     * @param aReportFile
+     *            the report design file
+     * @param aDataSetName
+     *            the data set name, <code>null</code> for the first data set of the design
+     * @param aParameters
+     *            the parametres for the report
+     * @param aSeparator
+     *            the field separator ex: <code>','</code> or <code>'\t'</code>
+     * @param aCharset
+     *            the charset of the text file
+     * @return the number of extracted rows
+     * @throws BirtException
+     *             erreur dans l'éxtraction du data set
+     * @throws IOException
+     *             erreur au niveau d'écriture dans le fichier
+     * @throws ReportCancelledException
+     *             le rapport a été annulé: délai dépassé ou client déconnecté
+     * @throws IllegalArgumentException
+     *             un paramètre multi-valeurs est lié à un paramètre du data set
+     */
+    public long extractDataSet(OutputStream aStream, Object aReportFile, String aDataSetName, Map<String, Object> aParameters,
+            char aSeparator, Charset aCharset) throws BirtException, IOException {
+        try (ReportMetrics.Trace trace = trace(aReportFile, ReportType.CSV.toString()); ReportDeadlines.Watch watch = watch(aReportFile);
+                ReportExecutor.Permit permit = admit(ReportType.CSV.toString())) {
+            checkCancelled(watch);
+            IReportRunnable design;
+            try {
+                design = openDesign(aReportFile);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+
+            // Default values, then engine and report parameters, as for the engine tasks
+            Map<String, Object> parameters = new HashMap<>();
+            IGetParameterDefinitionTask task = iReportEngine.createGetParameterDefinitionTask(design);
+            try {
+                for (Object entry : task.getDefaultValues().entrySet()) {
+                    Map.Entry<?, ?> value = (Map.Entry<?, ?>) entry;
+                    parameters.put(String.valueOf(value.getKey()), value.getValue());
+                }
+            } finally {
+                task.close();
+            }
+            if (iParameters != null) {
+                parameters.putAll(iParameters);
+            }
+            if (aParameters != null) {
+                parameters.putAll(aParameters);
+            }
+
+            CsvWriter writer = new CsvWriter(count(new NonClosingOutputStream(aStream, iDeadlines)), aSeparator, aCharset);
+            HashMap<Object, Object> contextMap = new HashMap<>();
+            ReportConnectionProvider.Lease lease = lease(contextMap, aReportFile);
+            watch.attach(lease);
+            try {
+                long start = System.currentTimeMillis();
+                long rows;
+                try {
+                    rows = new DataSetExtractor(iParameters, contextMap).extract(design.getDesignHandle().getModuleHandle(), aDataSetName,
+                            parameters, writer);
+                } catch (BirtException | IOException e) {
+                    // Connexion interrompue ou client déconnecté
+                    checkCancelled(watch);
+                    throw e;
+                }
+                checkCancelled(watch);
+                writer.flush();
+                phase(ReportMetrics.PHASE_EXTRACT, start);
+                rows(rows);
+                trace.succeeded();
+                return rows;
+            } finally {
+                if (lease != null) {
+                    lease.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a PDF report to the output stream. The PDF is stripped of the Creator attribute, which contains birt runtime version and
+     * location and therefore compromises security
+     *
+     * The PDF is rendered into a buffer kept in memory up to the buffer threshold, then written in the report.tempo.dir directory. The
+     * Creator is erased while rendering, or by a second pass over the PDF if it was not found (ex: compressed object streams). The PDF is
+     * written into the output stream only once the Creator has been removed.
+     *
+     * @param aStream
+     *            outputstream to write the report in
+     * @param aReportFile
+     *            design file
+     * @param aParameters
+     *            report parameters
+     * @param aLocale
+     *            language
+     * @throws ISException
+     *             error in design file or report generation
+     */
+    public void writeSecurePDF(OutputStream aStream, Object aReportFile, Map<String, Object> aParameters, Locale aLocale)
+            throws ISException {
+        try (ReportBuffer pdf = getSecureReportBuffer(aReportFile, aParameters, ReportType.PDF.toString(), false, aLocale)) {
+            pdf.writeTo(aStream);
+            aStream.flush();
+        } catch (IOException e) {
+            throw new ISException(e);
+        }
+    }
+
+    /**
+     * Creates an HTML or PDF report. In case of PDF, creates it without the Creator attribute, which can compromise security
+     *
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @return the report
+     * @throws ISException
+     *             error in the design file or in the generation of the repport
+     */
+    public byte[] getSecureReport(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable, Locale aLocale)
+            throws ISException {
+        // Segments en mémoire, une seule copie dans le tableau du résultat
+        try (ReportBuffer buffer = new ReportBuffer()) {
+            Object design = toCacheableDesign(aReportFile);
+            String key = getOutputCacheKey(design, aParameters, aFormat, aEmbeddable, aLocale, true);
+            if (key != null) {
+                byte[] cached = iOutputCache.get(key);
+                if (cached != null) {
+                    // Le tableau du cache est partagé, l'appelant peut modifier le sien
+                    return Arrays.copyOf(cached, cached.length);
+                }
+            }
+
+            writeSecureReport(buffer, design, aParameters, aFormat, aEmbeddable, aLocale);
+            byte[] report = buffer.toByteArray();
+            if (key != null) {
+                iOutputCache.put(key, Arrays.copyOf(report, report.length));
+            }
+            return report;
+        } catch (EngineException | IOException | SQLException e) {
+            throw new ISException(e);
+        }
+    }
+
+    /**
+     * Creates an HTML or PDF report without the Creator attribute, like {@link #getSecureReport(Object, Map, String, boolean, Locale)}, in
+     * a buffer kept in memory up to the buffer threshold, then written in the report.tempo.dir directory.
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @return the report, to close after use
+     * @throws ISException
+     *             error in the design file or in the generation of the repport
+     */
+    public ReportBuffer getSecureReportBuffer(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable,
+            Locale aLocale) throws ISException {
+        ReportBuffer buffer = null;
+        try {
+            buffer = newBuffer();
+            Object design = toCacheableDesign(aReportFile);
+            String key = getOutputCacheKey(design, aParameters, aFormat, aEmbeddable, aLocale, true);
+            byte[] cached = key == null ? null : iOutputCache.get(key);
+            if (cached != null) {
+                buffer.write(cached);
+            } else {
+                writeSecureReport(buffer, design, aParameters, aFormat, aEmbeddable, aLocale);
+                if (key != null && !buffer.isSpilled()) {
+                    iOutputCache.put(key, buffer.toByteArray());
+                }
+            }
+            return buffer;
+        } catch (EngineException | IOException | SQLException | ISException | RuntimeException e) {
+            if (buffer != null) {
+                buffer.close();
+            }
+            throw e instanceof ISException ? (ISException) e : new ISException(e);
+        }
+    }
+
+    /**
+     * Creates an HTML or PDF report in a buffer. In case of PDF, the Creator attribute is blanked while rendering, the PDF is read again
+     * only if it was not found.
+     *
+     * @param aBuffer
+     *            the buffer
+     * @param aReportFile
+     *            the report design
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @throws EngineException
+     *             error in the report generation
+     * @throws SQLException
+     *             the design blob cannot be read
+     * @throws IOException
+     *             error writing the buffer
+     * @throws ISException
+     *             error removing the Creator attribute
+     */
+    private void writeSecureReport(ReportBuffer aBuffer, Object aReportFile, Map<String, Object> aParameters, String aFormat,
+            boolean aEmbeddable, Locale aLocale) throws EngineException, SQLException, IOException, ISException {
+        try (ReportMetrics.Trace trace = trace(aReportFile, aFormat)) {
+            // BIRT close the output stream at the end of the rendering
+            OutputStream output = new NonClosingOutputStream(aBuffer, null);
+            if (ReportType.PDF.toString().equalsIgnoreCase(aFormat)) {
+                CreatorStrippingOutputStream pdf = new CreatorStrippingOutputStream(output);
+                runAndRender(pdf, aReportFile, aParameters, aFormat, aEmbeddable, aLocale);
+                long start = System.currentTimeMillis();
+                if (!pdf.isStripped()) {
+                    byte[] report = removeCreatorAttribute(aBuffer.toByteArray());
+                    aBuffer.reset();
+                    aBuffer.write(report);
+                }
+                phase(ReportMetrics.PHASE_POSTPROCESS, start);
+            } else {
+                runAndRender(output, aReportFile, aParameters, aFormat, aEmbeddable, aLocale);
+            }
+            trace.succeeded();
+        }
+    }
+
+    /**
+     * Creates a report in the background, in the report execution pool. The result is the same as
+     * {@link #getSecureReport(Object, Map, String, boolean, Locale)}.
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @return the future report
+     * @throws ReportRejectedException
+     *             the report pool is saturated
+     */
+    public CompletableFuture<byte[]> getReportAsync(Object aReportFile, Map<String, Object> aParameters, String aFormat,
+            boolean aEmbeddable, Locale aLocale) {
+        return getReportAsync(aReportFile, aFormat, null, () -> getSecureReport(aReportFile, aParameters, aFormat, aEmbeddable, aLocale));
+    }
+
+    /**
+     * Creates a report in the background and registers it in the job store, so that its status and result can be polled by its id.
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @return the job
+     * @throws ReportRejectedException
+     *             the report pool is saturated
+     */
+    public ReportJob submitReport(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable,
+            Locale aLocale) {
+        return submitReport(aReportFile, aParameters, aFormat, aEmbeddable, aLocale, null);
+    }
+
+    /**
+     * Creates a report in the background for a user, see {@link #submitReport(Object, Map, String, boolean, Locale)}. Only this user can
+     * get the status and the result of the job.
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML (without &lt;HTML&gt; and &lt;BODY&gt;)
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @param aOwner
+     *            the user submitting the report, <code>null</code> for a job without owner
+     * @return the job
+     * @throws ReportRejectedException
+     *             the report pool is saturated
+     */
+    public ReportJob submitReport(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable,
+            Locale aLocale, String aOwner) {
+        if (iJobStore == null) {
+            throw new IllegalStateException("Report job store not configured");
+        }
+        ReportJob job = iJobStore.create(aFormat, aOwner);
+        try {
+            // Résultat en buffer: les grands rapports sont écrits sur disque sans passer par un tableau
+            getReportAsync(aReportFile, aFormat, job, () -> getSecureReportBuffer(aReportFile, aParameters, aFormat, aEmbeddable, aLocale))
+                    .whenComplete((report, error) -> iJobStore.complete(job, report, error));
+        } catch (ReportRejectedException e) {
+            iJobStore.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * Creates a report in the background.
+     *
+     * @param <T>
+     *            type of the report
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aFormat
+     *            the output format
+     * @param aJob
+     *            the job to mark as running, <code>null</code> without job
+     * @param aReport
+     *            creates the report
+     * @return the future report
+     */
+    private <T> CompletableFuture<T> getReportAsync(Object aReportFile, String aFormat, ReportJob aJob, Callable<T> aReport) {
+        if (iExecutor == null) {
+            throw new IllegalStateException("Report pool not configured");
+        }
+        return iExecutor.submit(aFormat, () -> {
+            try (ReportDeadlines.Watch watch = watch(aReportFile)) {
+                if (aJob != null) {
+                    aJob.started(watch);
+                    if (aJob.isCancelRequested()) {
+                        watch.cancel(ReportDeadlines.CANCEL);
+                        if (iMetrics != null) {
+                            iMetrics.cancelled(ReportDeadlines.CANCEL);
+                        }
+                        throw new ReportCancelledException(ReportDeadlines.CANCEL, "Report job " + aJob.getId() + " cancelled");
+                    }
+                }
+                return aReport.call();
+            }
+        });
+    }
+
+    /**
+     * Creates a batch of reports from one design and many parameter sets. The design is opened once, the reports are created in parallel
+     * and each report is given to the sink as soon as it is finished. A failed report does not abort the batch. PDF reports are created
+     * without the Creator attribute.
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @param aParameterSets
+     *            the parameters of each report, read lazily
+     * @param aFormat
+     *            the output format: PDF, HTML or Excel
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @param aParallelism
+     *            number of reports created in parallel; with the admission control, each report is a task of the report pool that holds
+     *            a place only while it runs, and the batch never uses more than half of the pool
+     * @param aSink
+     *            the destination of the reports
+     * @return the batch result, with the failures
+     * @throws ISException
+     *             error in the design file, or the batch was interrupted
+     * @throws ReportRejectedException
+     *             the first report was not admitted by the report pool
+     */
+    public ReportBatchResult runBatch(Object aReportFile, Iterator<Map<String, Object>> aParameterSets, String aFormat, Locale aLocale,
+            int aParallelism, ReportBatchSink aSink) throws ISException {
+        try {
+            IReportRunnable design = openDesign(aReportFile);
+            return new ReportBatch(this, design, aFormat, aLocale).run(aParameterSets, aParallelism, aSink);
+        } catch (EngineException | SQLException e) {
+            throw new ISException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ISException(e);
+        }
+    }
+
+    /**
+     * Supprime l'information sur l'emplacement et version de Birt runtime dans le méta-info "Creator" du PDF
+     *
+     * @param aPdf
+     *            le pdf Birt
+     * @return le pdf Birt sans path vers Birt runtime
+     * @throws ISException
+     *             erreur de lecture ou écriture dans le pdf
+     */
+    private byte[] removeCreatorAttribute(byte[] aPdf) throws ISException {
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(aPdf);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ByteArrayOutputStream baos2 = new ByteArrayOutputStream()) {
+            // read existing pdf document
+            PdfReader reader = new PdfReader(bais);
+            PdfStamper stamper = new PdfStamper(reader, baos);
+
+            // get and edit meta-data
+            @SuppressWarnings("unchecked")
             HashMap<String, String> info = reader.getInfo();
             String creator = info.get("Creator");
             if (creator == null || creator.isEmpty()) {
                 return aPdf;
             }
-            info.put("Creator", null);
+            info.put("Creator", null);
+
+            // add updated meta-data to pdf
+            stamper.setMoreInfo(info);
+
+            // update xmp meta-data
+            XmpWriter xmp = new XmpWriter(baos2, info);
+            xmp.close();
+            stamper.setXmpMetadata(baos2.toByteArray());
+            stamper.close();
+            return baos.toByteArray();
+        } catch (IOException | DocumentException e) {
+            throw new ISException(e);
+        }
+    }
+
+    /**
+     * Ouvre un design, en passant par le cache des designs compilés s'il est activé.
+     *
+     * @param aReportFile
+     *            the report design, either a File, a Blob, its content as byte[], an InputStream (InputStream designs are never cached) or
+     *            an already opened IReportRunnable
+     * @return a runnable report
+     * @throws EngineException
+     *             problème de lecture du rapport BIRT
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read
+     */
+    private IReportRunnable openDesign(Object aReportFile) throws EngineException, SQLException {
+        long start = System.currentTimeMillis();
+        IReportRunnable design = loadDesign(aReportFile);
+        phase(ReportMetrics.PHASE_DESIGN, start);
+        return design;
+    }
+
+    /**
+     * Ouvre un design, en passant par le cache des designs compilés s'il est activé, sans mesure.
+     *
+     * @param aReportFile
+     *            the report design, either a File, a Blob, its content as byte[], an InputStream or an already opened IReportRunnable
+     * @return a runnable report
+     * @throws EngineException
+     *             problème de lecture du rapport BIRT
+     * @throws SQLException
+     *             thrown when the report design file is a blob and cannot be read
+     */
+    private IReportRunnable loadDesign(Object aReportFile) throws EngineException, SQLException {
+        if (aReportFile instanceof IReportRunnable) {
+            return (IReportRunnable) aReportFile;
+        }
+        if (aReportFile instanceof InputStream) {
+            return iReportEngine.openReportDesign((InputStream) aReportFile);
+        }
+        if (aReportFile instanceof File) {
+            File file = (File) aReportFile;
+            if (iDesignCache == null) {
+                return iReportEngine.openReportDesign(file.getPath());
+            }
+            String key;
+            try {
+                key = ReportDesignCache.getKey(file);
+            } catch (IOException e) {
+                logger.warn("Design not cached, canonical path not resolved: " + file, e);
+                return iReportEngine.openReportDesign(file.getPath());
+            }
+            String stamp = ReportDesignCache.getStamp(file);
+            IReportRunnable design = iDesignCache.get(key, stamp);
+            if (design == null) {
+                design = iReportEngine.openReportDesign(file.getPath());
+                iDesignCache.put(key, stamp, design);
+            }
+            return design;
+        }
+
+        byte[] content;
+        if (aReportFile instanceof byte[]) {
+            content = (byte[]) aReportFile;
+        } else if (iDesignCache == null) {
+            try (InputStream reportIS = ((Blob) aReportFile).getBinaryStream()) {
+                return iReportEngine.openReportDesign(reportIS);
+            } catch (IOException e) {
+                logger.error("Error closing report design input stream", e);
+                throw new SQLException(e);
+            }
+        } else {
+            content = readBlob((Blob) aReportFile);
+        }
+        if (iDesignCache == null) {
+            return iReportEngine.openReportDesign(new ByteArrayInputStream(content));
+        }
+        String key = ReportDesignCache.getKey(content);
+        IReportRunnable design = iDesignCache.get(key, "");
+        if (design == null) {
+            design = iReportEngine.openReportDesign(new ByteArrayInputStream(content));
+            iDesignCache.put(key, "", design);
+        }
+        return design;
+    }
+
+    /**
+     * Crée un document temporaire gardé en mémoire jusqu'au seuil, puis écrit dans le répertoire temporaire des rapports.
+     *
+     * @return le document, à fermer après le rendu
+     * @throws IOException
+     *             erreur de création de l'archive
+     */
+    private ReportArchive newArchive() throws IOException {
+        return new ReportArchive(getTempDirectory(), iArchiveThreshold);
+    }
+
+    /**
+     * Crée un buffer gardé en mémoire jusqu'au seuil, puis écrit dans le sous-répertoire des buffers du répertoire temporaire des
+     * rapports.
+     *
+     * @return le buffer, à fermer après usage
+     */
+    private ReportBuffer newBuffer() {
+        return new ReportBuffer(new File(getTempDirectory(), ReportBuffer.DIRECTORY), iBufferThreshold);
+    }
+
+    /**
+     *
+     * @return répertoire temporaire des rapports, report.tempo.dir ou à défaut java.io.tmpdir
+     */
+    private File getTempDirectory() {
+        String tempo = iContextManager == null ? null : iContextManager.getProperty("report.tempo.dir");
+        return new File(tempo != null ? tempo : System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * Attend une place pour exécuter un rapport, si le contrôle d'admission est activé.
+     *
+     * @param aFormat
+     *            the output format
+     * @return la place réservée, à libérer par close(), <code>null</code> si le contrôle d'admission est désactivé
+     * @throws ReportRejectedException
+     *             le rapport n'est pas admis
+     */
+    private ReportExecutor.Permit admit(String aFormat) {
+        if (iExecutor == null) {
+            return null;
+        }
+        ReportExecutor.Permit permit = iExecutor.acquire(aFormat);
+        if (iMetrics != null) {
+            iMetrics.phase(ReportMetrics.PHASE_QUEUE, permit.getQueueWait());
+        }
+        return permit;
+    }
+
+    /**
+     * Commence la mesure d'un rapport, ou continue celle du rapport en cours dans le thread.
+     *
+     * @param aReportFile
+     *            the report design, as File, Blob, byte[] or IReportRunnable
+     * @param aFormat
+     *            the output format
+     * @return la trace, à fermer par close(), {@link ReportMetrics.Trace#NONE} si les mesures sont désactivées
+     */
+    private ReportMetrics.Trace trace(Object aReportFile, String aFormat) {
+        return iMetrics == null ? ReportMetrics.Trace.NONE : iMetrics.start(getDesignName(aReportFile), aFormat);
+    }
+
+    /**
+     * Ajoute la durée d'une phase au rapport en cours, si les mesures sont activées.
+     *
+     * @param aPhase
+     *            la phase
+     * @param aStart
+     *            début de la phase, System.currentTimeMillis()
+     */
+    private void phase(String aPhase, long aStart) {
+        if (iMetrics != null) {
+            iMetrics.phase(aPhase, System.currentTimeMillis() - aStart);
+        }
+    }
+
+    /**
+     * Ajoute des lignes extraites au rapport en cours, si les mesures sont activées.
+     *
+     * @param aRows
+     *            nombre de lignes
+     */
+    private void rows(long aRows) {
+        if (iMetrics != null) {
+            iMetrics.rows(aRows);
+        }
+    }
+
+    /**
+     * Compte les octets du rapport en cours, si les mesures sont activées.
+     *
+     * @param aOut
+     *            stream du rapport
+     * @return le stream à utiliser
+     */
+    private OutputStream count(OutputStream aOut) {
+        return iMetrics == null ? aOut : iMetrics.count(aOut);
+    }
+
+    /**
+     * Commence la surveillance du délai d'un rapport, ou continue celle du rapport ou de la requête en cours dans le thread.
+     *
+     * @param aReportFile
+     *            the report design, as File, Blob, byte[] or IReportRunnable
+     * @return la surveillance, à fermer par close(), {@link ReportDeadlines.Watch#NONE} si les délais sont désactivés
+     */
+    private ReportDeadlines.Watch watch(Object aReportFile) {
+        return iDeadlines == null ? ReportDeadlines.Watch.NONE : iDeadlines.watch(getDesignName(aReportFile));
+    }
+
+    /**
+     * Interrompt le rapport s'il a été annulé, en comptant l'annulation dans les mesures.
+     *
+     * @param aWatch
+     *            la surveillance du rapport
+     * @throws ReportCancelledException
+     *             le rapport a été annulé
+     */
+    private void checkCancelled(ReportDeadlines.Watch aWatch) {
+        String reason = aWatch.getReason();
+        if (reason == null) {
+            return;
+        }
+        if (iMetrics != null) {
+            iMetrics.cancelled(reason);
+        }
+        throw new ReportCancelledException(reason, ReportDeadlines.TIMEOUT.equals(reason)
+                ? "Report cancelled after " + aWatch.getTimeout() + " ms" : "Report cancelled (" + reason + ")");
+    }
+
+    /**
+     * Nom d'un design pour les mesures et les connexions du pool.
+     *
+     * @param aReportFile
+     *            the report design, as File, Blob, byte[] or IReportRunnable
+     * @return nom du fichier .rptdesign, ou "blob" pour un design lu en base
+     */
+    private static String getDesignName(Object aReportFile) {
+        if (aReportFile instanceof File) {
+            return ((File) aReportFile).getName();
+        }
+        if (aReportFile instanceof IReportRunnable && ((IReportRunnable) aReportFile).getReportName() != null) {
+            return new File(((IReportRunnable) aReportFile).getReportName()).getName();
+        }
+        return "blob";
+    }
+
+    /**
+     * Passe une connexion du pool au contexte d'une tâche, si les connexions du pool sont activées pour le design. Avec le cache des data
+     * sets, la connexion met en cache les résultats des data sets du design.
+     *
+     * @param aAppContext
+     *            contexte de la tâche
+     * @param aReportFile
+     *            the report design, as File, Blob, byte[] or IReportRunnable (ex. runBatch), nommé comme pour les mesures ("blob" pour
+     *            un design lu en base)
+     * @return la connexion, à rendre par close() après la fermeture de la tâche, <code>null</code> pour les paramètres de connexion
+     */
+    private ReportConnectionProvider.Lease lease(Map<Object, Object> aAppContext, Object aReportFile) {
+        String designName = getDesignName(aReportFile);
+        if (iConnectionProvider == null || !iConnectionProvider.isPooled(designName)) {
+            return null;
+        }
+        ReportConnectionProvider.Lease lease = iConnectionProvider.lease(aAppContext);
+        if (lease != null && iDataSetCache != null) {
+            String identity = iDataSetCache.isCacheable(designName) ? getDesignIdentity(getDesignSource(aReportFile)) : null;
+            if (identity != null) {
+                iDataSetCache.wrap(aAppContext, identity, designName);
+            }
+        }
+        return lease;
+    }
 
-            // add updated meta-data to pdf
-            stamper.setMoreInfo(info);
+    /**
+     * Source d'un design ouvert, pour l'identifier: le fichier .rptdesign d'un IReportRunnable s'il existe.
+     *
+     * @param aReportFile
+     *            the report design, as File, Blob, byte[] or IReportRunnable
+     * @return the report design, as File, Blob or byte[], ou l'IReportRunnable s'il n'a pas de fichier
+     */
+    private static Object getDesignSource(Object aReportFile) {
+        if (aReportFile instanceof IReportRunnable && ((IReportRunnable) aReportFile).getReportName() != null) {
+            File file = new File(((IReportRunnable) aReportFile).getReportName());
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return aReportFile;
+    }
 
-            // update xmp meta-data
-            XmpWriter xmp = new XmpWriter(baos2, info);
-            xmp.close();
-            stamper.setXmpMetadata(baos2.toByteArray());
-            stamper.close();
-            return baos.toByteArray();
-        } catch (IOException | DocumentException e) {
-            throw new ISException(e);
+    /**
+     * Lit le contenu d'un design Blob, pour qu'il puisse être identifié par son digest.
+     *
+     * @param aBlob
+     *            the report design
+     * @return the design content
+     * @throws SQLException
+     *             thrown when the blob cannot be read
+     */
+    private static byte[] readBlob(Blob aBlob) throws SQLException {
+        return aBlob.getBytes(1, (int) aBlob.length());
+    }
+
+    /**
+     * Lit le contenu d'un design Blob si le cache des rapports, le stockage des documents ou le cache des data sets est activé, pour ne
+     * pas lire le Blob deux fois (identification et ouverture).
+     *
+     * @param aReportFile
+     *            the report design file, either a File or Blob object
+     * @return the report design, as File, Blob or byte[]
+     * @throws SQLException
+     *             thrown when the blob cannot be read
+     */
+    private Object toCacheableDesign(Object aReportFile) throws SQLException {
+        if ((iOutputCache != null || iDocumentStore != null || iDataSetCache != null) && aReportFile instanceof Blob) {
+            return readBlob((Blob) aReportFile);
+        }
+        return aReportFile;
+    }
+
+    /**
+     * Identité d'un design: chemin canonique et version pour un fichier, digest du contenu pour un Blob.
+     *
+     * @param aReportFile
+     *            the report design, as File or byte[]
+     * @return identité du design, <code>null</code> si le design ne peut pas être identifié
+     */
+    private static String getDesignIdentity(Object aReportFile) {
+        if (aReportFile instanceof File) {
+            File file = (File) aReportFile;
+            try {
+                return ReportDesignCache.getKey(file) + "@" + ReportDesignCache.getStamp(file);
+            } catch (IOException e) {
+                logger.warn("Design not identified, canonical path not resolved: " + file, e);
+                return null;
+            }
+        }
+        if (aReportFile instanceof byte[]) {
+            return ReportDesignCache.getKey((byte[]) aReportFile);
+        }
+        return null;
+    }
+
+    /**
+     * Clé d'un rapport dans le cache des rapports générés.
+     *
+     * @param aReportFile
+     *            the report design, as File or byte[]
+     * @param aParameters
+     *            the parameters for the report
+     * @param aFormat
+     *            the output format
+     * @param aEmbeddable
+     *            <code>true</code> for an embeddable HTML
+     * @param aLocale
+     *            the locale to use in the report generation
+     * @param aSecure
+     *            <code>true</code> for a PDF without Creator attribute
+     * @return la clé, <code>null</code> si le cache est désactivé ou si le rapport ne doit pas être mis en cache
+     */
+    private String getOutputCacheKey(Object aReportFile, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable,
+            Locale aLocale, boolean aSecure) {
+        if (iOutputCache == null) {
+            return null;
+        }
+        String designName = aReportFile instanceof File ? ((File) aReportFile).getName() : null;
+        if (!iOutputCache.isCacheable(designName, aFormat)) {
+            return null;
         }
+        String identity = getDesignIdentity(aReportFile);
+        if (identity == null) {
+            return null;
+        }
+        return ReportOutputCache.getKey(identity, aParameters, aFormat, aEmbeddable, aLocale, aSecure);
     }
 
     /**
@@ -576,6 +1796,24 @@ public class ReportEngine implements Serializable {
      * Destroy this engine.
      */
     public void destroy() {
+        if (iExecutor != null) {
+            iExecutor.shutdown();
+        }
+        if (iJobStore != null) {
+            iJobStore.clear();
+        }
+        if (iDocumentStore != null) {
+            iDocumentStore.invalidateAll();
+        }
+        if (iImageStore != null) {
+            iImageStore.clear();
+        }
+        if (iDataSetCache != null) {
+            iDataSetCache.invalidateAll();
+        }
+        if (iDeadlines != null) {
+            iDeadlines.shutdown();
+        }
         iReportEngine.destroy();
     }
 
@@ -603,4 +1841,264 @@ public class ReportEngine implements Serializable {
     public void setContextManager(IContextManager aContextManager) {
         iContextManager = aContextManager;
     }
+
+    /**
+     *
+     * @return cache des designs compilés, <code>null</code> si désactivé
+     */
+    public ReportDesignCache getDesignCache() {
+        return iDesignCache;
+    }
+
+    /**
+     *
+     * @param aDesignCache
+     *            cache des designs compilés, <code>null</code> pour le désactiver
+     */
+    public void setDesignCache(ReportDesignCache aDesignCache) {
+        iDesignCache = aDesignCache;
+    }
+
+    /**
+     *
+     * @return cache des rapports générés, <code>null</code> si désactivé
+     */
+    public ReportOutputCache getOutputCache() {
+        return iOutputCache;
+    }
+
+    /**
+     *
+     * @param aOutputCache
+     *            cache des rapports générés, <code>null</code> pour le désactiver
+     */
+    public void setOutputCache(ReportOutputCache aOutputCache) {
+        iOutputCache = aOutputCache;
+    }
+
+    /**
+     *
+     * @return stockage des documents Birt exécutés, <code>null</code> si désactivé
+     */
+    public ReportDocumentStore getDocumentStore() {
+        return iDocumentStore;
+    }
+
+    /**
+     *
+     * @param aDocumentStore
+     *            stockage des documents Birt exécutés, <code>null</code> pour le désactiver
+     */
+    public void setDocumentStore(ReportDocumentStore aDocumentStore) {
+        iDocumentStore = aDocumentStore;
+    }
+
+    /**
+     *
+     * @return contrôle d'admission des rapports, <code>null</code> si désactivé
+     */
+    public ReportExecutor getExecutor() {
+        return iExecutor;
+    }
+
+    /**
+     *
+     * @param aExecutor
+     *            contrôle d'admission des rapports, <code>null</code> pour le désactiver
+     */
+    public void setExecutor(ReportExecutor aExecutor) {
+        iExecutor = aExecutor;
+    }
+
+    /**
+     *
+     * @return rapports exécutés en arrière-plan, <code>null</code> si désactivé
+     */
+    public ReportJobStore getJobStore() {
+        return iJobStore;
+    }
+
+    /**
+     *
+     * @param aJobStore
+     *            rapports exécutés en arrière-plan, <code>null</code> pour désactiver
+     */
+    public void setJobStore(ReportJobStore aJobStore) {
+        iJobStore = aJobStore;
+    }
+
+    /**
+     *
+     * @return seuil des documents temporaires gardés en mémoire, en octets
+     */
+    public long getArchiveThreshold() {
+        return iArchiveThreshold;
+    }
+
+    /**
+     *
+     * @param aArchiveThreshold
+     *            seuil des documents temporaires gardés en mémoire, en octets; 0 pour toujours écrire les documents sur disque
+     */
+    public void setArchiveThreshold(long aArchiveThreshold) {
+        iArchiveThreshold = aArchiveThreshold;
+    }
+
+    /**
+     *
+     * @return seuil des résultats gardés en mémoire par les buffers des rapports, en octets
+     */
+    public long getBufferThreshold() {
+        return iBufferThreshold;
+    }
+
+    /**
+     *
+     * @param aBufferThreshold
+     *            seuil des résultats gardés en mémoire par les buffers des rapports, en octets; 0 pour toujours écrire les résultats sur
+     *            disque
+     */
+    public void setBufferThreshold(long aBufferThreshold) {
+        iBufferThreshold = aBufferThreshold;
+    }
+
+    /**
+     *
+     * @return images des rapports HTML gardées en mémoire, <code>null</code> si désactivé
+     */
+    public ReportImageStore getImageStore() {
+        return iImageStore;
+    }
+
+    /**
+     *
+     * @param aImageStore
+     *            images des rapports HTML gardées en mémoire, <code>null</code> pour les écrire sur disque
+     */
+    public void setImageStore(ReportImageStore aImageStore) {
+        iImageStore = aImageStore;
+    }
+
+    /**
+     *
+     * @return nettoyage des fichiers temporaires, <code>null</code> si désactivé
+     */
+    public ReportTempJanitor getTempJanitor() {
+        return iTempJanitor;
+    }
+
+    /**
+     *
+     * @param aTempJanitor
+     *            nettoyage des fichiers temporaires; les images HTML sont alors écrites dans un sous-répertoire par requête
+     */
+    public void setTempJanitor(ReportTempJanitor aTempJanitor) {
+        iTempJanitor = aTempJanitor;
+    }
+
+    /**
+     *
+     * @return connexions JDBC prises dans le pool de l'application, <code>null</code> si désactivé
+     */
+    public ReportConnectionProvider getConnectionProvider() {
+        return iConnectionProvider;
+    }
+
+    /**
+     *
+     * @param aConnectionProvider
+     *            connexions JDBC prises dans le pool de l'application, <code>null</code> pour les paramètres de connexion
+     */
+    public void setConnectionProvider(ReportConnectionProvider aConnectionProvider) {
+        iConnectionProvider = aConnectionProvider;
+    }
+
+    /**
+     *
+     * @return cache des résultats des data sets, <code>null</code> si désactivé
+     */
+    public ReportDataSetCache getDataSetCache() {
+        return iDataSetCache;
+    }
+
+    /**
+     *
+     * @param aDataSetCache
+     *            cache des résultats des data sets, <code>null</code> pour le désactiver; nécessite les connexions du pool
+     */
+    public void setDataSetCache(ReportDataSetCache aDataSetCache) {
+        iDataSetCache = aDataSetCache;
+    }
+
+    /**
+     *
+     * @return mesures des rapports, <code>null</code> si désactivé
+     */
+    public ReportMetrics getMetrics() {
+        return iMetrics;
+    }
+
+    /**
+     *
+     * @param aMetrics
+     *            mesures des rapports, <code>null</code> pour les désactiver
+     */
+    public void setMetrics(ReportMetrics aMetrics) {
+        iMetrics = aMetrics;
+    }
+
+    /**
+     *
+     * @return délais et annulation des rapports, <code>null</code> si désactivés
+     */
+    public ReportDeadlines getDeadlines() {
+        return iDeadlines;
+    }
+
+    /**
+     *
+     * @param aDeadlines
+     *            délais et annulation des rapports, <code>null</code> pour les désactiver
+     */
+    public void setDeadlines(ReportDeadlines aDeadlines) {
+        iDeadlines = aDeadlines;
+    }
+
+    /**
+     * Donne un délai à la requête en cours: les rapports exécutés par le thread jusqu'à la fermeture de la surveillance sont annulés quand
+     * le délai est dépassé, quel que soit le délai de leur design.
+     *
+     * <pre>
+     * try (ReportDeadlines.Watch watch = reportEngine.deadline(30000)) {
+     *     reportEngine.getReport(out, design, parameters, "pdf", false, locale);
+     * }
+     * </pre>
+     *
+     * @param aTimeout
+     *            délai de la requête, en millisecondes, 0 pour aucun délai
+     * @return la surveillance, à fermer par close()
+     */
+    public ReportDeadlines.Watch deadline(long aTimeout) {
+        if (iDeadlines == null) {
+            throw new IllegalStateException("Report deadlines not configured");
+        }
+        return iDeadlines.request(aTimeout);
+    }
+
+    /**
+     *
+     * @return <code>true</code> si le report engine est prêt, <code>false</code> pendant le préchauffage
+     */
+    public boolean isReady() {
+        return iReady;
+    }
+
+    /**
+     *
+     * @param aReady
+     *            <code>true</code> si le report engine est prêt
+     */
+    public void setReady(boolean aReady) {
+        iReady = aReady;
+    }
 }
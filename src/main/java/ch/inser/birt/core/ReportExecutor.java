@@ -0,0 +1,622 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Contrôle d'admission et pool d'exécution des rapports Birt.
+ *
+ * Le nombre de rapports exécutés en parallèle est limité globalement et par format (pdf, html, xls, xlsx, doc, csv). Une demande admise
+ * tout de suite ne passe pas par la file; les autres attendent dans une file bornée et sont rejetées avec une
+ * {@link ReportRejectedException} si la file est pleine.
+ *
+ * Les rapports synchrones s'exécutent dans le thread de l'appelant après admission ({@link #acquire(String)}) et attendent au plus le
+ * timeout de la file. Les rapports asynchrones ({@link #submit(String, Callable)}) sont admis avant d'être donnés au pool: un rapport
+ * accepté attend sans timeout que son format et le pool aient une place, sans bloquer de thread du pool, et un format saturé ne retarde
+ * pas les rapports des autres formats. Les rapports synchrones passent avant les rapports asynchrones en attente.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportExecutor {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportExecutor.class);
+
+    /** Taille par défaut de la file d'attente */
+    public static final int DEFAULT_MAX_QUEUE = 100;
+
+    /** Timeout par défaut de la file d'attente, en millisecondes */
+    public static final long DEFAULT_QUEUE_TIMEOUT = 30L * 1000;
+
+    /** Nombre maximal de rapports exécutés en parallèle */
+    private final int iMaxActive;
+
+    /** Limite globale */
+    private final Semaphore iGlobal;
+
+    /** Limites par format */
+    private final Map<String, Semaphore> iFormatLimits = new ConcurrentHashMap<>();
+
+    /** Taille maximale de la file d'attente */
+    private final int iMaxQueue;
+
+    /** Timeout de la file d'attente, en millisecondes */
+    private final long iQueueTimeout;
+
+    /** Pool des rapports asynchrones */
+    private final ExecutorService iPool;
+
+    /** <code>true</code> si les rapports asynchrones sont exécutés dans des threads virtuels */
+    private final boolean iVirtual;
+
+    /** Nombre de rapports en cours */
+    private final AtomicInteger iActive = new AtomicInteger();
+
+    /** Nombre de rapports en attente */
+    private final AtomicInteger iQueued = new AtomicInteger();
+
+    /** Nombre de rapports rejetés */
+    private final AtomicLong iRejected = new AtomicLong();
+
+    /** Nombre de rapports admis */
+    private final AtomicLong iAdmitted = new AtomicLong();
+
+    /** Temps d'attente cumulé dans la file, en millisecondes */
+    private final AtomicLong iQueueWaitTime = new AtomicLong();
+
+    /** Place réservée par le thread courant, pour ne pas réserver deux places pour un même rapport */
+    private final ThreadLocal<Permit> iCurrent = new ThreadLocal<>();
+
+    /** Rapports asynchrones acceptés en attente d'une place, dans l'ordre de soumission, sous verrou */
+    private final Deque<Pending> iPending = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxActive
+     *            nombre maximal de rapports exécutés en parallèle, tous formats confondus
+     * @param aMaxQueue
+     *            nombre maximal de rapports en attente
+     * @param aQueueTimeout
+     *            temps d'attente maximal dans la file, en millisecondes
+     */
+    public ReportExecutor(int aMaxActive, int aMaxQueue, long aQueueTimeout) {
+        this(aMaxActive, aMaxQueue, aQueueTimeout, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * En mode threads virtuels (Java 21+), chaque rapport asynchrone a son propre thread virtuel, qui est libéré pendant l'attente des
+     * requêtes JDBC; le nombre de rapports exécutés en parallèle reste limité par aMaxActive. Si la JVM ne supporte pas les threads
+     * virtuels, le pool de threads classique est utilisé.
+     *
+     * @param aMaxActive
+     *            nombre maximal de rapports exécutés en parallèle, tous formats confondus
+     * @param aMaxQueue
+     *            nombre maximal de rapports en attente
+     * @param aQueueTimeout
+     *            temps d'attente maximal dans la file, en millisecondes
+     * @param aVirtual
+     *            <code>true</code> pour exécuter les rapports asynchrones dans des threads virtuels
+     */
+    public ReportExecutor(int aMaxActive, int aMaxQueue, long aQueueTimeout, boolean aVirtual) {
+        iMaxActive = aMaxActive;
+        iGlobal = new Semaphore(aMaxActive, true);
+        iMaxQueue = aMaxQueue;
+        iQueueTimeout = aQueueTimeout;
+        ExecutorService pool = aVirtual ? newVirtualThreadExecutor() : null;
+        iVirtual = pool != null;
+        if (pool == null) {
+            // Les rapports sont admis avant d'entrer dans le pool: la file du pool ne dépasse pas le nombre de places
+            ThreadPoolExecutor platformPool = new ThreadPoolExecutor(aMaxActive, aMaxActive, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new ThreadFactory() {
+
+                        private final AtomicInteger iCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable aRunnable) {
+                            Thread thread = new Thread(aRunnable, "birt-report-" + iCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            platformPool.allowCoreThreadTimeOut(true);
+            pool = platformPool;
+        }
+        iPool = pool;
+    }
+
+    /**
+     * Crée un executor avec un thread virtuel par rapport. Les API des threads virtuels sont appelées par réflexion, la librairie restant
+     * compatible Java 11.
+     *
+     * Les sections synchronized de Birt bloquent (pin) le thread porteur d'un thread virtuel jusqu'à Java 24; pour les détecter, démarrer
+     * la JVM avec -Djdk.tracePinnedThreads=short ou enregistrer l'événement JFR jdk.VirtualThreadPinned.
+     *
+     * @return l'executor, <code>null</code> si la JVM ne supporte pas les threads virtuels
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "birt-report-v", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+            if (System.getProperty("jdk.tracePinnedThreads") == null) {
+                logger.info("Birt reports on virtual threads; use -Djdk.tracePinnedThreads=short to trace pinned carrier threads");
+            }
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Virtual threads not supported by this JVM, using platform threads: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Limite le nombre de rapports exécutés en parallèle pour un format.
+     *
+     * @param aFormat
+     *            format du rapport
+     * @param aMaxActive
+     *            nombre maximal de rapports de ce format exécutés en parallèle
+     */
+    public void setLimit(String aFormat, int aMaxActive) {
+        iFormatLimits.put(normalize(aFormat), new Semaphore(aMaxActive, true));
+    }
+
+    /**
+     * Attend une place pour exécuter un rapport dans le thread de l'appelant. La place doit être libérée par {@link Permit#close()}. Si le
+     * thread a déjà une place (ex. rapport exécuté dans le pool), aucune nouvelle place n'est réservée.
+     *
+     * Une place libre est prise sans passer par la file; sinon la demande attend dans la file au plus pendant le timeout de la file.
+     *
+     * @param aFormat
+     *            format du rapport, tel que donné à ReportEngine (pdf, html, excel, excel-xlsx, doc, csv)
+     * @return la place réservée
+     * @throws ReportRejectedException
+     *             la file d'attente est pleine ou le timeout de la file est dépassé
+     */
+    public Permit acquire(String aFormat) {
+        if (iCurrent.get() != null) {
+            return new Permit(null, 0, true);
+        }
+        String format = normalize(aFormat);
+        Semaphore formatLimit = iFormatLimits.get(format);
+        if (tryAdmit(formatLimit)) {
+            return admitted(formatLimit, 0, true);
+        }
+        if (iQueued.incrementAndGet() > iMaxQueue) {
+            iQueued.decrementAndGet();
+            throw reject("Report queue full (" + iMaxQueue + "), " + format + " report rejected");
+        }
+        long start = System.currentTimeMillis();
+        boolean formatAcquired = false;
+        boolean admitted = false;
+        try {
+            if (formatLimit != null) {
+                formatAcquired = formatLimit.tryAcquire(iQueueTimeout, TimeUnit.MILLISECONDS);
+                if (!formatAcquired) {
+                    throw reject("Report queue timeout (" + iQueueTimeout + " ms), " + format + " report rejected");
+                }
+            }
+            long remaining = iQueueTimeout - (System.currentTimeMillis() - start);
+            if (!iGlobal.tryAcquire(Math.max(0, remaining), TimeUnit.MILLISECONDS)) {
+                throw reject("Report queue timeout (" + iQueueTimeout + " ms), " + format + " report rejected");
+            }
+            admitted = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject("Interrupted while waiting for report execution, " + format + " report rejected");
+        } finally {
+            iQueued.decrementAndGet();
+            if (formatAcquired && !admitted) {
+                formatLimit.release();
+            }
+            if (!admitted) {
+                // Les places laissées par cette demande peuvent servir aux rapports asynchrones en attente
+                dispatch();
+            }
+        }
+        return admitted(formatLimit, System.currentTimeMillis() - start, true);
+    }
+
+    /**
+     * Exécute un rapport dans le pool, après admission. Le rapport est donné au pool dès que son format et le pool ont une place; un
+     * rapport accepté n'est jamais rejeté par la suite.
+     *
+     * @param <T>
+     *            type du résultat
+     * @param aFormat
+     *            format du rapport
+     * @param aTask
+     *            le rapport à exécuter
+     * @return le résultat futur
+     * @throws ReportRejectedException
+     *             la file d'attente est pleine
+     */
+    public <T> CompletableFuture<T> submit(String aFormat, Callable<T> aTask) {
+        String format = normalize(aFormat);
+        Semaphore formatLimit = iFormatLimits.get(format);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Pending pending = new Pending(formatLimit, () -> {
+            try {
+                result.complete(aTask.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            } catch (Error e) {
+                // L'appelant qui attend le résultat est libéré
+                result.completeExceptionally(e);
+                throw e;
+            }
+        }, result);
+        synchronized (iPending) {
+            // Les rapports déjà en attente passent avant
+            if (iPending.isEmpty() && tryAdmit(formatLimit)) {
+                start(pending, admitted(formatLimit, 0, false));
+                return result;
+            }
+            if (iQueued.get() >= iMaxQueue) {
+                throw reject("Report queue full (" + iMaxQueue + "), " + format + " report rejected");
+            }
+            iQueued.incrementAndGet();
+            iPending.add(pending);
+        }
+        // Une place a pu se libérer pendant la mise en file
+        dispatch();
+        return result;
+    }
+
+    /**
+     * Donne au pool les rapports asynchrones en attente qui ont une place, dans l'ordre de soumission. Un rapport dont le format est
+     * saturé reste en attente sans bloquer les rapports suivants des autres formats.
+     */
+    private void dispatch() {
+        synchronized (iPending) {
+            Iterator<Pending> it = iPending.iterator();
+            while (it.hasNext()) {
+                Pending pending = it.next();
+                if (pending.iResult.isDone()) {
+                    // Annulé par l'appelant pendant l'attente
+                    it.remove();
+                    iQueued.decrementAndGet();
+                    continue;
+                }
+                if (pending.iFormatLimit != null && !tryAcquire(pending.iFormatLimit)) {
+                    continue;
+                }
+                if (!tryAcquire(iGlobal)) {
+                    if (pending.iFormatLimit != null) {
+                        pending.iFormatLimit.release();
+                    }
+                    return;
+                }
+                it.remove();
+                iQueued.decrementAndGet();
+                start(pending, admitted(pending.iFormatLimit, System.currentTimeMillis() - pending.iSubmitted, false));
+            }
+        }
+    }
+
+    /**
+     * Donne un rapport admis au pool; le rapport libère sa place à la fin de son exécution.
+     *
+     * @param aPending
+     *            le rapport
+     * @param aPermit
+     *            la place réservée pour le rapport
+     */
+    private void start(Pending aPending, Permit aPermit) {
+        try {
+            iPool.execute(() -> {
+                iCurrent.set(aPermit);
+                try {
+                    aPending.iTask.run();
+                } finally {
+                    aPermit.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Pool arrêté: la place est libérée sans relancer la distribution en cours
+            aPermit.release();
+            aPending.iResult.completeExceptionally(reject("Report pool shut down, report rejected"));
+        }
+    }
+
+    /**
+     * Réserve sans attendre une place du format et une place du pool. Les demandes qui attendent déjà dans la file passent avant.
+     *
+     * @param aFormatLimit
+     *            limite du format, <code>null</code> si le format n'est pas limité
+     * @return <code>true</code> si les deux places sont réservées
+     */
+    private boolean tryAdmit(Semaphore aFormatLimit) {
+        if (aFormatLimit != null && !tryAcquire(aFormatLimit)) {
+            return false;
+        }
+        if (!tryAcquire(iGlobal)) {
+            if (aFormatLimit != null) {
+                aFormatLimit.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Réserve une place sans attendre et sans passer devant les demandes synchrones qui attendent.
+     *
+     * @param aLimit
+     *            la limite
+     * @return <code>true</code> si la place est réservée
+     */
+    private static boolean tryAcquire(Semaphore aLimit) {
+        return !aLimit.hasQueuedThreads() && aLimit.tryAcquire();
+    }
+
+    /**
+     * Compte un rapport admis et crée sa place.
+     *
+     * @param aFormatLimit
+     *            limite du format
+     * @param aWait
+     *            temps d'attente dans la file, en millisecondes
+     * @param aCurrent
+     *            <code>true</code> pour associer la place au thread courant
+     * @return la place réservée
+     */
+    private Permit admitted(Semaphore aFormatLimit, long aWait, boolean aCurrent) {
+        iQueueWaitTime.addAndGet(aWait);
+        iAdmitted.incrementAndGet();
+        iActive.incrementAndGet();
+        Permit permit = new Permit(aFormatLimit, aWait, false);
+        if (aCurrent) {
+            iCurrent.set(permit);
+        }
+        return permit;
+    }
+
+    /**
+     * Compte et crée l'exception de rejet.
+     *
+     * @param aMessage
+     *            message
+     * @return l'exception
+     */
+    private ReportRejectedException reject(String aMessage) {
+        iRejected.incrementAndGet();
+        logger.warn(aMessage);
+        return new ReportRejectedException(aMessage);
+    }
+
+    /**
+     * Normalise le nom du format: excel devient xls, excel-xlsx devient xlsx, html par défaut.
+     *
+     * @param aFormat
+     *            format du rapport
+     * @return format normalisé
+     */
+    static String normalize(String aFormat) {
+        if (aFormat == null) {
+            return "html";
+        }
+        String format = aFormat.toLowerCase();
+        if ("excel".equals(format)) {
+            return "xls";
+        }
+        if ("excel-xlsx".equals(format)) {
+            return "xlsx";
+        }
+        return format;
+    }
+
+    /**
+     * Arrête le pool; les rapports en cours se terminent.
+     */
+    public void shutdown() {
+        iPool.shutdown();
+    }
+
+    /**
+     *
+     * @return nombre maximal de rapports exécutés en parallèle
+     */
+    public int getMaxActive() {
+        return iMaxActive;
+    }
+
+    /**
+     *
+     * @return nombre de rapports en cours
+     */
+    public int getActive() {
+        return iActive.get();
+    }
+
+    /**
+     *
+     * @return nombre de rapports en attente, y compris les rapports asynchrones pas encore démarrés
+     */
+    public int getQueued() {
+        return iQueued.get();
+    }
+
+    /**
+     *
+     * @return nombre de rapports rejetés
+     */
+    public long getRejected() {
+        return iRejected.get();
+    }
+
+    /**
+     *
+     * @return nombre de rapports admis
+     */
+    public long getAdmitted() {
+        return iAdmitted.get();
+    }
+
+    /**
+     *
+     * @return temps d'attente cumulé dans la file, en millisecondes
+     */
+    public long getQueueWaitTime() {
+        return iQueueWaitTime.get();
+    }
+
+    /**
+     *
+     * @return <code>true</code> si les rapports asynchrones sont exécutés dans des threads virtuels
+     */
+    public boolean isVirtual() {
+        return iVirtual;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportExecutor[max=" + iMaxActive + ", virtual=" + iVirtual + ", limits=" + iFormatLimits.keySet() + ", active="
+                + getActive() + ", queued=" + getQueued() + ", rejected=" + getRejected() + "]";
+    }
+
+    /**
+     * Place réservée pour l'exécution d'un rapport
+     */
+    public class Permit implements AutoCloseable {
+
+        /** Limite du format, <code>null</code> si le format n'est pas limité */
+        private final Semaphore iFormatLimit;
+
+        /** Temps d'attente dans la file, en millisecondes */
+        private final long iWait;
+
+        /** <code>true</code> si la place est celle déjà réservée par le thread */
+        private final boolean iNested;
+
+        /** <code>true</code> si la place a été libérée */
+        private boolean iClosed;
+
+        /**
+         * Constructor.
+         *
+         * @param aFormatLimit
+         *            limite du format
+         * @param aWait
+         *            temps d'attente dans la file
+         * @param aNested
+         *            <code>true</code> si la place est celle déjà réservée par le thread
+         */
+        Permit(Semaphore aFormatLimit, long aWait, boolean aNested) {
+            iFormatLimit = aFormatLimit;
+            iWait = aWait;
+            iNested = aNested;
+        }
+
+        /**
+         *
+         * @return temps d'attente dans la file, en millisecondes
+         */
+        public long getQueueWait() {
+            return iWait;
+        }
+
+        @Override
+        public void close() {
+            if (release()) {
+                dispatch();
+            }
+        }
+
+        /**
+         * Libère la place.
+         *
+         * @return <code>true</code> si la place a été libérée, <code>false</code> si elle l'était déjà ou si elle est imbriquée
+         */
+        private boolean release() {
+            if (iClosed || iNested) {
+                return false;
+            }
+            iClosed = true;
+            if (iCurrent.get() == this) {
+                iCurrent.remove();
+            }
+            iActive.decrementAndGet();
+            iGlobal.release();
+            if (iFormatLimit != null) {
+                iFormatLimit.release();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Rapport asynchrone accepté, en attente d'une place
+     */
+    private static class Pending {
+
+        /** Limite du format, <code>null</code> si le format n'est pas limité */
+        private final Semaphore iFormatLimit;
+
+        /** Le rapport */
+        private final Runnable iTask;
+
+        /** Résultat du rapport */
+        private final CompletableFuture<?> iResult;
+
+        /** Date de soumission */
+        private final long iSubmitted = System.currentTimeMillis();
+
+        /**
+         * Constructor.
+         *
+         * @param aFormatLimit
+         *            limite du format
+         * @param aTask
+         *            le rapport
+         * @param aResult
+         *            résultat du rapport
+         */
+        Pending(Semaphore aFormatLimit, Runnable aTask, CompletableFuture<?> aResult) {
+            iFormatLimit = aFormatLimit;
+            iTask = aTask;
+            iResult = aResult;
+        }
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.lowagie.text.FontFactory;
+import com.lowagie.text.FontFactoryImp;
+import com.lowagie.text.pdf.BaseFont;
+
+/**
+ * Enregistrement des polices d'un répertoire dans le FontFactory d'iText, utilisé par l'emitter PDF de Birt.
+ *
+ * Les noms des polices TrueType et OpenType sont lus en parallèle et gardés dans un index avec la taille et la date de chaque fichier; au
+ * démarrage suivant, seules les polices modifiées sont relues, les autres sont enregistrées depuis l'index comme le ferait
+ * FontFactory.register. Les métriques des polices (BaseFont) restent partagées par le cache du FontFactory entre tous les rapports.
+ *
+ * Si l'enregistrement depuis l'index n'est pas possible avec la version d'iText, les polices sont enregistrées par FontFactory.register.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportFontRegistry {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportFontRegistry.class);
+
+    /** Ordre de choix des noms TrueType (platform, encoding, language), comme FontFactoryImp */
+    private static final String[] TT_FAMILY_ORDER = { "3", "1", "1033", "3", "0", "1033", "1", "0", "0", "0", "3", "0" };
+
+    /** Séparateur des champs de l'index */
+    private static final char SEP = '\t';
+
+    /** Fichier de l'index */
+    private final File iIndexFile;
+
+    /** Nombre de polices lues en parallèle */
+    private final int iParallelism;
+
+    /** Index par chemin du fichier de police */
+    private final Map<String, FontFile> iIndex = new LinkedHashMap<>();
+
+    /** Nombre de fichiers de police enregistrés */
+    private final AtomicInteger iFiles = new AtomicInteger();
+
+    /** Nombre de fichiers de police lus */
+    private final AtomicInteger iParsed = new AtomicInteger();
+
+    /** Durée du dernier enregistrement, en millisecondes */
+    private long iDuration;
+
+    /**
+     * Constructor.
+     *
+     * @param aIndexFile
+     *            fichier de l'index, ex: report.tempo.dir/fonts.idx
+     * @param aParallelism
+     *            nombre de polices lues en parallèle
+     */
+    public ReportFontRegistry(File aIndexFile, int aParallelism) {
+        iIndexFile = aIndexFile;
+        iParallelism = Math.max(1, aParallelism);
+        readIndex();
+    }
+
+    /**
+     * Enregistre les polices d'un répertoire, comme FontFactory.registerDirectory.
+     *
+     * @param aDirectory
+     *            le répertoire des polices
+     * @return nombre de fichiers de police enregistrés
+     */
+    public synchronized int registerDirectory(String aDirectory) {
+        long start = System.currentTimeMillis();
+        File[] files = new File(aDirectory).listFiles();
+        if (files == null) {
+            logger.warn("Font directory not found: " + aDirectory);
+            return 0;
+        }
+        Properties trueTypeFonts = getTrueTypeFonts();
+
+        // Lecture en parallèle des polices nouvelles ou modifiées
+        List<File> fonts = new ArrayList<>();
+        Map<String, Future<FontFile>> parsing = new HashMap<>();
+        ExecutorService pool = null;
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (trueTypeFonts != null && (name.endsWith(".ttf") || name.endsWith(".otf") || name.endsWith(".ttc"))) {
+                fonts.add(file);
+                FontFile cached = iIndex.get(file.getPath());
+                if (cached == null || cached.iLength != file.length() || cached.iModified != file.lastModified()) {
+                    if (pool == null) {
+                        pool = newPool();
+                    }
+                    parsing.put(file.getPath(), pool.submit(() -> parse(file)));
+                }
+            } else if (name.endsWith(".ttf") || name.endsWith(".otf") || name.endsWith(".ttc") || name.endsWith(".afm")
+                    || name.endsWith(".pfm")) {
+                // Sans index: enregistrement par iText
+                if (register(file.getPath())) {
+                    count++;
+                }
+            }
+        }
+
+        try {
+            // Polices supprimées du répertoire
+            Set<String> paths = new HashSet<>();
+            for (File file : fonts) {
+                paths.add(file.getPath());
+            }
+            boolean changed = iIndex.keySet().removeIf(p -> aDirectory.equals(new File(p).getParent()) && !paths.contains(p));
+            for (File file : fonts) {
+                Future<FontFile> future = parsing.get(file.getPath());
+                if (future != null) {
+                    FontFile parsed = get(future, file);
+                    if (parsed == null) {
+                        if (register(file.getPath())) {
+                            count++;
+                        }
+                        continue;
+                    }
+                    iIndex.put(file.getPath(), parsed);
+                    iParsed.incrementAndGet();
+                    changed = true;
+                }
+                replay(iIndex.get(file.getPath()), trueTypeFonts);
+                count++;
+            }
+            if (changed) {
+                writeIndex();
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        iFiles.addAndGet(count);
+        iDuration = System.currentTimeMillis() - start;
+        logger.info("Birt fonts registered: " + this);
+        return count;
+    }
+
+    /**
+     * Lit les noms des polices d'un fichier, comme FontFactoryImp.register.
+     *
+     * @param aFile
+     *            le fichier de police
+     * @return les noms des polices
+     * @throws Exception
+     *             police illisible
+     */
+    private static FontFile parse(File aFile) throws Exception {
+        FontFile font = new FontFile(aFile.length(), aFile.lastModified());
+        if (aFile.getName().toLowerCase(Locale.ROOT).endsWith(".ttc")) {
+            String[] names = BaseFont.enumerateTTCNames(aFile.getPath());
+            for (int i = 0; i < names.length; i++) {
+                font.iFonts.add(parseFont(aFile.getPath() + "," + i));
+            }
+        } else {
+            font.iFonts.add(parseFont(aFile.getPath()));
+        }
+        return font;
+    }
+
+    /**
+     * Lit les noms d'une police.
+     *
+     * @param aPath
+     *            chemin de la police, suivi de ",index" dans une collection TrueType
+     * @return les noms de la police
+     * @throws Exception
+     *             police illisible
+     */
+    private static FontNames parseFont(String aPath) throws Exception {
+        Object[] allNames = BaseFont.getAllFontNames(aPath, BaseFont.WINANSI, null);
+        FontNames font = new FontNames(aPath);
+        font.iNames.add(((String) allNames[0]).toLowerCase(Locale.ROOT));
+        String[][] fullNames = (String[][]) allNames[2];
+        for (String[] name : fullNames) {
+            font.iNames.add(name[3].toLowerCase(Locale.ROOT));
+        }
+
+        String[][] familyNames = (String[][]) allNames[1];
+        for (int k = 0; k < TT_FAMILY_ORDER.length && font.iFamily == null; k += 3) {
+            for (String[] name : familyNames) {
+                if (isOrdered(name, k)) {
+                    font.iFamily = name[3].toLowerCase(Locale.ROOT);
+                    break;
+                }
+            }
+        }
+        if (font.iFamily != null) {
+            String lastName = "";
+            for (String[] name : fullNames) {
+                for (int k = 0; k < TT_FAMILY_ORDER.length; k += 3) {
+                    if (isOrdered(name, k)) {
+                        if (!name[3].equals(lastName)) {
+                            lastName = name[3];
+                            font.iFullNames.add(name[3]);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return font;
+    }
+
+    /**
+     * @param aName
+     *            nom TrueType (platform, encoding, language, nom)
+     * @param aIndex
+     *            position dans TT_FAMILY_ORDER
+     * @return <code>true</code> si le nom correspond à la position
+     */
+    private static boolean isOrdered(String[] aName, int aIndex) {
+        return TT_FAMILY_ORDER[aIndex].equals(aName[0]) && TT_FAMILY_ORDER[aIndex + 1].equals(aName[1])
+                && TT_FAMILY_ORDER[aIndex + 2].equals(aName[2]);
+    }
+
+    /**
+     * Enregistre les polices d'un fichier depuis l'index.
+     *
+     * @param aFile
+     *            les polices du fichier
+     * @param aTrueTypeFonts
+     *            les polices TrueType du FontFactory
+     */
+    private static void replay(FontFile aFile, Properties aTrueTypeFonts) {
+        FontFactoryImp fontImp = FontFactory.getFontImp();
+        for (FontNames font : aFile.iFonts) {
+            for (String name : font.iNames) {
+                aTrueTypeFonts.setProperty(name, font.iPath);
+            }
+            for (String fullName : font.iFullNames) {
+                fontImp.registerFamily(font.iFamily, fullName, null);
+            }
+        }
+    }
+
+    /**
+     * Enregistre une police par iText.
+     *
+     * @param aPath
+     *            chemin de la police
+     * @return <code>true</code> si la police a été enregistrée
+     */
+    private static boolean register(String aPath) {
+        try {
+            FontFactory.register(aPath);
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn("Font not registered: " + aPath + " (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    /**
+     * Attend la lecture d'une police.
+     *
+     * @param aFuture
+     *            la lecture
+     * @param aFile
+     *            le fichier de police
+     * @return les noms des polices, <code>null</code> si la police est illisible
+     */
+    private static FontFile get(Future<FontFile> aFuture, File aFile) {
+        try {
+            return aFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Font not read: " + aFile + " (" + e.getCause() + ")");
+        }
+        return null;
+    }
+
+    /**
+     * Accès aux polices TrueType du FontFactory, non publiques dans iText.
+     *
+     * @return les polices TrueType, <code>null</code> si l'accès n'est pas possible
+     */
+    private static Properties getTrueTypeFonts() {
+        try {
+            Field field = FontFactoryImp.class.getDeclaredField("trueTypeFonts");
+            field.setAccessible(true);
+            return (Properties) field.get(FontFactory.getFontImp());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.info("Font index not used: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return pool des lectures de polices
+     */
+    private ExecutorService newPool() {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(iParallelism, r -> {
+            Thread thread = new Thread(r, "birt-font-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Lit l'index. Un index illisible est ignoré, toutes les polices sont alors relues.
+     */
+    private void readIndex() {
+        if (!iIndexFile.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(iIndexFile.toPath(), StandardCharsets.UTF_8)) {
+            FontFile file = null;
+            String line = reader.readLine();
+            while (line != null) {
+                String[] fields = line.split(String.valueOf(SEP), -1);
+                if ("F".equals(fields[0])) {
+                    file = new FontFile(Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+                    iIndex.put(fields[1], file);
+                } else if ("N".equals(fields[0]) && file != null) {
+                    FontNames font = new FontNames(fields[1]);
+                    font.iFamily = fields[2].isEmpty() ? null : fields[2];
+                    font.iNames.addAll(split(fields[3]));
+                    font.iFullNames.addAll(split(fields[4]));
+                    file.iFonts.add(font);
+                }
+                line = reader.readLine();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Font index ignored: " + iIndexFile + " (" + e + ")");
+            iIndex.clear();
+        }
+    }
+
+    /**
+     * Ecrit l'index dans un fichier temporaire, puis le renomme.
+     */
+    private void writeIndex() {
+        File tmp = new File(iIndexFile.getPath() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, FontFile> entry : iIndex.entrySet()) {
+                    FontFile file = entry.getValue();
+                    writer.write("F" + SEP + clean(entry.getKey()) + SEP + file.iLength + SEP + file.iModified);
+                    writer.newLine();
+                    for (FontNames font : file.iFonts) {
+                        writer.write("N" + SEP + clean(font.iPath) + SEP + (font.iFamily == null ? "" : clean(font.iFamily)) + SEP
+                                + join(font.iNames) + SEP + join(font.iFullNames));
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), iIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Font index not written: " + iIndexFile, e);
+        }
+    }
+
+    /**
+     * @param aValue
+     *            valeur de l'index
+     * @return la valeur sans séparateurs
+     */
+    private static String clean(String aValue) {
+        return aValue.replace(SEP, ' ').replace('\n', ' ').replace('\r', ' ').replace('|', ' ');
+    }
+
+    /**
+     * @param aValues
+     *            noms
+     * @return les noms séparés par '|'
+     */
+    private static String join(List<String> aValues) {
+        StringBuilder value = new StringBuilder();
+        for (String name : aValues) {
+            if (value.length() > 0) {
+                value.append('|');
+            }
+            value.append(clean(name));
+        }
+        return value.toString();
+    }
+
+    /**
+     * @param aValue
+     *            noms séparés par '|'
+     * @return les noms
+     */
+    private static List<String> split(String aValue) {
+        return aValue.isEmpty() ? new ArrayList<>() : Arrays.asList(aValue.split("\\|"));
+    }
+
+    /**
+     *
+     * @return nombre de fichiers de police enregistrés depuis l'index ou lus
+     */
+    public int getFiles() {
+        return iFiles.get();
+    }
+
+    /**
+     *
+     * @return nombre de fichiers de police lus
+     */
+    public int getParsed() {
+        return iParsed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportFontRegistry[index=" + iIndexFile + ", files=" + iFiles + ", parsed=" + iParsed + ", duration=" + iDuration + "]";
+    }
+
+    /**
+     * Fichier de police indexé
+     */
+    private static class FontFile {
+
+        /** Taille du fichier */
+        private final long iLength;
+
+        /** Date de modification du fichier */
+        private final long iModified;
+
+        /** Polices du fichier (plusieurs pour une collection TrueType) */
+        private final List<FontNames> iFonts = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param aLength
+         *            taille du fichier
+         * @param aModified
+         *            date de modification du fichier
+         */
+        FontFile(long aLength, long aModified) {
+            iLength = aLength;
+            iModified = aModified;
+        }
+    }
+
+    /**
+     * Noms d'une police
+     */
+    private static class FontNames {
+
+        /** Chemin de la police */
+        private final String iPath;
+
+        /** Noms de la police, en minuscules */
+        private final List<String> iNames = new ArrayList<>();
+
+        /** Famille de la police, en minuscules, <code>null</code> si inconnue */
+        private String iFamily;
+
+        /** Noms complets enregistrés dans la famille */
+        private final List<String> iFullNames = new ArrayList<>();
+
+        /**
+         * Constructor.
+         *
+         * @param aPath
+         *            chemin de la police
+         */
+        FontNames(String aPath) {
+            iPath = aPath;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de durées, sans verrou. Les valeurs sont réparties dans des classes logarithmiques de 8 sous-classes par puissance de 2:
+ * les percentiles sont exacts jusqu'à 8 et ensuite à 12,5% près, quelle que soit l'étendue des valeurs.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportHistogram {
+
+    /** Nombre de sous-classes par puissance de 2 */
+    private static final int SUB_BUCKETS = 8;
+
+    /** Nombre de bits des sous-classes */
+    private static final int SUB_BITS = 3;
+
+    /** Nombre de classes, pour toutes les valeurs positives d'un long */
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    /** Nombre de valeurs par classe */
+    private final AtomicLongArray iCounts = new AtomicLongArray(BUCKETS);
+
+    /** Nombre de valeurs */
+    private final AtomicLong iCount = new AtomicLong();
+
+    /** Somme des valeurs */
+    private final AtomicLong iSum = new AtomicLong();
+
+    /** Valeur maximale */
+    private final AtomicLong iMax = new AtomicLong();
+
+    /**
+     * Enregistre une valeur.
+     *
+     * @param aValue
+     *            la valeur, ex: une durée en millisecondes; les valeurs négatives comptent pour 0
+     */
+    public void record(long aValue) {
+        long value = Math.max(0, aValue);
+        iCounts.incrementAndGet(index(value));
+        iCount.incrementAndGet();
+        iSum.addAndGet(value);
+        iMax.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Classe d'une valeur.
+     *
+     * @param aValue
+     *            la valeur, positive
+     * @return l'index de la classe
+     */
+    private static int index(long aValue) {
+        if (aValue < SUB_BUCKETS) {
+            return (int) aValue;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(aValue);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + (int) ((aValue >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Plus grande valeur d'une classe.
+     *
+     * @param aIndex
+     *            l'index de la classe
+     * @return la plus grande valeur de la classe
+     */
+    private static long upperBound(int aIndex) {
+        if (aIndex < SUB_BUCKETS) {
+            return aIndex;
+        }
+        int shift = (aIndex - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (aIndex - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1L) << shift) - 1;
+    }
+
+    /**
+     * Percentile des valeurs enregistrées.
+     *
+     * @param aPercentile
+     *            le percentile, entre 0 et 100, ex: 99.9
+     * @return la plus grande valeur de la classe du percentile, au plus la valeur maximale; 0 sans valeur
+     */
+    public long getPercentile(double aPercentile) {
+        long count = iCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(aPercentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += iCounts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), iMax.get());
+            }
+        }
+        return iMax.get();
+    }
+
+    /**
+     *
+     * @return nombre de valeurs
+     */
+    public long getCount() {
+        return iCount.get();
+    }
+
+    /**
+     *
+     * @return somme des valeurs
+     */
+    public long getSum() {
+        return iSum.get();
+    }
+
+    /**
+     *
+     * @return moyenne des valeurs, 0 sans valeur
+     */
+    public long getMean() {
+        long count = iCount.get();
+        return count == 0 ? 0 : iSum.get() / count;
+    }
+
+    /**
+     *
+     * @return valeur maximale
+     */
+    public long getMax() {
+        return iMax.get();
+    }
+
+    /**
+     * Ajoute le résumé de l'histogramme en JSON: nombre, somme, moyenne, percentiles 50, 90, 95, 99, 99.9 et maximum.
+     *
+     * @param aJson
+     *            le JSON, complété par un objet
+     * @return le JSON
+     */
+    public StringBuilder appendJson(StringBuilder aJson) {
+        return aJson.append("{\"count\":").append(getCount()).append(",\"sum\":").append(getSum()).append(",\"mean\":")
+                .append(getMean()).append(",\"p50\":").append(getPercentile(50)).append(",\"p90\":").append(getPercentile(90))
+                .append(",\"p95\":").append(getPercentile(95)).append(",\"p99\":").append(getPercentile(99)).append(",\"p999\":")
+                .append(getPercentile(99.9)).append(",\"max\":").append(getMax()).append('}');
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMean() + ", p50=" + getPercentile(50) + ", p95=" + getPercentile(95) + ", p99="
+                + getPercentile(99) + ", max=" + getMax();
+    }
+}
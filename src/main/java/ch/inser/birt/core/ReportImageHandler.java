@@ -0,0 +1,126 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.birt.report.engine.api.HTMLServerImageHandler;
+import org.eclipse.birt.report.engine.api.IImage;
+
+/**
+ * Handler des images des rapports HTML qui garde les images dans le {@link ReportImageStore}. Les images refusées par le stockage, ou dont
+ * le contenu n'est pas disponible, sont écrites dans le répertoire des images par le HTMLServerImageHandler.
+ *
+ * Le sous-répertoire par requête du {@link ReportTempJanitor} n'est créé qu'à l'écriture d'une image sur disque: un rapport sans image,
+ * ou dont les images sont toutes dans le stockage, ne crée pas de répertoire.
+ *
+ * Un handler est créé par rendu: les images du design répétées dans le rapport ne sont stockées qu'une fois.
+ *
+ * @author INSER SA
+ *
+ */
+class ReportImageHandler extends HTMLServerImageHandler {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportImageHandler.class);
+
+    /** Stockage des images, <code>null</code> si désactivé */
+    private final ReportImageStore iStore;
+
+    /** Sous-répertoire par requête des images écrites sur disque, <code>null</code> sans sous-répertoire */
+    private final File iDirectory;
+
+    /** URL de base des images */
+    private final String iBaseImageUrl;
+
+    /** Noms des images réutilisables déjà stockées, par identifiant Birt */
+    private final Map<String, String> iNames = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param aStore
+     *            stockage des images, <code>null</code> si désactivé
+     * @param aBaseImageUrl
+     *            URL de base des images, ex: "BirtServlet?image="
+     * @param aDirectory
+     *            sous-répertoire par requête des images écrites sur disque, créé à la première image; <code>null</code> sans
+     *            sous-répertoire
+     */
+    ReportImageHandler(ReportImageStore aStore, String aBaseImageUrl, File aDirectory) {
+        iStore = aStore;
+        iBaseImageUrl = aBaseImageUrl;
+        iDirectory = aDirectory;
+    }
+
+    @Override
+    protected String handleImage(IImage aImage, Object aContext, String aPrefix, boolean aNeedMap) {
+        if (iStore == null) {
+            return writeImage(aImage, aContext, aPrefix, aNeedMap);
+        }
+        String id = aNeedMap ? aImage.getID() : null;
+        String name = id == null ? null : iNames.get(id);
+        if (name != null) {
+            return iBaseImageUrl + name;
+        }
+
+        byte[] data = null;
+        try {
+            data = aImage.getImageData();
+        } catch (Exception e) {
+            logger.debug("Image data not available: " + aImage.getID(), e);
+        }
+        if (data != null) {
+            String extension = aImage.getExtension();
+            name = aPrefix + "_" + UUID.randomUUID().toString() + (extension == null ? "" : extension);
+            if (iStore.put(name, data, aImage.getMimeType())) {
+                if (id != null) {
+                    iNames.put(id, name);
+                }
+                return iBaseImageUrl + name;
+            }
+        }
+        return writeImage(aImage, aContext, aPrefix, aNeedMap);
+    }
+
+    /**
+     * Ecrit une image sur disque par le HTMLServerImageHandler, après avoir créé le sous-répertoire par requête.
+     *
+     * @param aImage
+     *            l'image
+     * @param aContext
+     *            contexte du rendu
+     * @param aPrefix
+     *            préfixe du nom de l'image
+     * @param aNeedMap
+     *            <code>true</code> si l'image peut être réutilisée
+     * @return l'URL de l'image
+     */
+    private String writeImage(IImage aImage, Object aContext, String aPrefix, boolean aNeedMap) {
+        // Vérifié à chaque image: le répertoire est effacé quand sa dernière image a été servie
+        if (iDirectory != null && !iDirectory.isDirectory() && !iDirectory.mkdirs()) {
+            logger.warn("Request directory not created: " + iDirectory);
+        }
+        return super.handleImage(aImage, aContext, aPrefix, aNeedMap);
+    }
+}
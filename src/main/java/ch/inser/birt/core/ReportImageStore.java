@@ -0,0 +1,286 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stockage en mémoire des images des rapports HTML (graphiques et images du design), servies ensuite par le BirtServlet sans passer par
+ * le disque.
+ *
+ * Les images sont gardées hors du heap (direct buffers) et expirent après une durée de vie. La taille totale est limitée: quand la place
+ * manque, les images déjà servies sont supprimées en commençant par les moins utilisées (LRU); une image qui n'a pas encore été lue par
+ * le navigateur n'est jamais supprimée avant son expiration. S'il n'y a toujours pas de place, l'image est refusée et le handler d'images
+ * l'écrit sur disque comme avant.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportImageStore {
+
+    /** Taille par défaut du stockage, en octets */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /** Durée de vie par défaut d'une image, en millisecondes */
+    public static final long DEFAULT_TTL = 5L * 60 * 1000;
+
+    /** Taille maximale du stockage, en octets */
+    private final long iMaxBytes;
+
+    /** Durée de vie d'une image, en millisecondes */
+    private final long iTtl;
+
+    /** Images par nom, ordonnées par accès (LRU) */
+    private final LinkedHashMap<String, Image> iImages = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Taille actuelle du stockage, en octets */
+    private long iBytes;
+
+    /** Nombre d'images servies depuis la mémoire */
+    private final AtomicLong iHits = new AtomicLong();
+
+    /** Nombre d'images demandées mais absentes */
+    private final AtomicLong iMisses = new AtomicLong();
+
+    /** Nombre d'images servies supprimées par manque de place */
+    private final AtomicLong iEvictions = new AtomicLong();
+
+    /** Nombre d'images refusées par manque de place, écrites sur disque */
+    private final AtomicLong iRejected = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxBytes
+     *            taille maximale du stockage, en octets
+     * @param aTtl
+     *            durée de vie d'une image, en millisecondes
+     */
+    public ReportImageStore(long aMaxBytes, long aTtl) {
+        iMaxBytes = aMaxBytes;
+        iTtl = aTtl;
+    }
+
+    /**
+     * Ajoute une image.
+     *
+     * @param aName
+     *            nom de l'image, unique
+     * @param aContent
+     *            contenu de l'image
+     * @param aMimeType
+     *            type MIME de l'image, <code>null</code> si inconnu
+     * @return <code>true</code> si l'image a été ajoutée, <code>false</code> si la place manque
+     */
+    public synchronized boolean put(String aName, byte[] aContent, String aMimeType) {
+        cleanup();
+        Iterator<Image> it = iImages.values().iterator();
+        while (iBytes + aContent.length > iMaxBytes && it.hasNext()) {
+            Image image = it.next();
+            if (image.iServed) {
+                iBytes -= image.getLength();
+                it.remove();
+                iEvictions.incrementAndGet();
+            }
+        }
+        if (iBytes + aContent.length > iMaxBytes) {
+            iRejected.incrementAndGet();
+            return false;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(aContent.length);
+        buffer.put(aContent).flip();
+        Image old = iImages.put(aName, new Image(buffer.asReadOnlyBuffer(), aMimeType, System.currentTimeMillis() + iTtl));
+        if (old != null) {
+            iBytes -= old.getLength();
+        }
+        iBytes += aContent.length;
+        return true;
+    }
+
+    /**
+     * Recherche une image à servir.
+     *
+     * @param aName
+     *            nom de l'image
+     * @return l'image, <code>null</code> si elle n'existe pas ou a expiré
+     */
+    public synchronized Image get(String aName) {
+        Image image = iImages.get(aName);
+        if (image != null && image.iExpires < System.currentTimeMillis()) {
+            iImages.remove(aName);
+            iBytes -= image.getLength();
+            image = null;
+        }
+        if (image == null) {
+            iMisses.incrementAndGet();
+            return null;
+        }
+        image.iServed = true;
+        iHits.incrementAndGet();
+        return image;
+    }
+
+    /**
+     * Supprime les images expirées.
+     */
+    private void cleanup() {
+        long now = System.currentTimeMillis();
+        Iterator<Image> it = iImages.values().iterator();
+        while (it.hasNext()) {
+            Image image = it.next();
+            if (image.iExpires < now) {
+                iBytes -= image.getLength();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Supprime toutes les images.
+     */
+    public synchronized void clear() {
+        iImages.clear();
+        iBytes = 0;
+    }
+
+    /**
+     *
+     * @return nombre d'images en mémoire
+     */
+    public synchronized int size() {
+        return iImages.size();
+    }
+
+    /**
+     *
+     * @return taille actuelle du stockage, en octets
+     */
+    public synchronized long getBytes() {
+        return iBytes;
+    }
+
+    /**
+     *
+     * @return nombre d'images servies depuis la mémoire
+     */
+    public long getHits() {
+        return iHits.get();
+    }
+
+    /**
+     *
+     * @return nombre d'images demandées mais absentes
+     */
+    public long getMisses() {
+        return iMisses.get();
+    }
+
+    /**
+     *
+     * @return nombre d'images servies supprimées par manque de place
+     */
+    public long getEvictions() {
+        return iEvictions.get();
+    }
+
+    /**
+     *
+     * @return nombre d'images refusées par manque de place, écrites sur disque
+     */
+    public long getRejected() {
+        return iRejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportImageStore[size=" + size() + ", bytes=" + getBytes() + ", max=" + iMaxBytes + ", ttl=" + iTtl + ", hits=" + iHits
+                + ", misses=" + iMisses + ", evictions=" + iEvictions + ", rejected=" + iRejected + "]";
+    }
+
+    /**
+     * Image en mémoire
+     */
+    public static class Image {
+
+        /** Contenu, en lecture seule */
+        private final ByteBuffer iContent;
+
+        /** Type MIME */
+        private final String iMimeType;
+
+        /** Date d'expiration */
+        private final long iExpires;
+
+        /** <code>true</code> si l'image a déjà été servie */
+        private boolean iServed;
+
+        /**
+         * Constructor.
+         *
+         * @param aContent
+         *            contenu, en lecture seule
+         * @param aMimeType
+         *            type MIME
+         * @param aExpires
+         *            date d'expiration
+         */
+        Image(ByteBuffer aContent, String aMimeType, long aExpires) {
+            iContent = aContent;
+            iMimeType = aMimeType;
+            iExpires = aExpires;
+        }
+
+        /**
+         *
+         * @return type MIME, <code>null</code> si inconnu
+         */
+        public String getMimeType() {
+            return iMimeType;
+        }
+
+        /**
+         *
+         * @return taille de l'image, en octets
+         */
+        public int getLength() {
+            return iContent.capacity();
+        }
+
+        /**
+         * Ecrit l'image. Plusieurs requêtes peuvent écrire la même image en même temps.
+         *
+         * @param aOut
+         *            stream de la réponse
+         * @throws IOException
+         *             erreur d'écriture
+         */
+        public void writeTo(OutputStream aOut) throws IOException {
+            WritableByteChannel channel = Channels.newChannel(aOut);
+            ByteBuffer content = iContent.duplicate();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+    }
+}
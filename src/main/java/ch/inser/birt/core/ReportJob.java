@@ -0,0 +1,288 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Rapport Birt exécuté en arrière-plan. Le résultat est gardé dans le {@link ReportJobStore} jusqu'à son expiration.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportJob {
+
+    /**
+     * Etats d'un rapport en arrière-plan
+     */
+    public enum Status {
+        /** En attente d'exécution */
+        QUEUED,
+
+        /** En cours d'exécution */
+        RUNNING,
+
+        /** Terminé, résultat disponible */
+        DONE,
+
+        /** Terminé en erreur */
+        FAILED
+    }
+
+    /** Identifiant du rapport */
+    private final String iId;
+
+    /** Format du rapport */
+    private final String iFormat;
+
+    /** Utilisateur qui a soumis le rapport, <code>null</code> sans utilisateur */
+    private final String iOwner;
+
+    /** Date de soumission */
+    private final long iSubmitted;
+
+    /** Etat du rapport */
+    private volatile Status iStatus = Status.QUEUED;
+
+    /** Date de fin */
+    private volatile long iFinished;
+
+    /** Message d'erreur */
+    private volatile String iError;
+
+    /** Résultat en mémoire */
+    private volatile byte[] iContent;
+
+    /** Résultat sur disque */
+    private volatile File iFile;
+
+    /** Taille du résultat */
+    private volatile long iSize;
+
+    /** Surveillance du rapport en cours, pour l'annuler */
+    private volatile ReportDeadlines.Watch iWatch;
+
+    /** <code>true</code> si l'annulation du rapport a été demandée */
+    private volatile boolean iCancelRequested;
+
+    /**
+     * Constructor.
+     *
+     * @param aId
+     *            identifiant du rapport
+     * @param aFormat
+     *            format du rapport
+     * @param aOwner
+     *            utilisateur qui soumet le rapport, <code>null</code> sans utilisateur
+     */
+    ReportJob(String aId, String aFormat, String aOwner) {
+        iId = aId;
+        iFormat = aFormat;
+        iOwner = aOwner;
+        iSubmitted = System.currentTimeMillis();
+    }
+
+    /**
+     * Le rapport démarre.
+     *
+     * @param aWatch
+     *            surveillance du rapport, pour l'annuler
+     */
+    void started(ReportDeadlines.Watch aWatch) {
+        iWatch = aWatch;
+        iStatus = Status.RUNNING;
+    }
+
+    /**
+     * Demande l'annulation du rapport: un rapport en attente ne sera pas exécuté, un rapport en cours est annulé si les délais des
+     * rapports sont activés (report.deadline=true).
+     *
+     * @return <code>false</code> si le rapport est déjà terminé
+     */
+    public boolean cancel() {
+        if (iStatus == Status.DONE || iStatus == Status.FAILED) {
+            return false;
+        }
+        iCancelRequested = true;
+        ReportDeadlines.Watch watch = iWatch;
+        if (watch != null) {
+            watch.cancel(ReportDeadlines.CANCEL);
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @return <code>true</code> si l'annulation du rapport a été demandée
+     */
+    boolean isCancelRequested() {
+        return iCancelRequested;
+    }
+
+    /**
+     * Le rapport est terminé, résultat en mémoire.
+     *
+     * @param aContent
+     *            le rapport
+     */
+    void done(byte[] aContent) {
+        iContent = aContent;
+        iSize = aContent.length;
+        finish(Status.DONE);
+    }
+
+    /**
+     * Le rapport est terminé, résultat sur disque.
+     *
+     * @param aFile
+     *            le fichier du rapport
+     */
+    void done(File aFile) {
+        iFile = aFile;
+        iSize = aFile.length();
+        finish(Status.DONE);
+    }
+
+    /**
+     * Le rapport est terminé en erreur.
+     *
+     * @param aError
+     *            message d'erreur
+     */
+    void failed(String aError) {
+        iError = aError;
+        finish(Status.FAILED);
+    }
+
+    /**
+     * Fin du rapport.
+     *
+     * @param aStatus
+     *            état final
+     */
+    private void finish(Status aStatus) {
+        iWatch = null;
+        iFinished = System.currentTimeMillis();
+        iStatus = aStatus;
+    }
+
+    /**
+     * Ecrit le résultat du rapport dans un stream.
+     *
+     * @param aOut
+     *            le stream
+     * @throws IOException
+     *             erreur d'écriture ou résultat pas disponible
+     */
+    public void writeResult(OutputStream aOut) throws IOException {
+        byte[] content = iContent;
+        File file = iFile;
+        if (content != null) {
+            aOut.write(content);
+        } else if (file != null) {
+            Files.copy(file.toPath(), aOut);
+        } else {
+            throw new IOException("Report job " + iId + " has no result (" + iStatus + ")");
+        }
+    }
+
+    /**
+     * Libère le résultat.
+     */
+    void discard() {
+        iContent = null;
+        File file = iFile;
+        iFile = null;
+        if (file != null) {
+            ReportDocumentStore.delete(file);
+        }
+    }
+
+    /**
+     *
+     * @return identifiant du rapport
+     */
+    public String getId() {
+        return iId;
+    }
+
+    /**
+     *
+     * @return format du rapport
+     */
+    public String getFormat() {
+        return iFormat;
+    }
+
+    /**
+     *
+     * @return utilisateur qui a soumis le rapport, <code>null</code> sans utilisateur
+     */
+    public String getOwner() {
+        return iOwner;
+    }
+
+    /**
+     *
+     * @return état du rapport
+     */
+    public Status getStatus() {
+        return iStatus;
+    }
+
+    /**
+     *
+     * @return date de soumission
+     */
+    public long getSubmitted() {
+        return iSubmitted;
+    }
+
+    /**
+     *
+     * @return date de fin, 0 si le rapport n'est pas terminé
+     */
+    public long getFinished() {
+        return iFinished;
+    }
+
+    /**
+     *
+     * @return message d'erreur, <code>null</code> sans erreur
+     */
+    public String getError() {
+        return iError;
+    }
+
+    /**
+     *
+     * @return taille du résultat
+     */
+    public long getSize() {
+        return iSize;
+    }
+
+    /**
+     *
+     * @return fichier du résultat, <code>null</code> si le résultat est en mémoire
+     */
+    public File getFile() {
+        return iFile;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Rapports Birt exécutés en arrière-plan et leurs résultats. Les petits résultats restent en mémoire, les autres sont écrits sur disque.
+ * Les rapports terminés expirent après une durée de vie.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportJobStore {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportJobStore.class);
+
+    /** Taille maximale par défaut d'un résultat en mémoire, en octets */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+
+    /** Durée de vie par défaut d'un rapport terminé, en millisecondes */
+    public static final long DEFAULT_TTL = 30L * 60 * 1000;
+
+    /** Répertoire des résultats */
+    private final File iDirectory;
+
+    /** Taille maximale d'un résultat en mémoire, en octets */
+    private final int iMemoryThreshold;
+
+    /** Durée de vie d'un rapport terminé, en millisecondes */
+    private final long iTtl;
+
+    /** Rapports par identifiant */
+    private final Map<String, ReportJob> iJobs = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param aDirectory
+     *            répertoire des résultats, créé si nécessaire
+     * @param aMemoryThreshold
+     *            taille maximale d'un résultat en mémoire, en octets
+     * @param aTtl
+     *            durée de vie d'un rapport terminé, en millisecondes
+     */
+    public ReportJobStore(File aDirectory, int aMemoryThreshold, long aTtl) {
+        iDirectory = aDirectory;
+        iMemoryThreshold = aMemoryThreshold;
+        iTtl = aTtl;
+        if (!iDirectory.isDirectory() && !iDirectory.mkdirs()) {
+            logger.warn("Report job directory not created: " + iDirectory);
+        }
+    }
+
+    /**
+     * Crée un nouveau rapport en attente.
+     *
+     * @param aFormat
+     *            format du rapport
+     * @param aOwner
+     *            utilisateur qui soumet le rapport, <code>null</code> sans utilisateur
+     * @return le rapport
+     */
+    public ReportJob create(String aFormat, String aOwner) {
+        cleanup();
+        ReportJob job = new ReportJob(UUID.randomUUID().toString(), aFormat, aOwner);
+        iJobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Enregistre le résultat d'un rapport.
+     *
+     * @param aJob
+     *            le rapport
+     * @param aContent
+     *            le résultat, <code>null</code> en cas d'erreur
+     * @param aError
+     *            l'erreur, <code>null</code> si le rapport a réussi
+     */
+    public void complete(ReportJob aJob, byte[] aContent, Throwable aError) {
+        if (aError != null) {
+            failed(aJob, aError);
+        } else if (aContent.length <= iMemoryThreshold) {
+            aJob.done(aContent);
+        } else {
+            try {
+                File file = createFile(aJob);
+                Files.write(file.toPath(), aContent);
+                aJob.done(file);
+            } catch (IOException e) {
+                logger.error("Error writing report job " + aJob.getId(), e);
+                aJob.failed("Report failed");
+            }
+        }
+        discardIfRemoved(aJob);
+    }
+
+    /**
+     * Enregistre le résultat d'un rapport, déplacé dans le répertoire des résultats s'il est déjà sur disque. Le buffer est libéré.
+     *
+     * @param aJob
+     *            le rapport
+     * @param aContent
+     *            le résultat, <code>null</code> en cas d'erreur
+     * @param aError
+     *            l'erreur, <code>null</code> si le rapport a réussi
+     */
+    public void complete(ReportJob aJob, ReportBuffer aContent, Throwable aError) {
+        if (aError != null) {
+            failed(aJob, aError);
+        } else {
+            try (ReportBuffer content = aContent) {
+                if (content.size() <= iMemoryThreshold) {
+                    aJob.done(content.toByteArray());
+                } else {
+                    File file = createFile(aJob);
+                    content.saveTo(file);
+                    aJob.done(file);
+                }
+            } catch (IOException e) {
+                logger.error("Error writing report job " + aJob.getId(), e);
+                aJob.failed("Report failed");
+            }
+        }
+        discardIfRemoved(aJob);
+    }
+
+    /**
+     * Le rapport est terminé en erreur. L'erreur est journalisée, le rapport ne garde qu'un message générique qui ne révèle rien du design
+     * ni de la base de données.
+     *
+     * @param aJob
+     *            le rapport
+     * @param aError
+     *            l'erreur
+     */
+    private static void failed(ReportJob aJob, Throwable aError) {
+        Throwable cause = aError.getCause() != null ? aError.getCause() : aError;
+        if (cause instanceof ReportCancelledException) {
+            logger.warn("Report job " + aJob.getId() + " cancelled: " + cause.getMessage());
+            aJob.failed("Report cancelled (" + ((ReportCancelledException) cause).getReason() + ")");
+        } else {
+            logger.error("Report job " + aJob.getId() + " failed", cause);
+            aJob.failed("Report failed");
+        }
+    }
+
+    /**
+     * Crée le fichier du résultat d'un rapport.
+     *
+     * @param aJob
+     *            le rapport
+     * @return le fichier, vide
+     * @throws IOException
+     *             erreur de création du fichier
+     */
+    private File createFile(ReportJob aJob) throws IOException {
+        return File.createTempFile("job_", "." + aJob.getFormat(), iDirectory);
+    }
+
+    /**
+     * Libère le résultat d'un rapport supprimé pendant son exécution.
+     *
+     * @param aJob
+     *            le rapport
+     */
+    private void discardIfRemoved(ReportJob aJob) {
+        if (!iJobs.containsKey(aJob.getId())) {
+            aJob.discard();
+        }
+    }
+
+    /**
+     * Recherche un rapport.
+     *
+     * @param aId
+     *            identifiant du rapport
+     * @return le rapport, <code>null</code> s'il n'existe pas ou s'il a expiré
+     */
+    public ReportJob get(String aId) {
+        cleanup();
+        return aId == null ? null : iJobs.get(aId);
+    }
+
+    /**
+     * Supprime un rapport et son résultat.
+     *
+     * @param aId
+     *            identifiant du rapport
+     */
+    public void remove(String aId) {
+        ReportJob job = iJobs.remove(aId);
+        if (job != null) {
+            job.discard();
+        }
+    }
+
+    /**
+     * Supprime les rapports terminés expirés.
+     */
+    public void cleanup() {
+        long limit = System.currentTimeMillis() - iTtl;
+        Iterator<ReportJob> it = iJobs.values().iterator();
+        while (it.hasNext()) {
+            ReportJob job = it.next();
+            if (job.getFinished() != 0 && job.getFinished() < limit) {
+                it.remove();
+                job.discard();
+            }
+        }
+    }
+
+    /**
+     * Supprime tous les rapports.
+     */
+    public void clear() {
+        Iterator<ReportJob> it = iJobs.values().iterator();
+        while (it.hasNext()) {
+            ReportJob job = it.next();
+            it.remove();
+            job.discard();
+        }
+    }
+
+    /**
+     *
+     * @return nombre de rapports
+     */
+    public int size() {
+        return iJobs.size();
+    }
+
+    /**
+     *
+     * @return répertoire des résultats
+     */
+    public File getDirectory() {
+        return iDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportJobStore[dir=" + iDirectory + ", size=" + size() + ", memoryThreshold=" + iMemoryThreshold + ", ttl=" + iTtl + "]";
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.inser.birt.util.Constants.ReportType;
+
+/**
+ * Mesures des rapports par design et par format: durée totale et durée de chaque phase (attente dans la file, ouverture du design,
+ * exécution, rendu, extraction, post-traitement du PDF), octets produits et lignes extraites. Les durées sont agrégées dans des
+ * histogrammes ({@link ReportHistogram}), exposés par JMX et en JSON.
+ *
+ * Un rapport est mesuré par une {@link Trace} liée au thread qui l'exécute; les appels imbriqués du ReportEngine (ex: writeSecurePDF
+ * puis getSecureReport) sont comptés dans la même trace. Les rapports plus lents que le seuil sont journalisés avec la durée de chaque
+ * phase dans la catégorie ch.inser.birt.core.ReportMetrics.slow.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportMetrics implements ReportMetricsMBean {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportMetrics.class);
+
+    /**
+     * Logger des rapports lents
+     */
+    private static final Log slowLogger = LogFactory.getLog(ReportMetrics.class.getName() + ".slow");
+
+    /** Nom JMX des mesures */
+    public static final String OBJECT_NAME = "ch.inser.birt:type=ReportMetrics";
+
+    /** Seuil par défaut des rapports lents, en millisecondes */
+    public static final long DEFAULT_SLOW_THRESHOLD = 10L * 1000;
+
+    /** Phase d'attente dans la file du contrôle d'admission */
+    public static final String PHASE_QUEUE = "queue";
+
+    /** Phase d'ouverture du design */
+    public static final String PHASE_DESIGN = "design";
+
+    /** Phase d'exécution du rapport (avec le rendu pour un rapport exécuté et rendu en une fois) */
+    public static final String PHASE_RUN = "run";
+
+    /** Phase de rendu d'un document Birt */
+    public static final String PHASE_RENDER = "render";
+
+    /** Phase d'extraction des données */
+    public static final String PHASE_EXTRACT = "extract";
+
+    /** Phase de post-traitement du PDF */
+    public static final String PHASE_POSTPROCESS = "postprocess";
+
+    /** Les phases, dans l'ordre */
+    private static final String[] PHASES = { PHASE_QUEUE, PHASE_DESIGN, PHASE_RUN, PHASE_RENDER, PHASE_EXTRACT, PHASE_POSTPROCESS };
+
+    /** Formats mesurés: ceux de {@link ReportType} et ceux rendus par le ReportEngine, les autres formats sont rendus en HTML */
+    private static final Set<String> FORMATS = new HashSet<>(Arrays.asList("html", "excel", "excel-xlsx"));
+
+    static {
+        for (ReportType type : ReportType.values()) {
+            FORMATS.add(type.toString());
+        }
+    }
+
+    /** Seuil des rapports lents, en millisecondes, 0 si désactivé */
+    private final long iSlowThreshold;
+
+    /** Trace du rapport exécuté par le thread */
+    private final ThreadLocal<Trace> iCurrent = new ThreadLocal<>();
+
+    /** Mesures de tous les rapports */
+    private volatile Statistics iTotal = new Statistics(null, null);
+
+    /** Mesures par design et format */
+    private volatile Map<String, Statistics> iStatistics = new ConcurrentHashMap<>();
+
+    /** Nombre de rapports lents */
+    private final AtomicLong iSlowReports = new AtomicLong();
+
+    /** Nombre de rapports annulés, par raison */
+    private volatile Map<String, AtomicLong> iCancelled = new ConcurrentHashMap<>();
+
+    /** Nom JMX, <code>null</code> si non enregistré */
+    private ObjectName iObjectName;
+
+    /**
+     * Constructor.
+     *
+     * @param aSlowThreshold
+     *            seuil des rapports lents, en millisecondes, 0 pour ne pas les journaliser
+     */
+    public ReportMetrics(long aSlowThreshold) {
+        iSlowThreshold = aSlowThreshold;
+    }
+
+    /**
+     * Commence la mesure d'un rapport, ou continue celle du rapport en cours dans le thread.
+     *
+     * @param aDesign
+     *            nom du design
+     * @param aFormat
+     *            format du rapport, donné par le client: un format inconnu est mesuré comme HTML
+     * @return la trace, à fermer par close()
+     */
+    public Trace start(String aDesign, String aFormat) {
+        Trace trace = iCurrent.get();
+        if (trace == null) {
+            trace = new Trace(this, aDesign, getFormat(aFormat));
+            iCurrent.set(trace);
+        }
+        trace.iDepth++;
+        return trace;
+    }
+
+    /**
+     * Format d'un rapport parmi les formats mesurés, pour que le nombre de statistiques reste borné quel que soit le format demandé.
+     *
+     * @param aFormat
+     *            format du rapport, <code>null</code> pour HTML
+     * @return le format mesuré
+     */
+    static String getFormat(String aFormat) {
+        String format = aFormat == null ? "html" : aFormat.trim().toLowerCase(Locale.ROOT);
+        return FORMATS.contains(format) ? format : "html";
+    }
+
+    /**
+     * Ajoute la durée d'une phase au rapport en cours dans le thread.
+     *
+     * @param aPhase
+     *            la phase, ex: {@link #PHASE_RUN}
+     * @param aDuration
+     *            durée, en millisecondes
+     */
+    public void phase(String aPhase, long aDuration) {
+        Trace trace = iCurrent.get();
+        if (trace != null) {
+            for (int i = 0; i < PHASES.length; i++) {
+                if (PHASES[i].equals(aPhase)) {
+                    trace.iPhases[i] = Math.max(0, trace.iPhases[i]) + aDuration;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ajoute des lignes extraites au rapport en cours dans le thread.
+     *
+     * @param aRows
+     *            nombre de lignes
+     */
+    public void rows(long aRows) {
+        Trace trace = iCurrent.get();
+        if (trace != null) {
+            trace.iRows += aRows;
+        }
+    }
+
+    /**
+     * Compte un rapport annulé.
+     *
+     * @param aReason
+     *            raison de l'annulation, ex: {@link ReportDeadlines#TIMEOUT}
+     */
+    public void cancelled(String aReason) {
+        iCancelled.computeIfAbsent(aReason, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Compte les octets écrits pour le rapport en cours dans le thread.
+     *
+     * @param aOut
+     *            stream du rapport
+     * @return le stream qui compte les octets, ou aOut s'il n'y a pas de rapport en cours
+     */
+    public OutputStream count(OutputStream aOut) {
+        Trace trace = iCurrent.get();
+        return trace == null ? aOut : new CountingOutputStream(aOut, trace);
+    }
+
+    /**
+     * Agrège les mesures d'un rapport terminé.
+     *
+     * @param aTrace
+     *            la trace du rapport
+     */
+    private void record(Trace aTrace) {
+        long duration = System.currentTimeMillis() - aTrace.iStart;
+        String key = aTrace.iDesign + "|" + aTrace.iFormat;
+        iStatistics.computeIfAbsent(key, k -> new Statistics(aTrace.iDesign, aTrace.iFormat)).record(aTrace, duration);
+        iTotal.record(aTrace, duration);
+        if (iSlowThreshold > 0 && duration >= iSlowThreshold) {
+            iSlowReports.incrementAndGet();
+            slowLogger.warn("Slow report " + aTrace.iDesign + " " + aTrace.iFormat + ": " + duration + " ms (" + aTrace + ")");
+        }
+    }
+
+    /**
+     * Enregistre les mesures dans le serveur JMX de la plateforme, en remplaçant un enregistrement précédent (redéploiement).
+     */
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            iObjectName = name;
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Report metrics not registered in JMX", e);
+        }
+    }
+
+    /**
+     * Retire les mesures du serveur JMX.
+     */
+    public synchronized void unregister() {
+        if (iObjectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(iObjectName);
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Report metrics not unregistered from JMX", e);
+        }
+        iObjectName = null;
+    }
+
+    @Override
+    public long getReports() {
+        return iTotal.iLatency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return iTotal.iErrors.get();
+    }
+
+    @Override
+    public long getSlowReports() {
+        return iSlowReports.get();
+    }
+
+    @Override
+    public long getCancelled() {
+        long cancelled = 0;
+        for (AtomicLong count : iCancelled.values()) {
+            cancelled += count.get();
+        }
+        return cancelled;
+    }
+
+    @Override
+    public long getSlowThreshold() {
+        return iSlowThreshold;
+    }
+
+    @Override
+    public long getLatencyP50() {
+        return iTotal.iLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getLatencyP95() {
+        return iTotal.iLatency.getPercentile(95);
+    }
+
+    @Override
+    public long getLatencyP99() {
+        return iTotal.iLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getLatencyMax() {
+        return iTotal.iLatency.getMax();
+    }
+
+    @Override
+    public String[] getStatistics() {
+        List<String> lines = new ArrayList<>();
+        for (Statistics statistics : new TreeMap<>(iStatistics).values()) {
+            lines.add(statistics.toString());
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder json = new StringBuilder("{\"reports\":").append(getReports()).append(",\"errors\":").append(getErrors())
+                .append(",\"slow\":").append(getSlowReports()).append(",\"slowThreshold\":").append(iSlowThreshold)
+                .append(",\"cancelled\":{");
+        String separator = "";
+        for (Map.Entry<String, AtomicLong> cancelled : new TreeMap<>(iCancelled).entrySet()) {
+            json.append(separator).append('"').append(cancelled.getKey()).append("\":").append(cancelled.getValue().get());
+            separator = ",";
+        }
+        json.append("},\"total\":");
+        iTotal.appendJson(json).append(",\"designs\":[");
+        String sep = "";
+        for (Statistics statistics : new TreeMap<>(iStatistics).values()) {
+            statistics.appendJson(json.append(sep));
+            sep = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    @Override
+    public void reset() {
+        iTotal = new Statistics(null, null);
+        iStatistics = new ConcurrentHashMap<>();
+        iSlowReports.set(0);
+        iCancelled = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportMetrics[reports=" + getReports() + ", errors=" + getErrors() + ", slow=" + iSlowReports + ", cancelled="
+                + getCancelled() + ", slowThreshold=" + iSlowThreshold + ", latency=[" + iTotal.iLatency + "]]";
+    }
+
+    /**
+     * Chaîne JSON.
+     *
+     * @param aValue
+     *            la valeur
+     * @return la valeur entre guillemets, avec les caractères spéciaux échappés
+     */
+    private static String toJson(String aValue) {
+        StringBuilder json = new StringBuilder(aValue.length() + 2).append('"');
+        for (int i = 0; i < aValue.length(); i++) {
+            char c = aValue.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Mesure d'un rapport, liée au thread qui l'exécute.
+     */
+    public static class Trace implements AutoCloseable {
+
+        /** Trace qui ne mesure rien, quand les mesures sont désactivées */
+        public static final Trace NONE = new Trace(null, null, null);
+
+        /** Les mesures, <code>null</code> pour {@link #NONE} */
+        private final ReportMetrics iMetrics;
+
+        /** Nom du design */
+        private final String iDesign;
+
+        /** Format du rapport */
+        private final String iFormat;
+
+        /** Début du rapport */
+        private final long iStart = System.currentTimeMillis();
+
+        /** Durée de chaque phase, en millisecondes, -1 si la phase n'a pas eu lieu */
+        private final long[] iPhases = new long[PHASES.length];
+
+        /** Octets produits */
+        private long iBytes;
+
+        /** Lignes extraites */
+        private long iRows;
+
+        /** <code>true</code> si le rapport s'est terminé sans erreur */
+        private boolean iSucceeded;
+
+        /** Nombre d'appels imbriqués en cours */
+        private int iDepth;
+
+        /**
+         * Constructor.
+         *
+         * @param aMetrics
+         *            les mesures
+         * @param aDesign
+         *            nom du design
+         * @param aFormat
+         *            format du rapport
+         */
+        Trace(ReportMetrics aMetrics, String aDesign, String aFormat) {
+            iMetrics = aMetrics;
+            iDesign = aDesign;
+            iFormat = aFormat;
+            Arrays.fill(iPhases, -1);
+        }
+
+        /**
+         * Indique que le rapport s'est terminé sans erreur, à appeler à la fin du traitement; seul l'appel le plus externe compte.
+         */
+        public void succeeded() {
+            if (iDepth == 1) {
+                iSucceeded = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (iMetrics == null || --iDepth > 0) {
+                return;
+            }
+            iMetrics.iCurrent.remove();
+            iMetrics.record(this);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < PHASES.length; i++) {
+                if (iPhases[i] >= 0) {
+                    text.append(PHASES[i]).append('=').append(iPhases[i]).append(" ms, ");
+                }
+            }
+            return text.append("bytes=").append(iBytes).append(", rows=").append(iRows).append(iSucceeded ? "" : ", failed").toString();
+        }
+    }
+
+    /**
+     * Mesures agrégées d'un design et format, ou de tous les rapports
+     */
+    private static class Statistics {
+
+        /** Nom du design, <code>null</code> pour tous les rapports */
+        private final String iDesign;
+
+        /** Format, <code>null</code> pour tous les rapports */
+        private final String iFormat;
+
+        /** Durée totale des rapports, en millisecondes */
+        private final ReportHistogram iLatency = new ReportHistogram();
+
+        /** Durée de chaque phase, en millisecondes */
+        private final ReportHistogram[] iPhases = new ReportHistogram[PHASES.length];
+
+        /** Taille des rapports, en octets */
+        private final ReportHistogram iBytes = new ReportHistogram();
+
+        /** Nombre de lignes extraites */
+        private final AtomicLong iRows = new AtomicLong();
+
+        /** Nombre de rapports en erreur */
+        private final AtomicLong iErrors = new AtomicLong();
+
+        /**
+         * Constructor.
+         *
+         * @param aDesign
+         *            nom du design
+         * @param aFormat
+         *            format
+         */
+        Statistics(String aDesign, String aFormat) {
+            iDesign = aDesign;
+            iFormat = aFormat;
+            for (int i = 0; i < PHASES.length; i++) {
+                iPhases[i] = new ReportHistogram();
+            }
+        }
+
+        /**
+         * Ajoute les mesures d'un rapport.
+         *
+         * @param aTrace
+         *            la trace du rapport
+         * @param aDuration
+         *            durée totale, en millisecondes
+         */
+        void record(Trace aTrace, long aDuration) {
+            iLatency.record(aDuration);
+            for (int i = 0; i < PHASES.length; i++) {
+                if (aTrace.iPhases[i] >= 0) {
+                    iPhases[i].record(aTrace.iPhases[i]);
+                }
+            }
+            if (aTrace.iBytes > 0) {
+                iBytes.record(aTrace.iBytes);
+            }
+            iRows.addAndGet(aTrace.iRows);
+            if (!aTrace.iSucceeded) {
+                iErrors.incrementAndGet();
+            }
+        }
+
+        /**
+         * Ajoute les mesures en JSON.
+         *
+         * @param aJson
+         *            le JSON, complété par un objet
+         * @return le JSON
+         */
+        StringBuilder appendJson(StringBuilder aJson) {
+            aJson.append('{');
+            if (iDesign != null) {
+                aJson.append("\"design\":").append(toJson(iDesign)).append(",\"format\":").append(toJson(iFormat)).append(',');
+            }
+            aJson.append("\"errors\":").append(iErrors).append(",\"rows\":").append(iRows).append(",\"latency\":");
+            iLatency.appendJson(aJson).append(",\"bytes\":");
+            iBytes.appendJson(aJson).append(",\"phases\":{");
+            String sep = "";
+            for (int i = 0; i < PHASES.length; i++) {
+                if (iPhases[i].getCount() > 0) {
+                    iPhases[i].appendJson(aJson.append(sep).append('"').append(PHASES[i]).append("\":"));
+                    sep = ",";
+                }
+            }
+            return aJson.append("}}");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder().append(iDesign).append(' ').append(iFormat).append(": errors=").append(iErrors)
+                    .append(", rows=").append(iRows).append(", latency=[").append(iLatency).append("], bytes=[").append(iBytes)
+                    .append(']');
+            for (int i = 0; i < PHASES.length; i++) {
+                if (iPhases[i].getCount() > 0) {
+                    text.append(", ").append(PHASES[i]).append("=[").append(iPhases[i]).append(']');
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Stream qui compte les octets d'un rapport.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /** La trace du rapport */
+        private final Trace iTrace;
+
+        /**
+         * Constructor.
+         *
+         * @param aOut
+         *            stream du rapport
+         * @param aTrace
+         *            la trace du rapport
+         */
+        CountingOutputStream(OutputStream aOut, Trace aTrace) {
+            super(aOut);
+            iTrace = aTrace;
+        }
+
+        @Override
+        public void write(int aByte) throws IOException {
+            out.write(aByte);
+            iTrace.iBytes++;
+        }
+
+        @Override
+        public void write(byte[] aBytes, int aOffset, int aLength) throws IOException {
+            out.write(aBytes, aOffset, aLength);
+            iTrace.iBytes += aLength;
+        }
+    }
+}
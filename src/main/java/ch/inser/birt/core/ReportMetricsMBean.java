@@ -0,0 +1,96 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+/**
+ * Interface JMX des mesures des rapports, enregistrée sous {@link ReportMetrics#OBJECT_NAME}.
+ *
+ * @author INSER SA
+ *
+ */
+public interface ReportMetricsMBean {
+
+    /**
+     *
+     * @return nombre de rapports mesurés
+     */
+    long getReports();
+
+    /**
+     *
+     * @return nombre de rapports en erreur
+     */
+    long getErrors();
+
+    /**
+     *
+     * @return nombre de rapports plus lents que le seuil
+     */
+    long getSlowReports();
+
+    /**
+     *
+     * @return nombre de rapports annulés: délai dépassé, client déconnecté ou annulation demandée
+     */
+    long getCancelled();
+
+    /**
+     *
+     * @return seuil des rapports lents, en millisecondes, 0 si désactivé
+     */
+    long getSlowThreshold();
+
+    /**
+     *
+     * @return durée médiane des rapports, en millisecondes
+     */
+    long getLatencyP50();
+
+    /**
+     *
+     * @return 95e percentile de la durée des rapports, en millisecondes
+     */
+    long getLatencyP95();
+
+    /**
+     *
+     * @return 99e percentile de la durée des rapports, en millisecondes
+     */
+    long getLatencyP99();
+
+    /**
+     *
+     * @return durée maximale des rapports, en millisecondes
+     */
+    long getLatencyMax();
+
+    /**
+     *
+     * @return une ligne par design et format, avec la durée des rapports et de chaque phase
+     */
+    String[] getStatistics();
+
+    /**
+     *
+     * @return les mesures en JSON
+     */
+    String getJson();
+
+    /**
+     * Remet les mesures à zéro.
+     */
+    void reset();
+}
@@ -0,0 +1,485 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache des rapports générés. Un rapport est identifié par son design, ses paramètres, son format et sa langue; le cache contient le
+ * résultat final, y compris le post-traitement du PDF sécurisé.
+ *
+ * Le cache est limité en nombre d'octets (LRU) et les entrées expirent après une durée de vie. Seuls les documents binaires complets
+ * (pdf, excel, excel-xlsx, doc) sont mis en cache: les rapports HTML référencent des images supprimées dès leur première lecture par le
+ * BirtServlet.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportOutputCache {
+
+    /** Taille par défaut du cache, en octets */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Durée de vie par défaut d'une entrée, en millisecondes */
+    public static final long DEFAULT_TTL = 5L * 60 * 1000;
+
+    /** Formats mis en cache: documents binaires complets, sans fichiers externes comme les images HTML */
+    private static final Set<String> FORMATS = new HashSet<>(Arrays.asList("pdf", "excel", "excel-xlsx", "doc"));
+
+    /** Taille maximale du cache, en octets */
+    private final long iMaxBytes;
+
+    /** Durée de vie d'une entrée, en millisecondes */
+    private final long iTtl;
+
+    /** Entrées du cache, ordonnées par accès (LRU) */
+    private final LinkedHashMap<String, Entry> iEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Taille actuelle du cache, en octets */
+    private long iBytes;
+
+    /** Designs à mettre en cache, tous si vide */
+    private Set<String> iIncludedDesigns = Collections.emptySet();
+
+    /** Designs à ne jamais mettre en cache */
+    private Set<String> iExcludedDesigns = Collections.emptySet();
+
+    /** Nombre de rapports trouvés dans le cache */
+    private final AtomicLong iHits = new AtomicLong();
+
+    /** Nombre de rapports non trouvés dans le cache */
+    private final AtomicLong iMisses = new AtomicLong();
+
+    /** Nombre d'entrées supprimées par manque de place */
+    private final AtomicLong iEvictions = new AtomicLong();
+
+    /** Nombre d'entrées expirées */
+    private final AtomicLong iExpirations = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxBytes
+     *            taille maximale du cache, en octets
+     * @param aTtl
+     *            durée de vie d'une entrée, en millisecondes
+     */
+    public ReportOutputCache(long aMaxBytes, long aTtl) {
+        iMaxBytes = aMaxBytes;
+        iTtl = aTtl;
+    }
+
+    /**
+     * Indique si un rapport peut être mis en cache.
+     *
+     * @param aDesignName
+     *            nom du fichier .rptdesign, <code>null</code> pour un design Blob
+     * @param aFormat
+     *            format du rapport: seuls pdf, excel, excel-xlsx et doc sont mis en cache, tout autre format est rendu en HTML
+     * @return <code>true</code> si le rapport peut être mis en cache
+     */
+    public boolean isCacheable(String aDesignName, String aFormat) {
+        if (aFormat == null || !FORMATS.contains(aFormat.toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        if (aDesignName == null) {
+            return iIncludedDesigns.isEmpty();
+        }
+        if (iExcludedDesigns.contains(aDesignName)) {
+            return false;
+        }
+        return iIncludedDesigns.isEmpty() || iIncludedDesigns.contains(aDesignName);
+    }
+
+    /**
+     * Construit la clé d'un rapport. Les séparateurs sont échappés dans chaque valeur et les valeurs sont typées, pour que deux jeux de
+     * paramètres différents n'aient jamais la même clé.
+     *
+     * @param aDesignIdentity
+     *            identité du design (chemin et version, ou digest)
+     * @param aParameters
+     *            paramètres du rapport
+     * @param aFormat
+     *            format du rapport
+     * @param aEmbeddable
+     *            HTML embeddable
+     * @param aLocale
+     *            langue du rapport
+     * @param aSecure
+     *            <code>true</code> pour un rapport sans attribut Creator
+     * @return la clé du rapport
+     */
+    public static String getKey(String aDesignIdentity, Map<String, Object> aParameters, String aFormat, boolean aEmbeddable,
+            Locale aLocale, boolean aSecure) {
+        StringBuilder key = escape(new StringBuilder(), aDesignIdentity).append('|');
+        escape(key, aFormat).append('|').append(aEmbeddable).append('|').append(aLocale == null ? "" : aLocale.toString()).append('|')
+                .append(aSecure);
+        if (aParameters != null) {
+            // Ordre des paramètres normalisé
+            for (Map.Entry<String, Object> param : new TreeMap<>(aParameters).entrySet()) {
+                escape(key.append('|'), param.getKey()).append('=');
+                appendValue(key, param.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Ajoute une valeur de paramètre à une clé: type et valeur échappée, dates en millisecondes, tableaux élément par élément.
+     *
+     * @param aKey
+     *            la clé, complétée
+     * @param aValue
+     *            la valeur, <code>null</code> pour une valeur vide
+     */
+    private static void appendValue(StringBuilder aKey, Object aValue) {
+        if (aValue == null) {
+            aKey.append("null");
+        } else if (aValue instanceof Object[]) {
+            aKey.append('[');
+            Object[] values = (Object[]) aValue;
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    aKey.append(',');
+                }
+                appendValue(aKey, values[i]);
+            }
+            aKey.append(']');
+        } else {
+            aKey.append(aValue.getClass().getName()).append(':');
+            if (aValue instanceof java.sql.Timestamp) {
+                aKey.append(((java.sql.Timestamp) aValue).getTime()).append('.').append(((java.sql.Timestamp) aValue).getNanos());
+            } else if (aValue instanceof Date) {
+                aKey.append(((Date) aValue).getTime());
+            } else {
+                escape(aKey, aValue.toString());
+            }
+        }
+    }
+
+    /**
+     * Ajoute un texte à une clé en échappant les séparateurs.
+     *
+     * @param aKey
+     *            la clé, complétée
+     * @param aText
+     *            le texte, <code>null</code> pour un texte vide
+     * @return la clé
+     */
+    private static StringBuilder escape(StringBuilder aKey, String aText) {
+        if (aText == null) {
+            return aKey;
+        }
+        for (int i = 0; i < aText.length(); i++) {
+            char c = aText.charAt(i);
+            if (c == '\\' || c == '|' || c == '=' || c == ',' || c == '[' || c == ']' || c == ':') {
+                aKey.append('\\');
+            }
+            aKey.append(c);
+        }
+        return aKey;
+    }
+
+    /**
+     * Recherche un rapport dans le cache.
+     *
+     * @param aKey
+     *            clé du rapport
+     * @return le rapport, <code>null</code> s'il n'est pas dans le cache ou s'il a expiré; le tableau du cache, à ne pas modifier ni
+     *         retourner tel quel à l'appelant
+     */
+    public synchronized byte[] get(String aKey) {
+        Entry entry = iEntries.get(aKey);
+        if (entry != null && entry.iExpires < System.currentTimeMillis()) {
+            remove(aKey);
+            iExpirations.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            iMisses.incrementAndGet();
+            return null;
+        }
+        iHits.incrementAndGet();
+        return entry.iContent;
+    }
+
+    /**
+     * Ajoute un rapport dans le cache. Les rapports plus grands que le cache sont ignorés.
+     *
+     * @param aKey
+     *            clé du rapport
+     * @param aContent
+     *            le rapport, gardé tel quel: à ne plus modifier
+     */
+    public synchronized void put(String aKey, byte[] aContent) {
+        if (aContent.length > iMaxBytes) {
+            return;
+        }
+        remove(aKey);
+        iEntries.put(aKey, new Entry(aContent, System.currentTimeMillis() + iTtl));
+        iBytes += aContent.length;
+
+        // Libère la place en commençant par les entrées les moins utilisées
+        Iterator<Entry> it = iEntries.values().iterator();
+        while (iBytes > iMaxBytes && it.hasNext()) {
+            iBytes -= it.next().iContent.length;
+            it.remove();
+            iEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Crée un stream qui écrit le rapport dans le stream de l'appelant et en garde une copie pour le cache, tant qu'il ne dépasse pas la
+     * taille du cache.
+     *
+     * @param aKey
+     *            clé du rapport
+     * @param aOut
+     *            stream de l'appelant
+     * @return le stream à passer à l'emitter Birt
+     */
+    Capture capture(String aKey, OutputStream aOut) {
+        return new Capture(aKey, aOut);
+    }
+
+    /**
+     * Supprime une entrée et met à jour la taille du cache.
+     *
+     * @param aKey
+     *            clé du rapport
+     */
+    private void remove(String aKey) {
+        Entry old = iEntries.remove(aKey);
+        if (old != null) {
+            iBytes -= old.iContent.length;
+        }
+    }
+
+    /**
+     * Supprime du cache tous les rapports d'un design.
+     *
+     * @param aDesignIdentity
+     *            identité du design, ou son préfixe (ex. "file:" + chemin canonique pour toutes les versions)
+     */
+    public synchronized void invalidate(String aDesignIdentity) {
+        String prefix = escape(new StringBuilder(), aDesignIdentity).toString();
+        Iterator<Map.Entry<String, Entry>> it = iEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                iBytes -= entry.getValue().iContent.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Vide le cache.
+     */
+    public synchronized void invalidateAll() {
+        iEntries.clear();
+        iBytes = 0;
+    }
+
+    /**
+     *
+     * @param aDesigns
+     *            noms des fichiers .rptdesign à mettre en cache, tous si vide
+     */
+    public void setIncludedDesigns(Set<String> aDesigns) {
+        iIncludedDesigns = new HashSet<>(aDesigns);
+    }
+
+    /**
+     *
+     * @param aDesigns
+     *            noms des fichiers .rptdesign à ne jamais mettre en cache
+     */
+    public void setExcludedDesigns(Set<String> aDesigns) {
+        iExcludedDesigns = new HashSet<>(aDesigns);
+    }
+
+    /**
+     *
+     * @return nombre de rapports dans le cache
+     */
+    public synchronized int size() {
+        return iEntries.size();
+    }
+
+    /**
+     *
+     * @return taille actuelle du cache, en octets
+     */
+    public synchronized long getBytes() {
+        return iBytes;
+    }
+
+    /**
+     *
+     * @return taille maximale du cache, en octets
+     */
+    public long getMaxBytes() {
+        return iMaxBytes;
+    }
+
+    /**
+     *
+     * @return durée de vie d'une entrée, en millisecondes
+     */
+    public long getTtl() {
+        return iTtl;
+    }
+
+    /**
+     *
+     * @return nombre de rapports trouvés dans le cache
+     */
+    public long getHits() {
+        return iHits.get();
+    }
+
+    /**
+     *
+     * @return nombre de rapports non trouvés dans le cache
+     */
+    public long getMisses() {
+        return iMisses.get();
+    }
+
+    /**
+     *
+     * @return nombre d'entrées supprimées par manque de place
+     */
+    public long getEvictions() {
+        return iEvictions.get();
+    }
+
+    /**
+     *
+     * @return nombre d'entrées expirées
+     */
+    public long getExpirations() {
+        return iExpirations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportOutputCache[size=" + size() + ", bytes=" + getBytes() + ", max=" + iMaxBytes + ", hits=" + iHits + ", misses="
+                + iMisses + ", evictions=" + iEvictions + ", expirations=" + iExpirations + "]";
+    }
+
+    /**
+     * Entrée du cache
+     */
+    private static class Entry {
+
+        /** Le rapport */
+        private final byte[] iContent;
+
+        /** Date d'expiration */
+        private final long iExpires;
+
+        /**
+         * Constructor.
+         *
+         * @param aContent
+         *            le rapport
+         * @param aExpires
+         *            date d'expiration
+         */
+        Entry(byte[] aContent, long aExpires) {
+            iContent = aContent;
+            iExpires = aExpires;
+        }
+    }
+
+    /**
+     * Stream qui garde une copie du rapport écrit, pour le mettre en cache à la fin du rendu.
+     */
+    class Capture extends FilterOutputStream {
+
+        /** Clé du rapport */
+        private final String iKey;
+
+        /** Copie du rapport, <code>null</code> si le rapport est trop grand */
+        private ByteArrayOutputStream iCopy = new ByteArrayOutputStream();
+
+        /**
+         * Constructor.
+         *
+         * @param aKey
+         *            clé du rapport
+         * @param aOut
+         *            stream de l'appelant
+         */
+        Capture(String aKey, OutputStream aOut) {
+            super(aOut);
+            iKey = aKey;
+        }
+
+        @Override
+        public void write(int aByte) throws IOException {
+            out.write(aByte);
+            if (iCopy != null) {
+                iCopy.write(aByte);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(byte[] aBytes, int aOffset, int aLength) throws IOException {
+            out.write(aBytes, aOffset, aLength);
+            if (iCopy != null) {
+                iCopy.write(aBytes, aOffset, aLength);
+                checkSize();
+            }
+        }
+
+        /**
+         * Abandonne la copie si le rapport dépasse la taille du cache.
+         */
+        private void checkSize() {
+            if (iCopy.size() > iMaxBytes) {
+                iCopy = null;
+            }
+        }
+
+        /**
+         * Met le rapport en cache, à appeler quand le rendu s'est terminé sans erreur.
+         */
+        void commit() {
+            if (iCopy != null) {
+                put(iKey, iCopy.toByteArray());
+                iCopy = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+/**
+ * Exception levée quand un rapport n'est pas admis par le {@link ReportExecutor}: file d'attente pleine ou timeout de la file dépassé.
+ *
+ * Non contrôlée, pour ne pas modifier les signatures de ReportEngine; le BirtServlet ou l'application peuvent la traduire en réponse
+ * "503 Service Unavailable".
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportRejectedException extends RuntimeException {
+
+    /**
+     * Serial Version UID
+     */
+    private static final long serialVersionUID = -3304969526217435385L;
+
+    /**
+     * Constructor.
+     *
+     * @param aMessage
+     *            cause du rejet
+     */
+    public ReportRejectedException(String aMessage) {
+        super(aMessage);
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Nettoyage périodique des fichiers temporaires de Birt: images HTML jamais lues, documents .rptdocument abandonnés, fichiers
+ * temporaires de l'engine.
+ *
+ * Les fichiers et répertoires plus anciens que l'âge maximal sont effacés, puis les plus anciens tant que la taille totale dépasse le
+ * quota, sauf ceux plus récents que l'âge minimal qui peuvent être en cours d'utilisation. Les rapports HTML écrivent leurs images dans
+ * un sous-répertoire par requête ({@link #newRequestDirectory()}), créé à la première image et effacé quand sa dernière image a été
+ * servie, quand le rendu échoue ou au plus tard par le nettoyage.
+ * Les sous-répertoires gérés par ailleurs (stockage des documents, rapports en arrière-plan) sont exclus.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportTempJanitor {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportTempJanitor.class);
+
+    /** Age maximal par défaut d'un fichier temporaire, en millisecondes */
+    public static final long DEFAULT_MAX_AGE = 60L * 60 * 1000;
+
+    /** Age minimal par défaut d'un fichier effacé pour respecter le quota, en millisecondes */
+    public static final long DEFAULT_MIN_AGE = 10L * 60 * 1000;
+
+    /** Taille maximale par défaut des fichiers temporaires, en octets */
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    /** Intervalle par défaut entre deux nettoyages, en millisecondes */
+    public static final long DEFAULT_INTERVAL = 60L * 1000;
+
+    /** Préfixe des sous-répertoires par requête */
+    public static final String REQUEST_PREFIX = "req_";
+
+    /** Répertoires nettoyés, avec le préfixe des fichiers concernés (<code>null</code> pour tous) */
+    private final Map<File, String> iDirectories = new LinkedHashMap<>();
+
+    /** Noms des sous-répertoires et fichiers exclus du nettoyage */
+    private final Set<String> iExcluded = new HashSet<>();
+
+    /** Age maximal d'un fichier temporaire, en millisecondes */
+    private final long iMaxAge;
+
+    /** Age minimal d'un fichier effacé pour respecter le quota, en millisecondes */
+    private final long iMinAge;
+
+    /** Taille maximale des fichiers temporaires, en octets */
+    private final long iMaxBytes;
+
+    /** Thread du nettoyage, <code>null</code> si arrêté */
+    private ScheduledExecutorService iScheduler;
+
+    /** Nombre de fichiers temporaires au dernier nettoyage */
+    private volatile long iFiles;
+
+    /** Taille des fichiers temporaires au dernier nettoyage, en octets */
+    private volatile long iBytes;
+
+    /** Nombre de fichiers effacés */
+    private final AtomicLong iReclaimedFiles = new AtomicLong();
+
+    /** Nombre d'octets libérés */
+    private final AtomicLong iReclaimedBytes = new AtomicLong();
+
+    /** Nombre de nettoyages */
+    private final AtomicLong iSweeps = new AtomicLong();
+
+    /** Durée du dernier nettoyage, en millisecondes */
+    private volatile long iLastDuration;
+
+    /**
+     * Constructor.
+     *
+     * @param aDirectory
+     *            répertoire temporaire des rapports (report.tempo.dir), tous ses fichiers sont nettoyés
+     * @param aMaxAge
+     *            âge maximal d'un fichier temporaire, en millisecondes
+     * @param aMaxBytes
+     *            taille maximale des fichiers temporaires, en octets
+     */
+    public ReportTempJanitor(File aDirectory, long aMaxAge, long aMaxBytes) {
+        this(aDirectory, aMaxAge, aMaxBytes, Math.min(DEFAULT_MIN_AGE, aMaxAge));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aDirectory
+     *            répertoire temporaire des rapports (report.tempo.dir), tous ses fichiers sont nettoyés
+     * @param aMaxAge
+     *            âge maximal d'un fichier temporaire, en millisecondes
+     * @param aMaxBytes
+     *            taille maximale des fichiers temporaires, en octets
+     * @param aMinAge
+     *            âge minimal d'un fichier effacé pour respecter le quota, en millisecondes: les fichiers plus récents peuvent être en
+     *            cours d'écriture ou de lecture
+     */
+    public ReportTempJanitor(File aDirectory, long aMaxAge, long aMaxBytes, long aMinAge) {
+        iDirectories.put(aDirectory, null);
+        iMaxAge = aMaxAge;
+        iMaxBytes = aMaxBytes;
+        iMinAge = aMinAge;
+    }
+
+    /**
+     * Ajoute un répertoire à nettoyer.
+     *
+     * @param aDirectory
+     *            le répertoire
+     * @param aPrefix
+     *            préfixe des fichiers à nettoyer, ex: "birt_" dans le répertoire temporaire de la JVM
+     */
+    public synchronized void addDirectory(File aDirectory, String aPrefix) {
+        iDirectories.put(aDirectory, aPrefix);
+    }
+
+    /**
+     * Exclut un sous-répertoire ou un fichier géré par ailleurs.
+     *
+     * @param aName
+     *            nom du sous-répertoire ou du fichier
+     */
+    public synchronized void exclude(String aName) {
+        iExcluded.add(aName);
+    }
+
+    /**
+     * Démarre le nettoyage périodique.
+     *
+     * @param aInterval
+     *            intervalle entre deux nettoyages, en millisecondes
+     */
+    public synchronized void start(long aInterval) {
+        if (iScheduler != null) {
+            return;
+        }
+        iScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "birt-janitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        iScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                logger.error("Error cleaning temporary files", e);
+            }
+        }, aInterval, aInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Arrête le nettoyage périodique.
+     */
+    public synchronized void stop() {
+        if (iScheduler != null) {
+            iScheduler.shutdownNow();
+            iScheduler = null;
+        }
+    }
+
+    /**
+     * Nomme un sous-répertoire pour les fichiers temporaires d'une requête. Le répertoire n'est pas créé: il l'est à l'écriture du premier
+     * fichier.
+     *
+     * @return le sous-répertoire, effacé par le nettoyage quand il atteint l'âge maximal
+     */
+    public File newRequestDirectory() {
+        return new File(iDirectories.keySet().iterator().next(), REQUEST_PREFIX + UUID.randomUUID().toString());
+    }
+
+    /**
+     * Efface un sous-répertoire par requête et ses fichiers, ex: rendu en erreur.
+     *
+     * @param aDirectory
+     *            le sous-répertoire
+     */
+    public static void deleteRequestDirectory(File aDirectory) {
+        if (aDirectory.getName().startsWith(REQUEST_PREFIX) && aDirectory.isDirectory()) {
+            delete(aDirectory);
+        }
+    }
+
+    /**
+     * Efface les fichiers trop anciens, puis les plus anciens tant que le quota est dépassé. Les fichiers plus récents que l'âge minimal
+     * ne sont jamais effacés, même au-delà du quota.
+     */
+    public void sweep() {
+        long start = System.currentTimeMillis();
+        List<Candidate> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<File, String> dir : iDirectories.entrySet()) {
+                collect(dir.getKey(), dir.getValue(), candidates);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(c -> c.iModified));
+
+        long files = 0;
+        long bytes = 0;
+        for (Candidate candidate : candidates) {
+            files += candidate.iFiles;
+            bytes += candidate.iBytes;
+        }
+        long cutoff = start - iMaxAge;
+        long quotaCutoff = start - iMinAge;
+        for (Candidate candidate : candidates) {
+            boolean expired = candidate.iModified < cutoff || bytes > iMaxBytes && candidate.iModified < quotaCutoff;
+            if (expired && delete(candidate.iFile)) {
+                files -= candidate.iFiles;
+                bytes -= candidate.iBytes;
+                iReclaimedFiles.addAndGet(candidate.iFiles);
+                iReclaimedBytes.addAndGet(candidate.iBytes);
+            }
+        }
+        iFiles = files;
+        iBytes = bytes;
+        iSweeps.incrementAndGet();
+        iLastDuration = System.currentTimeMillis() - start;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Temporary files cleaned: " + this);
+        }
+    }
+
+    /**
+     * Liste les fichiers et sous-répertoires par requête d'un répertoire.
+     *
+     * @param aDirectory
+     *            le répertoire
+     * @param aPrefix
+     *            préfixe des fichiers, <code>null</code> pour tous
+     * @param aCandidates
+     *            liste complétée
+     */
+    private void collect(File aDirectory, String aPrefix, List<Candidate> aCandidates) {
+        File[] entries = aDirectory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (aPrefix != null && !name.startsWith(aPrefix) || iExcluded.contains(name)) {
+                continue;
+            }
+            if (entry.isFile()) {
+                aCandidates.add(new Candidate(entry, entry.lastModified(), 1, entry.length()));
+            } else if (entry.isDirectory() && name.startsWith(REQUEST_PREFIX)) {
+                File[] files = entry.listFiles();
+                long size = 0;
+                if (files != null) {
+                    for (File file : files) {
+                        size += file.length();
+                    }
+                }
+                aCandidates.add(new Candidate(entry, entry.lastModified(), files == null ? 0 : files.length, size));
+            }
+        }
+    }
+
+    /**
+     * Efface un fichier ou un sous-répertoire par requête.
+     *
+     * @param aFile
+     *            le fichier ou répertoire
+     * @return <code>true</code> si effacé
+     */
+    private static boolean delete(File aFile) {
+        try {
+            File[] files = aFile.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            return Files.deleteIfExists(aFile.toPath());
+        } catch (IOException e) {
+            logger.warn("Temporary file not deleted: " + aFile + " (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    /**
+     *
+     * @return nombre de fichiers temporaires au dernier nettoyage
+     */
+    public long getFiles() {
+        return iFiles;
+    }
+
+    /**
+     *
+     * @return taille des fichiers temporaires au dernier nettoyage, en octets
+     */
+    public long getBytes() {
+        return iBytes;
+    }
+
+    /**
+     *
+     * @return nombre de fichiers effacés
+     */
+    public long getReclaimedFiles() {
+        return iReclaimedFiles.get();
+    }
+
+    /**
+     *
+     * @return nombre d'octets libérés
+     */
+    public long getReclaimedBytes() {
+        return iReclaimedBytes.get();
+    }
+
+    /**
+     *
+     * @return nombre de nettoyages
+     */
+    public long getSweeps() {
+        return iSweeps.get();
+    }
+
+    /**
+     *
+     * @return durée du dernier nettoyage, en millisecondes
+     */
+    public long getLastDuration() {
+        return iLastDuration;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportTempJanitor[dirs=" + iDirectories.keySet() + ", maxAge=" + iMaxAge + ", minAge=" + iMinAge + ", max=" + iMaxBytes
+                + ", files=" + iFiles + ", bytes=" + iBytes + ", reclaimedFiles=" + iReclaimedFiles + ", reclaimedBytes=" + iReclaimedBytes
+                + ", sweeps=" + iSweeps + "]";
+    }
+
+    /**
+     * Fichier ou sous-répertoire candidat au nettoyage
+     */
+    private static class Candidate {
+
+        /** Fichier ou répertoire */
+        private final File iFile;
+
+        /** Date de modification */
+        private final long iModified;
+
+        /** Nombre de fichiers */
+        private final long iFiles;
+
+        /** Taille, en octets */
+        private final long iBytes;
+
+        /**
+         * Constructor.
+         *
+         * @param aFile
+         *            fichier ou répertoire
+         * @param aModified
+         *            date de modification
+         * @param aFiles
+         *            nombre de fichiers
+         * @param aBytes
+         *            taille, en octets
+         */
+        Candidate(File aFile, long aModified, long aFiles, long aBytes) {
+            iFile = aFile;
+            iModified = aModified;
+            iFiles = aFiles;
+            iBytes = aBytes;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Préchauffage du report engine au démarrage: ouverture en parallèle des designs du répertoire des rapports (chargement des classes et
+ * cache des designs compilés), puis exécution optionnelle de rapports d'exemple par format. Le report engine n'est marqué prêt qu'à la
+ * fin du préchauffage.
+ *
+ * La durée de chaque étape du démarrage est enregistrée et journalisée.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportWarmup {
+
+    /**
+     * Logger
+     */
+    private static final Log logger = LogFactory.getLog(ReportWarmup.class);
+
+    /** Le report engine */
+    private final ReportEngine iEngine;
+
+    /** Nombre de designs ouverts en parallèle */
+    private final int iParallelism;
+
+    /** Durée des étapes du démarrage, en millisecondes, dans l'ordre */
+    private final Map<String, Long> iTimings = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /** Nombre de designs ouverts */
+    private final AtomicInteger iDesigns = new AtomicInteger();
+
+    /** Nombre d'erreurs */
+    private final AtomicInteger iErrors = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param aEngine
+     *            le report engine
+     * @param aParallelism
+     *            nombre de designs ouverts en parallèle
+     */
+    public ReportWarmup(ReportEngine aEngine, int aParallelism) {
+        iEngine = aEngine;
+        iParallelism = Math.max(1, aParallelism);
+    }
+
+    /**
+     * Enregistre la durée d'une étape.
+     *
+     * @param aStep
+     *            nom de l'étape
+     * @param aStart
+     *            début de l'étape, System.currentTimeMillis()
+     */
+    public void record(String aStep, long aStart) {
+        long duration = System.currentTimeMillis() - aStart;
+        iTimings.put(aStep, duration);
+        logger.info("Birt startup step " + aStep + ": " + duration + " ms");
+    }
+
+    /**
+     * Préchauffe le report engine, qui n'est pas prêt pendant le préchauffage.
+     *
+     * @param aReportDir
+     *            répertoire des designs
+     * @param aSamples
+     *            rapports d'exemple à exécuter, "design.rptdesign:format", peut être vide
+     * @param aLocale
+     *            langue des rapports d'exemple, <code>null</code> pour la langue par défaut
+     */
+    public void run(File aReportDir, List<String> aSamples, Locale aLocale) {
+        long start = System.currentTimeMillis();
+        iEngine.setReady(false);
+        try {
+            openDesigns(aReportDir);
+            for (String sample : aSamples) {
+                runSample(aReportDir, sample, aLocale);
+            }
+        } finally {
+            iEngine.setReady(true);
+            record("warmup", start);
+            logger.info("Birt ready: " + this);
+        }
+    }
+
+    /**
+     * Ouvre en parallèle tous les designs d'un répertoire et de ses sous-répertoires.
+     *
+     * @param aReportDir
+     *            répertoire des designs
+     */
+    private void openDesigns(File aReportDir) {
+        long start = System.currentTimeMillis();
+        List<Path> designs;
+        try (Stream<Path> paths = Files.walk(aReportDir.toPath())) {
+            designs = paths.filter(p -> p.toString().endsWith(".rptdesign")).collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.warn("Report designs not listed: " + aReportDir, e);
+            iErrors.incrementAndGet();
+            return;
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(iParallelism, r -> {
+            Thread thread = new Thread(r, "birt-warmup-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path design : designs) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        iEngine.openReportDesign(design.toString());
+                        iDesigns.incrementAndGet();
+                    } catch (Exception e) {
+                        iErrors.incrementAndGet();
+                        logger.warn("Report design not opened: " + design + " (" + e.getMessage() + ")");
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Report designs warm-up failed", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        record("designs", start);
+    }
+
+    /**
+     * Exécute un rapport d'exemple avec les paramètres par défaut, le résultat est ignoré.
+     *
+     * @param aReportDir
+     *            répertoire des designs
+     * @param aSample
+     *            "design.rptdesign:format", format pdf par défaut
+     * @param aLocale
+     *            langue du rapport
+     */
+    private void runSample(File aReportDir, String aSample, Locale aLocale) {
+        long start = System.currentTimeMillis();
+        int sep = aSample.lastIndexOf(':');
+        String design = sep < 0 ? aSample : aSample.substring(0, sep);
+        String format = sep < 0 ? "pdf" : aSample.substring(sep + 1);
+        try {
+            iEngine.getReport(OutputStream.nullOutputStream(), new File(aReportDir, design), new HashMap<>(), format, false, aLocale);
+        } catch (Exception e) {
+            iErrors.incrementAndGet();
+            logger.warn("Sample report failed: " + aSample + " (" + e.getMessage() + ")");
+        }
+        record("sample " + design + " " + format, start);
+    }
+
+    /**
+     *
+     * @return durée des étapes du démarrage, en millisecondes, dans l'ordre
+     */
+    public Map<String, Long> getTimings() {
+        synchronized (iTimings) {
+            return new LinkedHashMap<>(iTimings);
+        }
+    }
+
+    /**
+     *
+     * @return nombre de designs ouverts
+     */
+    public int getDesigns() {
+        return iDesigns.get();
+    }
+
+    /**
+     *
+     * @return nombre d'erreurs du préchauffage
+     */
+    public int getErrors() {
+        return iErrors.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReportWarmup[designs=" + iDesigns + ", errors=" + iErrors + ", timings=" + getTimings() + "]";
+    }
+}
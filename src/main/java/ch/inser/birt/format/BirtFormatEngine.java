@@ -19,6 +19,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -27,7 +29,17 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.birt.report.engine.api.EngineException;
+import org.eclipse.birt.report.engine.api.IGetParameterDefinitionTask;
+import org.eclipse.birt.report.engine.api.IParameterDefnBase;
+import org.eclipse.birt.report.engine.api.IScalarParameterDefn;
+import org.eclipse.birt.report.model.api.elements.DesignChoiceConstants;
 
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfCopy;
+import com.lowagie.text.pdf.PdfReader;
+
+import ch.inser.birt.core.ReportBatchResult;
 import ch.inser.birt.core.ReportEngine;
 import ch.inser.birt.util.Constants.ReportType;
 import ch.inser.dynamic.common.DAOParameter;
@@ -63,37 +75,70 @@ public class BirtFormatEngine implements IFormatEngine {
 
     @Override
     public IDAOResult format(IValueObject aVo, DAOParameter... aParameters) throws ISException {
-        // Report design
-        String filename = "print_" + aVo.getName().toLowerCase() + ".rptdesign";
-        if (DAOParameter.getValue("filename", aParameters) != null) {
-            filename = (String) DAOParameter.getValue("filename", aParameters);
-        }
-        String fullName = iCtx.getProperty("report.dir") + File.separator + filename;
-
         // Paramètres du rapport Birt
         Map<String, Object> parameters = new HashMap<>();
         parameters.put("id", aVo.getId());
         if (DAOParameter.getValue("id", aParameters) != null) {
             parameters.put("id", DAOParameter.getValue("id", aParameters));
         }
+        parameters.putAll(getParameters(aParameters));
+
+        // Crée le rapport
+        byte[] report = getReport(getDesignName(aVo, aParameters),
+                getReportFormat((Format) DAOParameter.getValue(DAOParameter.Name.RESULT_FORMAT, aParameters)), getLang(aParameters),
+                parameters);
+        IDAOResult result = new DAOResult(Status.OK);
+        result.setValue(report);
+        return result;
+    }
+
+    /**
+     * Nom du rapport Birt, yc le path: "print_&lt;nom_objet&gt;.rptdesign" ou paramètre "filename"
+     *
+     * @param aVo
+     *            un enregistrement de l'objet métier
+     * @param aParameters
+     *            paramètres de formatage
+     * @return nom du rapport
+     */
+    private String getDesignName(IValueObject aVo, DAOParameter... aParameters) {
+        String filename = "print_" + aVo.getName().toLowerCase() + ".rptdesign";
+        if (DAOParameter.getValue("filename", aParameters) != null) {
+            filename = (String) DAOParameter.getValue("filename", aParameters);
+        }
+        return iCtx.getProperty("report.dir") + File.separator + filename;
+    }
+
+    /**
+     * Paramètres du rapport Birt donnés par le BO (paramètres OTHER)
+     *
+     * @param aParameters
+     *            paramètres de formatage
+     * @return paramètres du rapport
+     */
+    private static Map<String, Object> getParameters(DAOParameter... aParameters) {
+        Map<String, Object> parameters = new HashMap<>();
         for (DAOParameter param : aParameters) {
             if (DAOParameter.Name.OTHER.equals(param.getName())) {
                 parameters.put(param.getOtherName(), param.getValue());
             }
         }
+        return parameters;
+    }
 
-        // Langue
+    /**
+     * Langue du rapport
+     *
+     * @param aParameters
+     *            paramètres de formatage
+     * @return langue demandée, ou langue par défaut des rapports
+     */
+    private String getLang(DAOParameter... aParameters) {
         String loc = (String) DAOParameter.getValue(DAOParameter.Name.RESULT_LANG, aParameters);
         if (loc == null) {
             loc = iCtx.getProperty("report.default.lang");
         }
-
-        // Crée le rapport
-        byte[] report = getReport(fullName, getReportFormat((Format) DAOParameter.getValue(DAOParameter.Name.RESULT_FORMAT, aParameters)),
-                loc, parameters);
-        IDAOResult result = new DAOResult(Status.OK);
-        result.setValue(report);
-        return result;
+        return loc;
     }
 
     /**
@@ -124,6 +169,32 @@ public class BirtFormatEngine implements IFormatEngine {
         return report;
     }
 
+    /**
+     * Exécution de création du rapport Birt sans attribut Creator, comme les rapports créés par enregistrement
+     *
+     * @param aReportName
+     *            nom du rapport yc le path
+     * @param aType
+     *            option de format Birt
+     * @param aLang
+     *            langue
+     * @param aParameters
+     *            paramètres du rapport
+     * @return rapport en byte[]
+     * @throws ISException
+     *             erreur d'exécution du rapport
+     */
+    private byte[] getSecureReport(String aReportName, ReportType aType, String aLang, Map<String, Object> aParameters)
+            throws ISException {
+        ReportEngine reportEngine = (ReportEngine) iCtx.getReportEngine();
+        try {
+            return reportEngine.getSecureReport(new File(aReportName), aParameters, aType.toString(), false, new Locale(aLang));
+        } catch (ISException e) {
+            logger.error("Erreur de création du rapport", e);
+            throw e;
+        }
+    }
+
     /**
      *
      * @param aFormat
@@ -154,9 +225,138 @@ public class BirtFormatEngine implements IFormatEngine {
         iCtx = aCtx;
     }
 
+    /**
+     * Formate une liste d'enregistrements en un seul document.
+     *
+     * Si le rapport déclare un paramètre multi-valeurs "ids", il est exécuté une seule fois avec tous les identifiants; le rapport est
+     * responsable du saut de page entre les enregistrements. Sinon, un rapport est créé par enregistrement, en parallèle (propriété
+     * report.format.parallelism), et les PDF sont concaténés dans l'ordre de la liste. Dans les deux cas, les PDF sont créés sans
+     * attribut Creator.
+     *
+     * Une liste vide est refusée: un PDF sans page n'est pas valide.
+     */
     @Override
     public IDAOResult format(List<IValueObject> aRecords, ILoggedUser aUser, DAOParameter... aParams) throws ISException {
-        throw new UnsupportedOperationException("Formatage de list d'enregistrements pas implémenté pour Birt");
+        if (aRecords == null || aRecords.isEmpty()) {
+            throw new ISException("Aucun enregistrement à formater");
+        }
+        IDAOResult result = new DAOResult(Status.OK);
+        String designName = getDesignName(aRecords.get(0), aParams);
+        ReportType type = getReportFormat((Format) DAOParameter.getValue(DAOParameter.Name.RESULT_FORMAT, aParams));
+        String lang = getLang(aParams);
+        Map<String, Object> parameters = getParameters(aParams);
+
+        Object[] ids = new Object[aRecords.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = aRecords.get(i).getId();
+        }
+        if (isMultiValueParameter(designName, "ids")) {
+            // Une seule exécution pour tous les enregistrements
+            parameters.put("ids", ids);
+            result.setValue(getSecureReport(designName, type, lang, parameters));
+        } else {
+            result.setValue(concatenate(getReports(designName, type, lang, parameters, ids)));
+        }
+        return result;
+    }
+
+    /**
+     * Indique si un rapport déclare un paramètre scalaire multi-valeurs. Un paramètre simple ne peut pas recevoir tous les identifiants.
+     *
+     * @param aReportName
+     *            nom du rapport yc le path
+     * @param aParameter
+     *            nom du paramètre
+     * @return <code>true</code> si le paramètre existe et accepte plusieurs valeurs
+     * @throws ISException
+     *             erreur de lecture du rapport
+     */
+    private boolean isMultiValueParameter(String aReportName, String aParameter) throws ISException {
+        ReportEngine reportEngine = (ReportEngine) iCtx.getReportEngine();
+        IGetParameterDefinitionTask task = null;
+        try {
+            task = reportEngine.createGetParameterDefinitionTask(reportEngine.openReportDesign(aReportName));
+            IParameterDefnBase parameter = task.getParameterDefn(aParameter);
+            return parameter instanceof IScalarParameterDefn && DesignChoiceConstants.SCALAR_PARAM_TYPE_MULTI_VALUE
+                    .equals(((IScalarParameterDefn) parameter).getScalarParameterType());
+        } catch (EngineException e) {
+            logger.error("Erreur de lecture du rapport", e);
+            throw new ISException(e);
+        } finally {
+            if (task != null) {
+                task.close();
+            }
+        }
+    }
+
+    /**
+     * Crée un rapport par enregistrement, en parallèle.
+     *
+     * @param aReportName
+     *            nom du rapport yc le path
+     * @param aType
+     *            option de format Birt
+     * @param aLang
+     *            langue
+     * @param aParameters
+     *            paramètres communs des rapports
+     * @param aIds
+     *            identifiants des enregistrements
+     * @return les rapports, dans l'ordre des identifiants
+     * @throws ISException
+     *             erreur d'exécution d'un rapport
+     */
+    private List<byte[]> getReports(String aReportName, ReportType aType, String aLang, Map<String, Object> aParameters, Object[] aIds)
+            throws ISException {
+        List<Map<String, Object>> parameterSets = new ArrayList<>(aIds.length);
+        for (Object id : aIds) {
+            Map<String, Object> parameters = new HashMap<>(aParameters);
+            parameters.put("id", id);
+            parameterSets.add(parameters);
+        }
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if (iCtx.getProperty("report.format.parallelism") != null) {
+            parallelism = Integer.parseInt(iCtx.getProperty("report.format.parallelism").trim());
+        }
+
+        byte[][] reports = new byte[aIds.length][];
+        ReportEngine reportEngine = (ReportEngine) iCtx.getReportEngine();
+        ReportBatchResult batch = reportEngine.runBatch(new File(aReportName), parameterSets.iterator(), aType.toString(),
+                new Locale(aLang), parallelism, (index, parameters, report) -> reports[index] = report);
+        if (batch.getFailed() > 0) {
+            throw new ISException("Erreur de création du rapport " + aReportName + ": " + batch.getFailures());
+        }
+        return Arrays.asList(reports);
+    }
+
+    /**
+     * Concatène des PDF.
+     *
+     * @param aPdfs
+     *            les PDF, dans l'ordre
+     * @return le PDF concaténé
+     * @throws ISException
+     *             erreur de lecture ou d'écriture des PDF
+     */
+    private static byte[] concatenate(List<byte[]> aPdfs) throws ISException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Document document = new Document();
+            PdfCopy copy = new PdfCopy(document, out);
+            document.open();
+            for (byte[] pdf : aPdfs) {
+                PdfReader reader = new PdfReader(pdf);
+                for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                    copy.addPage(copy.getImportedPage(reader, page));
+                }
+                copy.freeReader(reader);
+                reader.close();
+            }
+            document.close();
+            return out.toByteArray();
+        } catch (IOException | DocumentException e) {
+            logger.error("Erreur de concaténation des rapports", e);
+            throw new ISException(e);
+        }
     }
 
 }
@@ -15,27 +15,57 @@
 
 package ch.inser.birt.rest.init;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.birt.data.engine.api.DataEngine;
 import org.eclipse.birt.report.engine.api.EngineConfig;
+import org.eclipse.birt.report.engine.api.EngineException;
 
 import com.lowagie.text.FontFactory;
 
 import ch.inser.birt.core.ChartEngine;
+import ch.inser.birt.core.ReportBuffer;
+import ch.inser.birt.core.ReportConnectionProvider;
+import ch.inser.birt.core.ReportDataSetCache;
+import ch.inser.birt.core.ReportDeadlines;
+import ch.inser.birt.core.ReportDesignCache;
+import ch.inser.birt.core.ReportDocumentStore;
 import ch.inser.birt.core.ReportEngine;
+import ch.inser.birt.core.ReportExecutor;
+import ch.inser.birt.core.ReportFontRegistry;
+import ch.inser.birt.core.ReportImageStore;
+import ch.inser.birt.core.ReportJob;
+import ch.inser.birt.core.ReportJobStore;
+import ch.inser.birt.core.ReportMetrics;
+import ch.inser.birt.core.ReportOutputCache;
+import ch.inser.birt.core.ReportRejectedException;
+import ch.inser.birt.core.ReportTempJanitor;
+import ch.inser.birt.core.ReportWarmup;
 import ch.inser.dynamic.common.IContextManager;
 import ch.inser.rest.util.ServiceLocator;
 
@@ -62,6 +92,37 @@ public class BirtServlet extends HttpServlet {
      */
     private static final Log logger = LogFactory.getLog(BirtServlet.class);
 
+    /** Paramètres de requête des rapports en arrière-plan qui ne sont pas des paramètres du rapport */
+    private static final Set<String> JOB_PARAMETERS = new HashSet<>(Arrays.asList("job", "report", "format", "lang", "embeddable"));
+
+    /** Cache-Control des images, dont les noms sont uniques */
+    private static final String IMAGE_CACHE_CONTROL = "private, max-age=300";
+
+    /** Extensions des images écrites par le HTMLServerImageHandler directement dans report.tempo.dir */
+    private static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(
+            Arrays.asList("png", "jpg", "jpeg", "gif", "bmp", "svg", "tif", "tiff", "ico", "webp"));
+
+    /** Taille du buffer d'envoi des fichiers */
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /** Cache-Control des résultats des rapports */
+    private static final String REPORT_CACHE_CONTROL = "private, no-store";
+
+    /** Nettoyage des fichiers temporaires, <code>null</code> si désactivé */
+    private transient ReportTempJanitor iJanitor;
+
+    /** Préchauffage et durée des étapes du démarrage */
+    private transient ReportWarmup iWarmup;
+
+    /** Rôle requis pour lire les mesures des rapports, <code>null</code> pour tout utilisateur authentifié */
+    private String iMetricsRole;
+
+    /** <code>true</code> pour lire les mesures des rapports sans authentification */
+    private boolean iMetricsPublic;
+
+    /** Requêtes en cours par fichier image; l'image est effacée à la fin de la dernière requête */
+    private final transient Map<String, Integer> iImageReaders = new HashMap<>();
+
     @Override
     public void init() throws ServletException {
         // Définition de la propriété système "ch.inser.isejawa.configDir"
@@ -143,6 +204,7 @@ public class BirtServlet extends HttpServlet {
         }
 
         // Configuration of engine (Birt 4.6.0)
+        long start = System.currentTimeMillis();
         EngineConfig config460 = new EngineConfig();
         config460.setLogConfig(logDirectory, getLogLevel(logLevel));
         config460.setTempDir(tempDir);
@@ -155,6 +217,89 @@ public class BirtServlet extends HttpServlet {
 
         ReportEngine reportEngine = new ReportEngine(config460);
         logger.debug("Birt report engine app context: " + config460.getAppContext());
+        iWarmup = new ReportWarmup(reportEngine, getWarmupThreads(ctx));
+        iWarmup.record("engine", start);
+
+        // Cache des designs compilés
+        if ("true".equals(ctx.getProperty("report.design.cache"))) {
+            int size = ReportDesignCache.DEFAULT_MAX_ENTRIES;
+            if (ctx.getProperty("report.design.cache.size") != null) {
+                size = Integer.parseInt(ctx.getProperty("report.design.cache.size").trim());
+            }
+            reportEngine.setDesignCache(new ReportDesignCache(size));
+            logger.info("Birt report design cache: " + reportEngine.getDesignCache());
+        }
+
+        // Seuil des documents temporaires gardés en mémoire (0 pour toujours écrire sur disque)
+        String archiveThreshold = ctx.getProperty("report.document.memory.threshold");
+        if (archiveThreshold != null) {
+            reportEngine.setArchiveThreshold(Long.parseLong(archiveThreshold.trim()));
+        }
+
+        // Seuil des résultats des rapports gardés en mémoire (0 pour toujours écrire sur disque)
+        String bufferThreshold = ctx.getProperty("report.buffer.memory.threshold");
+        if (bufferThreshold != null) {
+            reportEngine.setBufferThreshold(Long.parseLong(bufferThreshold.trim()));
+        }
+
+        // Cache des rapports générés
+        if ("true".equals(ctx.getProperty("report.output.cache"))) {
+            reportEngine.setOutputCache(getOutputCache(ctx));
+            logger.info("Birt report output cache: " + reportEngine.getOutputCache());
+        }
+
+        // Stockage des documents Birt, pour exécuter une fois et rendre dans plusieurs formats
+        if ("true".equals(ctx.getProperty("report.document.store"))) {
+            reportEngine.setDocumentStore(getDocumentStore(ctx, tempDir));
+            logger.info("Birt report document store: " + reportEngine.getDocumentStore());
+        }
+
+        // Nettoyage des fichiers temporaires
+        if ("true".equals(ctx.getProperty("report.tempo.janitor"))) {
+            iJanitor = getJanitor(ctx, tempDir);
+            reportEngine.setTempJanitor(iJanitor);
+            long interval = ReportTempJanitor.DEFAULT_INTERVAL;
+            if (ctx.getProperty("report.tempo.janitor.interval") != null) {
+                interval = Long.parseLong(ctx.getProperty("report.tempo.janitor.interval").trim()) * 1000;
+            }
+            iJanitor.start(interval);
+            logger.info("Birt temporary files janitor: " + iJanitor);
+        }
+
+        // Images des rapports HTML en mémoire
+        if ("true".equals(ctx.getProperty("report.image.store"))) {
+            reportEngine.setImageStore(getImageStore(ctx));
+            logger.info("Birt report image store: " + reportEngine.getImageStore());
+        }
+
+        // Mesures des rapports par design, format et phase
+        if ("true".equals(ctx.getProperty("report.metrics"))) {
+            reportEngine.setMetrics(getMetrics(ctx));
+            iMetricsRole = ctx.getProperty("report.metrics.role");
+            iMetricsPublic = "true".equals(ctx.getProperty("report.metrics.public"));
+            logger.info("Birt report metrics: " + reportEngine.getMetrics());
+        }
+
+        // Délais des rapports, annulés si dépassés ou si le client se déconnecte
+        if ("true".equals(ctx.getProperty("report.deadline"))) {
+            reportEngine.setDeadlines(getDeadlines(ctx));
+            logger.info("Birt report deadlines: " + reportEngine.getDeadlines());
+        }
+
+        // Contrôle d'admission des rapports
+        if ("true".equals(ctx.getProperty("report.pool"))) {
+            reportEngine.setExecutor(getExecutor(ctx));
+            logger.info("Birt report pool: " + reportEngine.getExecutor());
+        }
+
+        // Rapports en arrière-plan
+        if ("true".equals(ctx.getProperty("report.job"))) {
+            if (reportEngine.getExecutor() == null) {
+                reportEngine.setExecutor(getExecutor(ctx));
+            }
+            reportEngine.setJobStore(getJobStore(ctx, tempDir));
+            logger.info("Birt report jobs: " + reportEngine.getJobStore());
+        }
 
         // Fonts
         String fontDir = ctx.getProperty("report.font.dir");
@@ -162,9 +307,18 @@ public class BirtServlet extends HttpServlet {
             fontDir = getInitParameter("report.font.dir");
         }
         if (fontDir != null) {
-            FontFactory.registerDirectory(fontDir);
+            start = System.currentTimeMillis();
+            if ("true".equals(ctx.getProperty("report.font.index"))) {
+                // Polices lues en parallèle, index dans le répertoire temporaire
+                new ReportFontRegistry(new File(tempDir, "fonts.idx"), Runtime.getRuntime().availableProcessors())
+                        .registerDirectory(fontDir);
+            } else {
+                FontFactory.registerDirectory(fontDir);
+            }
+            iWarmup.record("fonts", start);
         }
 
+        start = System.currentTimeMillis();
         String dataAccessType = ctx.getProperty("BIRT_DATA_ACCESS_TYPE");
 
         if (dataAccessType != null && dataAccessType.equals("jndi")) {
@@ -213,12 +367,360 @@ public class BirtServlet extends HttpServlet {
                 logger.error("Error initializing the report Engine", e);
             }
         }
+        iWarmup.record("database", start);
+
+        // Connexions JDBC des rapports prises dans le pool de l'application, au lieu d'une connexion physique par rapport
+        if ("true".equals(ctx.getProperty("report.connection.pool"))) {
+            reportEngine.setConnectionProvider(getConnectionProvider(ctx));
+            logger.info("Birt report connections: " + reportEngine.getConnectionProvider());
+        }
+
+        // Cache des résultats des data sets, par la connexion du pool
+        if ("true".equals(ctx.getProperty("report.dataset.cache"))) {
+            if (reportEngine.getConnectionProvider() == null) {
+                reportEngine.setConnectionProvider(getConnectionProvider(ctx));
+            }
+            reportEngine.setDataSetCache(getDataSetCache(ctx));
+            logger.info("Birt data set cache: " + reportEngine.getDataSetCache());
+        }
         reportEngine.setContextManager(ServiceLocator.getInstance().getContextManager());
         ServiceLocator.getInstance().getContextManager().setReportEngine(reportEngine);
         ServiceLocator.getInstance().getContextManager().setChartEngine(new ChartEngine(ChartEngine.getPlatformConfig()));
+
+        // Préchauffage: le report engine n'est prêt qu'à la fin
+        if ("true".equals(ctx.getProperty("report.warmup"))) {
+            warmup(ctx, reportEngine);
+        }
         logger.debug("Birt initialised");
     }
 
+    /**
+     * Préchauffe le report engine selon les propriétés report.warmup.*, dans le thread d'initialisation ou en arrière-plan si
+     * report.warmup.async=true.
+     *
+     * @param aCtx
+     *            context manager
+     * @param aReportEngine
+     *            le report engine
+     */
+    private void warmup(IContextManager aCtx, ReportEngine aReportEngine) {
+        File reportDir = new File(aCtx.getProperty("report.dir"));
+        List<String> samples = getPropertyList(aCtx, "report.warmup.samples");
+        String lang = aCtx.getProperty("report.default.lang");
+        Locale locale = lang == null ? null : new Locale(lang);
+        ReportWarmup warmup = iWarmup;
+        if ("true".equals(aCtx.getProperty("report.warmup.async"))) {
+            aReportEngine.setReady(false);
+            Thread thread = new Thread(() -> warmup.run(reportDir, samples, locale), "birt-warmup");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            warmup.run(reportDir, samples, locale);
+        }
+    }
+
+    /**
+     * Nombre de designs ouverts en parallèle par le préchauffage, propriété report.warmup.threads.
+     *
+     * @param aCtx
+     *            context manager
+     * @return nombre de threads
+     */
+    private static int getWarmupThreads(IContextManager aCtx) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (aCtx.getProperty("report.warmup.threads") != null) {
+            threads = Integer.parseInt(aCtx.getProperty("report.warmup.threads").trim());
+        }
+        return threads;
+    }
+
+    /**
+     * Crée le cache des rapports générés selon les propriétés report.output.cache.*
+     *
+     * @param aCtx
+     *            context manager
+     * @return le cache des rapports
+     */
+    private static ReportOutputCache getOutputCache(IContextManager aCtx) {
+        long maxBytes = ReportOutputCache.DEFAULT_MAX_BYTES;
+        if (aCtx.getProperty("report.output.cache.size") != null) {
+            maxBytes = Long.parseLong(aCtx.getProperty("report.output.cache.size").trim());
+        }
+        long ttl = ReportOutputCache.DEFAULT_TTL;
+        if (aCtx.getProperty("report.output.cache.ttl") != null) {
+            ttl = Long.parseLong(aCtx.getProperty("report.output.cache.ttl").trim()) * 1000;
+        }
+        ReportOutputCache cache = new ReportOutputCache(maxBytes, ttl);
+        cache.setIncludedDesigns(getPropertySet(aCtx, "report.output.cache.designs"));
+        cache.setExcludedDesigns(getPropertySet(aCtx, "report.output.cache.exclude"));
+        return cache;
+    }
+
+    /**
+     * Crée les mesures des rapports selon les propriétés report.metrics.*, enregistrées dans JMX sauf si report.metrics.jmx=false
+     *
+     * @param aCtx
+     *            context manager
+     * @return les mesures des rapports
+     */
+    private static ReportMetrics getMetrics(IContextManager aCtx) {
+        long slowThreshold = ReportMetrics.DEFAULT_SLOW_THRESHOLD;
+        if (aCtx.getProperty("report.metrics.slow") != null) {
+            slowThreshold = Long.parseLong(aCtx.getProperty("report.metrics.slow").trim()) * 1000;
+        }
+        ReportMetrics metrics = new ReportMetrics(slowThreshold);
+        if (!"false".equals(aCtx.getProperty("report.metrics.jmx"))) {
+            metrics.register();
+        }
+        return metrics;
+    }
+
+    /**
+     * Crée les délais des rapports selon les propriétés report.deadline.*: délai par défaut report.deadline.timeout et délai par design
+     * report.deadline.timeout.&lt;design&gt; pour les designs de report.deadline.designs, en secondes
+     *
+     * @param aCtx
+     *            context manager
+     * @return les délais des rapports
+     */
+    private static ReportDeadlines getDeadlines(IContextManager aCtx) {
+        long timeout = 0;
+        if (aCtx.getProperty("report.deadline.timeout") != null) {
+            timeout = Long.parseLong(aCtx.getProperty("report.deadline.timeout").trim()) * 1000;
+        }
+        ReportDeadlines deadlines = new ReportDeadlines(timeout);
+        Map<String, Long> designTimeouts = new HashMap<>();
+        for (String design : getPropertySet(aCtx, "report.deadline.designs")) {
+            String value = aCtx.getProperty("report.deadline.timeout." + design);
+            if (value != null) {
+                designTimeouts.put(design, Long.parseLong(value.trim()) * 1000);
+            }
+        }
+        deadlines.setDesignTimeouts(designTimeouts);
+        return deadlines;
+    }
+
+    /**
+     * Crée les connexions des rapports prises dans le pool de l'application, pour les designs de la propriété
+     * report.connection.pool.designs
+     *
+     * @param aCtx
+     *            context manager
+     * @return les connexions des rapports
+     */
+    private static ReportConnectionProvider getConnectionProvider(IContextManager aCtx) {
+        ReportConnectionProvider provider = new ReportConnectionProvider(aCtx.getDataSource());
+        Set<String> designs = getPropertySet(aCtx, "report.connection.pool.designs");
+        provider.setDesigns(designs);
+        if (designs.isEmpty()) {
+            logger.warn("No design declared in report.connection.pool.designs, reports connect with the engine parameters");
+        }
+        return provider;
+    }
+
+    /**
+     * Crée le cache des résultats des data sets selon les propriétés report.dataset.cache.*; la durée de vie et la taille peuvent être
+     * définies par design inclus, ex: report.dataset.cache.ttl.pays.rptdesign
+     *
+     * @param aCtx
+     *            context manager
+     * @return le cache des data sets
+     */
+    private static ReportDataSetCache getDataSetCache(IContextManager aCtx) {
+        long maxBytes = ReportDataSetCache.DEFAULT_MAX_BYTES;
+        if (aCtx.getProperty("report.dataset.cache.size") != null) {
+            maxBytes = Long.parseLong(aCtx.getProperty("report.dataset.cache.size").trim());
+        }
+        long ttl = ReportDataSetCache.DEFAULT_TTL;
+        if (aCtx.getProperty("report.dataset.cache.ttl") != null) {
+            ttl = Long.parseLong(aCtx.getProperty("report.dataset.cache.ttl").trim()) * 1000;
+        }
+        ReportDataSetCache cache = new ReportDataSetCache(maxBytes, ttl);
+        Set<String> designs = getPropertySet(aCtx, "report.dataset.cache.designs");
+        cache.setIncludedDesigns(designs);
+        cache.setExcludedDesigns(getPropertySet(aCtx, "report.dataset.cache.exclude"));
+
+        Map<String, Long> designTtls = new HashMap<>();
+        Map<String, Long> designMaxBytes = new HashMap<>();
+        for (String design : designs) {
+            String value = aCtx.getProperty("report.dataset.cache.ttl." + design);
+            if (value != null) {
+                designTtls.put(design, Long.parseLong(value.trim()) * 1000);
+            }
+            value = aCtx.getProperty("report.dataset.cache.size." + design);
+            if (value != null) {
+                designMaxBytes.put(design, Long.parseLong(value.trim()));
+            }
+        }
+        cache.setDesignTtls(designTtls);
+        cache.setDesignMaxBytes(designMaxBytes);
+        return cache;
+    }
+
+    /**
+     * Crée le stockage des documents Birt selon les propriétés report.document.*
+     *
+     * @param aCtx
+     *            context manager
+     * @param aTempDir
+     *            répertoire des fichiers temporaires de Birt
+     * @return le stockage des documents
+     */
+    private static ReportDocumentStore getDocumentStore(IContextManager aCtx, String aTempDir) {
+        String dir = aCtx.getProperty("report.document.dir");
+        if (dir == null) {
+            dir = aTempDir + File.separator + "rptdocument";
+        }
+        long maxBytes = ReportDocumentStore.DEFAULT_MAX_BYTES;
+        if (aCtx.getProperty("report.document.store.size") != null) {
+            maxBytes = Long.parseLong(aCtx.getProperty("report.document.store.size").trim());
+        }
+        long ttl = ReportDocumentStore.DEFAULT_TTL;
+        if (aCtx.getProperty("report.document.store.ttl") != null) {
+            ttl = Long.parseLong(aCtx.getProperty("report.document.store.ttl").trim()) * 1000;
+        }
+        return new ReportDocumentStore(new File(dir), maxBytes, ttl);
+    }
+
+    /**
+     * Crée le nettoyage des fichiers temporaires selon les propriétés report.tempo.janitor.*
+     *
+     * @param aCtx
+     *            context manager
+     * @param aTempDir
+     *            répertoire des fichiers temporaires de Birt
+     * @return le nettoyage des fichiers temporaires
+     */
+    private static ReportTempJanitor getJanitor(IContextManager aCtx, String aTempDir) {
+        long maxAge = ReportTempJanitor.DEFAULT_MAX_AGE;
+        if (aCtx.getProperty("report.tempo.janitor.max.age") != null) {
+            maxAge = Long.parseLong(aCtx.getProperty("report.tempo.janitor.max.age").trim()) * 1000;
+        }
+        long maxBytes = ReportTempJanitor.DEFAULT_MAX_BYTES;
+        if (aCtx.getProperty("report.tempo.janitor.quota") != null) {
+            maxBytes = Long.parseLong(aCtx.getProperty("report.tempo.janitor.quota").trim());
+        }
+        long minAge = Math.min(ReportTempJanitor.DEFAULT_MIN_AGE, maxAge);
+        if (aCtx.getProperty("report.tempo.janitor.min.age") != null) {
+            minAge = Long.parseLong(aCtx.getProperty("report.tempo.janitor.min.age").trim()) * 1000;
+        }
+        ReportTempJanitor janitor = new ReportTempJanitor(new File(aTempDir), maxAge, maxBytes, minAge);
+        // Documents .rptdocument créés dans le répertoire temporaire de la JVM
+        janitor.addDirectory(new File(System.getProperty("java.io.tmpdir")), "birt_");
+        // Répertoires gérés par le stockage des documents, les rapports en arrière-plan et les buffers des résultats
+        janitor.exclude("rptdocument");
+        janitor.exclude("jobs");
+        janitor.exclude(ReportBuffer.DIRECTORY);
+        // Index des polices
+        janitor.exclude("fonts.idx");
+        return janitor;
+    }
+
+    /**
+     * Crée le stockage des images des rapports HTML selon les propriétés report.image.store.*
+     *
+     * @param aCtx
+     *            context manager
+     * @return le stockage des images
+     */
+    private static ReportImageStore getImageStore(IContextManager aCtx) {
+        long maxBytes = ReportImageStore.DEFAULT_MAX_BYTES;
+        if (aCtx.getProperty("report.image.store.size") != null) {
+            maxBytes = Long.parseLong(aCtx.getProperty("report.image.store.size").trim());
+        }
+        long ttl = ReportImageStore.DEFAULT_TTL;
+        if (aCtx.getProperty("report.image.store.ttl") != null) {
+            ttl = Long.parseLong(aCtx.getProperty("report.image.store.ttl").trim()) * 1000;
+        }
+        return new ReportImageStore(maxBytes, ttl);
+    }
+
+    /**
+     * Crée le contrôle d'admission des rapports selon les propriétés report.pool.*
+     *
+     * @param aCtx
+     *            context manager
+     * @return le contrôle d'admission
+     */
+    private static ReportExecutor getExecutor(IContextManager aCtx) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (aCtx.getProperty("report.pool.threads") != null) {
+            threads = Integer.parseInt(aCtx.getProperty("report.pool.threads").trim());
+        }
+        int queue = ReportExecutor.DEFAULT_MAX_QUEUE;
+        if (aCtx.getProperty("report.pool.queue") != null) {
+            queue = Integer.parseInt(aCtx.getProperty("report.pool.queue").trim());
+        }
+        long timeout = ReportExecutor.DEFAULT_QUEUE_TIMEOUT;
+        if (aCtx.getProperty("report.pool.queue.timeout") != null) {
+            timeout = Long.parseLong(aCtx.getProperty("report.pool.queue.timeout").trim()) * 1000;
+        }
+        ReportExecutor executor = new ReportExecutor(threads, queue, timeout, "true".equals(aCtx.getProperty("report.pool.virtual")));
+        for (String format : new String[] { "pdf", "html", "xls", "xlsx", "doc", "csv" }) {
+            String limit = aCtx.getProperty("report.pool.limit." + format);
+            if (limit != null) {
+                executor.setLimit(format, Integer.parseInt(limit.trim()));
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Crée le stockage des rapports en arrière-plan selon les propriétés report.job.*
+     *
+     * @param aCtx
+     *            context manager
+     * @param aTempDir
+     *            répertoire des fichiers temporaires de Birt
+     * @return le stockage des rapports en arrière-plan
+     */
+    private static ReportJobStore getJobStore(IContextManager aCtx, String aTempDir) {
+        int threshold = ReportJobStore.DEFAULT_MEMORY_THRESHOLD;
+        if (aCtx.getProperty("report.job.memory.threshold") != null) {
+            threshold = Integer.parseInt(aCtx.getProperty("report.job.memory.threshold").trim());
+        }
+        long ttl = ReportJobStore.DEFAULT_TTL;
+        if (aCtx.getProperty("report.job.ttl") != null) {
+            ttl = Long.parseLong(aCtx.getProperty("report.job.ttl").trim()) * 1000;
+        }
+        return new ReportJobStore(new File(aTempDir, "jobs"), threshold, ttl);
+    }
+
+    /**
+     * Lit une propriété contenant une liste de valeurs séparées par des virgules.
+     *
+     * @param aCtx
+     *            context manager
+     * @param aName
+     *            nom de la propriété
+     * @return les valeurs, ensemble vide si la propriété n'est pas définie
+     */
+    private static Set<String> getPropertySet(IContextManager aCtx, String aName) {
+        return new HashSet<>(getPropertyList(aCtx, aName));
+    }
+
+    /**
+     * Lit une propriété contenant une liste de valeurs séparées par des virgules.
+     *
+     * @param aCtx
+     *            context manager
+     * @param aName
+     *            nom de la propriété
+     * @return les valeurs dans l'ordre, vide si la propriété n'est pas définie
+     */
+    private static List<String> getPropertyList(IContextManager aCtx, String aName) {
+        List<String> values = new ArrayList<>();
+        String property = aCtx.getProperty(aName);
+        if (property != null) {
+            for (String value : property.split(",")) {
+                if (!value.trim().isEmpty()) {
+                    values.add(value.trim());
+                }
+            }
+        }
+        return values;
+    }
+
     /**
      * Get the log level.
      *
@@ -249,6 +751,22 @@ public class BirtServlet extends HttpServlet {
 
     @Override
     public void destroy() {
+        if (iJanitor != null) {
+            iJanitor.stop();
+            iJanitor = null;
+        }
+        ReportEngine reportEngine = (ReportEngine) ServiceLocator.getInstance().getContextManager().getReportEngine();
+        if (reportEngine != null && reportEngine.getMetrics() != null) {
+            reportEngine.getMetrics().unregister();
+        }
+        if (reportEngine != null) {
+            // Arrête l'exécution et les délais des rapports, vide les stockages et libère l'engine Birt
+            try {
+                reportEngine.destroy();
+            } catch (RuntimeException e) {
+                logger.error("Error destroying the report engine", e);
+            }
+        }
         ServiceLocator.getInstance().getContextManager().setReportEngine(null);
     }
 
@@ -264,13 +782,469 @@ public class BirtServlet extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws java.io.IOException {
-        try (OutputStream out = resp.getOutputStream()) {
-            sendResponse(out, req.getParameter("image"));
+        if (req.getParameter("job") != null) {
+            doJob(req, resp);
+            return;
+        }
+        if (req.getParameter("metrics") != null) {
+            sendMetrics(req, resp);
+            return;
+        }
+        if (req.getParameter("ready") != null) {
+            sendReady(resp);
+            return;
+        }
+        ReportImageStore.Image image = getImage(req.getParameter("image"));
+        if (image != null) {
+            if (image.getMimeType() != null) {
+                resp.setContentType(image.getMimeType());
+            }
+            resp.setContentLength(image.getLength());
+            try (OutputStream out = resp.getOutputStream()) {
+                image.writeTo(out);
+            } catch (IOException e) {
+                logger.error("Error writing image", e);
+            }
+            return;
+        }
+        try {
+            sendImage(resp, req.getParameter("image"));
         } catch (IOException e) {
             logger.error("Error writing image", e);
         }
     }
 
+    /**
+     * Etat du report engine pour les health checks: 200 si prêt, 503 pendant le démarrage ou le préchauffage, avec la durée des étapes du
+     * démarrage en JSON.
+     *
+     * @param resp
+     *            la réponse
+     * @throws IOException
+     *             erreur d'écriture de la réponse
+     */
+    private void sendReady(HttpServletResponse resp) throws IOException {
+        ReportEngine reportEngine = (ReportEngine) ServiceLocator.getInstance().getContextManager().getReportEngine();
+        boolean ready = reportEngine != null && reportEngine.isReady();
+        StringBuilder json = new StringBuilder("{\"ready\":").append(ready).append(",\"timings\":{");
+        if (iWarmup != null) {
+            String sep = "";
+            for (Map.Entry<String, Long> timing : iWarmup.getTimings().entrySet()) {
+                String step = timing.getKey().replace("\\", "\\\\").replace("\"", "\\\"");
+                json.append(sep).append('"').append(step).append("\":").append(timing.getValue());
+                sep = ",";
+            }
+        }
+        json.append("}}");
+        resp.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-store");
+        resp.getWriter().write(json.toString());
+    }
+
+    /**
+     * Envoie les mesures des rapports en JSON: nombre de rapports, erreurs, rapports lents, et histogrammes des durées de chaque phase,
+     * des tailles et des lignes par design et format. 404 si les mesures sont désactivées.
+     *
+     * L'utilisateur doit être authentifié par le conteneur, comme pour les rapports en arrière-plan, et avoir le rôle
+     * report.metrics.role s'il est défini; report.metrics.public=true pour lire les mesures sans authentification.
+     *
+     * @param req
+     *            la requête
+     * @param resp
+     *            la réponse
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private void sendMetrics(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        ReportEngine reportEngine = (ReportEngine) ServiceLocator.getInstance().getContextManager().getReportEngine();
+        if (reportEngine == null || reportEngine.getMetrics() == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!iMetricsPublic) {
+            if (req.getRemoteUser() == null) {
+                resp.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Authentication required");
+                return;
+            }
+            if (iMetricsRole != null && !req.isUserInRole(iMetricsRole.trim())) {
+                resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+                return;
+            }
+        }
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-store");
+        resp.getWriter().write(reportEngine.getMetrics().getJson());
+    }
+
+    /**
+     * Recherche une image dans le stockage des images en mémoire.
+     *
+     * @param aImageName
+     *            nom de l'image
+     * @return l'image, <code>null</code> si le stockage est désactivé ou si l'image a été écrite sur disque
+     */
+    private static ReportImageStore.Image getImage(String aImageName) {
+        ReportEngine reportEngine = (ReportEngine) ServiceLocator.getInstance().getContextManager().getReportEngine();
+        if (aImageName == null || reportEngine == null || reportEngine.getImageStore() == null) {
+            return null;
+        }
+        return reportEngine.getImageStore().get(aImageName);
+    }
+
+    /**
+     * Rapports en arrière-plan:
+     * <ul>
+     * <li>job=submit&amp;report=&lt;design&gt;&amp;format=&lt;format&gt;&amp;lang=&lt;langue&gt;&amp;&lt;paramètres&gt;: soumet un rapport
+     * du répertoire report.dir, retourne son identifiant et son état</li>
+     * <li>job=&lt;id&gt;: retourne l'état du rapport</li>
+     * <li>job=&lt;id&gt;&amp;result: retourne le résultat du rapport</li>
+     * <li>job=&lt;id&gt;&amp;cancel: annule le rapport en attente ou en cours, retourne son état</li>
+     * </ul>
+     *
+     * Les paramètres du rapport sont passés comme chaînes de caractères (tableau si le paramètre est répété); seuls les paramètres
+     * déclarés par le design sont acceptés, jamais les paramètres de connexion du report engine. L'utilisateur doit être authentifié par
+     * le conteneur et seul l'utilisateur qui a soumis un rapport peut consulter son état, son résultat ou l'annuler.
+     *
+     * @param req
+     *            la requête
+     * @param resp
+     *            la réponse
+     * @throws IOException
+     *             erreur d'écriture de la réponse
+     */
+    protected void doJob(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        ReportEngine reportEngine = (ReportEngine) ServiceLocator.getInstance().getContextManager().getReportEngine();
+        if (reportEngine == null || reportEngine.getJobStore() == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Report jobs not enabled");
+            return;
+        }
+        String user = req.getRemoteUser();
+        if (user == null) {
+            resp.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Authentication required");
+            return;
+        }
+        String jobId = req.getParameter("job");
+        if ("submit".equals(jobId)) {
+            submitJob(reportEngine, user, req, resp);
+            return;
+        }
+
+        // Le rapport d'un autre utilisateur est inconnu
+        ReportJob job = reportEngine.getJobStore().get(jobId);
+        if (job == null || !user.equals(job.getOwner())) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown report job");
+            return;
+        }
+        if (req.getParameter("cancel") != null) {
+            resp.setStatus(job.cancel() ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_CONFLICT);
+            sendJobStatus(resp, job);
+        } else if (req.getParameter("result") == null) {
+            sendJobStatus(resp, job);
+        } else if (job.getStatus() != ReportJob.Status.DONE) {
+            resp.setStatus(HttpServletResponse.SC_CONFLICT);
+            sendJobStatus(resp, job);
+        } else if (job.getFile() == null || !sendFile(resp, job.getFile(), getContentType(job.getFormat()), REPORT_CACHE_CONTROL)) {
+            resp.setContentType(getContentType(job.getFormat()));
+            resp.setContentLengthLong(job.getSize());
+            resp.setHeader("Cache-Control", REPORT_CACHE_CONTROL);
+            try (OutputStream out = resp.getOutputStream()) {
+                job.writeResult(out);
+            }
+        }
+    }
+
+    /**
+     * Soumet un rapport en arrière-plan.
+     *
+     * @param aReportEngine
+     *            report engine
+     * @param aUser
+     *            l'utilisateur authentifié
+     * @param req
+     *            la requête
+     * @param resp
+     *            la réponse
+     * @throws IOException
+     *             erreur d'écriture de la réponse
+     */
+    private static void submitJob(ReportEngine aReportEngine, String aUser, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        IContextManager ctx = ServiceLocator.getInstance().getContextManager();
+        File reportDir = new File(ctx.getProperty("report.dir"));
+        String report = req.getParameter("report");
+        File design = report == null ? null : new File(reportDir, report);
+        if (design == null || !design.getCanonicalPath().startsWith(reportDir.getCanonicalPath() + File.separator) || !design.isFile()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid report design");
+            return;
+        }
+        String lang = req.getParameter("lang");
+        if (lang == null) {
+            lang = ctx.getProperty("report.default.lang");
+        }
+
+        Set<String> declared;
+        try {
+            declared = aReportEngine.getParameterNames(design);
+        } catch (EngineException | SQLException e) {
+            logger.error("Error reading the parameters of " + design, e);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid report design");
+            return;
+        }
+        Map<String, Object> parameters = new HashMap<>();
+        for (Map.Entry<String, String[]> param : req.getParameterMap().entrySet()) {
+            if (ReportEngine.CONNECTION_PARAMETERS.contains(param.getKey())) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Parameter not allowed: " + param.getKey());
+                return;
+            }
+            if (!JOB_PARAMETERS.contains(param.getKey()) && declared.contains(param.getKey())) {
+                String[] values = param.getValue();
+                parameters.put(param.getKey(), values.length == 1 ? values[0] : values);
+            }
+        }
+
+        try {
+            ReportJob job = aReportEngine.submitReport(design, parameters, req.getParameter("format"),
+                    "true".equals(req.getParameter("embeddable")), lang == null ? null : new Locale(lang), aUser);
+            resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+            sendJobStatus(resp, job);
+        } catch (ReportRejectedException e) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    /**
+     * Ecrit l'état d'un rapport en arrière-plan en JSON.
+     *
+     * @param resp
+     *            la réponse
+     * @param aJob
+     *            le rapport
+     * @throws IOException
+     *             erreur d'écriture de la réponse
+     */
+    private static void sendJobStatus(HttpServletResponse resp, ReportJob aJob) throws IOException {
+        StringBuilder json = new StringBuilder("{\"id\":\"").append(aJob.getId()).append("\",\"status\":\"").append(aJob.getStatus())
+                .append("\",\"format\":\"").append(aJob.getFormat()).append('"');
+        if (aJob.getStatus() == ReportJob.Status.DONE) {
+            json.append(",\"size\":").append(aJob.getSize());
+        }
+        if (aJob.getError() != null) {
+            json.append(",\"error\":\"").append(aJob.getError().replace("\\", "\\\\").replace("\"", "\\\"").replaceAll("[\\r\\n\\t]", " "))
+                    .append('"');
+        }
+        json.append('}');
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().write(json.toString());
+    }
+
+    /**
+     * Content type d'un format de rapport.
+     *
+     * @param aFormat
+     *            format du rapport (pdf, html, excel, excel-xlsx, doc, csv)
+     * @return le content type
+     */
+    protected static String getContentType(String aFormat) {
+        if (aFormat == null || "html".equals(aFormat)) {
+            return "text/html";
+        }
+        switch (aFormat) {
+            case "pdf":
+                return "application/pdf";
+            case "excel":
+                return "application/vnd.ms-excel";
+            case "excel-xlsx":
+                return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+            case "doc":
+                return "application/msword";
+            case "csv":
+                return "text/csv";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    /**
+     * Envoie une image écrite dans le répertoire report.tempo.dir par le HTMLServerImageHandler, puis l'efface. Plusieurs requêtes
+     * simultanées pour la même image sont servies, l'image est effacée à la fin de la dernière.
+     *
+     * @param resp
+     *            la réponse
+     * @param imageName
+     *            the image file name
+     * @throws IOException
+     *             erreur d'écriture de la réponse
+     */
+    protected void sendImage(HttpServletResponse resp, String imageName) throws IOException {
+        logger.debug("Image name " + imageName);
+        File file = getImageFile(imageName);
+        if (file == null || !acquireImage(file)) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown image");
+            return;
+        }
+        try {
+            String contentType = getServletContext().getMimeType(file.getName());
+            if (!sendFile(resp, file, contentType == null ? "application/octet-stream" : contentType, IMAGE_CACHE_CONTROL)) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown image");
+            }
+        } finally {
+            releaseImage(file);
+        }
+    }
+
+    /**
+     * Envoie un fichier par blocs de 64 Ko, sans le charger en entier en mémoire, avec sa taille, son type et le Cache-Control.
+     *
+     * @param resp
+     *            la réponse
+     * @param aFile
+     *            le fichier
+     * @param aContentType
+     *            type du contenu
+     * @param aCacheControl
+     *            en-tête Cache-Control, <code>null</code> pour ne pas le définir
+     * @return <code>false</code> si le fichier n'existe pas, la réponse n'est alors pas modifiée
+     * @throws IOException
+     *             erreur de lecture ou d'écriture
+     */
+    protected static boolean sendFile(HttpServletResponse resp, File aFile, String aContentType, String aCacheControl)
+            throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(aFile.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try (FileChannel input = channel; OutputStream out = resp.getOutputStream()) {
+            long size = input.size();
+            resp.setContentType(aContentType);
+            resp.setContentLengthLong(size);
+            if (aCacheControl != null) {
+                resp.setHeader("Cache-Control", aCacheControl);
+            }
+            transfer(input, size, out);
+        }
+        return true;
+    }
+
+    /**
+     * Copie un fichier dans le stream de la réponse. Le stream d'un conteneur servlet n'est pas un channel: FileChannel.transferTo y
+     * recopierait les données sans gain, le fichier est donc lu par blocs dans un buffer réutilisé.
+     *
+     * @param aInput
+     *            le fichier
+     * @param aSize
+     *            taille à copier, annoncée dans Content-Length
+     * @param aOutput
+     *            le stream de la réponse
+     * @throws IOException
+     *             erreur de lecture ou d'écriture, ou fichier plus court que la taille annoncée
+     */
+    private static void transfer(FileChannel aInput, long aSize, OutputStream aOutput) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, Math.max(1, aSize)));
+        long position = 0;
+        while (position < aSize) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), aSize - position));
+            int read = aInput.read(buffer, position);
+            if (read <= 0) {
+                // Fin du fichier avant la taille annoncée: pas de boucle sans progression
+                throw new EOFException("File truncated at " + position + " of " + aSize + " bytes");
+            }
+            aOutput.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * Résout le fichier d'une image, qui doit se trouver dans un sous-répertoire par requête de report.tempo.dir, écrit uniquement par le
+     * HTMLServerImageHandler, ou directement dans report.tempo.dir avec une extension d'image. Les autres fichiers du répertoire
+     * (documents, index des polices, fichiers de l'engine) ne sont jamais servis ni effacés.
+     *
+     * @param aImageName
+     *            nom de l'image
+     * @return le fichier, <code>null</code> si le nom est invalide
+     * @throws IOException
+     *             erreur de résolution du chemin
+     */
+    private static File getImageFile(String aImageName) throws IOException {
+        if (aImageName == null || aImageName.isEmpty()) {
+            return null;
+        }
+        File dir = new File(ServiceLocator.getInstance().getContextManager().getProperty("report.tempo.dir")).getCanonicalFile();
+        File file = new File(dir, aImageName).getCanonicalFile();
+        File parent = file.getParentFile();
+        if (parent != null && parent.getName().startsWith(ReportTempJanitor.REQUEST_PREFIX)) {
+            return dir.equals(parent.getParentFile()) ? file : null;
+        }
+        return dir.equals(parent) && isImage(file.getName()) ? file : null;
+    }
+
+    /**
+     * Indique si un nom de fichier a une extension d'image.
+     *
+     * @param aName
+     *            nom du fichier
+     * @return <code>true</code> pour une image
+     */
+    private static boolean isImage(String aName) {
+        int dot = aName.lastIndexOf('.');
+        return dot > 0 && IMAGE_EXTENSIONS.contains(aName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Enregistre une requête pour une image.
+     *
+     * @param aFile
+     *            le fichier de l'image
+     * @return <code>false</code> si l'image n'existe pas
+     */
+    private boolean acquireImage(File aFile) {
+        synchronized (iImageReaders) {
+            if (!iImageReaders.containsKey(aFile.getPath()) && !aFile.isFile()) {
+                return false;
+            }
+            iImageReaders.merge(aFile.getPath(), 1, Integer::sum);
+            return true;
+        }
+    }
+
+    /**
+     * Termine une requête pour une image et efface l'image à la fin de la dernière requête.
+     *
+     * @param aFile
+     *            le fichier de l'image
+     */
+    private void releaseImage(File aFile) {
+        synchronized (iImageReaders) {
+            if (iImageReaders.merge(aFile.getPath(), -1, Integer::sum) > 0) {
+                return;
+            }
+            iImageReaders.remove(aFile.getPath());
+            // Effacé sous le verrou: une nouvelle requête ne peut pas trouver le fichier en cours d'effacement
+            try {
+                Files.deleteIfExists(aFile.toPath());
+                logger.debug("Temporary image deleted");
+            } catch (IOException e) {
+                logger.error("Error deleting image " + aFile, e);
+            }
+            // Répertoire par requête effacé avec sa dernière image
+            File dir = aFile.getParentFile();
+            if (dir != null && dir.getName().startsWith(ReportTempJanitor.REQUEST_PREFIX)) {
+                try {
+                    Files.deleteIfExists(dir.toPath());
+                } catch (DirectoryNotEmptyException e) {
+                    logger.trace("Request directory still has images: " + dir);
+                } catch (IOException e) {
+                    logger.debug("Request directory not deleted: " + dir, e);
+                }
+            }
+        }
+    }
+
     /**
      * This method serializes and sends the given string on the response.
      *
@@ -281,21 +1255,20 @@ public class BirtServlet extends HttpServlet {
      *
      * @throws java.io.IOException
      *             lorsqu'il y a un problème
+     * @deprecated le BirtServlet utilise {@link #sendImage(HttpServletResponse, String)}, qui définit les en-têtes de la réponse
      */
+    @Deprecated
     protected void sendResponse(OutputStream out, String imageName) throws java.io.IOException {
         logger.debug("Image name " + imageName);
-        String tempo = ServiceLocator.getInstance().getContextManager().getProperty("report.tempo.dir");
-        File file = new File(tempo + File.separator + imageName);
-        try (FileInputStream input = new FileInputStream(file)) {
-            byte[] inBytes = new byte[128];
-            int len = input.read(inBytes);
-            while (len != -1) {
-                out.write(inBytes, 0, len);
-                len = input.read(inBytes);
-            }
+        File file = getImageFile(imageName);
+        if (file == null || !acquireImage(file)) {
+            throw new FileNotFoundException(imageName);
+        }
+        try (FileChannel input = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            transfer(input, input.size(), out);
             out.flush();
+        } finally {
+            releaseImage(file);
         }
-        Files.delete(file.toPath());
-        logger.debug("Temporary image deleted");
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests de CreatorStrippingOutputStream: la valeur du Creator est remplacée par des espaces, sans changer la longueur du PDF, quel que
+ * soit le découpage des écritures.
+ *
+ * @author INSER SA
+ *
+ */
+public class CreatorStrippingOutputStreamTest {
+
+    /** Valeur du Creator écrite par Birt */
+    private static final String CREATOR = "BIRT Report Engine /opt/birt/4.6.0.jar";
+
+    /** Valeur du CreatorTool écrite par Birt */
+    private static final String CREATOR_TOOL = "BIRT 4.6.0";
+
+    /** Extrait de PDF avec le Creator dans le dictionnaire Info et dans les méta-données XMP */
+    private static final String PDF = "1 0 obj\n<</Producer (iText) /Creator (" + CREATOR + ")>>\nendobj\n"
+            + "2 0 obj\n<x:xmpmeta><xmp:CreatorTool>" + CREATOR_TOOL + "</xmp:CreatorTool></x:xmpmeta>\nendobj\n";
+
+    /** Extrait attendu */
+    private static final String STRIPPED = "1 0 obj\n<</Producer (iText) /Creator (" + blank(CREATOR) + ")>>\nendobj\n"
+            + "2 0 obj\n<x:xmpmeta><xmp:CreatorTool>" + blank(CREATOR_TOOL) + "</xmp:CreatorTool></x:xmpmeta>\nendobj\n";
+
+    /**
+     * Efface le Creator écrit en une fois.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testStripInfoAndXmp() throws IOException {
+        assertEquals(STRIPPED, strip(PDF, PDF.length()));
+    }
+
+    /**
+     * Efface le Creator quel que soit le découpage des écritures, y compris au milieu de la clé ou de la valeur.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testChunkBoundaries() throws IOException {
+        for (int chunk = 1; chunk <= PDF.length(); chunk++) {
+            assertEquals("chunk " + chunk, STRIPPED, strip(PDF, chunk));
+        }
+    }
+
+    /**
+     * Efface le Creator écrit octet par octet.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testSingleBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CreatorStrippingOutputStream stream = new CreatorStrippingOutputStream(out);
+        for (byte b : PDF.getBytes(StandardCharsets.ISO_8859_1)) {
+            stream.write(b);
+        }
+        stream.flush();
+        assertEquals(STRIPPED, new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+        assertTrue(stream.isStripped());
+    }
+
+    /**
+     * Une parenthèse échappée ne termine pas la valeur.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testEscapedParenthesis() throws IOException {
+        String value = "BIRT \\) 4.6.0";
+        assertEquals("/Creator (" + blank(value) + ") /Title (x)", strip("/Creator (" + value + ") /Title (x)", 1000));
+    }
+
+    /**
+     * Un backslash échappé n'échappe pas la parenthèse suivante.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testEscapedBackslash() throws IOException {
+        String value = "C:\\\\birt\\\\";
+        assertEquals("/Creator (" + blank(value) + ") /Title (x)", strip("/Creator (" + value + ") /Title (x)", 1000));
+    }
+
+    /**
+     * Les parenthèses équilibrées font partie de la valeur.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testNestedParentheses() throws IOException {
+        String value = "BIRT (4.6.0) jar";
+        assertEquals("/Creator (" + blank(value) + ") /Title (x)", strip("/Creator (" + value + ") /Title (x)", 1000));
+    }
+
+    /**
+     * Efface une valeur hexadécimale.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testHexValue() throws IOException {
+        String value = "42495254";
+        assertEquals("/Creator <" + blank(value) + "> /Title (x)", strip("/Creator <" + value + "> /Title (x)", 3));
+    }
+
+    /**
+     * Une référence indirecte n'est pas modifiée.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testIndirectReference() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CreatorStrippingOutputStream stream = new CreatorStrippingOutputStream(out)) {
+            stream.write("/Creator 5 0 R /Title (x)".getBytes(StandardCharsets.ISO_8859_1));
+            assertFalse(stream.isStripped());
+        }
+        assertEquals("/Creator 5 0 R /Title (x)", new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Ecrit un PDF par morceaux dans un CreatorStrippingOutputStream.
+     *
+     * @param aPdf
+     *            le PDF
+     * @param aChunk
+     *            taille des morceaux
+     * @return le PDF écrit
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private static String strip(String aPdf, int aChunk) throws IOException {
+        byte[] pdf = aPdf.getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CreatorStrippingOutputStream stream = new CreatorStrippingOutputStream(out)) {
+            for (int offset = 0; offset < pdf.length; offset += aChunk) {
+                stream.write(pdf, offset, Math.min(aChunk, pdf.length - offset));
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param aValue
+     *            valeur effacée
+     * @return autant d'espaces que de caractères dans la valeur
+     */
+    private static String blank(String aValue) {
+        StringBuilder blank = new StringBuilder();
+        for (int i = 0; i < aValue.length(); i++) {
+            blank.append(' ');
+        }
+        return blank.toString();
+    }
+}
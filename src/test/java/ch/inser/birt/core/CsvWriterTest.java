@@ -0,0 +1,179 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * Tests de CsvWriter: format RFC 4180 et formatage des valeurs par type.
+ *
+ * @author INSER SA
+ *
+ */
+public class CsvWriterTest {
+
+    /**
+     * Les champs sont séparés et les lignes terminées par CRLF; une valeur null est vide.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testRecords() throws IOException {
+        assertEquals("a,,c\r\n1,2,3\r\n", write(',', StandardCharsets.UTF_8, new Object[] { "a", null, "c" }, new Object[] { 1, 2L, 3 }));
+    }
+
+    /**
+     * Un texte avec le séparateur, un guillemet ou un retour à la ligne est entre guillemets, les guillemets sont doublés.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testQuotes() throws IOException {
+        assertEquals("\"a,b\",\"say \"\"hi\"\"\",\"l1\nl2\",\"l1\rl2\",plain\r\n",
+                write(',', StandardCharsets.UTF_8, new Object[] { "a,b", "say \"hi\"", "l1\nl2", "l1\rl2", "plain" }));
+    }
+
+    /**
+     * Le texte est mis entre guillemets selon le séparateur utilisé.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testTabSeparator() throws IOException {
+        assertEquals("a,b\t\"c\td\"\r\n", write('\t', StandardCharsets.UTF_8, new Object[] { "a,b", "c\td" }));
+    }
+
+    /**
+     * Les nombres sont écrits sans notation scientifique ni guillemets.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testNumbers() throws IOException {
+        assertEquals("0,-42,9223372036854775807,-9223372036854775808,1000,0.00001,1.5,true\r\n",
+                write(',', StandardCharsets.UTF_8, new Object[] { (short) 0, -42, Long.MAX_VALUE, Long.MIN_VALUE,
+                        new BigDecimal("1E+3"), new BigDecimal("1E-5"), 1.5d, Boolean.TRUE }));
+    }
+
+    /**
+     * Les dates SQL gardent leur format, les java.util.Date sont formatées dans le fuseau de la JVM.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testDates() throws IOException {
+        Date date = Date.from(LocalDateTime.of(2024, 3, 1, 14, 5, 9).atZone(ZoneId.systemDefault()).toInstant());
+        assertEquals("2024-03-01,2024-03-01 14:05:09\r\n",
+                write(',', StandardCharsets.UTF_8, new Object[] { java.sql.Date.valueOf("2024-03-01"), date }));
+    }
+
+    /**
+     * Le texte est encodé dans le charset demandé.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testCharset() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvWriter writer = new CsvWriter(out, ';', StandardCharsets.ISO_8859_1);
+        writer.writeField("été");
+        writer.endRecord();
+        writer.flush();
+        assertEquals(5, out.size());
+        assertEquals("été\r\n", new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Un texte plus grand que le buffer est écrit en entier.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testLargeValues() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        Object[][] records = new Object[3000][];
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new Object[] { i, "x\"y" };
+            expected.append(i).append(",\"x\"\"y\"\r\n");
+        }
+        assertEquals(text + "\r\n", write(',', StandardCharsets.UTF_8, new Object[] { text.toString() }));
+        assertEquals(expected.toString(), write(',', StandardCharsets.UTF_8, records));
+    }
+
+    /**
+     * Le nombre de lignes compte chaque appel à endRecord.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testRecordCount() throws IOException {
+        CsvWriter writer = new CsvWriter(new ByteArrayOutputStream(), ',', StandardCharsets.UTF_8);
+        writer.writeField("title");
+        writer.endRecord();
+        writer.writeField(1);
+        writer.endRecord();
+        assertEquals(2, writer.getRecords());
+    }
+
+    /**
+     * Ecrit des lignes par un CsvWriter.
+     *
+     * @param aSeparator
+     *            séparateur des champs
+     * @param aCharset
+     *            encodage
+     * @param aRecords
+     *            les lignes
+     * @return le CSV
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private static String write(char aSeparator, Charset aCharset, Object[]... aRecords) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvWriter writer = new CsvWriter(out, aSeparator, aCharset);
+        for (Object[] record : aRecords) {
+            for (Object value : record) {
+                writer.writeField(value);
+            }
+            writer.endRecord();
+        }
+        writer.flush();
+        return new String(out.toByteArray(), aCharset);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests de ReportBuffer: segments en mémoire jusqu'au seuil, puis fichier dans le répertoire des buffers.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportBufferTest {
+
+    /** Répertoire temporaire des rapports */
+    @Rule
+    public TemporaryFolder iFolder = new TemporaryFolder();
+
+    /**
+     * Le résultat reste en mémoire jusqu'au seuil inclus et passe sur disque au premier octet au-delà.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testSpillBoundary() throws IOException {
+        File dir = new File(iFolder.getRoot(), ReportBuffer.DIRECTORY);
+        byte[] content = bytes(101);
+        try (ReportBuffer buffer = new ReportBuffer(dir, 100)) {
+            buffer.write(content, 0, 100);
+            assertFalse(buffer.isSpilled());
+            assertFalse(dir.exists());
+            buffer.write(content[100]);
+            assertTrue(buffer.isSpilled());
+            assertEquals(dir, buffer.getFile().getParentFile());
+            assertEquals(101, buffer.size());
+            assertArrayEquals(content, buffer.toByteArray());
+        }
+    }
+
+    /**
+     * Une écriture qui dépasse le seuil passe sur disque en entier.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testSpillOnArrayWrite() throws IOException {
+        byte[] content = bytes(150);
+        try (ReportBuffer buffer = new ReportBuffer(iFolder.getRoot(), 100)) {
+            buffer.write(content, 0, 60);
+            assertFalse(buffer.isSpilled());
+            buffer.write(content, 60, 90);
+            assertTrue(buffer.isSpilled());
+            assertArrayEquals(content, buffer.toByteArray());
+        }
+    }
+
+    /**
+     * En mémoire, le résultat est lu en entier sur plusieurs segments, par toutes les méthodes de lecture.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testMemorySegments() throws IOException {
+        byte[] content = bytes(2 * ReportBuffer.SEGMENT_SIZE + 5);
+        try (ReportBuffer buffer = new ReportBuffer()) {
+            buffer.write(content);
+            assertFalse(buffer.isSpilled());
+            assertNull(buffer.getFile());
+            assertContent(content, buffer);
+        }
+    }
+
+    /**
+     * Sur disque, le résultat est lu en entier par toutes les méthodes de lecture.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testFileContent() throws IOException {
+        byte[] content = bytes(3 * ReportBuffer.SEGMENT_SIZE + 7);
+        try (ReportBuffer buffer = new ReportBuffer(iFolder.getRoot(), ReportBuffer.SEGMENT_SIZE + 1)) {
+            buffer.write(content);
+            assertTrue(buffer.isSpilled());
+            assertContent(content, buffer);
+        }
+    }
+
+    /**
+     * Le fichier est effacé à la fermeture et le buffer n'est plus utilisable.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testCloseDeletesFile() throws IOException {
+        ReportBuffer buffer = new ReportBuffer(iFolder.getRoot(), 0);
+        buffer.write(bytes(10));
+        File file = buffer.getFile();
+        assertTrue(file.isFile());
+        buffer.close();
+        assertFalse(file.exists());
+        try {
+            buffer.write(1);
+            throw new AssertionError("write after close");
+        } catch (IOException e) {
+            assertEquals("Report buffer closed", e.getMessage());
+        }
+    }
+
+    /**
+     * Le fichier du résultat est déplacé, le résultat en mémoire est écrit.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testSaveTo() throws IOException {
+        byte[] content = bytes(50);
+        File spilled = new File(iFolder.getRoot(), "spilled.pdf");
+        ReportBuffer buffer = new ReportBuffer(iFolder.newFolder(ReportBuffer.DIRECTORY), 10);
+        buffer.write(content);
+        File file = buffer.getFile();
+        buffer.saveTo(spilled);
+        assertFalse(file.exists());
+        assertArrayEquals(content, Files.readAllBytes(spilled.toPath()));
+
+        File memory = new File(iFolder.getRoot(), "memory.pdf");
+        buffer = new ReportBuffer();
+        buffer.write(content);
+        buffer.saveTo(memory);
+        assertArrayEquals(content, Files.readAllBytes(memory.toPath()));
+    }
+
+    /**
+     * Le buffer vidé repart en mémoire.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testReset() throws IOException {
+        try (ReportBuffer buffer = new ReportBuffer(iFolder.getRoot(), 10)) {
+            buffer.write(bytes(20));
+            File file = buffer.getFile();
+            buffer.reset();
+            assertFalse(file.exists());
+            assertEquals(0, buffer.size());
+            buffer.write(bytes(5));
+            assertFalse(buffer.isSpilled());
+            assertArrayEquals(bytes(5), buffer.toByteArray());
+        }
+    }
+
+    /**
+     * Un channel qui n'accepte plus de données interrompt le transfert au lieu de boucler.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testTransferWithoutProgress() throws IOException {
+        WritableByteChannel full = new WritableByteChannel() {
+
+            @Override
+            public int write(ByteBuffer aSource) {
+                return 0;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // Rien à libérer
+            }
+        };
+        for (long threshold : new long[] { 0, 100 }) {
+            try (ReportBuffer buffer = new ReportBuffer(iFolder.getRoot(), threshold)) {
+                buffer.write(bytes(10));
+                buffer.transferTo(full);
+                throw new AssertionError("transfer without progress");
+            } catch (IOException e) {
+                assertEquals("Report buffer transfer made no progress", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Vérifie le résultat lu par toByteArray, getInputStream, writeTo et transferTo.
+     *
+     * @param aExpected
+     *            résultat attendu
+     * @param aBuffer
+     *            le buffer
+     * @throws IOException
+     *             erreur de lecture
+     */
+    private static void assertContent(byte[] aExpected, ReportBuffer aBuffer) throws IOException {
+        assertEquals(aExpected.length, aBuffer.size());
+        assertArrayEquals(aExpected, aBuffer.toByteArray());
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (InputStream in = aBuffer.getInputStream()) {
+            byte[] chunk = new byte[1000];
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                read.write(chunk, 0, n);
+            }
+        }
+        assertArrayEquals(aExpected, read.toByteArray());
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        aBuffer.writeTo(written);
+        assertArrayEquals(aExpected, written.toByteArray());
+
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        assertEquals(aExpected.length, aBuffer.transferTo(Channels.newChannel(transferred)));
+        assertArrayEquals(aExpected, transferred.toByteArray());
+    }
+
+    /**
+     * @param aLength
+     *            nombre d'octets
+     * @return des octets différents d'un segment à l'autre
+     */
+    private static byte[] bytes(int aLength) {
+        byte[] bytes = new byte[aLength];
+        for (int i = 0; i < aLength; i++) {
+            bytes[i] = (byte) (i * 31 + i / 256);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import org.junit.Test;
+
+/**
+ * Tests de ReportDataSetCache: clé des requêtes (design, SQL, paramètres liés typés), taille permise par design et globale, durée de vie
+ * et invalidation. Les requêtes sont exécutées sur une connexion simulée qui compte les exécutions.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDataSetCacheTest {
+
+    /** Requête des tests */
+    private static final String SQL = "select name from pays where id = ?";
+
+    /** Taille estimée d'une ligne d'un caractère, en octets */
+    private static final long ROW = 32 + 40 + 2;
+
+    /** Nombre d'exécutions de requêtes par la connexion simulée */
+    private int iExecutions;
+
+    /**
+     * Le résultat d'une requête est réutilisé pour les mêmes design, SQL et paramètres.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testHit() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        assertEquals(Arrays.asList("a", "b"), query(cache, "d1", "a.rptdesign", SQL, 1, "a", "b"));
+        assertEquals(Arrays.asList("a", "b"), query(cache, "d1", "a.rptdesign", SQL, 1, "a", "b"));
+        assertEquals(1, iExecutions);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(2 * ROW, cache.getBytes());
+    }
+
+    /**
+     * Le design, sa version, le SQL et chaque paramètre lié avec son type font partie de la clé.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testKey() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 2, "a");
+        query(cache, "d1", "a.rptdesign", SQL, "1", "a");
+        query(cache, "d1", "a.rptdesign", SQL, 1L, "a");
+        query(cache, "d1", "a.rptdesign", SQL, null, "a");
+        query(cache, "d2", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d1", "a.rptdesign", SQL + " order by name", 1, "a");
+        assertEquals(7, iExecutions);
+        assertEquals(0, cache.getHits());
+        assertEquals(7, cache.size());
+    }
+
+    /**
+     * Une requête avec un stream lié ou une requête qui n'est pas un SELECT n'est pas mise en cache.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testNotCached() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        Connection connection = wrap(cache, "d1", "a.rptdesign", "a");
+        for (int i = 0; i < 2; i++) {
+            PreparedStatement statement = connection.prepareStatement(SQL);
+            statement.setBinaryStream(1, new ByteArrayInputStream(new byte[1]));
+            statement.executeQuery().close();
+            connection.prepareStatement("update pays set name = 'a'").executeQuery();
+        }
+        assertEquals(4, iExecutions);
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Un résultat plus grand que la taille permise pour le design est lu entièrement sans cache, puis n'est plus copié.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testOversized() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        cache.setDesignMaxBytes(Collections.singletonMap("a.rptdesign", ROW + 1));
+        assertEquals(Arrays.asList("a", "b"), query(cache, "d1", "a.rptdesign", SQL, 1, "a", "b"));
+        assertEquals(2, iExecutions);
+        assertEquals(Arrays.asList("a", "b"), query(cache, "d1", "a.rptdesign", SQL, 1, "a", "b"));
+        assertEquals(3, iExecutions);
+        assertEquals(0, cache.size());
+
+        query(cache, "d2", "b.rptdesign", SQL, 1, "a", "b");
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Quand la place du design manque, seuls ses résultats les moins utilisés sont supprimés.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testDesignBudget() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        cache.setDesignMaxBytes(Collections.singletonMap("a.rptdesign", 2 * ROW));
+        query(cache, "other", "b.rptdesign", SQL, 0, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 2, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 3, "a");
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3 * ROW, cache.getBytes());
+
+        int executions = iExecutions;
+        query(cache, "other", "b.rptdesign", SQL, 0, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        assertEquals(executions, iExecutions);
+        query(cache, "d1", "a.rptdesign", SQL, 2, "a");
+        assertEquals(executions + 1, iExecutions);
+    }
+
+    /**
+     * Quand la place du cache manque, les résultats les moins utilisés de tous les designs sont supprimés.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testGlobalBudget() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(2 * ROW, 60_000);
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d2", "b.rptdesign", SQL, 1, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d3", "c.rptdesign", SQL, 1, "a");
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2 * ROW, cache.getBytes());
+        int executions = iExecutions;
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        assertEquals(executions, iExecutions);
+    }
+
+    /**
+     * Un résultat expiré est lu à nouveau.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testExpiration() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        cache.setDesignTtls(Collections.singletonMap("a.rptdesign", -1L));
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        assertEquals(2, iExecutions);
+        assertEquals(1, cache.getExpirations());
+    }
+
+    /**
+     * Invalidation par design, par table et du cache entier.
+     *
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    @Test
+    public void testInvalidate() throws SQLException {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        query(cache, "d1", "a.rptdesign", SQL, 1, "a");
+        query(cache, "d2", "b.rptdesign", SQL, 1, "a");
+        query(cache, "d2", "b.rptdesign", "select name from villes where id = ?", 1, "a");
+        query(cache, "d2", "b.rptdesign", "select name from pays_villes where id = ?", 1, "a");
+        cache.invalidate("a.rptdesign");
+        assertEquals(3, cache.size());
+        cache.invalidateTable("PAYS");
+        assertEquals(2, cache.size());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertEquals(4, cache.getInvalidations());
+    }
+
+    /**
+     * Designs inclus et exclus; un design Blob n'est mis en cache que si tous les designs le sont.
+     */
+    @Test
+    public void testCacheableDesigns() {
+        ReportDataSetCache cache = new ReportDataSetCache(10_000, 60_000);
+        assertTrue(cache.isCacheable(null));
+        cache.setExcludedDesigns(Collections.singleton("b.rptdesign"));
+        assertTrue(cache.isCacheable("a.rptdesign"));
+        assertFalse(cache.isCacheable("b.rptdesign"));
+        cache.setIncludedDesigns(Collections.singleton("a.rptdesign"));
+        assertFalse(cache.isCacheable("c.rptdesign"));
+        assertFalse(cache.isCacheable(null));
+    }
+
+    /**
+     * Exécute une requête par une connexion du cache.
+     *
+     * @param aCache
+     *            le cache
+     * @param aIdentity
+     *            identité du design
+     * @param aDesignName
+     *            nom du design
+     * @param aSql
+     *            texte SQL
+     * @param aParameter
+     *            valeur du paramètre lié
+     * @param aRows
+     *            lignes retournées par la base
+     * @return les lignes lues
+     * @throws SQLException
+     *             erreur de la requête
+     */
+    private List<String> query(ReportDataSetCache aCache, String aIdentity, String aDesignName, String aSql, Object aParameter,
+            String... aRows) throws SQLException {
+        PreparedStatement statement = wrap(aCache, aIdentity, aDesignName, aRows).prepareStatement(aSql);
+        if (aParameter == null) {
+            statement.setNull(1, Types.INTEGER);
+        } else {
+            statement.setObject(1, aParameter);
+        }
+        List<String> values = new ArrayList<>();
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                values.add(result.getString(1));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Crée une connexion simulée et la passe au cache.
+     *
+     * @param aCache
+     *            le cache
+     * @param aIdentity
+     *            identité du design
+     * @param aDesignName
+     *            nom du design
+     * @param aRows
+     *            lignes retournées par chaque requête
+     * @return la connexion du cache
+     */
+    private Connection wrap(ReportDataSetCache aCache, String aIdentity, String aDesignName, String... aRows) {
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                    if ("executeQuery".equals(method.getName())) {
+                        iExecutions++;
+                        return rows(aRows);
+                    }
+                    return null;
+                });
+        Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> "prepareStatement".equals(method.getName()) ? statement : null);
+        Map<Object, Object> context = new HashMap<>();
+        context.put(ReportConnectionProvider.PASS_IN_CONNECTION, connection);
+        aCache.wrap(context, aIdentity, aDesignName);
+        return (Connection) context.get(ReportConnectionProvider.PASS_IN_CONNECTION);
+    }
+
+    /**
+     * @param aValues
+     *            valeurs de la colonne
+     * @return un résultat d'une colonne texte
+     * @throws SQLException
+     *             erreur de création du résultat
+     */
+    private static ResultSet rows(String... aValues) throws SQLException {
+        RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+        meta.setColumnCount(1);
+        meta.setColumnName(1, "name");
+        meta.setColumnType(1, Types.VARCHAR);
+        CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(meta);
+        // Chaque ligne est insérée avant la précédente
+        for (int i = aValues.length - 1; i >= 0; i--) {
+            rows.moveToInsertRow();
+            rows.updateString(1, aValues[i]);
+            rows.insertRow();
+            rows.moveToCurrentRow();
+        }
+        rows.beforeFirst();
+        return rows;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.eclipse.birt.report.engine.api.IEngineTask;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests de ReportDeadlines: choix du délai, surveillance imbriquée dans le thread, annulation de la tâche Birt et de la connexion par
+ * délai dépassé, déconnexion ou demande.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDeadlinesTest {
+
+    /** Délais testés */
+    private ReportDeadlines iDeadlines;
+
+    /**
+     * Arrête la surveillance des délais.
+     */
+    @After
+    public void tearDown() {
+        if (iDeadlines != null) {
+            iDeadlines.shutdown();
+        }
+    }
+
+    /**
+     * Le délai du design remplace le délai par défaut; le délai de la requête remplace celui du design.
+     */
+    @Test
+    public void testTimeouts() {
+        iDeadlines = new ReportDeadlines(1000);
+        iDeadlines.setDesignTimeouts(Collections.singletonMap("pays.rptdesign", 0L));
+        assertEquals(1000, iDeadlines.getTimeout(null));
+        assertEquals(1000, iDeadlines.getTimeout("villes.rptdesign"));
+        assertEquals(0, iDeadlines.getTimeout("pays.rptdesign"));
+
+        try (ReportDeadlines.Watch request = iDeadlines.request(5000)) {
+            try (ReportDeadlines.Watch watch = iDeadlines.watch("pays.rptdesign")) {
+                assertSame(request, watch);
+                assertEquals(5000, watch.getTimeout());
+            }
+        }
+        try (ReportDeadlines.Watch watch = iDeadlines.watch("pays.rptdesign")) {
+            assertEquals(0, watch.getTimeout());
+        }
+    }
+
+    /**
+     * La surveillance du thread n'est libérée qu'à la fermeture du dernier appel imbriqué.
+     */
+    @Test
+    public void testNested() {
+        iDeadlines = new ReportDeadlines(0);
+        ReportDeadlines.Watch outer = iDeadlines.watch("a");
+        ReportDeadlines.Watch inner = iDeadlines.watch("b");
+        assertSame(outer, inner);
+        inner.close();
+        iDeadlines.cancelCurrent(ReportDeadlines.CANCEL);
+        assertTrue(outer.isCancelled());
+        outer.close();
+
+        try (ReportDeadlines.Watch next = iDeadlines.watch("a")) {
+            assertNotSame(outer, next);
+            assertFalse(next.isCancelled());
+        }
+    }
+
+    /**
+     * Au délai dépassé, la tâche Birt et la connexion du pool sont annulées.
+     *
+     * @throws InterruptedException
+     *             thread interrompu
+     */
+    @Test
+    public void testTimeout() throws InterruptedException {
+        iDeadlines = new ReportDeadlines(20);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicInteger aborted = new AtomicInteger();
+        try (ReportDeadlines.Watch watch = iDeadlines.watch("a")) {
+            watch.attach(task(cancelled));
+            watch.attach(lease(aborted));
+            assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+            assertEquals(ReportDeadlines.TIMEOUT, watch.getReason());
+            assertEquals(1, aborted.get());
+        }
+        assertEquals(1, iDeadlines.getTimeouts());
+    }
+
+    /**
+     * Une tâche associée après l'annulation est annulée tout de suite; une seconde annulation est sans effet.
+     */
+    @Test
+    public void testCancelBeforeAttach() {
+        iDeadlines = new ReportDeadlines(0);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicInteger aborted = new AtomicInteger();
+        try (ReportDeadlines.Watch watch = iDeadlines.watch("a")) {
+            iDeadlines.cancelCurrent(ReportDeadlines.DISCONNECT);
+            iDeadlines.cancelCurrent(ReportDeadlines.CANCEL);
+            watch.attach(task(cancelled));
+            watch.attach(lease(aborted));
+            assertEquals(0, cancelled.getCount());
+            assertEquals(1, aborted.get());
+            assertEquals(ReportDeadlines.DISCONNECT, watch.getReason());
+        }
+        assertEquals(1, iDeadlines.getDisconnects());
+        assertEquals(0, iDeadlines.getCancels());
+    }
+
+    /**
+     * Une tâche dissociée n'est plus annulée; la surveillance fermée n'annule plus à l'échéance.
+     *
+     * @throws InterruptedException
+     *             thread interrompu
+     */
+    @Test
+    public void testDetachAndClose() throws InterruptedException {
+        iDeadlines = new ReportDeadlines(50);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        ReportDeadlines.Watch watch = iDeadlines.watch("a");
+        watch.attach(task(cancelled));
+        watch.close();
+        Thread.sleep(100);
+        assertFalse(watch.isCancelled());
+        assertEquals(1, cancelled.getCount());
+        assertEquals(0, iDeadlines.getTimeouts());
+
+        watch = iDeadlines.watch("a");
+        watch.attach(task(cancelled));
+        watch.detach();
+        watch.cancel(ReportDeadlines.CANCEL);
+        watch.close();
+        assertEquals(1, cancelled.getCount());
+        assertEquals(1, iDeadlines.getCancels());
+    }
+
+    /**
+     * La surveillance NONE n'annule rien.
+     */
+    @Test
+    public void testNone() {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        ReportDeadlines.Watch.NONE.attach(task(cancelled));
+        ReportDeadlines.Watch.NONE.cancel(ReportDeadlines.CANCEL);
+        ReportDeadlines.Watch.NONE.close();
+        assertFalse(ReportDeadlines.Watch.NONE.isCancelled());
+        assertNull(ReportDeadlines.Watch.NONE.getReason());
+        assertEquals(1, cancelled.getCount());
+    }
+
+    /**
+     * @param aCancelled
+     *            décompté à l'annulation de la tâche
+     * @return une tâche Birt
+     */
+    private static IEngineTask task(CountDownLatch aCancelled) {
+        return (IEngineTask) Proxy.newProxyInstance(IEngineTask.class.getClassLoader(), new Class<?>[] { IEngineTask.class },
+                (proxy, method, args) -> {
+                    if ("cancel".equals(method.getName())) {
+                        aCancelled.countDown();
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * @param aAborted
+     *            incrémenté à l'interruption de la connexion
+     * @return une connexion du pool
+     */
+    private static ReportConnectionProvider.Lease lease(AtomicInteger aAborted) {
+        Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    if ("abort".equals(method.getName())) {
+                        aAborted.incrementAndGet();
+                    }
+                    return "getAutoCommit".equals(method.getName()) ? Boolean.TRUE : null;
+                });
+        DataSource dataSource = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> "getConnection".equals(method.getName()) ? connection : null);
+        return new ReportConnectionProvider(dataSource).lease(new HashMap<>());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.eclipse.birt.report.engine.api.IReportRunnable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests de ReportDesignCache: version des designs fichier, LRU, invalidation et identifiants des designs.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDesignCacheTest {
+
+    /** Répertoire des designs */
+    @Rule
+    public TemporaryFolder iFolder = new TemporaryFolder();
+
+    /**
+     * Un design est retrouvé tant que sa version n'a pas changé; une autre version le supprime du cache.
+     */
+    @Test
+    public void testStamp() {
+        ReportDesignCache cache = new ReportDesignCache(10);
+        IReportRunnable design = design("a");
+        cache.put("file:/a", "1/10", design);
+        assertSame(design, cache.get("file:/a", "1/10"));
+        assertNull(cache.get("file:/a", "2/10"));
+        assertEquals(0, cache.size());
+        assertNull(cache.get("file:/a", "1/10"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    /**
+     * Les designs les moins utilisés sont supprimés au-delà du nombre maximal d'entrées.
+     */
+    @Test
+    public void testLru() {
+        ReportDesignCache cache = new ReportDesignCache(2);
+        IReportRunnable first = design("a");
+        cache.put("a", "", first);
+        cache.put("b", "", design("b"));
+        cache.get("a", "");
+        cache.put("c", "", design("c"));
+        assertEquals(2, cache.size());
+        assertSame(first, cache.get("a", ""));
+        assertNull(cache.get("b", ""));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getMaxEntries());
+    }
+
+    /**
+     * Invalidation d'un design fichier par son chemin, d'un design par sa clé et de tout le cache.
+     *
+     * @throws IOException
+     *             erreur de résolution du chemin
+     */
+    @Test
+    public void testInvalidate() throws IOException {
+        ReportDesignCache cache = new ReportDesignCache(10);
+        File file = iFolder.newFile("a.rptdesign");
+        cache.put(ReportDesignCache.getKey(file), ReportDesignCache.getStamp(file), design("a"));
+        cache.put("sha256:b", "", design("b"));
+        cache.put("sha256:c", "", design("c"));
+        cache.invalidate(new File(file.getParentFile(), "./a.rptdesign"));
+        assertEquals(2, cache.size());
+        cache.invalidate("sha256:b");
+        assertNull(cache.get("sha256:b", ""));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Un design fichier est identifié par son chemin canonique et versionné par sa date de modification et sa taille.
+     *
+     * @throws IOException
+     *             erreur d'écriture du design
+     */
+    @Test
+    public void testFileKeyAndStamp() throws IOException {
+        File file = iFolder.newFile("a.rptdesign");
+        File dir = iFolder.newFolder("sub");
+        assertEquals(ReportDesignCache.getKey(file), ReportDesignCache.getKey(new File(dir, "../a.rptdesign")));
+        assertEquals("file:" + file.getCanonicalPath(), ReportDesignCache.getKey(file));
+
+        String stamp = ReportDesignCache.getStamp(file);
+        Files.write(file.toPath(), "<report/>".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(stamp, ReportDesignCache.getStamp(file));
+        stamp = ReportDesignCache.getStamp(file);
+        file.setLastModified(file.lastModified() - 10_000);
+        assertNotEquals(stamp, ReportDesignCache.getStamp(file));
+    }
+
+    /**
+     * Un design Blob est identifié par le digest SHA-256 de son contenu.
+     */
+    @Test
+    public void testContentKey() {
+        assertEquals("sha256:e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", ReportDesignCache.getKey(new byte[0]));
+        assertEquals(ReportDesignCache.getKey("<report/>".getBytes(StandardCharsets.UTF_8)),
+                ReportDesignCache.getKey("<report/>".getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(ReportDesignCache.getKey("<report/>".getBytes(StandardCharsets.UTF_8)),
+                ReportDesignCache.getKey("<report />".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @param aName
+     *            nom du design
+     * @return un design compilé
+     */
+    private static IReportRunnable design(String aName) {
+        return (IReportRunnable) Proxy.newProxyInstance(IReportRunnable.class.getClassLoader(), new Class<?>[] { IReportRunnable.class },
+                (proxy, method, args) -> "getReportName".equals(method.getName()) ? aName : null);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests de ReportDocumentStore: compteur d'utilisateurs des documents, LRU par taille, durée de vie et invalidation. Un document
+ * supprimé du stockage n'est effacé qu'après sa dernière utilisation.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportDocumentStoreTest {
+
+    /** Répertoire des documents */
+    @Rule
+    public TemporaryFolder iFolder = new TemporaryFolder();
+
+    /**
+     * Un document publié est retrouvé par sa clé; les accès sont comptés.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testPublishAcquire() throws IOException {
+        ReportDocumentStore store = new ReportDocumentStore(iFolder.newFolder("documents"), 1000, 60_000);
+        assertNull(store.acquire("a"));
+        ReportDocumentStore.Document document = store.publish("a", newDocument(store, 10));
+        store.release(document);
+        assertSame(document, store.acquire("a"));
+        store.release(document);
+        assertEquals(1, store.size());
+        assertEquals(10, store.getBytes());
+        assertEquals(1, store.getHits());
+        assertEquals(1, store.getMisses());
+        assertEquals(store.getDirectory(), document.getFile().getParentFile());
+    }
+
+    /**
+     * Les documents les moins utilisés sont supprimés quand la place manque, leur fichier est effacé s'il n'est plus utilisé.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testLru() throws IOException {
+        ReportDocumentStore store = new ReportDocumentStore(iFolder.getRoot(), 25, 60_000);
+        ReportDocumentStore.Document a = store.publish("a", newDocument(store, 10));
+        store.release(a);
+        ReportDocumentStore.Document b = store.publish("b", newDocument(store, 10));
+        store.release(b);
+        store.release(store.acquire("a"));
+        ReportDocumentStore.Document c = store.publish("c", newDocument(store, 10));
+        store.release(c);
+        assertNull(store.acquire("b"));
+        assertFalse(b.getFile().exists());
+        assertTrue(a.getFile().exists());
+        assertEquals(20, store.getBytes());
+    }
+
+    /**
+     * Un document supprimé pendant son utilisation n'est effacé qu'à la libération par son dernier utilisateur.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testRefCount() throws IOException {
+        ReportDocumentStore store = new ReportDocumentStore(iFolder.getRoot(), 1000, 60_000);
+        ReportDocumentStore.Document document = store.publish("a", newDocument(store, 10));
+        ReportDocumentStore.Document second = store.acquire("a");
+        store.invalidateAll();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getBytes());
+        assertTrue(document.getFile().exists());
+        store.release(document);
+        assertTrue(document.getFile().exists());
+        store.release(second);
+        assertFalse(document.getFile().exists());
+    }
+
+    /**
+     * Un document remplacé par une nouvelle version reste lisible par ses utilisateurs.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testReplace() throws IOException {
+        ReportDocumentStore store = new ReportDocumentStore(iFolder.getRoot(), 1000, 60_000);
+        ReportDocumentStore.Document old = store.publish("a", newDocument(store, 10));
+        ReportDocumentStore.Document current = store.publish("a", newDocument(store, 20));
+        assertEquals(20, store.getBytes());
+        assertTrue(old.getFile().exists());
+        store.release(old);
+        assertFalse(old.getFile().exists());
+        store.release(current);
+        assertTrue(current.getFile().exists());
+    }
+
+    /**
+     * Un document expiré n'est plus retourné et son fichier est effacé.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testExpiration() throws IOException {
+        ReportDocumentStore store = new ReportDocumentStore(iFolder.getRoot(), 1000, -1);
+        ReportDocumentStore.Document document = store.publish("a", newDocument(store, 10));
+        store.release(document);
+        assertNull(store.acquire("a"));
+        assertFalse(document.getFile().exists());
+        assertEquals(0, store.getBytes());
+    }
+
+    /**
+     * L'invalidation d'un design supprime ses documents et garde ceux des autres designs.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testInvalidate() throws IOException {
+        ReportDocumentStore store = new ReportDocumentStore(iFolder.getRoot(), 1000, 60_000);
+        store.release(store.publish("file:/r/a@1|x", newDocument(store, 10)));
+        store.release(store.publish("file:/r/a@1|y", newDocument(store, 10)));
+        store.release(store.publish("file:/r/b@1|x", newDocument(store, 10)));
+        store.invalidate("file:/r/a@");
+        assertEquals(1, store.size());
+        assertEquals(10, store.getBytes());
+    }
+
+    /**
+     * Le répertoire des documents est créé s'il n'existe pas.
+     */
+    @Test
+    public void testDirectoryCreated() {
+        File dir = new File(iFolder.getRoot(), "a/b");
+        new ReportDocumentStore(dir, 1000, 60_000);
+        assertTrue(dir.isDirectory());
+    }
+
+    /**
+     * Crée le fichier d'un document.
+     *
+     * @param aStore
+     *            le stockage
+     * @param aSize
+     *            taille du document
+     * @return le fichier
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private static File newDocument(ReportDocumentStore aStore, int aSize) throws IOException {
+        File file = aStore.newFile();
+        Files.write(file.toPath(), new byte[aSize]);
+        return file;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests de ReportExecutor: admission sans file quand une place est libre, rejet si la file est pleine ou au timeout des rapports
+ * synchrones, attente sans timeout des rapports asynchrones acceptés et limites par format.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportExecutorTest {
+
+    /** Executor testé */
+    private ReportExecutor iExecutor;
+
+    /**
+     * Arrête le pool.
+     */
+    @After
+    public void tearDown() {
+        if (iExecutor != null) {
+            iExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Sans file d'attente, un rapport est admis si une place est libre et rejeté sinon.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testNoQueue() throws Exception {
+        iExecutor = new ReportExecutor(1, 0, 1000);
+        try (ReportExecutor.Permit permit = iExecutor.acquire("pdf")) {
+            assertEquals(0, permit.getQueueWait());
+            assertEquals(1, iExecutor.getActive());
+            assertEquals(0, iExecutor.getQueued());
+            assertTrue(acquireInThread("html") instanceof ReportRejectedException);
+        }
+        assertEquals(0, iExecutor.getActive());
+        assertTrue(acquireInThread("html") instanceof ReportExecutor.Permit);
+        assertEquals(2, iExecutor.getAdmitted());
+        assertEquals(1, iExecutor.getRejected());
+    }
+
+    /**
+     * Une demande du thread qui a déjà une place ne réserve pas de nouvelle place.
+     */
+    @Test
+    public void testNested() {
+        iExecutor = new ReportExecutor(1, 0, 1000);
+        try (ReportExecutor.Permit permit = iExecutor.acquire("pdf")) {
+            try (ReportExecutor.Permit nested = iExecutor.acquire("pdf")) {
+                assertEquals(1, iExecutor.getActive());
+            }
+            assertEquals(1, iExecutor.getActive());
+        }
+        assertEquals(0, iExecutor.getActive());
+    }
+
+    /**
+     * Un rapport synchrone en file est rejeté après le timeout de la file.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testSynchronousTimeout() throws Exception {
+        iExecutor = new ReportExecutor(1, 5, 50);
+        try (ReportExecutor.Permit permit = iExecutor.acquire("pdf")) {
+            Object result = acquireInThread("pdf");
+            assertTrue(result instanceof ReportRejectedException);
+            assertTrue(((Exception) result).getMessage().contains("timeout"));
+        }
+        assertEquals(0, iExecutor.getQueued());
+    }
+
+    /**
+     * Un rapport synchrone en file est admis dès qu'une place se libère.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testSynchronousWait() throws Exception {
+        iExecutor = new ReportExecutor(1, 5, 10_000);
+        CompletableFuture<Object> waiting;
+        try (ReportExecutor.Permit permit = iExecutor.acquire("pdf")) {
+            waiting = CompletableFuture.supplyAsync(() -> acquireOrReject("pdf"));
+            waitFor(() -> iExecutor.getQueued() == 1);
+        }
+        assertTrue(waiting.get(5, TimeUnit.SECONDS) instanceof ReportExecutor.Permit);
+    }
+
+    /**
+     * Un rapport asynchrone accepté attend sa place sans timeout.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testAcceptedNeverTimesOut() throws Exception {
+        iExecutor = new ReportExecutor(1, 5, 10);
+        CompletableFuture<String> result;
+        try (ReportExecutor.Permit permit = iExecutor.acquire("pdf")) {
+            result = iExecutor.submit("pdf", () -> "done");
+            assertEquals(1, iExecutor.getQueued());
+            Thread.sleep(100);
+            assertFalse(result.isDone());
+        }
+        assertEquals("done", result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, iExecutor.getRejected());
+        assertEquals(0, iExecutor.getQueued());
+    }
+
+    /**
+     * Un format saturé ne retarde pas les rapports asynchrones des autres formats.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testNoHeadOfLineBlocking() throws Exception {
+        iExecutor = new ReportExecutor(3, 5, 10);
+        iExecutor.setLimit("pdf", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = iExecutor.submit("pdf", () -> {
+            release.await();
+            return "pdf1";
+        });
+        CompletableFuture<String> second = iExecutor.submit("PDF", () -> "pdf2");
+        CompletableFuture<String> html = iExecutor.submit("html", () -> "html");
+        assertEquals("html", html.get(5, TimeUnit.SECONDS));
+        assertFalse(second.isDone());
+        release.countDown();
+        assertEquals("pdf1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("pdf2", second.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Un rapport asynchrone est rejeté tout de suite si la file est pleine.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testAsynchronousQueueFull() throws Exception {
+        iExecutor = new ReportExecutor(1, 1, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> running = iExecutor.submit("pdf", () -> {
+            release.await();
+            return "running";
+        });
+        CompletableFuture<String> queued = iExecutor.submit("pdf", () -> "queued");
+        try {
+            iExecutor.submit("pdf", () -> "rejected");
+            throw new AssertionError("queue full");
+        } catch (ReportRejectedException e) {
+            assertEquals(1, iExecutor.getRejected());
+        }
+        release.countDown();
+        assertEquals("running", running.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * L'erreur d'un rapport asynchrone est transmise par le résultat et libère sa place.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testAsynchronousFailure() throws Exception {
+        iExecutor = new ReportExecutor(1, 0, 10);
+        CompletableFuture<String> failed = iExecutor.submit("pdf", () -> {
+            throw new IllegalStateException("failed");
+        });
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        waitFor(() -> iExecutor.getActive() == 0);
+        assertEquals("next", iExecutor.submit("pdf", () -> "next").get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Les rapports asynchrones en attente démarrent quand un rapport synchrone libère sa place.
+     *
+     * @throws Exception
+     *             erreur du test
+     */
+    @Test
+    public void testSynchronousReleaseDispatches() throws Exception {
+        iExecutor = new ReportExecutor(1, 5, 10);
+        CompletableFuture<String> result;
+        try (ReportExecutor.Permit permit = iExecutor.acquire("html")) {
+            result = iExecutor.submit("csv", () -> "csv");
+        }
+        assertEquals("csv", result.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Normalisation des formats.
+     */
+    @Test
+    public void testNormalize() {
+        assertEquals("html", ReportExecutor.normalize(null));
+        assertEquals("xls", ReportExecutor.normalize("Excel"));
+        assertEquals("xlsx", ReportExecutor.normalize("excel-xlsx"));
+        assertEquals("pdf", ReportExecutor.normalize("PDF"));
+    }
+
+    /**
+     * Demande une place dans un autre thread.
+     *
+     * @param aFormat
+     *            format du rapport
+     * @return la place réservée, ou l'exception de rejet
+     * @throws InterruptedException
+     *             thread interrompu
+     * @throws ExecutionException
+     *             erreur inattendue
+     * @throws TimeoutException
+     *             la demande ne s'est pas terminée
+     */
+    private Object acquireInThread(String aFormat) throws InterruptedException, ExecutionException, TimeoutException {
+        return CompletableFuture.supplyAsync(() -> acquireOrReject(aFormat)).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Demande une place et la libère.
+     *
+     * @param aFormat
+     *            format du rapport
+     * @return la place réservée, ou l'exception de rejet
+     */
+    private Object acquireOrReject(String aFormat) {
+        try (ReportExecutor.Permit permit = iExecutor.acquire(aFormat)) {
+            return permit;
+        } catch (ReportRejectedException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Attend qu'une condition soit vraie, au plus 5 secondes.
+     *
+     * @param aCondition
+     *            la condition
+     * @throws InterruptedException
+     *             thread interrompu
+     */
+    private static void waitFor(BooleanSupplier aCondition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!aCondition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("condition not reached");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
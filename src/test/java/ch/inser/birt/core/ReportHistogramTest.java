@@ -0,0 +1,123 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests de ReportHistogram: percentiles avec une erreur relative d'au plus 1/8, compteurs et JSON.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportHistogramTest {
+
+    /**
+     * Sans valeur, tout vaut 0.
+     */
+    @Test
+    public void testEmpty() {
+        ReportHistogram histogram = new ReportHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMax());
+    }
+
+    /**
+     * Les petites valeurs ont chacune leur classe.
+     */
+    @Test
+    public void testSmallValuesExact() {
+        ReportHistogram histogram = new ReportHistogram();
+        for (long value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+        assertEquals(3, histogram.getPercentile(50));
+        assertEquals(7, histogram.getPercentile(100));
+        assertEquals(0, histogram.getPercentile(0));
+    }
+
+    /**
+     * Un percentile est la borne supérieure de sa classe, au plus 1/8 au-dessus de la valeur exacte.
+     */
+    @Test
+    public void testRelativeError() {
+        ReportHistogram histogram = new ReportHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+        for (double percentile : new double[] { 50, 90, 95, 99, 99.9 }) {
+            long exact = (long) Math.ceil(percentile / 100 * 100_000);
+            long estimate = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + estimate, estimate >= exact && estimate <= exact + exact / 8);
+        }
+        assertEquals(100_000, histogram.getPercentile(100));
+    }
+
+    /**
+     * Un percentile ne dépasse jamais la valeur maximale.
+     */
+    @Test
+    public void testPercentileBoundedByMax() {
+        ReportHistogram histogram = new ReportHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(99.9));
+    }
+
+    /**
+     * Nombre, somme, moyenne et maximum; une valeur négative compte pour 0.
+     */
+    @Test
+    public void testCounters() {
+        ReportHistogram histogram = new ReportHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(-5);
+        assertEquals(3, histogram.getCount());
+        assertEquals(30, histogram.getSum());
+        assertEquals(10, histogram.getMean());
+        assertEquals(20, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    /**
+     * Les plus grandes valeurs d'un long ont une classe.
+     */
+    @Test
+    public void testLargeValues() {
+        ReportHistogram histogram = new ReportHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(1L << 62);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+        assertTrue(histogram.getPercentile(50) >= 1L << 62);
+    }
+
+    /**
+     * Résumé JSON.
+     */
+    @Test
+    public void testJson() {
+        ReportHistogram histogram = new ReportHistogram();
+        histogram.record(4);
+        assertEquals("{\"count\":1,\"sum\":4,\"mean\":4,\"p50\":4,\"p90\":4,\"p95\":4,\"p99\":4,\"p999\":4,\"max\":4}",
+                histogram.appendJson(new StringBuilder()).toString());
+    }
+}
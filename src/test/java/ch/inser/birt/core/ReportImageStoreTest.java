@@ -0,0 +1,133 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests de ReportImageStore: images servies depuis la mémoire, LRU limité aux images déjà servies, refus par manque de place et durée
+ * de vie.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportImageStoreTest {
+
+    /**
+     * Une image ajoutée est servie avec son contenu et son type MIME, plusieurs fois.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testPutGet() throws IOException {
+        ReportImageStore store = new ReportImageStore(1000, 60_000);
+        assertTrue(store.put("a.png", new byte[] { 1, 2, 3 }, "image/png"));
+        ReportImageStore.Image image = store.get("a.png");
+        assertEquals("image/png", image.getMimeType());
+        assertEquals(3, image.getLength());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, write(image));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, write(store.get("a.png")));
+        assertNull(store.get("b.png"));
+        assertEquals(2, store.getHits());
+        assertEquals(1, store.getMisses());
+        assertEquals(3, store.getBytes());
+    }
+
+    /**
+     * Quand la place manque, seules les images déjà servies sont supprimées, en commençant par les moins utilisées.
+     */
+    @Test
+    public void testEvictServedOnly() {
+        ReportImageStore store = new ReportImageStore(10, 60_000);
+        store.put("a", new byte[4], null);
+        store.put("b", new byte[4], null);
+        store.get("b");
+        assertTrue(store.put("c", new byte[4], null));
+        assertNull(store.get("b"));
+        assertNotNull(store.get("a"));
+        assertEquals(1, store.getEvictions());
+        assertEquals(8, store.getBytes());
+    }
+
+    /**
+     * Une image est refusée s'il n'y a pas de place sans supprimer une image pas encore servie.
+     */
+    @Test
+    public void testRejected() {
+        ReportImageStore store = new ReportImageStore(10, 60_000);
+        store.put("a", new byte[6], null);
+        assertFalse(store.put("b", new byte[6], null));
+        assertFalse(store.put("c", new byte[11], null));
+        assertEquals(2, store.getRejected());
+        assertEquals(1, store.size());
+        assertEquals(6, store.getBytes());
+    }
+
+    /**
+     * Une image remplacée ne compte plus dans la taille.
+     */
+    @Test
+    public void testReplace() {
+        ReportImageStore store = new ReportImageStore(10, 60_000);
+        store.put("a", new byte[6], null);
+        store.put("a", new byte[2], null);
+        assertEquals(1, store.size());
+        assertEquals(2, store.getBytes());
+    }
+
+    /**
+     * Une image expirée n'est plus servie et libère sa place, même si elle n'a jamais été lue.
+     */
+    @Test
+    public void testExpiration() {
+        ReportImageStore store = new ReportImageStore(10, -1);
+        store.put("a", new byte[6], null);
+        assertTrue(store.put("b", new byte[6], null));
+        assertEquals(1, store.size());
+        assertNull(store.get("b"));
+        assertEquals(0, store.getBytes());
+
+        store = new ReportImageStore(10, 60_000);
+        store.put("a", new byte[6], null);
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getBytes());
+    }
+
+    /**
+     * @param aImage
+     *            l'image
+     * @return le contenu écrit
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private static byte[] write(ReportImageStore.Image aImage) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        aImage.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests de ReportOutputCache: formats et designs mis en cache, clés des rapports, LRU, durée de vie et invalidation.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportOutputCacheTest {
+
+    /**
+     * Seuls les formats binaires complets sont mis en cache, sans tenir compte de la casse.
+     */
+    @Test
+    public void testCacheableFormats() {
+        ReportOutputCache cache = new ReportOutputCache(1000, 1000);
+        for (String format : new String[] { "pdf", "PDF", "excel", "Excel", "excel-xlsx", "EXCEL-XLSX", "doc", "Doc" }) {
+            assertTrue(format, cache.isCacheable("a.rptdesign", format));
+        }
+        for (String format : new String[] { null, "html", "HTML", "xhtml", "docx", "csv", "unknown", "" }) {
+            assertFalse(String.valueOf(format), cache.isCacheable("a.rptdesign", format));
+        }
+    }
+
+    /**
+     * Designs inclus et exclus; un design Blob n'est mis en cache que si tous les designs le sont.
+     */
+    @Test
+    public void testCacheableDesigns() {
+        ReportOutputCache cache = new ReportOutputCache(1000, 1000);
+        assertTrue(cache.isCacheable(null, "pdf"));
+        cache.setExcludedDesigns(Collections.singleton("b.rptdesign"));
+        assertTrue(cache.isCacheable("a.rptdesign", "pdf"));
+        assertFalse(cache.isCacheable("b.rptdesign", "pdf"));
+
+        cache.setIncludedDesigns(Collections.singleton("a.rptdesign"));
+        assertTrue(cache.isCacheable("a.rptdesign", "pdf"));
+        assertFalse(cache.isCacheable("c.rptdesign", "pdf"));
+        assertFalse(cache.isCacheable(null, "pdf"));
+    }
+
+    /**
+     * La clé ne dépend pas de l'ordre des paramètres mais de chaque élément du rapport.
+     */
+    @Test
+    public void testKeyElements() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("b", 2);
+        params.put("a", 1);
+        Map<String, Object> reversed = new LinkedHashMap<>();
+        reversed.put("a", 1);
+        reversed.put("b", 2);
+        String key = key(params);
+        assertEquals(key, key(reversed));
+
+        assertNotEquals(key, ReportOutputCache.getKey("d1", params, "excel", false, Locale.FRENCH, false));
+        assertNotEquals(key, ReportOutputCache.getKey("d1", params, "pdf", true, Locale.FRENCH, false));
+        assertNotEquals(key, ReportOutputCache.getKey("d1", params, "pdf", false, Locale.GERMAN, false));
+        assertNotEquals(key, ReportOutputCache.getKey("d1", params, "pdf", false, Locale.FRENCH, true));
+        assertNotEquals(key, ReportOutputCache.getKey("d2", params, "pdf", false, Locale.FRENCH, false));
+    }
+
+    /**
+     * Les séparateurs d'une valeur ou d'un nom ne peuvent pas simuler un autre paramètre.
+     */
+    @Test
+    public void testKeyEscaping() {
+        Map<String, Object> one = new HashMap<>();
+        one.put("a", "x|b=y");
+        Map<String, Object> two = new HashMap<>();
+        two.put("a", "x");
+        two.put("b", "y");
+        assertNotEquals(key(one), key(two));
+
+        Map<String, Object> name = new HashMap<>();
+        name.put("a=x", "y");
+        Map<String, Object> value = new HashMap<>();
+        value.put("a", "x=y");
+        assertNotEquals(key(name), key(value));
+
+        Map<String, Object> array = new HashMap<>();
+        array.put("a", new Object[] { "x", "y" });
+        Map<String, Object> comma = new HashMap<>();
+        comma.put("a", new Object[] { "x,y" });
+        assertNotEquals(key(array), key(comma));
+
+        assertNotEquals(ReportOutputCache.getKey("d|pdf", null, "x", false, null, false),
+                ReportOutputCache.getKey("d", null, "pdf|x", false, null, false));
+    }
+
+    /**
+     * Les valeurs sont typées: une valeur null, le texte "null", un nombre et son texte ont des clés différentes.
+     */
+    @Test
+    public void testKeyTypes() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("a", null);
+        String nullKey = key(params);
+        params.put("a", "null");
+        String textKey = key(params);
+        params.put("a", 1);
+        String intKey = key(params);
+        params.put("a", "1");
+        String oneKey = key(params);
+        params.put("a", 1L);
+        String longKey = key(params);
+        assertEquals(5, new HashSet<>(Arrays.asList(nullKey, textKey, intKey, oneKey, longKey)).size());
+    }
+
+    /**
+     * Les dates sont comparées en millisecondes, pas par leur texte qui ignore les millisecondes.
+     */
+    @Test
+    public void testKeyDates() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("d", new Date(1_700_000_000_000L));
+        String key = key(params);
+        params.put("d", new Date(1_700_000_000_000L));
+        assertEquals(key, key(params));
+        params.put("d", new Date(1_700_000_000_001L));
+        assertNotEquals(key, key(params));
+
+        Timestamp timestamp = new Timestamp(1_700_000_000_000L);
+        params.put("d", timestamp);
+        String timestampKey = key(params);
+        timestamp = new Timestamp(1_700_000_000_000L);
+        timestamp.setNanos(1);
+        params.put("d", timestamp);
+        assertNotEquals(timestampKey, key(params));
+    }
+
+    /**
+     * Un rapport mis en cache est retrouvé par sa clé, les accès sont comptés.
+     */
+    @Test
+    public void testGetPut() {
+        ReportOutputCache cache = new ReportOutputCache(1000, 60_000);
+        assertNull(cache.get("k"));
+        cache.put("k", new byte[] { 1, 2, 3 });
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get("k"));
+        cache.put("k", new byte[] { 4 });
+        assertArrayEquals(new byte[] { 4 }, cache.get("k"));
+        assertEquals(1, cache.getBytes());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * Les entrées les moins utilisées sont supprimées quand la place manque; un rapport plus grand que le cache est ignoré.
+     */
+    @Test
+    public void testLru() {
+        ReportOutputCache cache = new ReportOutputCache(10, 60_000);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        cache.get("a");
+        cache.put("c", new byte[4]);
+        assertNull(cache.get("b"));
+        assertEquals(4, cache.get("a").length);
+        assertEquals(4, cache.get("c").length);
+        assertEquals(8, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+
+        cache.put("d", new byte[11]);
+        assertNull(cache.get("d"));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Une entrée expirée n'est plus retournée et libère sa place.
+     */
+    @Test
+    public void testExpiration() {
+        ReportOutputCache cache = new ReportOutputCache(1000, -1);
+        cache.put("k", new byte[5]);
+        assertNull(cache.get("k"));
+        assertEquals(0, cache.getBytes());
+        assertEquals(1, cache.getExpirations());
+    }
+
+    /**
+     * L'invalidation d'un design supprime ses rapports, y compris pour une identité avec des séparateurs.
+     */
+    @Test
+    public void testInvalidate() {
+        ReportOutputCache cache = new ReportOutputCache(1000, 60_000);
+        String first = ReportOutputCache.getKey("file:/r/a|1", null, "pdf", false, null, false);
+        String second = ReportOutputCache.getKey("file:/r/a|1", null, "doc", false, null, false);
+        String other = ReportOutputCache.getKey("file:/r/b|1", null, "pdf", false, null, false);
+        cache.put(first, new byte[1]);
+        cache.put(second, new byte[2]);
+        cache.put(other, new byte[3]);
+        cache.invalidate("file:/r/a");
+        assertNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertEquals(3, cache.getBytes());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    /**
+     * Le rapport capturé est écrit dans le stream de l'appelant et mis en cache seulement si le rendu est terminé.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testCapture() throws IOException {
+        ReportOutputCache cache = new ReportOutputCache(5, 60_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReportOutputCache.Capture capture = cache.capture("k", out);
+        capture.write(new byte[] { 1, 2 }, 0, 2);
+        capture.write(3);
+        assertNull(cache.get("k"));
+        capture.commit();
+        assertArrayEquals(new byte[] { 1, 2, 3 }, out.toByteArray());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get("k"));
+
+        capture = cache.capture("big", new ByteArrayOutputStream());
+        capture.write(new byte[6], 0, 6);
+        capture.commit();
+        assertNull(cache.get("big"));
+    }
+
+    /**
+     * @param aParameters
+     *            paramètres du rapport
+     * @return la clé d'un PDF en français
+     */
+    private static String key(Map<String, Object> aParameters) {
+        return ReportOutputCache.getKey("d1", aParameters, "pdf", false, Locale.FRENCH, false);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package ch.inser.birt.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests de ReportTempJanitor: âge maximal, quota sans effacer les fichiers récents, sous-répertoires par requête, préfixes et
+ * exclusions.
+ *
+ * @author INSER SA
+ *
+ */
+public class ReportTempJanitorTest {
+
+    /** Une heure, en millisecondes */
+    private static final long HOUR = 60L * 60 * 1000;
+
+    /** Répertoire temporaire */
+    @Rule
+    public TemporaryFolder iFolder = new TemporaryFolder();
+
+    /**
+     * Les fichiers plus anciens que l'âge maximal sont effacés, les autres sont comptés.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testMaxAge() throws IOException {
+        File old = file(iFolder.getRoot(), "old.png", 10, 2 * HOUR);
+        File recent = file(iFolder.getRoot(), "recent.png", 20, 0);
+        ReportTempJanitor janitor = new ReportTempJanitor(iFolder.getRoot(), HOUR, 1000);
+        janitor.sweep();
+        assertFalse(old.exists());
+        assertTrue(recent.exists());
+        assertEquals(1, janitor.getFiles());
+        assertEquals(20, janitor.getBytes());
+        assertEquals(1, janitor.getReclaimedFiles());
+        assertEquals(10, janitor.getReclaimedBytes());
+        assertEquals(1, janitor.getSweeps());
+    }
+
+    /**
+     * Au-delà du quota, les fichiers les plus anciens sont effacés, sauf ceux plus récents que l'âge minimal.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testQuota() throws IOException {
+        File oldest = file(iFolder.getRoot(), "a", 10, 30 * 60 * 1000L);
+        File older = file(iFolder.getRoot(), "b", 10, 20 * 60 * 1000L);
+        File recent = file(iFolder.getRoot(), "c", 10, 0);
+        File current = file(iFolder.getRoot(), "d", 10, 0);
+        ReportTempJanitor janitor = new ReportTempJanitor(iFolder.getRoot(), HOUR, 15, 10 * 60 * 1000L);
+        janitor.sweep();
+        assertFalse(oldest.exists());
+        assertFalse(older.exists());
+        assertTrue(recent.exists());
+        assertTrue(current.exists());
+        assertEquals(20, janitor.getBytes());
+    }
+
+    /**
+     * Un sous-répertoire par requête est effacé avec ses fichiers; les autres sous-répertoires et les exclus sont gardés.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testDirectories() throws IOException {
+        ReportTempJanitor janitor = new ReportTempJanitor(iFolder.getRoot(), HOUR, 1000);
+        janitor.exclude("documents");
+        File request = janitor.newRequestDirectory();
+        assertFalse(request.exists());
+        assertTrue(request.mkdir());
+        file(request, "1.png", 5, 0);
+        file(request, "2.png", 5, 0);
+        request.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        File other = iFolder.newFolder("other");
+        other.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        File excluded = file(iFolder.getRoot(), "documents", 5, 2 * HOUR);
+        janitor.sweep();
+        assertFalse(request.exists());
+        assertTrue(other.exists());
+        assertTrue(excluded.exists());
+        assertEquals(2, janitor.getReclaimedFiles());
+        assertEquals(10, janitor.getReclaimedBytes());
+    }
+
+    /**
+     * Seuls les fichiers avec le préfixe sont nettoyés dans un répertoire ajouté.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testPrefix() throws IOException {
+        File shared = iFolder.newFolder("shared");
+        ReportTempJanitor janitor = new ReportTempJanitor(iFolder.newFolder("tempo"), HOUR, 1000);
+        janitor.addDirectory(shared, "birt_");
+        File birt = file(shared, "birt_1.tmp", 5, 2 * HOUR);
+        File foreign = file(shared, "other.tmp", 5, 2 * HOUR);
+        janitor.sweep();
+        assertFalse(birt.exists());
+        assertTrue(foreign.exists());
+    }
+
+    /**
+     * Le sous-répertoire d'une requête en erreur est effacé; un répertoire qui n'est pas par requête est gardé.
+     *
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    @Test
+    public void testDeleteRequestDirectory() throws IOException {
+        File request = iFolder.newFolder(ReportTempJanitor.REQUEST_PREFIX + "x");
+        file(request, "1.png", 5, 0);
+        ReportTempJanitor.deleteRequestDirectory(request);
+        assertFalse(request.exists());
+
+        File other = iFolder.newFolder("other");
+        ReportTempJanitor.deleteRequestDirectory(other);
+        assertTrue(other.exists());
+    }
+
+    /**
+     * Crée un fichier.
+     *
+     * @param aDirectory
+     *            répertoire du fichier
+     * @param aName
+     *            nom du fichier
+     * @param aSize
+     *            taille du fichier
+     * @param aAge
+     *            âge du fichier, en millisecondes
+     * @return le fichier
+     * @throws IOException
+     *             erreur d'écriture
+     */
+    private static File file(File aDirectory, String aName, int aSize, long aAge) throws IOException {
+        File file = new File(aDirectory, aName);
+        Files.write(file.toPath(), new byte[aSize]);
+        file.setLastModified(System.currentTimeMillis() - aAge);
+        return file;
+    }
+}